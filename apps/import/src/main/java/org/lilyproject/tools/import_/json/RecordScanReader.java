@@ -107,6 +107,14 @@ public class RecordScanReader implements EntityReader<RecordScan> {
 
         scan.setCacheBlocks(JsonUtil.getBoolean(node, "cacheBlocks", scan.getCacheBlocks()));
 
+        scan.setParallelism(JsonUtil.getInt(node, "parallelism", scan.getParallelism()));
+
+        scan.setOrdered(JsonUtil.getBoolean(node, "ordered", scan.isOrdered()));
+
+        scan.setPrefetchDepth(JsonUtil.getInt(node, "prefetchDepth", scan.getPrefetchDepth()));
+
+        scan.setUseRecordTypeIndex(JsonUtil.getBoolean(node, "useRecordTypeIndex", scan.getUseRecordTypeIndex()));
+
         return scan;
     }
 
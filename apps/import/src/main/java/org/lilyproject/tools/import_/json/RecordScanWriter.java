@@ -84,6 +84,14 @@ public class RecordScanWriter implements EntityWriter<RecordScan> {
 
         node.put("cacheBlocks", scan.getCacheBlocks());
 
+        node.put("parallelism", scan.getParallelism());
+
+        node.put("ordered", scan.isOrdered());
+
+        node.put("prefetchDepth", scan.getPrefetchDepth());
+
+        node.put("useRecordTypeIndex", scan.getUseRecordTypeIndex());
+
         return node;
     }
 }
@@ -39,6 +39,8 @@ public class RecordScanTool {
     private LTable table;
     private static int DEFAULT_CACHE = 1024;
     private static boolean DEFAULT_CACHE_BLOCKS = false;
+    private static int DEFAULT_PREFETCH_DEPTH = 2;
+    private int parallelism = 1;
 
     public static void count(LRepository repository, LTable table) throws Exception {
         count(repository, table, null, null);
@@ -75,6 +77,14 @@ public class RecordScanTool {
         this.table = table;
     }
 
+    /**
+     * Sets the number of regions which are scanned concurrently. When printing, records are still printed in
+     * the order of their ids; when counting, the order does not matter.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     public void count(String startId, String stopId, String recordTypeFilter, File configFile) throws Exception {
         System.out.println("Counting records");
         RecordScan scan = createRecordScan(startId, stopId, recordTypeFilter, configFile);
@@ -82,6 +92,7 @@ public class RecordScanTool {
             // We don't need to return fields for counting
             scan.setReturnFields(ReturnFields.NONE);
         }
+        scan.setOrdered(false);
         RecordScanner scanner = table.getScanner(scan);
         Record record;
         Date start = new Date();
@@ -131,6 +142,11 @@ public class RecordScanTool {
         scan = scan != null ? scan : new RecordScan();
         scan.setCaching(RecordScanTool.DEFAULT_CACHE);
         scan.setCacheBlocks(DEFAULT_CACHE_BLOCKS);
+        if (parallelism > 1) {
+            scan.setParallelism(parallelism);
+        } else {
+            scan.setPrefetchDepth(DEFAULT_PREFETCH_DEPTH);
+        }
 
         if (startId != null && startId.length() > 0) {
             scan.setStartRecordId(repository.getIdGenerator().fromString(startId));
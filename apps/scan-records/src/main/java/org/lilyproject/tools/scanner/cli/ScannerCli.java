@@ -44,6 +44,7 @@ public class ScannerCli extends BaseZkCliTool {
     private Option recordTypeOption;
     private Option tableOption;
     private Option repositoryOption;
+    private Option parallelismOption;
 
     public static void main(String[] args) {
         new ScannerCli().start(args);
@@ -123,6 +124,13 @@ public class ScannerCli extends BaseZkCliTool {
                 .withLongOpt("repository")
                 .create();
 
+        parallelismOption = OptionBuilder
+                .hasArg()
+                .withArgName("number")
+                .withDescription("Number of regions to scan concurrently (defaults to 1)")
+                .withLongOpt("parallelism")
+                .create();
+
         options.add(printOption);
         options.add(limitOption);
         options.add(countOption);
@@ -132,6 +140,7 @@ public class ScannerCli extends BaseZkCliTool {
         options.add(recordTypeOption);
         options.add(tableOption);
         options.add(repositoryOption);
+        options.add(parallelismOption);
 
         return options;
     }
@@ -155,14 +164,17 @@ public class ScannerCli extends BaseZkCliTool {
         long limit = cmd.hasOption(limitOption.getLongOpt()) ? Long.parseLong(cmd.getOptionValue(limitOption.getLongOpt())) : -1;
         String repositoryName = OptionUtil.getStringOption(cmd, repositoryOption, RepoAndTableUtil.DEFAULT_REPOSITORY);
         String tableName = OptionUtil.getStringOption(cmd, tableOption, Table.RECORD.name);
+        int parallelism = OptionUtil.getIntOption(cmd, parallelismOption, 1);
 
         lilyClient = new LilyClient(zkConnectionString, zkSessionTimeout);
         LRepository repository = lilyClient.getRepository(repositoryName);
         LTable table = repository.getTable(tableName);
+        RecordScanTool scanTool = new RecordScanTool(repository, table);
+        scanTool.setParallelism(parallelism);
         if (cmd.hasOption(countOption.getOpt())) {
-            RecordScanTool.count(repository, table, startId, stopId,recordTypeFilter, configFile);
+            scanTool.count(startId, stopId, recordTypeFilter, configFile);
         } else if (cmd.hasOption(printOption.getOpt())) {
-            RecordScanTool.print(repository, table, startId, stopId, limit, recordTypeFilter, configFile);
+            scanTool.print(startId, stopId, limit, recordTypeFilter, configFile);
         }
 
         return 0;
@@ -22,6 +22,8 @@ import java.util.Map;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
+import org.lilyproject.repository.api.FieldDecodingException;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
@@ -31,6 +33,7 @@ import org.lilyproject.repository.api.Metadata;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.ResponseStatus;
 import org.lilyproject.repository.api.SchemaId;
@@ -58,13 +61,25 @@ public class RecordAsBytesConverter {
 
     public static final byte[] write(Record record, LRepository repository)
             throws RepositoryException, InterruptedException {
-        DataOutput output = new DataOutputImpl();
-        write(record, output, repository);
-        return output.toByteArray();
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            write(record, output, repository);
+            return output.toByteArray();
+        } finally {
+            DataOutputPool.release(output);
+        }
     }
 
     public static final void write(Record record, DataOutput output, LRepository repository)
             throws RepositoryException, InterruptedException {
+        write(record, output, repository.getTypeManager());
+    }
+
+    /**
+     * Variant of {@link #write(Record, DataOutput, LRepository)} which only needs the type manager.
+     */
+    public static final void write(Record record, DataOutput output, TypeManager typeManager)
+            throws RepositoryException, InterruptedException {
         // Write serialization format version
         output.writeShort(VERSION_2);
 
@@ -82,9 +97,16 @@ public class RecordAsBytesConverter {
         }
 
         // Write the fields array
-        FieldTypes fieldTypes = repository.getTypeManager().getFieldTypesSnapshot();
-        output.writeVInt(record.getFields().size());
-        for (Map.Entry<QName, Object> entry : record.getFields().entrySet()) {
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        Map<QName, Object> fields;
+        try {
+            // decodes the fields of records read from the repository which were not accessed yet
+            fields = record.getFields();
+        } catch (FieldDecodingException e) {
+            throw e.toRecordException();
+        }
+        output.writeVInt(fields.size());
+        for (Map.Entry<QName, Object> entry : fields.entrySet()) {
             if (entry.getKey() == null) {
                 throw new IllegalArgumentException("Record contains field with null key.");
             }
@@ -140,18 +162,27 @@ public class RecordAsBytesConverter {
 
     public static final Record read(DataInput input, LRepository repository)
             throws RepositoryException, InterruptedException {
+        return read(input, repository.getTypeManager(), repository.getIdGenerator(),
+                repository.getRecordFactory());
+    }
+
+    /**
+     * Variant of {@link #read(DataInput, LRepository)} which only needs the services used to build the record.
+     */
+    public static final Record read(DataInput input, TypeManager typeManager, IdGenerator idGenerator,
+            RecordFactory recordFactory) throws RepositoryException, InterruptedException {
         // Read & check version
         int version = input.readShort();
         if (version != VERSION_1 && version != VERSION_2) {
             throw new RuntimeException("Unsupported record serialization version: " + version);
         }
 
-        Record record = repository.getRecordFactory().newRecord();
+        Record record = recordFactory.newRecord();
 
         // Read ID
         byte[] idBytes = readNullOrBytes(input);
         if (idBytes != null) {
-            record.setId(repository.getIdGenerator().fromBytes(idBytes));
+            record.setId(idGenerator.fromBytes(idBytes));
         }
 
         // Read version
@@ -165,7 +196,6 @@ public class RecordAsBytesConverter {
         }
 
         // Read fields array
-        TypeManager typeManager = repository.getTypeManager();
         int size = input.readVInt();
         for (int i = 0; i < size; i++) {
             QName name = readQName(input);
@@ -211,9 +241,13 @@ public class RecordAsBytesConverter {
 
     public static final byte[] writeIdRecord(IdRecord record, LRepository repository)
             throws RepositoryException, InterruptedException {
-        DataOutput output = new DataOutputImpl();
-        writeIdRecord(record, output, repository);
-        return output.toByteArray();
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            writeIdRecord(record, output, repository);
+            return output.toByteArray();
+        } finally {
+            DataOutputPool.release(output);
+        }
     }
 
     public static final void writeIdRecord(IdRecord record, DataOutput output, LRepository repository)
@@ -30,6 +30,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.hbaseindex.filter.IndexFilter;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdTable;
 
 /**
  * Index filter (hbase-index) used when filtering results from a query on the dereference map.
@@ -40,6 +41,11 @@ public class DerefMapIndexFilter extends IndexFilter {
 
     private Set<SchemaId> queriedFields;
 
+    /**
+     * The queried fields, which can be matched against the serialized field ids without deserializing them.
+     */
+    private SchemaIdTable<SchemaId> queriedFieldsTable;
+
     private Map<String, String> dependencyRecordVariantProperties;
 
     private final DerefMapSerializationUtil serializationUtil = new DerefMapSerializationUtil(new IdGeneratorImpl());
@@ -61,6 +67,7 @@ public class DerefMapIndexFilter extends IndexFilter {
         super(Collections.singleton(FIELDS_KEY), Sets.newHashSet("variant_properties_pattern"));
 
         this.queriedFields = queriedFields;
+        this.queriedFieldsTable = createTable(queriedFields);
         this.dependencyRecordVariantProperties = dependencyRecordVariantProperties;
     }
 
@@ -70,9 +77,7 @@ public class DerefMapIndexFilter extends IndexFilter {
             return false;
         } else {
             if (Arrays.equals(dataQualifier, FIELDS_KEY)) {
-                final Set<SchemaId> dependencyFields = this.serializationUtil.deserializeFields(data, offset, length);
-
-                if (!containsAtLeastOneElementOf(dependencyFields, queriedFields)) {
+                if (!containsAtLeastOneQueriedField(data, offset, length)) {
                     return true;
                 }
             }
@@ -95,9 +100,29 @@ public class DerefMapIndexFilter extends IndexFilter {
         return false;
     }
 
-    private <T> boolean containsAtLeastOneElementOf(Set<T> set, Set<T> elements) {
-        set.retainAll(elements);
-        return !set.isEmpty();
+    /**
+     * Checks the serialized field ids (see {@link DerefMapSerializationUtil#serializeFields}) against the
+     * queried fields. This is called for each row of the scan, so it works directly on the serialized bytes.
+     */
+    private boolean containsAtLeastOneQueriedField(byte[] data, int offset, int length) {
+        final int idLength = DerefMapSerializationUtil.SCHEMA_ID_BYTE_LENGTH;
+        for (int i = offset; i + idLength <= offset + length; i += idLength) {
+            if (queriedFieldsTable.containsId(data, i, idLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SchemaIdTable<SchemaId> createTable(Set<SchemaId> fields) {
+        if (fields == null) {
+            return null;
+        }
+        final Map<SchemaId, SchemaId> entries = new HashMap<SchemaId, SchemaId>(fields.size() * 2);
+        for (SchemaId field : fields) {
+            entries.put(field, field);
+        }
+        return new SchemaIdTable<SchemaId>(entries);
     }
 
     @Override
@@ -136,6 +161,7 @@ public class DerefMapIndexFilter extends IndexFilter {
                 queriedFields.add(this.serializationUtil.deserializeSchemaId(bytes));
             }
         }
+        queriedFieldsTable = createTable(queriedFields);
 
         final int dependencyRecordVariantPropertiesLength = in.readInt();
         dependencyRecordVariantProperties = new HashMap<String, String>();
@@ -189,7 +189,8 @@ public class IndexUpdater extends LilyEventListener {
 
                 // After this we can go to update denormalized data
                 if (derefMap != null) {
-                    updateDenormalizedData(recordEvent.getTableName(), recordId, null, null);
+                    updateDenormalizedData(recordEvent.getTableName(), recordId, null, null,
+                            recordEvent.getEncoding());
                 }
             } else { // CREATE or UPDATE
                 VTaggedRecord vtRecord;
@@ -261,7 +262,7 @@ public class IndexUpdater extends LilyEventListener {
 
                 if (derefMap != null) {
                     updateDenormalizedData(recordEvent.getTableName(), recordId, eventHelper.getUpdatedFieldsByScope(),
-                            eventHelper.getModifiedVTags());
+                            eventHelper.getModifiedVTags(), recordEvent.getEncoding());
                 }
             }
 
@@ -416,8 +417,12 @@ public class IndexUpdater extends LilyEventListener {
         }
     }
 
+    /**
+     * @param payloadEncoding the encoding of the events which are published for the referrers, this follows
+     *                        the encoding of the event being processed, as chosen by the repository
+     */
     private void updateDenormalizedData(String table, RecordId recordId, Map<Scope, Set<FieldType>> updatedFieldsByScope,
-                                        Set<SchemaId> changedVTagFields)
+                                        Set<SchemaId> changedVTagFields, RecordEvent.Encoding payloadEncoding)
             throws RepositoryException, InterruptedException, LinkIndexException, IOException {
 
         Multimap<AbsoluteRecordId, SchemaId> referrersAndVTags = ArrayListMultimap.create();
@@ -482,7 +487,8 @@ public class IndexUpdater extends LilyEventListener {
 
             try {
                 eventPublisherMgr.getEventPublisher(/* TODO multiple repositories */ RepoAndTableUtil.DEFAULT_REPOSITORY,
-                        referrer.getTable()).publishEvent(referrer.getRecordId().toBytes(), payload.toJsonBytes());
+                        referrer.getTable()).publishEvent(referrer.getRecordId().toBytes(),
+                        payload.toBytes(payloadEncoding));
             } catch (Exception e) {
                 // We failed to put the message: this is pretty important since it means the record's index
                 // won't get updated, therefore log as error, but after this we continue with the next one.
@@ -17,6 +17,7 @@ package org.lilyproject.indexer.integration;
 
 import javax.annotation.PreDestroy;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
 
 import com.google.common.collect.Sets;
@@ -33,6 +34,7 @@ import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
@@ -42,8 +44,11 @@ import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
  * IndexRecordFilter, especially needed to be able to know what IndexRecordFilter's matched
  * on the previous (or deleted) record state. Also allows to make this decision without
  * needing to read the complete record.
+ *
+ * <p>Besides the record type, the hook only depends on the fields used by the IndexRecordFilters, so it
+ * declares these as its field dependencies.</p>
  */
-public class IndexRecordFilterHook implements RecordUpdateHook {
+public class IndexRecordFilterHook implements FieldDependentRecordUpdateHook {
 
     private PluginRegistry pluginRegistry;
     private final IndexesInfo indexesInfo;
@@ -72,6 +77,14 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
         pluginRegistry.removePlugin(RecordUpdateHook.class, NAME, this);
     }
 
+    @Override
+    public Set<QName> getFieldDependencies() {
+        if (indexesInfo.getIndexInfos().isEmpty()) {
+            return Collections.emptySet();
+        }
+        return indexesInfo.getRecordFilterFieldDependencies();
+    }
+
     @Override
     public void beforeUpdate(Record record, Record originalRecord, Repository repository, FieldTypes fieldTypes,
             RecordEvent recordEvent) throws RepositoryException, InterruptedException {
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.mapreduce.TableSplit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.zookeeper.KeeperException;
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ReturnFields;
+import org.lilyproject.repository.impl.BaseRepository;
+import org.lilyproject.repository.impl.VersionPruner;
+import org.lilyproject.repository.impl.VersionRetentionPolicy;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Mapper which removes the old versions of the records it is given, according to a
+ * {@link VersionRetentionPolicy}. Use {@link #initJob} to set up a (map-only) job which prunes
+ * the records of a repository.
+ *
+ * <p>The records are pruned directly on the HBase tables by a {@link VersionPruner}, which does
+ * not produce record events, so this does not cause any reindexing.</p>
+ */
+public class VersionPruningMapper extends RecordMapper<NullWritable, NullWritable> {
+    /**
+     * Config key for the number of versions to keep, see {@link VersionRetentionPolicy#getMaxVersions()}.
+     */
+    public static final String MAX_VERSIONS = "lily.mapreduce.pruning.maxversions";
+
+    /**
+     * Prefix of the config keys for the number of versions to keep per record type, the key is followed
+     * by the name of the record type in the "{namespace}name" format.
+     */
+    public static final String RECORD_TYPE_MAX_VERSIONS_PREFIX = "lily.mapreduce.pruning.maxversions.recordtype.";
+
+    public static enum Counters {
+        PRUNED_RECORDS, PRUNED_VERSIONS
+    }
+
+    private LilyClient lilyClient;
+    private VersionPruner pruner;
+
+    /**
+     * Sets up a job which prunes the records of the given repository tables (all tables if null).
+     */
+    public static void initJob(String zooKeeperConnectString, LRepository repository, VersionRetentionPolicy policy,
+            Job job, List<String> repositoryTables) {
+        RecordScan scan = new RecordScan();
+        // The pruner reads the rows itself
+        scan.setReturnFields(ReturnFields.NONE);
+        scan.setCacheBlocks(false);
+        LilyMapReduceUtil.initMapperJob(scan, zooKeeperConnectString, repository, job, repositoryTables);
+
+        setRetentionPolicy(job.getConfiguration(), policy);
+        job.setMapperClass(VersionPruningMapper.class);
+        job.setNumReduceTasks(0);
+        job.setOutputFormatClass(NullOutputFormat.class);
+        // Pruning the same record twice does no harm, but there is no use in it either
+        job.setMapSpeculativeExecution(false);
+    }
+
+    public static void setRetentionPolicy(Configuration conf, VersionRetentionPolicy policy) {
+        conf.setInt(MAX_VERSIONS, policy.getMaxVersions());
+        for (Map.Entry<QName, Integer> entry : policy.getRecordTypeMaxVersions().entrySet()) {
+            conf.setInt(RECORD_TYPE_MAX_VERSIONS_PREFIX + entry.getKey(), entry.getValue());
+        }
+    }
+
+    public static VersionRetentionPolicy getRetentionPolicy(Configuration conf) {
+        Map<QName, Integer> recordTypeMaxVersions = new HashMap<QName, Integer>();
+        for (Map.Entry<String, String> entry : conf) {
+            if (entry.getKey().startsWith(RECORD_TYPE_MAX_VERSIONS_PREFIX)) {
+                QName recordType = QName.fromString(entry.getKey().substring(RECORD_TYPE_MAX_VERSIONS_PREFIX.length()));
+                recordTypeMaxVersions.put(recordType, Integer.parseInt(entry.getValue()));
+            }
+        }
+        return new VersionRetentionPolicy(conf.getInt(MAX_VERSIONS, VersionRetentionPolicy.KEEP_ALL),
+                recordTypeMaxVersions);
+    }
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        lilyClient = LilyMapReduceUtil.getLilyClient(conf);
+
+        String repositoryName = conf.get(LilyMapReduceUtil.REPOSITORY_NAME);
+        String hbaseTableName = Bytes.toString(((TableSplit)context.getInputSplit()).getTableName());
+        String tableName = RepoAndTableUtil.extractLilyTableName(repositoryName, hbaseTableName);
+
+        LTable table;
+        try {
+            // The plain table is not wrapped for load balancing, it gives direct access to the HBase table
+            table = lilyClient.getPlainTable(repositoryName, tableName);
+        } catch (RepositoryException e) {
+            throw new IOException("Error getting Lily table " + tableName, e);
+        } catch (KeeperException e) {
+            throw new IOException("Error getting Lily table " + tableName, e);
+        }
+        if (!(table instanceof BaseRepository)) {
+            throw new IOException("Version pruning needs direct access to the HBase table, got a "
+                    + table.getClass().getName());
+        }
+        pruner = new VersionPruner((BaseRepository)table, getRetentionPolicy(conf));
+    }
+
+    @Override
+    protected void map(RecordIdWritable key, RecordWritable value, Context context)
+            throws IOException, InterruptedException {
+        try {
+            int prunedVersions = pruner.prune(key.getRecordId());
+            if (prunedVersions > 0) {
+                context.getCounter(Counters.PRUNED_RECORDS).increment(1);
+                context.getCounter(Counters.PRUNED_VERSIONS).increment(prunedVersions);
+            }
+        } catch (RepositoryException e) {
+            throw new IOException("Error pruning versions of record " + key.getRecordId(), e);
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        Closer.close(lilyClient);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import java.util.List;
+
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.sep.LilyEventListener;
+import org.lilyproject.sep.LilySepEvent;
+
+/**
+ * Removes the records changed by any Lily server from the {@link RecordCache} of this server.
+ */
+public class RecordCacheInvalidator extends LilyEventListener {
+    private final RecordCache recordCache;
+    private final IdGenerator idGenerator;
+
+    public RecordCacheInvalidator(RepositoryManager repositoryManager, IdGenerator idGenerator,
+            RecordCache recordCache) {
+        super(repositoryManager);
+        this.idGenerator = idGenerator;
+        this.recordCache = recordCache;
+    }
+
+    @Override
+    public void processLilyEvents(List<LilySepEvent> sepEvents) {
+        for (LilySepEvent event : sepEvents) {
+            // not via event.getRecordId(), which is not available for events of unavailable repositories
+            recordCache.invalidate(event.getLilyRepositoryName(), event.getLilyTableName(),
+                    idGenerator.fromBytes(event.getRow()));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.SepConsumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.zookeeper.KeeperException;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.runtime.conf.Conf;
+import org.lilyproject.sep.LilyPayloadExtractor;
+import org.lilyproject.sep.ZooKeeperItfAdapter;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Sets up the {@link RecordCache} of the repository manager, if it is enabled in the configuration.
+ *
+ * <p>Since each Lily server has its own cache, each server needs to see all SEP events to invalidate the changed
+ * records, therefore each server uses its own SEP subscription, named RecordCache_[hostname]. The subscription
+ * is removed when the server shuts down cleanly, or when it is started with the cache disabled. The subscription
+ * of a server which crashed stays until the server is started again, and the subscription of a server which is
+ * decommissioned after a crash stays forever, which makes HBase keep its logs around for it. Such a subscription
+ * should be removed by hand, e.g. with the HBase shell: {@code remove_peer 'RecordCache_[hostname]'}.</p>
+ */
+public class RecordCacheSetup {
+    private final Log log = LogFactory.getLog(getClass());
+    private final AbstractRepositoryManager repositoryManager;
+    private final IdGenerator idGenerator;
+    private final SepModel sepModel;
+    private final Conf repositoryConf;
+    private final Configuration hbaseConf;
+    private final ZooKeeperItf zk;
+    private final String hostName;
+    private String subscriptionId;
+    private RecordCache recordCache;
+    private SepConsumer sepConsumer;
+
+    public RecordCacheSetup(AbstractRepositoryManager repositoryManager, IdGenerator idGenerator, SepModel sepModel,
+            Conf repositoryConf, Configuration hbaseConf, ZooKeeperItf zk, String hostName) {
+        this.repositoryManager = repositoryManager;
+        this.idGenerator = idGenerator;
+        this.sepModel = sepModel;
+        this.repositoryConf = repositoryConf;
+        this.hbaseConf = hbaseConf;
+        this.zk = zk;
+        this.hostName = hostName;
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException, KeeperException, IOException {
+        Conf cacheConf = repositoryConf.getChild("recordCache", true);
+        subscriptionId = "RecordCache_" + hostName.replaceAll("[^a-zA-Z0-9]", "_");
+
+        if (!cacheConf.getAttributeAsBoolean("enabled", false)) {
+            // assure the subscription doesn't exist
+            sepModel.removeSubscriptionSilent(subscriptionId);
+            return;
+        }
+
+        long maxSize = cacheConf.getAttributeAsLong("maxSize", 100L * 1024 * 1024);
+        boolean validateOcc = cacheConf.getAttributeAsBoolean("validateOcc", false);
+        int threads = cacheConf.getAttributeAsInteger("invalidationThreads", 2);
+
+        recordCache = new RecordCache("RecordCache", maxSize, validateOcc);
+
+        // Events from before this startup don't matter, since nothing was cached yet
+        sepModel.addSubscriptionSilent(subscriptionId);
+        sepConsumer = new SepConsumer(subscriptionId, System.currentTimeMillis(),
+                new RecordCacheInvalidator(repositoryManager, idGenerator, recordCache), threads, hostName,
+                new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
+        sepConsumer.start();
+
+        repositoryManager.setRecordCache(recordCache);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recordCache != null) {
+            repositoryManager.setRecordCache(null);
+            Closer.close(sepConsumer);
+            recordCache.shutdown();
+
+            // Nothing is cached anymore, so the events for this server are no longer needed
+            try {
+                sepModel.removeSubscriptionSilent(subscriptionId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error removing the SEP subscription " + subscriptionId + " of the record cache", e);
+            }
+        }
+    }
+}
@@ -34,6 +34,11 @@ import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.util.ByteArrayBuilder;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.SchemaId;
@@ -43,9 +48,22 @@ import org.lilyproject.util.json.JsonFormat;
 /**
  * Represents the payload of an event about a create-update-delete operation on the repository.
  *
- * <p>The actual payload is json, this class helps in parsing or constructing that json.
+ * <p>The payload is either json or a compact binary encoding, see {@link Encoding}. This class helps in
+ * parsing or constructing it, parsing supports both formats.
  */
 public class RecordEvent {
+    /**
+     * First byte of the binary encoding. This byte never occurs in UTF-8, so it can't be the start of a
+     * json payload.
+     */
+    private static final byte BINARY_MAGIC = (byte)0xFE;
+    private static final byte BINARY_VERSION = 1;
+    /** The length of the schema ids, which are written without length in the binary encoding. */
+    private static final int SCHEMA_ID_LENGTH = 16;
+
+    private static final int FLAG_RECORD_TYPE_CHANGED = 1;
+    private static final int FLAG_INDEX_FILTER_DATA = 2;
+
     private long versionCreated = -1;
     private long versionUpdated = -1;
     private Type type;
@@ -57,6 +75,20 @@ public class RecordEvent {
     private IndexRecordFilterData indexRecordFilterData;
     /** A copy of the attributes supplied via {@link Record#setAttributes(Map)}. */
     private Map<String, String> attributes;
+    private Encoding encoding = Encoding.JSON;
+
+    /**
+     * The encodings of the payload, see {@link #toBytes(Encoding)}.
+     */
+    public enum Encoding {
+        /** The json encoding, see {@link RecordEvent#toJsonBytes()}, which can be read by all Lily versions. */
+        JSON,
+        /**
+         * The binary encoding, see {@link RecordEvent#toBytes()}, which can't be read by Lily versions which
+         * only know json. It should only be written once all consumers of the events have been upgraded.
+         */
+        BINARY
+    }
 
     public enum Type {
         CREATE("repo:record-created"),
@@ -79,9 +111,16 @@ public class RecordEvent {
     }
 
     /**
-     * Creates a record event from the json data supplied as bytes.
+     * Creates a record event from the data supplied as bytes, which can be either json or the binary
+     * encoding produced by {@link #toBytes()}.
      */
     public RecordEvent(byte[] data, IdGenerator idGenerator) throws IOException {
+        if (data.length > 0 && data[0] == BINARY_MAGIC) {
+            encoding = Encoding.BINARY;
+            readBinary(data, idGenerator);
+            return;
+        }
+
         // Using streaming JSON parsing for performance. We expect the JSON to be correct, validation
         // is absent/minimal.
 
@@ -148,6 +187,51 @@ public class RecordEvent {
         }
     }
 
+    private void readBinary(byte[] data, IdGenerator idGenerator) throws IOException {
+        DataInput input = new DataInputImpl(data);
+        input.readByte(); // magic
+        byte version = input.readByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported record event encoding version: " + version);
+        }
+
+        try {
+            int typeCode = input.readByte();
+            type = typeCode == 0 ? null : Type.values()[typeCode - 1];
+            int flags = input.readByte();
+            recordTypeChanged = (flags & FLAG_RECORD_TYPE_CHANGED) != 0;
+            // The versions are -1 when not set, they are shifted so that they are written as a positive vlong
+            versionCreated = input.readVLong() - 1;
+            versionUpdated = input.readVLong() - 1;
+            tableName = readNullOrString(input);
+
+            int updatedFieldCount = input.readVInt();
+            for (int i = 0; i < updatedFieldCount; i++) {
+                addUpdatedField(readSchemaId(input, idGenerator));
+            }
+
+            int vtagCount = input.readVInt();
+            for (int i = 0; i < vtagCount; i++) {
+                addVTagToIndex(readSchemaId(input, idGenerator));
+            }
+
+            int attributeCount = input.readVInt();
+            if (attributeCount > 0) {
+                attributes = new HashMap<String, String>();
+                for (int i = 0; i < attributeCount; i++) {
+                    attributes.put(input.readVUTF(), input.readVUTF());
+                }
+            }
+
+            if ((flags & FLAG_INDEX_FILTER_DATA) != 0) {
+                indexRecordFilterData = new IndexRecordFilterData(input, idGenerator);
+            }
+        } catch (RuntimeException e) {
+            // The DataInput throws runtime exceptions when reading past the end of the data
+            throw new IOException("Invalid binary record event", e);
+        }
+    }
+
     public long getVersionCreated() {
         return versionCreated;
     }
@@ -335,6 +419,116 @@ public class RecordEvent {
         }
     }
 
+    /**
+     * Returns the encoding from which this event was parsed, or json for an event which was not parsed. Code
+     * which rewrites an event can use this to keep the encoding chosen by the writer.
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns this event in the given encoding.
+     */
+    public byte[] toBytes(Encoding encoding) {
+        return encoding == Encoding.BINARY ? toBytes() : toJsonBytes();
+    }
+
+    /**
+     * Returns the binary encoding of this event.
+     *
+     * <p>Compared to json, the schema ids are written as raw bytes instead of base64 strings and numbers as
+     * variable-length integers, which makes the events smaller and a lot cheaper to parse. The encoding
+     * starts with a magic byte, followed by a version byte.</p>
+     */
+    public byte[] toBytes() {
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            output.writeByte(BINARY_MAGIC);
+            output.writeByte(BINARY_VERSION);
+            // This assumes the Type enum stays stable!
+            output.writeByte(type == null ? 0 : (byte)(type.ordinal() + 1));
+            int flags = 0;
+            if (recordTypeChanged) {
+                flags |= FLAG_RECORD_TYPE_CHANGED;
+            }
+            if (indexRecordFilterData != null) {
+                flags |= FLAG_INDEX_FILTER_DATA;
+            }
+            output.writeByte((byte)flags);
+            output.writeVLong(versionCreated + 1);
+            output.writeVLong(versionUpdated + 1);
+            writeNullOrString(tableName, output);
+
+            writeSchemaIds(updatedFields, output);
+            writeSchemaIds(vtagsToIndex, output);
+
+            if (attributes != null) {
+                output.writeVInt(attributes.size());
+                for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                    output.writeVUTF(attribute.getKey());
+                    output.writeVUTF(attribute.getValue());
+                }
+            } else {
+                output.writeVInt(0);
+            }
+
+            if (indexRecordFilterData != null) {
+                indexRecordFilterData.write(output);
+            }
+
+            return output.toByteArray();
+        } finally {
+            DataOutputPool.release(output);
+        }
+    }
+
+    private static void writeSchemaIds(Set<SchemaId> ids, DataOutput output) {
+        if (ids == null) {
+            output.writeVInt(0);
+            return;
+        }
+        output.writeVInt(ids.size());
+        for (SchemaId id : ids) {
+            writeSchemaId(id, output);
+        }
+    }
+
+    private static void writeSchemaId(SchemaId id, DataOutput output) {
+        byte[] bytes = id.getBytes();
+        if (bytes.length != SCHEMA_ID_LENGTH) {
+            throw new IllegalArgumentException("Unexpected schema id length: " + bytes.length);
+        }
+        output.writeBytes(bytes);
+    }
+
+    private static SchemaId readSchemaId(DataInput input, IdGenerator idGenerator) {
+        return idGenerator.getSchemaId(input.readBytes(SCHEMA_ID_LENGTH));
+    }
+
+    private static void writeNullOrString(String value, DataOutput output) {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeVUTF(value);
+        }
+    }
+
+    private static String readNullOrString(DataInput input) {
+        return input.readBoolean() ? input.readVUTF() : null;
+    }
+
+    private static void writeNullOrBytes(byte[] value, DataOutput output) {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeVInt(value.length);
+            output.writeBytes(value);
+        }
+    }
+
+    private static byte[] readNullOrBytes(DataInput input) {
+        return input.readBoolean() ? input.readBytes(input.readVInt()) : null;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -432,6 +626,13 @@ public class RecordEvent {
         // Flag to determine if the indexSubscriptions set is for inclusion (true) or exclusion (false)
         private boolean includeSubscriptions = true;
 
+        private static final int FILTER_FLAG_OLD = 1;
+        private static final int FILTER_FLAG_NEW = 2;
+        private static final int FILTER_FLAG_INCLUDE_SUBSCRIPTIONS = 4;
+        private static final int FILTER_FLAG_NEW_RECORD_TYPE = 8;
+        private static final int FILTER_FLAG_OLD_RECORD_TYPE = 16;
+        private static final int FILTER_FLAG_FIELDS = 32;
+        private static final int FILTER_FLAG_SUBSCRIPTIONS = 64;
 
         public IndexRecordFilterData() {
         }
@@ -476,6 +677,33 @@ public class RecordEvent {
             }
         }
 
+        public IndexRecordFilterData(DataInput input, IdGenerator idGenerator) {
+            int flags = input.readByte();
+            oldRecordExists = (flags & FILTER_FLAG_OLD) != 0;
+            newRecordExists = (flags & FILTER_FLAG_NEW) != 0;
+            includeSubscriptions = (flags & FILTER_FLAG_INCLUDE_SUBSCRIPTIONS) != 0;
+            if ((flags & FILTER_FLAG_NEW_RECORD_TYPE) != 0) {
+                newRecordType = readSchemaId(input, idGenerator);
+            }
+            if ((flags & FILTER_FLAG_OLD_RECORD_TYPE) != 0) {
+                oldRecordType = readSchemaId(input, idGenerator);
+            }
+            if ((flags & FILTER_FLAG_FIELDS) != 0) {
+                int count = input.readVInt();
+                fieldChanges = new ArrayList<FieldChange>(count);
+                for (int i = 0; i < count; i++) {
+                    fieldChanges.add(new FieldChange(input, idGenerator));
+                }
+            }
+            if ((flags & FILTER_FLAG_SUBSCRIPTIONS) != 0) {
+                int count = input.readVInt();
+                indexSubscriptionIds = Sets.newHashSetWithExpectedSize(count);
+                for (int i = 0; i < count; i++) {
+                    indexSubscriptionIds.add(input.readVUTF());
+                }
+            }
+        }
+
         public boolean getNewRecordExists() {
             return newRecordExists;
         }
@@ -555,7 +783,39 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        public void write(DataOutput output) {
+            int flags = 0;
+            flags |= oldRecordExists ? FILTER_FLAG_OLD : 0;
+            flags |= newRecordExists ? FILTER_FLAG_NEW : 0;
+            flags |= includeSubscriptions ? FILTER_FLAG_INCLUDE_SUBSCRIPTIONS : 0;
+            flags |= newRecordType != null ? FILTER_FLAG_NEW_RECORD_TYPE : 0;
+            flags |= oldRecordType != null ? FILTER_FLAG_OLD_RECORD_TYPE : 0;
+            flags |= fieldChanges != null ? FILTER_FLAG_FIELDS : 0;
+            flags |= indexSubscriptionIds != null ? FILTER_FLAG_SUBSCRIPTIONS : 0;
+            output.writeByte((byte)flags);
+
+            if (newRecordType != null) {
+                writeSchemaId(newRecordType, output);
+            }
+
+            if (oldRecordType != null) {
+                writeSchemaId(oldRecordType, output);
+            }
+
+            if (fieldChanges != null) {
+                output.writeVInt(fieldChanges.size());
+                for (FieldChange fieldChange : fieldChanges) {
+                    fieldChange.write(output);
+                }
+            }
 
+            if (indexSubscriptionIds != null) {
+                output.writeVInt(indexSubscriptionIds.size());
+                for (String subscriptionId : indexSubscriptionIds) {
+                    output.writeVUTF(subscriptionId);
+                }
+            }
+        }
 
         /**
          * Set the index subscription ids to be included when distributing the containing record
@@ -647,6 +907,12 @@ public class RecordEvent {
             }
         }
 
+        public FieldChange(DataInput input, IdGenerator idGenerator) {
+            this.id = readSchemaId(input, idGenerator);
+            this.oldValue = readNullOrBytes(input);
+            this.newValue = readNullOrBytes(input);
+        }
+
         public SchemaId getId() {
             return id;
         }
@@ -675,6 +941,12 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        public void write(DataOutput output) {
+            writeSchemaId(id, output);
+            writeNullOrBytes(oldValue, output);
+            writeNullOrBytes(newValue, output);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return EqualsBuilder.reflectionEquals(this, obj);
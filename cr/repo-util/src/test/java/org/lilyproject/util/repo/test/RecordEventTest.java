@@ -16,6 +16,7 @@
 package org.lilyproject.util.repo.test;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -122,6 +123,91 @@ public class RecordEventTest {
         assertEquals(tableName, deserialized.getTableName());
     }
 
+    @Test
+    public void testRecordEvent_BinaryRoundTrip() throws Exception {
+        RecordEvent event = new RecordEvent();
+        assertEquals(event, new RecordEvent(event.toBytes(), idGenerator));
+
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("_table_name_");
+        event.setVersionCreated(3);
+        event.setVersionUpdated(2);
+        event.setRecordTypeChanged(true);
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.addVTagToIndex(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.getAttributes().put("key", "välue");
+
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setOldRecordExists(true);
+        filterData.setNewRecordExists(true);
+        filterData.setOldRecordType(idGenerator.getSchemaId(UUID.randomUUID()));
+        filterData.setNewRecordType(idGenerator.getSchemaId(UUID.randomUUID()));
+        filterData.addChangedField(idGenerator.getSchemaId(UUID.randomUUID()), null, null);
+        filterData.addChangedField(idGenerator.getSchemaId(UUID.randomUUID()), Bytes.toBytes("foo1"),
+                Bytes.toBytes("foo2"));
+        filterData.addChangedField(idGenerator.getSchemaId(UUID.randomUUID()), new byte[0], null);
+        filterData.setSubscriptionExclusions(Sets.newHashSet("indexA", "indexB"));
+        event.setIndexRecordFilterData(filterData);
+
+        byte[] bytes = event.toBytes();
+        RecordEvent deserialized = new RecordEvent(bytes, idGenerator);
+
+        assertEquals(event, deserialized);
+        assertEquals(filterData, deserialized.getIndexRecordFilterData());
+        assertTrue(bytes.length < event.toJsonBytes().length);
+    }
+
+    @Test
+    public void testRecordEvent_BinaryRoundTrip_IncludeIndexes() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.INDEX);
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(Sets.newHashSet("indexA"));
+        event.setIndexRecordFilterData(filterData);
+
+        RecordEvent deserialized = new RecordEvent(event.toBytes(), idGenerator);
+
+        assertEquals(event, deserialized);
+        assertEquals(filterData, deserialized.getIndexRecordFilterData());
+        assertTrue(deserialized.getIndexRecordFilterData().appliesToSubscription("indexA"));
+        assertFalse(deserialized.getIndexRecordFilterData().appliesToSubscription("indexB"));
+    }
+
+    @Test
+    public void testRecordEvent_Encoding() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        assertEquals(RecordEvent.Encoding.JSON, event.getEncoding());
+
+        byte[] json = event.toBytes(RecordEvent.Encoding.JSON);
+        assertArrayEquals(event.toJsonBytes(), json);
+        RecordEvent fromJson = new RecordEvent(json, idGenerator);
+        assertEquals(RecordEvent.Encoding.JSON, fromJson.getEncoding());
+
+        byte[] binary = event.toBytes(RecordEvent.Encoding.BINARY);
+        assertArrayEquals(event.toBytes(), binary);
+        RecordEvent fromBinary = new RecordEvent(binary, idGenerator);
+        assertEquals(RecordEvent.Encoding.BINARY, fromBinary.getEncoding());
+        assertEquals(fromJson, fromBinary);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRecordEvent_BinaryUnsupportedVersion() throws Exception {
+        byte[] bytes = new RecordEvent().toBytes();
+        bytes[1] = 99;
+        new RecordEvent(bytes, idGenerator);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRecordEvent_BinaryTruncated() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        byte[] bytes = event.toBytes();
+        new RecordEvent(Arrays.copyOf(bytes, bytes.length - 4), idGenerator);
+    }
+
     @Test
     public void testIndexRecordFilterData_JsonRoundtrip() {
         IndexRecordFilterData recordFilterData = new IndexRecordFilterData();
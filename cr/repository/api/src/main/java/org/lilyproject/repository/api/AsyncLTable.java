@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous variant of the most common {@link LTable} operations.
+ *
+ * <p>An AsyncLTable is obtained via {@link LTable#getAsyncTable()}. Each method returns immediately, the
+ * operation itself is executed on a bounded pool of threads managed by the repository. This allows to run
+ * independent operations concurrently (e.g. reading a number of records needed to render a page) without
+ * dedicating a caller thread to each of them.</p>
+ *
+ * <p>The semantics of each method are those of the corresponding {@link LTable} method. Exceptions thrown
+ * by the operation are available as the cause of the {@link java.util.concurrent.ExecutionException}
+ * thrown by {@link Future#get()}.</p>
+ */
+public interface AsyncLTable {
+    /**
+     * See {@link LTable#create(Record)}.
+     */
+    Future<Record> create(Record record);
+
+    /**
+     * See {@link LTable#update(Record)}.
+     */
+    Future<Record> update(Record record);
+
+    /**
+     * See {@link LTable#update(Record, boolean, boolean, List)}.
+     */
+    Future<Record> update(Record record, boolean updateVersion, boolean useLatestRecordType,
+            List<MutationCondition> conditions);
+
+    /**
+     * See {@link LTable#createOrUpdate(Record)}.
+     */
+    Future<Record> createOrUpdate(Record record);
+
+    /**
+     * See {@link LTable#read(RecordId, QName...)}.
+     */
+    Future<Record> read(RecordId recordId, QName... fieldNames);
+
+    /**
+     * See {@link LTable#read(RecordId, Long, QName...)}.
+     */
+    Future<Record> read(RecordId recordId, Long version, QName... fieldNames);
+
+    /**
+     * See {@link LTable#read(List, QName...)}.
+     */
+    Future<List<Record>> read(List<RecordId> recordIds, QName... fieldNames);
+
+    /**
+     * See {@link LTable#delete(RecordId)}. The future's value is always null.
+     */
+    Future<Void> delete(RecordId recordId);
+
+    /**
+     * See {@link LTable#delete(RecordId, List)}.
+     */
+    Future<Record> delete(RecordId recordId, List<MutationCondition> conditions);
+
+    /**
+     * The synchronous table on which the operations are performed.
+     */
+    LTable getTable();
+}
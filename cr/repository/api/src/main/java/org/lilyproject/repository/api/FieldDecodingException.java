@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+/**
+ * Thrown when the stored value of a field of a record which was read from the repository could not be decoded.
+ *
+ * <p>Records read from the repository may only decode their field values when these are first accessed, so
+ * this exception can be thrown by any method of {@link Record} which gives access to the fields, such as
+ * {@link Record#getField}, {@link Record#getFields}, {@link Object#equals} or {@link Object#hashCode}, rather
+ * than by the read itself. Use {@link #toRecordException()} to report it as the {@link RecordException} that
+ * the read would have thrown.</p>
+ */
+public class FieldDecodingException extends RepositoryRuntimeException {
+    private final RecordId recordId;
+    private final QName fieldName;
+
+    public FieldDecodingException(RecordId recordId, QName fieldName, Throwable cause) {
+        super(cause);
+        this.recordId = recordId;
+        this.fieldName = fieldName;
+    }
+
+    public RecordId getRecordId() {
+        return recordId;
+    }
+
+    public QName getFieldName() {
+        return fieldName;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Failed to decode field " + fieldName + " of record " + recordId;
+    }
+
+    /**
+     * Returns a checked exception with the same message and cause, for reporting this failure from methods
+     * which throw {@link RepositoryException}s.
+     */
+    public RecordException toRecordException() {
+        return new RecordException(getMessage(), getCause());
+    }
+}
@@ -31,6 +31,17 @@ public interface FieldTypes {
      */
     FieldType getFieldType(SchemaId id) throws TypeException, InterruptedException;
 
+    /**
+     * Gets a FieldType by the bytes of its id, which are stored in the given range of a byte array.
+     *
+     * <p>This avoids creating a {@link SchemaId} when decoding stored data, where the id is part of a larger
+     * array such as a column qualifier. Implementations may return a shared instance, so the returned field
+     * type should not be modified.
+     *
+     * @throws FieldTypeNotFoundException when no fieldType with the given ID exists
+     */
+    FieldType getFieldType(byte[] idBytes, int offset, int length) throws TypeException, InterruptedException;
+
     /**
      * Gets a FieldType from the FieldTypes.
      *
@@ -204,6 +204,54 @@ public interface LTable {
      */
     Record createOrUpdate(Record record, boolean useLatestRecordType) throws RepositoryException, InterruptedException;
 
+    /**
+     * Creates a batch of records.
+     *
+     * <p>This is semantically the same as calling {@link #create(Record)} for each of the records, but
+     * implementations can combine the underlying storage round-trips of the records in the batch.
+     * There is no atomicity across records: some records can be created while others fail.</p>
+     *
+     * <p>The returned list contains one entry per supplied record, in the same order. Errors specific
+     * to a record, such as a {@link RecordExistsException}, are reported through its
+     * {@link MutationResult} rather than being thrown.</p>
+     */
+    List<MutationResult> createAll(List<Record> records) throws RepositoryException, InterruptedException;
+
+    /**
+     * Updates a batch of records.
+     *
+     * <p>This is semantically the same as calling {@link #update(Record, boolean, boolean)
+     * update(record, false, useLatestRecordType)} for each of the records, but implementations can
+     * combine the underlying storage round-trips of the records in the batch. There is no atomicity
+     * across records: some records can be updated while others fail.</p>
+     *
+     * <p>The returned list contains one entry per supplied record, in the same order. Errors specific
+     * to a record, such as a {@link RecordNotFoundException} or a {@link ConcurrentRecordUpdateException},
+     * are reported through its {@link MutationResult} rather than being thrown.</p>
+     *
+     * <p>A record can occur only once in the batch. Implementations can report further occurrences of
+     * the same record ID as an {@link InvalidRecordException}.</p>
+     */
+    List<MutationResult> updateAll(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException;
+
+    /**
+     * Adds a delta to the value of a counter field of a record, and returns the new value.
+     *
+     * <p>Only non-versioned fields of type LONG can be used as counter. A record without a value for the field
+     * is treated as having the value 0. As for any update of a non-versioned field, no new version of the
+     * record is created, and a record event listing the field as updated is produced.</p>
+     *
+     * <p>Where the storage supports it, the increment is applied atomically inside the storage, so that
+     * concurrent increments of the same record don't conflict with each other. Otherwise, the increment
+     * is done as a conditional update which is retried when the field was changed concurrently, and a
+     * {@link ConcurrentRecordUpdateException} is thrown if this keeps on failing.</p>
+     *
+     * @throws RecordNotFoundException if the record does not exist
+     * @throws InvalidRecordException if the field is not a non-versioned LONG field
+     */
+    long increment(RecordId recordId, QName fieldName, long delta) throws RepositoryException, InterruptedException;
+
     /**
      * @param recordId   the id of the record to read, null is not allowed
      * @param fieldNames list of names of the fields to read or null to read all fields
@@ -232,6 +280,11 @@ public interface LTable {
      * <p>It is not an error if the record would not have a particular field, though it is an error to specify
      * a non-existing field name.
      *
+     * <p>The field values of the returned record may only be decoded when they are first accessed. If a stored
+     * value cannot be decoded, this is therefore not reported by this method, but by the method of the record
+     * accessing the field (such as {@link Record#getField}, {@link Record#getFields}, equals or hashCode), as a
+     * {@link FieldDecodingException}. The same applies to the other read methods.
+     *
      * @param recordId   the id of the record to read, null is not allowed
      * @param fieldNames names of the fields to read or null to read all fields
      */
@@ -325,6 +378,20 @@ public interface LTable {
     List<Record> readVersions(RecordId recordId, Long fromversion, Long toVersion, QName... fieldNames)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Returns a scanner over the versions of a record between fromVersion and toVersion (both included), in
+     * ascending order of version. If fieldNames are specified, the read is limited to include only this subset
+     * of fields. Otherwise all fields are read.
+     *
+     * <p>Contrary to {@link #readVersions(RecordId, Long, Long, QName...)}, the versions are read in pages as the
+     * scanner advances, so that memory usage does not depend on the number of versions. The pages are separate
+     * reads, updates of the record made while scanning can thus be visible in the later versions.</p>
+     *
+     * @throws RecordNotFoundException if the record does not exist
+     */
+    RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
+            throws RepositoryException, InterruptedException;
+
     /**
      * @param recordId   id of the record to read
      * @param versions   the list of versions to read, should not contain null values
@@ -541,6 +608,12 @@ public interface LTable {
      */
     RecordBuilder recordBuilder() throws RecordException, InterruptedException;
 
+    /**
+     * Returns an asynchronous view on this table, whose methods return a {@link java.util.concurrent.Future}
+     * rather than blocking until the operation is done.
+     */
+    AsyncLTable getAsyncTable();
+
     /**
      * Returns the table name of this table.
      */
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import org.lilyproject.util.ArgumentValidator;
+
+/**
+ * The outcome for one record of a batch operation such as {@link LTable#createAll(java.util.List)}.
+ *
+ * <p>Either the record is available (the operation succeeded for that record), or the exception which
+ * the corresponding single-record operation would have thrown, e.g. a {@link RecordExistsException} or
+ * a {@link ConcurrentRecordUpdateException}.</p>
+ */
+public class MutationResult {
+    private final Record record;
+    private final RepositoryException exception;
+
+    public MutationResult(Record record) {
+        ArgumentValidator.notNull(record, "record");
+        this.record = record;
+        this.exception = null;
+    }
+
+    public MutationResult(RepositoryException exception) {
+        ArgumentValidator.notNull(exception, "exception");
+        this.record = null;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns true if the operation succeeded for this record. Note that for updates, this includes
+     * records with response status {@link ResponseStatus#UP_TO_DATE} and {@link ResponseStatus#CONFLICT}.
+     */
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    /**
+     * The resulting record, as would have been returned by the single-record operation, or null in case
+     * of failure.
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * The exception that occurred for this record, or null in case of success.
+     */
+    public RepositoryException getException() {
+        return exception;
+    }
+
+    /**
+     * Returns the resulting record, or throws the exception if the operation failed for this record.
+     */
+    public Record get() throws RepositoryException {
+        if (exception != null) {
+            throw exception;
+        }
+        return record;
+    }
+}
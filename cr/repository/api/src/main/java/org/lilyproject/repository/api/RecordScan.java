@@ -31,6 +31,10 @@ public class RecordScan {
     private ReturnFields returnFields;
     private int caching = -1;
     private boolean cacheBlocks = true;
+    private int parallelism = 1;
+    private boolean ordered = true;
+    private int prefetchDepth = 0;
+    private boolean useRecordTypeIndex = false;
 
     /**
      * @see #setStartRecordId(RecordId)
@@ -210,4 +214,102 @@ public class RecordScan {
     public void setCacheBlocks(boolean cacheBlocks) {
         this.cacheBlocks = cacheBlocks;
     }
+
+    /**
+     * @see #setParallelism(int)
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of regions which are scanned concurrently. By default this is 1: the regions
+     * are scanned one after the other.
+     *
+     * <p>With a parallelism larger than 1, the scanned range is split along the region boundaries of
+     * the table, and up to this number of regions are scanned at the same time, each by its own thread
+     * which also decodes the records. This speeds up scans over many regions, such as full table exports,
+     * without having to resort to MapReduce. Records are buffered for each region being scanned (the
+     * number of buffered records is based on {@link #setCaching(int) caching}), so the memory used
+     * grows with the parallelism.</p>
+     *
+     * <p>See {@link #setOrdered(boolean)} for the order in which the records are returned.</p>
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism should be at least 1, got: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @see #setOrdered(boolean)
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Sets whether a scan with a {@link #setParallelism(int) parallelism} larger than 1 should return the
+     * records in the order of their record IDs, which is the default.
+     *
+     * <p>An ordered scan returns the records of one region after the other, while the next regions
+     * are already being scanned in the background. An unordered scan returns the records of all regions
+     * being scanned as soon as they are available, which is faster, e.g. for counting or exporting records
+     * when their order doesn't matter.</p>
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * @see #setPrefetchDepth(int)
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Sets the number of batches of rows which are fetched ahead in the background. By default this is 0:
+     * the next batch of rows is only fetched when the records of the previous batch have all been returned.
+     *
+     * <p>With a prefetch depth larger than 0, one thread fetches batches of {@link #setCaching(int) caching}
+     * rows from HBase while another thread decodes them into records, so that fetching the next batch
+     * overlaps with decoding the current one and with the processing done by the caller. Up to this number
+     * of fetched batches, and one batch of decoded records, are buffered in memory.</p>
+     *
+     * <p>This has no effect on scans with a {@link #setParallelism(int) parallelism} larger than 1, which are
+     * already run in the background.</p>
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("prefetchDepth should not be negative, got: " + prefetchDepth);
+        }
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * @see #setUseRecordTypeIndex(boolean)
+     */
+    public boolean getUseRecordTypeIndex() {
+        return useRecordTypeIndex;
+    }
+
+    /**
+     * Sets whether the records should be found through the record type index, rather than by scanning the
+     * whole table. This is false by default.
+     *
+     * <p>The index is only used if the repository maintains it (which is disabled by default), if no start or
+     * stop record ID is set, and if the record filter is a
+     * {@link org.lilyproject.repository.api.filter.RecordTypeFilter}. Otherwise, the table is scanned as
+     * usual. Through the index, only the records of the requested record type(s) are read, which is much
+     * faster when these are a small part of the table.</p>
+     *
+     * <p>When the index is used, the records are returned in the order of their record IDs per record type,
+     * rather than overall, and the {@link #setParallelism(int) parallelism} and
+     * {@link #setPrefetchDepth(int) prefetch depth} are ignored.</p>
+     */
+    public void setUseRecordTypeIndex(boolean useRecordTypeIndex) {
+        this.useRecordTypeIndex = useRecordTypeIndex;
+    }
 }
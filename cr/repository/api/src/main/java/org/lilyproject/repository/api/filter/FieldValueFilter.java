@@ -21,8 +21,10 @@ import org.lilyproject.repository.api.QName;
 /**
  * Filters based on the value of a record field.
  *
- * <p>Only equals and not-equals comparisons are possible. This is because the comparison happens inside
- * the HBase region servers, on the bytes-encoded field values.</p>
+ * <p>The comparison happens inside the HBase region servers. Equals and not-equals comparisons are done on the
+ * bytes-encoded field values and are possible for all value types. The other comparisons (less, greater, ...)
+ * are done on the decoded field values, and are only possible for fields of the value types STRING, INTEGER,
+ * LONG, DOUBLE, DECIMAL, DATE and DATETIME (not for multi-value or hierarchical fields).</p>
  *
  * <p>For versioned fields, the filtering always happens based on the last version of the field values.</p>
  */
@@ -46,8 +48,8 @@ public class FieldValueFilter implements RecordFilter {
 
     /**
      * Constructs a filter comparing the specified field with the specified value,
-     * using the specified comparison operator. Only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * using the specified comparison operator. See the class description for
+     * the supported operators.
      */
     public FieldValueFilter(QName field, CompareOp compareOp, Object fieldValue) {
         this.field = field;
@@ -96,8 +98,9 @@ public class FieldValueFilter implements RecordFilter {
     }
 
     /**
-     * Sets the comparison operator, only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * Sets the comparison operator. {@link CompareOp#EQUAL} and {@link CompareOp#NOT_EQUAL}
+     * are supported for all fields, the other operators only for fields of the value types
+     * listed in the class description.
      */
     public void setCompareOp(CompareOp compareOp) {
         this.compareOp = compareOp;
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.Link;
+import org.lilyproject.repository.api.Metadata;
+import org.lilyproject.repository.api.MetadataBuilder;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordFactory;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+/**
+ * The repository services needed by the benchmarks, that is an id generator, an in-memory type manager
+ * with a fixed schema and a record factory, together with builders for records of a realistic shape. There
+ * are no tables.
+ *
+ * <p>The schema contains:</p>
+ * <ul>
+ * <li>an Address record type, containing strings, a long and a link,</li>
+ * <li>a Person record type, with a nested RECORD&lt;Address&gt;, a LIST&lt;RECORD&lt;Address&gt;&gt; and a
+ * LIST&lt;LINK&gt;,</li>
+ * <li>a Wide record type with {@link #MAX_WIDE_FIELDS} fields, which cycle over the common value types.</li>
+ * </ul>
+ */
+public class BenchmarkRepository {
+    public static final String NS = "org.lilyproject.benchmark";
+    public static final int MAX_WIDE_FIELDS = 200;
+
+    /**
+     * The value types of the fields of the Wide record type, field i has value type i % length.
+     */
+    private static final String[] WIDE_VALUE_TYPES = {"STRING", "LONG", "DECIMAL", "DATETIME", "LINK",
+            "LIST<LINK>", "BOOLEAN", "LIST<STRING>", "INTEGER", "RECORD<{" + NS + "}Address>"};
+
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+    private final InMemoryTypeManager typeManager = new InMemoryTypeManager(idGenerator);
+    private final RecordFactory recordFactory = new RecordFactoryImpl();
+    private final Map<String, FieldType> fieldTypes = new HashMap<String, FieldType>();
+    private final List<QName> wideFields = new ArrayList<QName>();
+
+    public BenchmarkRepository() throws RepositoryException, InterruptedException {
+        RecordType address = typeManager.newRecordType(name("Address"));
+        addField(address, "street", "STRING");
+        addField(address, "number", "LONG");
+        addField(address, "city", "STRING");
+        addField(address, "location", "LINK");
+        typeManager.createRecordType(address);
+
+        RecordType person = typeManager.newRecordType(name("Person"));
+        addField(person, "name", "STRING");
+        addField(person, "birthDate", "DATETIME");
+        addField(person, "address", "RECORD<{" + NS + "}Address>");
+        addField(person, "previousAddresses", "LIST<RECORD<{" + NS + "}Address>>");
+        addField(person, "friends", "LIST<LINK>");
+        typeManager.createRecordType(person);
+
+        RecordType wide = typeManager.newRecordType(name("Wide"));
+        for (int i = 0; i < MAX_WIDE_FIELDS; i++) {
+            String fieldName = "wide" + i;
+            addField(wide, fieldName, WIDE_VALUE_TYPES[i % WIDE_VALUE_TYPES.length]);
+            wideFields.add(name(fieldName));
+        }
+        typeManager.createRecordType(wide);
+    }
+
+    private void addField(RecordType recordType, String fieldName, String valueType)
+            throws RepositoryException, InterruptedException {
+        FieldType fieldType = typeManager.createFieldType(valueType, name(fieldName), Scope.VERSIONED);
+        fieldTypes.put(fieldName, fieldType);
+        recordType.addFieldTypeEntry(fieldType.getId(), false);
+    }
+
+    public static QName name(String name) {
+        return new QName(NS, name);
+    }
+
+    /**
+     * Returns the field type with the given (local) name.
+     */
+    public FieldType getFieldType(String fieldName) {
+        return fieldTypes.get(fieldName);
+    }
+
+    /**
+     * Creates a value for the given value type, which can also be a LIST or a RECORD of the schema.
+     */
+    public Object newValue(String valueType, Random random) {
+        if (valueType.startsWith("LIST<")) {
+            String itemType = valueType.substring("LIST<".length(), valueType.length() - 1);
+            int size = 2 + random.nextInt(10);
+            List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(newValue(itemType, random));
+            }
+            return list;
+        } else if (valueType.equals("RECORD<{" + NS + "}Address>")) {
+            return newAddress(random);
+        } else if (valueType.equals("RECORD<{" + NS + "}Person>")) {
+            return newPerson(random);
+        } else if (valueType.equals("STRING")) {
+            return randomString(random, 5 + random.nextInt(40));
+        } else if (valueType.equals("LONG")) {
+            return random.nextLong();
+        } else if (valueType.equals("INTEGER")) {
+            return random.nextInt();
+        } else if (valueType.equals("BOOLEAN")) {
+            return random.nextBoolean();
+        } else if (valueType.equals("DECIMAL")) {
+            return BigDecimal.valueOf(random.nextLong(), 4);
+        } else if (valueType.equals("DATETIME")) {
+            return new DateTime(1262304000000L + (random.nextLong() & 0xFFFFFFFFFFL));
+        } else if (valueType.equals("LINK")) {
+            return new Link(newRecordId(random));
+        }
+        throw new IllegalArgumentException("Unsupported value type: " + valueType);
+    }
+
+    /**
+     * Creates a record id, most of these are user ids, some of them with variant properties.
+     */
+    public RecordId newRecordId(Random random) {
+        int kind = random.nextInt(4);
+        if (kind == 0) {
+            return idGenerator.newRecordId();
+        }
+        RecordId master = idGenerator.newRecordId("document-" + random.nextInt(1000000));
+        if (kind == 1) {
+            Map<String, String> variantProperties = new HashMap<String, String>();
+            variantProperties.put("lang", random.nextBoolean() ? "en" : "nl");
+            variantProperties.put("branch", "b" + random.nextInt(10));
+            return idGenerator.newRecordId(master, variantProperties);
+        }
+        return master;
+    }
+
+    public Record newAddress(Random random) {
+        Record record = recordFactory.newRecord();
+        record.setRecordType(name("Address"));
+        record.setField(name("street"), randomString(random, 20));
+        record.setField(name("number"), (long)random.nextInt(500));
+        record.setField(name("city"), randomString(random, 10));
+        record.setField(name("location"), newValue("LINK", random));
+        return record;
+    }
+
+    /**
+     * Creates a Person record, containing nested Address records.
+     */
+    public Record newPerson(Random random) {
+        Record record = recordFactory.newRecord(newRecordId(random));
+        record.setRecordType(name("Person"));
+        record.setField(name("name"), randomString(random, 25));
+        record.setField(name("birthDate"), newValue("DATETIME", random));
+        record.setField(name("address"), newAddress(random));
+        record.setField(name("previousAddresses"), newValue("LIST<RECORD<{" + NS + "}Address>>", random));
+        record.setField(name("friends"), newValue("LIST<LINK>", random));
+        return record;
+    }
+
+    /**
+     * Creates a Wide record with the given number of fields, where every fifth field has some metadata.
+     */
+    public Record newWideRecord(int fieldCount, Random random) {
+        if (fieldCount > MAX_WIDE_FIELDS) {
+            throw new IllegalArgumentException("At most " + MAX_WIDE_FIELDS + " fields are supported");
+        }
+        Record record = recordFactory.newRecord(newRecordId(random));
+        record.setRecordType(name("Wide"), 1L);
+        record.setVersion(3L);
+        for (int i = 0; i < fieldCount; i++) {
+            QName fieldName = wideFields.get(i);
+            record.setField(fieldName, newValue(WIDE_VALUE_TYPES[i % WIDE_VALUE_TYPES.length], random));
+            if (i % 5 == 0) {
+                record.setMetadata(fieldName, newMetadata(random));
+            }
+        }
+        return record;
+    }
+
+    public Metadata newMetadata(Random random) {
+        return new MetadataBuilder()
+                .value("source", randomString(random, 12))
+                .value("confidence", random.nextDouble())
+                .value("revision", random.nextLong())
+                .value("reviewed", random.nextBoolean())
+                .build();
+    }
+
+    public static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // Mostly ASCII, with an occasional accented character
+            builder.append(random.nextInt(20) == 0 ? (char)(0xe0 + random.nextInt(32))
+                    : (char)('a' + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    public TypeManager getTypeManager() {
+        return typeManager;
+    }
+
+    public RecordFactory getRecordFactory() {
+        return recordFactory;
+    }
+}
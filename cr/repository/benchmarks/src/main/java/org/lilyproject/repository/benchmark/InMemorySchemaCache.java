@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeNotFoundException;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.FieldTypesCache;
+import org.lilyproject.repository.impl.RecordTypesCache;
+import org.lilyproject.repository.impl.SchemaCache;
+
+/**
+ * A schema cache which is only filled by local updates, using the same field type and record type caches
+ * as the ZooKeeper-driven schema cache, so that lookups during the benchmarks cost the same.
+ */
+public class InMemorySchemaCache implements SchemaCache {
+    private final FieldTypesCache fieldTypesCache = new FieldTypesCache();
+    private final RecordTypesCache recordTypesCache = new RecordTypesCache();
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public void updateFieldType(FieldType fieldType) {
+        fieldTypesCache.update(fieldType);
+    }
+
+    @Override
+    public void updateRecordType(RecordType recordType) {
+        recordTypesCache.update(recordType);
+    }
+
+    @Override
+    public FieldTypes getFieldTypesSnapshot() {
+        return fieldTypesCache.getSnapshot();
+    }
+
+    @Override
+    public List<FieldType> getFieldTypes() {
+        return fieldTypesCache.getFieldTypes();
+    }
+
+    @Override
+    public Collection<RecordType> getRecordTypes() {
+        return recordTypesCache.getRecordTypes();
+    }
+
+    @Override
+    public RecordType getRecordType(QName name) {
+        return recordTypesCache.getRecordType(name);
+    }
+
+    @Override
+    public RecordType getRecordType(SchemaId id) {
+        return recordTypesCache.getRecordType(id);
+    }
+
+    @Override
+    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException {
+        return fieldTypesCache.getFieldType(name);
+    }
+
+    @Override
+    public Set<SchemaId> findDirectSubTypes(SchemaId recordTypeId) {
+        return recordTypesCache.findDirectSubTypes(recordTypeId);
+    }
+
+    @Override
+    public FieldType getFieldType(SchemaId id) throws FieldTypeNotFoundException {
+        return fieldTypesCache.getFieldType(id);
+    }
+
+    @Override
+    public boolean fieldTypeExists(QName name) {
+        return fieldTypesCache.fieldTypeExists(name);
+    }
+
+    @Override
+    public FieldType getFieldTypeByNameReturnNull(QName name) {
+        return fieldTypesCache.getFieldTypeByNameReturnNull(name);
+    }
+}
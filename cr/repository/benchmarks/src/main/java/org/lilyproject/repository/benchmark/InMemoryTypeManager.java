@@ -0,0 +1,339 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeExistsException;
+import org.lilyproject.repository.api.FieldTypeUpdateException;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RecordTypeExistsException;
+import org.lilyproject.repository.api.RecordTypeNotFoundException;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeBucket;
+import org.lilyproject.repository.api.TypeException;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.AbstractSchemaCache;
+import org.lilyproject.repository.impl.AbstractTypeManager;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.ArgumentValidator;
+import org.lilyproject.util.Pair;
+
+/**
+ * A type manager which only keeps the schema in memory, so that the encoding code can be benchmarked
+ * without HBase or ZooKeeper. There is a single type manager, so there is no concurrency control on type
+ * names and the schema cache never needs to be refreshed.
+ */
+public class InMemoryTypeManager extends AbstractTypeManager {
+    private final Map<SchemaId, SortedMap<Long, RecordType>> recordTypeVersions =
+            new HashMap<SchemaId, SortedMap<Long, RecordType>>();
+
+    public InMemoryTypeManager(IdGenerator idGenerator) {
+        super(null);
+        log = LogFactory.getLog(getClass());
+        this.idGenerator = idGenerator;
+        this.schemaCache = new InMemorySchemaCache();
+        registerDefaultValueTypes();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public synchronized FieldType createFieldType(FieldType fieldType) throws RepositoryException,
+            InterruptedException {
+        if (schemaCache.fieldTypeExists(fieldType.getName())) {
+            throw new FieldTypeExistsException(fieldType);
+        }
+        FieldType newFieldType = fieldType.clone();
+        newFieldType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        updateFieldTypeCache(newFieldType);
+        return newFieldType.clone();
+    }
+
+    @Override
+    public FieldType createFieldType(ValueType valueType, QName name, Scope scope) throws RepositoryException,
+            InterruptedException {
+        return createFieldType(newFieldType(valueType, name, scope));
+    }
+
+    @Override
+    public FieldType createFieldType(String valueType, QName name, Scope scope) throws RepositoryException,
+            InterruptedException {
+        return createFieldType(newFieldType(getValueType(valueType), name, scope));
+    }
+
+    @Override
+    public synchronized RecordType createRecordType(RecordType recordType) throws RepositoryException,
+            InterruptedException {
+        if (getRecordTypeFromCache(recordType.getName()) != null) {
+            throw new RecordTypeExistsException(recordType);
+        }
+        RecordType newRecordType = recordType.clone();
+        newRecordType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        newRecordType.setVersion(1L);
+        storeRecordType(newRecordType);
+        return newRecordType.clone();
+    }
+
+    @Override
+    public synchronized FieldType updateFieldType(FieldType fieldType) throws RepositoryException,
+            InterruptedException {
+        ArgumentValidator.notNull(fieldType, "fieldType");
+        if (fieldType.getId() == null || fieldType.getName() == null) {
+            throw new TypeException("ID and name must be specified in the field type to update.");
+        }
+
+        FieldType latestFieldType = schemaCache.getFieldType(fieldType.getId());
+        FieldType newFieldType = fieldType.clone();
+        copyUnspecifiedFields(newFieldType, latestFieldType);
+        checkImmutableFieldsCorrespond(newFieldType, latestFieldType);
+        if (!newFieldType.getName().equals(latestFieldType.getName())
+                && schemaCache.fieldTypeExists(newFieldType.getName())) {
+            throw new FieldTypeUpdateException("Changing the name '" + newFieldType.getName()
+                    + "' of a fieldType '" + newFieldType.getId()
+                    + "' to a name that already exists is not allowed; old '" + latestFieldType.getName()
+                    + "' new '" + newFieldType.getName() + "'");
+        }
+        updateFieldTypeCache(newFieldType);
+        return newFieldType.clone();
+    }
+
+    @Override
+    public synchronized FieldType createOrUpdateFieldType(FieldType fieldType) throws RepositoryException,
+            InterruptedException {
+        ArgumentValidator.notNull(fieldType, "fieldType");
+        if (fieldType.getId() == null && fieldType.getName() == null) {
+            throw new TypeException("No ID or name specified in the field type to create-or-update.");
+        }
+
+        if (fieldType.getId() != null && fieldType.getName() != null) {
+            return updateFieldType(fieldType);
+        }
+
+        FieldType latestFieldType = fieldType.getId() != null ? schemaCache.getFieldType(fieldType.getId())
+                : schemaCache.getFieldTypeByNameReturnNull(fieldType.getName());
+        if (latestFieldType == null) {
+            return createFieldType(fieldType);
+        }
+        FieldType newFieldType = fieldType.clone();
+        copyUnspecifiedFields(newFieldType, latestFieldType);
+        checkImmutableFieldsCorrespond(newFieldType, latestFieldType);
+        return latestFieldType.clone();
+    }
+
+    @Override
+    public synchronized RecordType updateRecordType(RecordType recordType) throws RepositoryException,
+            InterruptedException {
+        ArgumentValidator.notNull(recordType, "recordType");
+        if (recordType.getId() == null && recordType.getName() == null) {
+            throw new IllegalArgumentException("No id or name specified in the supplied record type.");
+        }
+
+        SchemaId id = recordType.getId();
+        if (id == null) {
+            RecordType existingType = getRecordTypeFromCache(recordType.getName());
+            if (existingType == null) {
+                throw new RecordTypeNotFoundException(recordType.getName(), null);
+            }
+            id = existingType.getId();
+        }
+
+        RecordType latestRecordType = getRecordTypeByIdWithoutCache(id, null);
+        RecordType newRecordType = recordType.clone();
+        newRecordType.setId(id);
+        if (newRecordType.getName() == null) {
+            newRecordType.setName(latestRecordType.getName());
+        } else if (!newRecordType.getName().equals(latestRecordType.getName())
+                && getRecordTypeFromCache(newRecordType.getName()) != null) {
+            throw new RecordTypeExistsException(newRecordType);
+        }
+
+        // Only a changed record type gets a new version
+        newRecordType.setVersion(latestRecordType.getVersion());
+        if (!newRecordType.equals(latestRecordType)) {
+            newRecordType.setVersion(latestRecordType.getVersion() + 1);
+            storeRecordType(newRecordType);
+        }
+        return newRecordType.clone();
+    }
+
+    @Override
+    public RecordType updateRecordType(RecordType recordType, boolean refreshSubtypes)
+            throws RepositoryException, InterruptedException {
+        return updateRecordType(recordType, refreshSubtypes, new ArrayDeque<SchemaId>());
+    }
+
+    /**
+     * Updates the record type, and if requested makes its subtypes, recursively, point to its new version.
+     */
+    private synchronized RecordType updateRecordType(RecordType recordType, boolean refreshSubtypes,
+            Deque<SchemaId> parents) throws RepositoryException, InterruptedException {
+        RecordType updatedRecordType = updateRecordType(recordType);
+        if (!refreshSubtypes) {
+            return updatedRecordType;
+        }
+
+        parents.push(updatedRecordType.getId());
+        for (SchemaId subtype : findDirectSubtypes(updatedRecordType.getId())) {
+            if (parents.contains(subtype)) {
+                log.warn(formatSupertypeLoopError(subtype, parents));
+                continue;
+            }
+            RecordType subRecordType = getRecordTypeById(subtype, null);
+            Long supertypeVersion = subRecordType.getSupertypes().get(updatedRecordType.getId());
+            if (supertypeVersion != null && !supertypeVersion.equals(updatedRecordType.getVersion())) {
+                subRecordType.addSupertype(updatedRecordType.getId(), updatedRecordType.getVersion());
+                updateRecordType(subRecordType, true, parents);
+            }
+        }
+        parents.pop();
+        return updatedRecordType;
+    }
+
+    @Override
+    public RecordType createOrUpdateRecordType(RecordType recordType) throws RepositoryException,
+            InterruptedException {
+        return createOrUpdateRecordType(recordType, false);
+    }
+
+    @Override
+    public synchronized RecordType createOrUpdateRecordType(RecordType recordType, boolean refreshSubtypes)
+            throws RepositoryException, InterruptedException {
+        if (recordType.getId() == null) {
+            if (recordType.getName() == null) {
+                throw new IllegalArgumentException("No id or name specified in supplied record type.");
+            }
+            if (getRecordTypeFromCache(recordType.getName()) == null) {
+                return createRecordType(recordType);
+            }
+        }
+        return updateRecordType(recordType, refreshSubtypes);
+    }
+
+    @Override
+    protected synchronized RecordType getRecordTypeByIdWithoutCache(SchemaId id, Long version)
+            throws RepositoryException {
+        SortedMap<Long, RecordType> versions = recordTypeVersions.get(id);
+        RecordType recordType = null;
+        if (versions != null) {
+            recordType = version == null ? versions.get(versions.lastKey()) : versions.get(version);
+        }
+        if (recordType == null) {
+            throw new RecordTypeNotFoundException(id, version);
+        }
+        return recordType.clone();
+    }
+
+    private void storeRecordType(RecordType recordType) throws RepositoryException, InterruptedException {
+        SortedMap<Long, RecordType> versions = recordTypeVersions.get(recordType.getId());
+        if (versions == null) {
+            versions = new TreeMap<Long, RecordType>();
+            recordTypeVersions.put(recordType.getId(), versions);
+        }
+        versions.put(recordType.getVersion(), recordType.clone());
+        updateRecordTypeCache(recordType);
+    }
+
+    private void copyUnspecifiedFields(FieldType userFieldType, FieldType latestFieldType) {
+        if (userFieldType.getScope() == null) {
+            userFieldType.setScope(latestFieldType.getScope());
+        }
+        if (userFieldType.getValueType() == null) {
+            userFieldType.setValueType(latestFieldType.getValueType());
+        }
+    }
+
+    private void checkImmutableFieldsCorrespond(FieldType userFieldType, FieldType latestFieldType)
+            throws FieldTypeUpdateException {
+        if (!userFieldType.getValueType().equals(latestFieldType.getValueType())) {
+            throw new FieldTypeUpdateException("Changing the valueType of a fieldType '" + latestFieldType.getId()
+                    + "' (current name: " + latestFieldType.getName() + ") is not allowed; old '"
+                    + latestFieldType.getValueType() + "' new '" + userFieldType.getValueType() + "'");
+        }
+        if (!userFieldType.getScope().equals(latestFieldType.getScope())) {
+            throw new FieldTypeUpdateException("Changing the scope of a fieldType '" + latestFieldType.getId()
+                    + "' (current name: " + latestFieldType.getName() + ") is not allowed; old '"
+                    + latestFieldType.getScope() + "' new '" + userFieldType.getScope() + "'");
+        }
+    }
+
+    @Override
+    public List<FieldType> getFieldTypesWithoutCache() throws RepositoryException, InterruptedException {
+        return getFieldTypes();
+    }
+
+    @Override
+    public List<RecordType> getRecordTypesWithoutCache() throws RepositoryException, InterruptedException {
+        return new ArrayList<RecordType>(getRecordTypes());
+    }
+
+    @Override
+    public Pair<List<FieldType>, List<RecordType>> getTypesWithoutCache() throws RepositoryException,
+            InterruptedException {
+        return new Pair<List<FieldType>, List<RecordType>>(getFieldTypesWithoutCache(),
+                getRecordTypesWithoutCache());
+    }
+
+    @Override
+    public TypeBucket getTypeBucketWithoutCache(String bucketId) throws RepositoryException, InterruptedException {
+        TypeBucket typeBucket = new TypeBucket(bucketId);
+        for (FieldType fieldType : getFieldTypes()) {
+            if (bucketId.equals(AbstractSchemaCache.encodeHex(fieldType.getId().getBytes()))) {
+                typeBucket.add(fieldType);
+            }
+        }
+        for (RecordType recordType : getRecordTypes()) {
+            if (bucketId.equals(AbstractSchemaCache.encodeHex(recordType.getId().getBytes()))) {
+                typeBucket.add(recordType);
+            }
+        }
+        return typeBucket;
+    }
+
+    @Override
+    public void enableSchemaCacheRefresh() {
+    }
+
+    @Override
+    public void disableSchemaCacheRefresh() {
+    }
+
+    @Override
+    public void triggerSchemaCacheRefresh() {
+    }
+
+    @Override
+    public boolean isSchemaCacheRefreshEnabled() {
+        return false;
+    }
+}
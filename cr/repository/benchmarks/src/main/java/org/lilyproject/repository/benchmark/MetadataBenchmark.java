@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.Metadata;
+import org.lilyproject.repository.impl.MetadataSerDeser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of field metadata with {@link MetadataSerDeser}.
+ *
+ * <p>Run with <code>java -jar target/benchmarks.jar MetadataBenchmark -prof gc</code>.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetadataBenchmark {
+    private Metadata metadata;
+    private byte[] encoded;
+    private DataOutputImpl output;
+
+    @Setup
+    public void setUp() throws Exception {
+        metadata = new BenchmarkRepository().newMetadata(new Random(1));
+        output = new DataOutputImpl();
+        MetadataSerDeser.write(metadata, output);
+        encoded = output.toByteArray();
+    }
+
+    @Benchmark
+    public int write() {
+        output.reset();
+        MetadataSerDeser.write(metadata, output);
+        return output.getSize();
+    }
+
+    @Benchmark
+    public Metadata read() {
+        return MetadataSerDeser.read(new DataInputImpl(encoded));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Sets;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.util.repo.RecordEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of the {@link RecordEvent}s which the repository puts on the row of each record it
+ * updates, and which are parsed again by each event listener (SEP consumer). The events contain the
+ * old and new values of the changed fields, for the index record filters. Both the json and the binary
+ * encoding are measured.
+ *
+ * <p>Run with <code>java -jar target/benchmarks.jar RecordEventBenchmark -prof gc</code>.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordEventBenchmark {
+    /**
+     * The number of updated fields in the event.
+     */
+    @Param({"5", "50"})
+    public int updatedFieldCount;
+
+    private IdGenerator idGenerator;
+    private RecordEvent event;
+    private byte[] encodedJson;
+    private byte[] encodedBinary;
+
+    @Setup
+    public void setUp() throws RepositoryException, InterruptedException {
+        BenchmarkRepository repository = new BenchmarkRepository();
+        idGenerator = repository.getIdGenerator();
+        Random random = new Random(updatedFieldCount);
+
+        event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("record");
+        event.setVersionCreated(4);
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("source", "benchmark");
+        event.setAttributes(attributes);
+
+        RecordEvent.IndexRecordFilterData filterData = new RecordEvent.IndexRecordFilterData();
+        filterData.setOldRecordExists(true);
+        filterData.setNewRecordExists(true);
+        filterData.setSubscriptionInclusions(Sets.newHashSet("index1", "index2"));
+        for (int i = 0; i < updatedFieldCount; i++) {
+            FieldType fieldType = repository.getFieldType("wide" + i);
+            event.addUpdatedField(fieldType.getId());
+            filterData.addChangedField(fieldType.getId(), encode(repository, fieldType, random),
+                    encode(repository, fieldType, random));
+        }
+        event.setIndexRecordFilterData(filterData);
+
+        encodedJson = event.toJsonBytes();
+        encodedBinary = event.toBytes();
+    }
+
+    private byte[] encode(BenchmarkRepository repository, FieldType fieldType, Random random)
+            throws RepositoryException, InterruptedException {
+        Object value = repository.newValue(fieldType.getValueType().getName(), random);
+        return fieldType.getValueType().toBytes(value, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public byte[] writeJson() {
+        return event.toJsonBytes();
+    }
+
+    @Benchmark
+    public RecordEvent readJson() throws IOException {
+        return new RecordEvent(encodedJson, idGenerator);
+    }
+
+    @Benchmark
+    public byte[] writeBinary() {
+        return event.toBytes();
+    }
+
+    @Benchmark
+    public RecordEvent readBinary() throws IOException {
+        return new RecordEvent(encodedBinary, idGenerator);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of record ids from their stored form with {@link IdGenerator#fromBytes}, which happens for
+ * each record row and for each link value that is read.
+ *
+ * <p>Run with <code>java -jar target/benchmarks.jar RecordIdBenchmark -prof gc</code>.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordIdBenchmark {
+    /**
+     * uuid: a generated id, user: a user-specified id, variant: a user-specified id with two variant
+     * properties.
+     */
+    @Param({"uuid", "user", "variant"})
+    public String kind;
+
+    private IdGenerator idGenerator;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        idGenerator = new IdGeneratorImpl();
+        RecordId recordId;
+        if ("uuid".equals(kind)) {
+            recordId = idGenerator.newRecordId();
+        } else if ("user".equals(kind)) {
+            recordId = idGenerator.newRecordId("document-12345");
+        } else if ("variant".equals(kind)) {
+            Map<String, String> variantProperties = new HashMap<String, String>();
+            variantProperties.put("lang", "en");
+            variantProperties.put("branch", "dev");
+            recordId = idGenerator.newRecordId("document-12345", variantProperties);
+        } else {
+            throw new IllegalArgumentException("Unknown record id kind: " + kind);
+        }
+        encoded = recordId.toBytes();
+    }
+
+    @Benchmark
+    public RecordId fromBytes() {
+        return idGenerator.fromBytes(encoded);
+    }
+}
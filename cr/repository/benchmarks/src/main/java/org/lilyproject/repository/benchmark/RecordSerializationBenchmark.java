@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of complete records with {@link RecordAsBytesConverter}, as done for the record events
+ * and the remote protocol, for records with an increasing number of fields. The fields cycle over the
+ * common value types, including LIST&lt;LINK&gt; and nested RECORD values, and some of them have metadata.
+ *
+ * <p>Run with <code>java -jar target/benchmarks.jar RecordSerializationBenchmark -prof gc</code>, the gc
+ * profiler reports the allocation rate.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordSerializationBenchmark {
+    @Param({"50", "100", "200"})
+    public int fieldCount;
+
+    private BenchmarkRepository repository;
+    private Record record;
+    private byte[] encoded;
+    private DataOutputImpl output;
+
+    @Setup
+    public void setUp() throws RepositoryException, InterruptedException {
+        repository = new BenchmarkRepository();
+        record = repository.newWideRecord(fieldCount, new Random(fieldCount));
+        output = new DataOutputImpl();
+        RecordAsBytesConverter.write(record, output, repository.getTypeManager());
+        encoded = output.toByteArray();
+    }
+
+    @Benchmark
+    public int write() throws RepositoryException, InterruptedException {
+        output.reset();
+        RecordAsBytesConverter.write(record, output, repository.getTypeManager());
+        return output.getSize();
+    }
+
+    @Benchmark
+    public Record read() throws RepositoryException, InterruptedException {
+        return RecordAsBytesConverter.read(new DataInputImpl(encoded), repository.getTypeManager(),
+                repository.getIdGenerator(), repository.getRecordFactory());
+    }
+}
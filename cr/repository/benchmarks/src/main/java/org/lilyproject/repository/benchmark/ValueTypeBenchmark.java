@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ValueType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of single field values by their {@link ValueType}, this is what the repository
+ * does for each field it stores or reads.
+ *
+ * <p>Run with <code>java -jar target/benchmarks.jar ValueTypeBenchmark -prof gc</code>, the gc profiler
+ * reports the allocation rate (gc.alloc.rate.norm is the number of bytes allocated per operation).</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValueTypeBenchmark {
+    @Param({"STRING", "LONG", "DECIMAL", "DATETIME", "LINK", "LIST<LINK>", "LIST<STRING>",
+            "RECORD<{org.lilyproject.benchmark}Address>", "RECORD<{org.lilyproject.benchmark}Person>"})
+    public String valueType;
+
+    private ValueType type;
+    private Object value;
+    private byte[] encoded;
+    private DataOutputImpl output;
+
+    @Setup
+    public void setUp() throws RepositoryException, InterruptedException {
+        BenchmarkRepository repository = new BenchmarkRepository();
+        type = repository.getTypeManager().getValueType(valueType);
+        value = repository.newValue(valueType, new Random(valueType.hashCode()));
+        encoded = type.toBytes(value, new IdentityRecordStack());
+        output = new DataOutputImpl(encoded.length);
+    }
+
+    @Benchmark
+    public int write() throws RepositoryException, InterruptedException {
+        output.reset();
+        type.write(value, output, new IdentityRecordStack());
+        return output.getSize();
+    }
+
+    @Benchmark
+    public Object read() throws RepositoryException, InterruptedException {
+        return type.read(new DataInputImpl(encoded));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.id;
+
+import java.util.Map;
+
+import org.lilyproject.repository.api.SchemaId;
+
+/**
+ * An immutable hash table keyed on schema ids which can be looked up with a range of a byte array, thus
+ * without having to copy the id bytes into a new array and wrap them into a {@link SchemaId}.
+ *
+ * <p>This is intended for decoding stored data, where the schema ids are embedded in larger arrays such
+ * as column qualifiers. The table uses open addressing with linear probing over the raw id bytes, so a
+ * lookup does not allocate anything.</p>
+ *
+ * <p>The table also interns the schema ids: {@link #getId} returns the instance with which an entry was
+ * added, so that all decoded references to the same id can share a single instance.</p>
+ */
+public final class SchemaIdTable<V> {
+    private final SchemaId[] ids;
+    private final byte[][] keys;
+    private final Object[] values;
+    private final int mask;
+    private final int size;
+
+    /**
+     * @param entries the entries of the table, this map is not retained
+     */
+    public SchemaIdTable(Map<SchemaId, V> entries) {
+        // Keep the load factor at or below 0.5, which keeps the probe sequences short
+        int capacity = 2;
+        while (capacity < entries.size() * 2) {
+            capacity <<= 1;
+        }
+        ids = new SchemaId[capacity];
+        keys = new byte[capacity][];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        size = entries.size();
+
+        for (Map.Entry<SchemaId, V> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().getBytes();
+            int slot = hash(key, 0, key.length) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = entry.getKey();
+            keys[slot] = key;
+            values[slot] = entry.getValue();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value for the schema id stored in the given byte range, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(byte[] bytes, int offset, int length) {
+        int slot = find(bytes, offset, length);
+        return slot != -1 ? (V)values[slot] : null;
+    }
+
+    public V get(SchemaId id) {
+        byte[] bytes = id.getBytes();
+        return get(bytes, 0, bytes.length);
+    }
+
+    public boolean containsId(byte[] bytes, int offset, int length) {
+        return find(bytes, offset, length) != -1;
+    }
+
+    /**
+     * Returns the canonical instance of the schema id stored in the given byte range, or null if it is not
+     * contained in this table.
+     */
+    public SchemaId getId(byte[] bytes, int offset, int length) {
+        int slot = find(bytes, offset, length);
+        return slot != -1 ? ids[slot] : null;
+    }
+
+    private int find(byte[] bytes, int offset, int length) {
+        int slot = hash(bytes, offset, length) & mask;
+        byte[] key;
+        while ((key = keys[slot]) != null) {
+            if (matches(key, bytes, offset, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] key, byte[] bytes, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Spread the bits, since only the lower ones are used to select a slot
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
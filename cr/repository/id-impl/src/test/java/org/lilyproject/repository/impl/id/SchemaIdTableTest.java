@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.id;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.lilyproject.repository.api.SchemaId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaIdTableTest {
+
+    @Test
+    public void testLookupByByteRange() {
+        Map<SchemaId, Integer> entries = new HashMap<SchemaId, Integer>();
+        SchemaId[] ids = new SchemaId[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new SchemaIdImpl(UUID.randomUUID());
+            entries.put(ids[i], i);
+        }
+        SchemaIdTable<Integer> table = new SchemaIdTable<Integer>(entries);
+        assertEquals(100, table.size());
+
+        for (int i = 0; i < ids.length; i++) {
+            // Embed the id in a larger array, as in a column qualifier
+            byte[] idBytes = ids[i].getBytes();
+            byte[] buffer = new byte[idBytes.length + 3];
+            System.arraycopy(idBytes, 0, buffer, 1, idBytes.length);
+
+            assertEquals(Integer.valueOf(i), table.get(buffer, 1, idBytes.length));
+            assertSame(ids[i], table.getId(buffer, 1, idBytes.length));
+            assertTrue(table.containsId(buffer, 1, idBytes.length));
+            assertEquals(Integer.valueOf(i), table.get(new SchemaIdImpl(ids[i].toString())));
+        }
+
+        byte[] unknown = new SchemaIdImpl(UUID.randomUUID()).getBytes();
+        assertNull(table.get(unknown, 0, unknown.length));
+        assertNull(table.getId(unknown, 0, unknown.length));
+        assertFalse(table.containsId(ids[0].getBytes(), 0, 15));
+    }
+
+    @Test
+    public void testEmpty() {
+        SchemaIdTable<Integer> table = new SchemaIdTable<Integer>(new HashMap<SchemaId, Integer>());
+        byte[] bytes = new SchemaIdImpl(UUID.randomUUID()).getBytes();
+        assertNull(table.get(bytes, 0, bytes.length));
+        assertEquals(0, table.size());
+    }
+}
@@ -16,14 +16,13 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
-import java.util.Iterator;
 
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RepositoryException;
 
-abstract class AbstractHBaseRecordScanner<T extends Record> {
+abstract class AbstractHBaseRecordScanner<T extends Record> extends AbstractRecordScanner<T> {
     private final ResultScanner hbaseScanner;
 
     AbstractHBaseRecordScanner(ResultScanner hbaseScanner) {
@@ -51,43 +50,4 @@ abstract class AbstractHBaseRecordScanner<T extends Record> {
     public void close() {
         hbaseScanner.close();
     }
-
-    public Iterator<T> iterator() {
-        return new Iterator<T>() {
-            private T next;
-
-            @Override
-            public boolean hasNext() {
-                if (next != null) {
-                    return true;
-                } else {
-                    try {
-                        next = AbstractHBaseRecordScanner.this.next();
-                    } catch (RepositoryException e) {
-                        throw new RuntimeException(e);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException(e);
-                    }
-                    return next != null;
-                }
-            }
-
-            @Override
-            public T next() {
-                if (!hasNext()) {
-                    return null;
-                }
-
-                T result = next;
-                next = null;
-                return result;
-            }
-
-            @Override
-            public void remove() {
-                throw new UnsupportedOperationException();
-            }
-        };
-    }
 }
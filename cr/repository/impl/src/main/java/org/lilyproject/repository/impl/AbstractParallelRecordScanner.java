@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Scanner which runs a number of HBase scans, each over the part of the scanned range served by one region,
+ * concurrently. See {@link org.lilyproject.repository.api.RecordScan#setParallelism(int)}.
+ *
+ * <p>Each scan is run by a thread of this scanner, which also decodes the records and puts them in a bounded
+ * queue. In ordered mode, each scan has its own queue, and the queues are consumed one after the other. In
+ * unordered mode, all scans share the same queue.</p>
+ */
+abstract class AbstractParallelRecordScanner<T extends Record> extends AbstractRecordScanner<T> {
+    /**
+     * Marks the end of the records of a scan in its queue.
+     */
+    private static final Object END_OF_SCAN = new Object();
+
+    private final HTableInterface table;
+    private final List<Scan> scans;
+    private final boolean ordered;
+    private final List<BlockingQueue<Object>> queues;
+    private final AtomicInteger nextScan = new AtomicInteger();
+    private final ExecutorService executor;
+    private volatile boolean closed;
+    /**
+     * The number of scans of which all records have been returned.
+     */
+    private int finishedScans;
+
+    /**
+     * @param scans the scans to run, in the order of their ranges
+     * @param queueSize the maximum number of decoded records buffered for each scan
+     */
+    AbstractParallelRecordScanner(HTableInterface table, List<Scan> scans, int parallelism, boolean ordered,
+            int queueSize) {
+        this.table = table;
+        this.scans = scans;
+        this.ordered = ordered;
+
+        this.queues = new ArrayList<BlockingQueue<Object>>(scans.size());
+        if (ordered) {
+            for (int i = 0; i < scans.size(); i++) {
+                queues.add(new LinkedBlockingQueue<Object>(queueSize));
+            }
+        } else {
+            queues.add(new LinkedBlockingQueue<Object>(queueSize * parallelism));
+        }
+
+        int threads = Math.min(parallelism, scans.size());
+        this.executor = Executors.newFixedThreadPool(Math.max(threads, 1),
+                new CustomThreadFactory("lily-scan", null, true));
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new ScanRunner());
+        }
+        executor.shutdown();
+    }
+
+    abstract T decode(Result result) throws RepositoryException, InterruptedException;
+
+    private BlockingQueue<Object> getQueue(int scanIndex) {
+        return ordered ? queues.get(scanIndex) : queues.get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() throws RepositoryException, InterruptedException {
+        while (finishedScans < scans.size()) {
+            if (closed) {
+                return null;
+            }
+            Object item = getQueue(finishedScans).take();
+            if (item == END_OF_SCAN) {
+                finishedScans++;
+            } else if (item instanceof ScanFailure) {
+                close();
+                Throwable cause = ((ScanFailure)item).cause;
+                if (cause instanceof RepositoryException) {
+                    throw (RepositoryException)cause;
+                }
+                throw new RepositoryException("Error scanning records", cause);
+            } else {
+                return (T)item;
+            }
+        }
+        return null;
+    }
+
+    public void close() {
+        if (!closed) {
+            closed = true;
+            // interrupts the threads which are blocked on a full queue or on HBase
+            executor.shutdownNow();
+            for (BlockingQueue<Object> queue : queues) {
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Runs the scans which have not been started yet, one after the other, until all scans are started.
+     *
+     * <p>In ordered mode, the queue of a scan can stay full for a long time, until the consumer reaches the
+     * scan's range. To avoid that the HBase scanner lease expires meanwhile, the scanner is closed when the
+     * queue is full, and reopened after the last read row once the record could be queued.</p>
+     */
+    private class ScanRunner implements Runnable {
+        @Override
+        public void run() {
+            int scanIndex;
+            while (!closed && (scanIndex = nextScan.getAndIncrement()) < scans.size()) {
+                BlockingQueue<Object> queue = getQueue(scanIndex);
+                ResultScanner scanner = null;
+                try {
+                    Scan scan = scans.get(scanIndex);
+                    boolean suspended;
+                    do {
+                        suspended = false;
+                        scanner = table.getScanner(scan);
+                        Result result;
+                        while (!closed && (result = scanner.next()) != null) {
+                            Object record = decode(result);
+                            if (!queue.offer(record)) {
+                                if (ordered) {
+                                    Closer.close(scanner);
+                                    scanner = null;
+                                    scan = resumeAfter(scan, result.getRow());
+                                    suspended = true;
+                                }
+                                put(queue, record);
+                            }
+                            if (suspended) {
+                                break;
+                            }
+                        }
+                    } while (suspended && !closed);
+                    put(queue, END_OF_SCAN);
+                } catch (InterruptedException e) {
+                    // closed
+                    return;
+                } catch (Throwable t) {
+                    try {
+                        put(queue, new ScanFailure(t));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                } finally {
+                    Closer.close(scanner);
+                }
+            }
+        }
+
+        /**
+         * Returns a copy of the scan which starts right after the given row.
+         */
+        private Scan resumeAfter(Scan scan, byte[] row) throws IOException {
+            Scan resumed = new Scan(scan);
+            resumed.setStartRow(Bytes.add(row, new byte[] {0}));
+            return resumed;
+        }
+
+        private void put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+            while (!closed) {
+                if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+                    return;
+                }
+            }
+            throw new InterruptedException("Scanner closed");
+        }
+    }
+
+    private static final class ScanFailure {
+        private final Throwable cause;
+
+        ScanFailure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
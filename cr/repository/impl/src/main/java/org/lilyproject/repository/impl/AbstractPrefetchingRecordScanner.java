@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Scanner which fetches and decodes records in the background. See
+ * {@link org.lilyproject.repository.api.RecordScan#setPrefetchDepth(int)}.
+ *
+ * <p>The scan is run as a pipeline of three stages, connected by bounded queues: a fetcher thread reads
+ * batches of results from the HBase scanner, a decoder thread decodes them into records, and the caller
+ * takes the decoded records.</p>
+ *
+ * <p>The HBase scanner is only used, and closed, by the fetcher thread.</p>
+ */
+abstract class AbstractPrefetchingRecordScanner<T extends Record> extends AbstractRecordScanner<T> {
+    /**
+     * Marks the end of the scan, in both queues.
+     */
+    private static final Object END_OF_SCAN = new Object();
+
+    private final ResultScanner hbaseScanner;
+    private final int batchSize;
+    /**
+     * Contains batches of results (Result[]), followed by {@link #END_OF_SCAN} or a {@link ScanFailure}.
+     */
+    private final BlockingQueue<Object> batches;
+    /**
+     * Contains decoded records, followed by {@link #END_OF_SCAN} or a {@link ScanFailure}.
+     */
+    private final BlockingQueue<Object> records;
+    private final ExecutorService executor;
+    private volatile boolean closed;
+    private boolean finished;
+
+    /**
+     * @param batchSize the number of results fetched at once, and the number of decoded records buffered
+     * @param prefetchDepth the maximum number of fetched batches which are waiting to be decoded
+     */
+    AbstractPrefetchingRecordScanner(ResultScanner hbaseScanner, int batchSize, int prefetchDepth) {
+        this.hbaseScanner = hbaseScanner;
+        this.batchSize = batchSize;
+        this.batches = new ArrayBlockingQueue<Object>(prefetchDepth);
+        this.records = new ArrayBlockingQueue<Object>(batchSize);
+
+        this.executor = Executors.newFixedThreadPool(2, new CustomThreadFactory("lily-scan-prefetch", null, true));
+        executor.execute(new Fetcher());
+        executor.execute(new Decoder());
+        executor.shutdown();
+    }
+
+    abstract T decode(Result result) throws RepositoryException, InterruptedException;
+
+    @SuppressWarnings("unchecked")
+    public T next() throws RepositoryException, InterruptedException {
+        if (finished || closed) {
+            return null;
+        }
+
+        Object item = records.take();
+        if (item == END_OF_SCAN) {
+            finished = true;
+            return null;
+        } else if (item instanceof ScanFailure) {
+            close();
+            Throwable cause = ((ScanFailure)item).cause;
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException)cause;
+            }
+            throw new RepositoryException("Error scanning records", cause);
+        } else {
+            return (T)item;
+        }
+    }
+
+    public void close() {
+        if (!closed) {
+            closed = true;
+            // interrupts the threads which are blocked on a queue, the fetcher closes the HBase scanner
+            executor.shutdownNow();
+            batches.clear();
+            records.clear();
+            // wakes up a caller which is blocked in next()
+            records.offer(END_OF_SCAN);
+        }
+    }
+
+    private void put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+                return;
+            }
+        }
+        throw new InterruptedException("Scanner closed");
+    }
+
+    private class Fetcher implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    Result[] batch = hbaseScanner.next(batchSize);
+                    if (batch.length == 0) {
+                        put(batches, END_OF_SCAN);
+                        return;
+                    }
+                    put(batches, batch);
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } catch (Throwable t) {
+                try {
+                    put(batches, new ScanFailure(t));
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            } finally {
+                Closer.close(hbaseScanner);
+            }
+        }
+    }
+
+    private class Decoder implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    Object item = batches.take();
+                    if (item instanceof Result[]) {
+                        for (Result result : (Result[])item) {
+                            put(records, decode(result));
+                        }
+                    } else {
+                        // end of scan or failure
+                        put(records, item);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } catch (Throwable t) {
+                try {
+                    put(records, new ScanFailure(t));
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }
+        }
+    }
+
+    private static final class ScanFailure {
+        private final Throwable cause;
+
+        ScanFailure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
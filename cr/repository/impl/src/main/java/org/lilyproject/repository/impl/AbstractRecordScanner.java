@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Iterator;
+
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * Base class of the record scanners, which implements the iteration over the records on top of {@link #next()}.
+ */
+abstract class AbstractRecordScanner<T extends Record> {
+    /**
+     * Returns the next record, or null if there are no more records.
+     */
+    public abstract T next() throws RepositoryException, InterruptedException;
+
+    public abstract void close();
+
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private T next;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                } else {
+                    try {
+                        next = AbstractRecordScanner.this.next();
+                    } catch (RepositoryException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                    return next != null;
+                }
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    return null;
+                }
+
+                T result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.hbase.LilyRecordTypeSetFilter;
+
+/**
+ * Scanner which finds the records of a set of record types through the {@link RecordTypeIndex}, rather than
+ * by scanning the record table. See {@link org.lilyproject.repository.api.RecordScan#setUseRecordTypeIndex(boolean)}.
+ *
+ * <p>The record types are handled one after the other: the ids of the records of a record type are read from
+ * the index in batches, and each batch is read from the record table with a multi-get. Each get is filtered
+ * with the filter of the original scan and with a filter on the record type being handled, which drops the
+ * stale index entries of records which changed record type, and which makes sure a record found through more
+ * than one record type is only returned once.</p>
+ *
+ * <p>The records are thus returned in the order of their record IDs per record type, rather than overall.</p>
+ */
+abstract class AbstractRecordTypeIndexScanner<T extends Record> extends AbstractRecordScanner<T> {
+    private final HTableInterface table;
+    private final Scan hbaseScan;
+    private final RecordTypeIndex index;
+    private final Iterator<SchemaId> recordTypeIds;
+    private final int batchSize;
+
+    private SchemaId currentRecordTypeId;
+    private QueryResult currentIndexResult;
+    private final LinkedList<Result> buffer = new LinkedList<Result>();
+    private boolean closed;
+
+    /**
+     * @param hbaseScan the scan of which the filter and columns are used to read the records
+     * @param batchSize the number of records read at once from the record table
+     */
+    AbstractRecordTypeIndexScanner(HTableInterface table, Scan hbaseScan, RecordTypeIndex index,
+            List<SchemaId> recordTypeIds, int batchSize) {
+        this.table = table;
+        this.hbaseScan = hbaseScan;
+        this.index = index;
+        this.recordTypeIds = new ArrayList<SchemaId>(recordTypeIds).iterator();
+        this.batchSize = batchSize;
+    }
+
+    abstract T decode(Result result) throws RepositoryException, InterruptedException;
+
+    public T next() throws RepositoryException, InterruptedException {
+        if (closed) {
+            return null;
+        }
+
+        try {
+            while (buffer.isEmpty()) {
+                if (!fillBuffer()) {
+                    close();
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw new RecordException("Error scanning records through the record type index", e);
+        }
+
+        return decode(buffer.removeFirst());
+    }
+
+    /**
+     * Reads the next batch of records. Returns false when all record types have been handled.
+     */
+    private boolean fillBuffer() throws IOException {
+        if (currentIndexResult == null) {
+            if (!recordTypeIds.hasNext()) {
+                return false;
+            }
+            currentRecordTypeId = recordTypeIds.next();
+            currentIndexResult = index.getRecords(currentRecordTypeId);
+        }
+
+        List<Get> gets = new ArrayList<Get>(batchSize);
+        byte[] recordId;
+        while (gets.size() < batchSize && (recordId = currentIndexResult.next()) != null) {
+            gets.add(createGet(recordId));
+        }
+
+        if (gets.size() < batchSize) {
+            // end of the records of this record type
+            currentIndexResult.close();
+            currentIndexResult = null;
+        }
+
+        if (!gets.isEmpty()) {
+            for (Result result : table.get(gets)) {
+                if (result != null && !result.isEmpty()) {
+                    buffer.add(result);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private Get createGet(byte[] recordId) {
+        Get get = new Get(recordId);
+        for (Map.Entry<byte[], NavigableSet<byte[]>> entry : hbaseScan.getFamilyMap().entrySet()) {
+            if (entry.getValue() == null) {
+                get.addFamily(entry.getKey());
+            } else {
+                for (byte[] qualifier : entry.getValue()) {
+                    get.addColumn(entry.getKey(), qualifier);
+                }
+            }
+        }
+        get.setCacheBlocks(hbaseScan.getCacheBlocks());
+
+        FilterList filterList = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+        if (hbaseScan.getFilter() != null) {
+            filterList.addFilter(hbaseScan.getFilter());
+        }
+        filterList.addFilter(new LilyRecordTypeSetFilter(Collections.singletonList(currentRecordTypeId)));
+        get.setFilter(filterList);
+
+        return get;
+    }
+
+    public void close() {
+        if (!closed) {
+            closed = true;
+            buffer.clear();
+            if (currentIndexResult != null) {
+                currentIndexResult.close();
+                currentIndexResult = null;
+            }
+        }
+    }
+}
@@ -17,6 +17,12 @@ package org.lilyproject.repository.impl;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 
@@ -32,8 +38,10 @@ import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.model.api.RepositoryModel;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.RecordEvent;
 
 /**
  * Handles thread-safe creation and caching of Repository objects.
@@ -45,6 +53,27 @@ public abstract class AbstractRepositoryManager implements RepositoryManager {
     private final IdGenerator idGenerator;
     private final RecordFactory recordFactory;
     private final RepositoryModel repositoryModel;
+    private ExecutorService batchExecutor;
+    private ExecutorService asyncExecutor;
+    private boolean ownAsyncExecutor;
+    private volatile boolean lazyFieldDecoding = true;
+    private final Map<String, BatchReadConfig> batchReadConfigs = new ConcurrentHashMap<String, BatchReadConfig>();
+    private final Map<String, FieldCompressionConfig> fieldCompressionConfigs =
+            new ConcurrentHashMap<String, FieldCompressionConfig>();
+    private volatile RecordCache recordCache;
+    private volatile boolean recordTypeIndexEnabled = false;
+    private volatile boolean variantIndexEnabled = false;
+    private volatile RecordEvent.Encoding recordEventEncoding = RecordEvent.Encoding.JSON;
+
+    /**
+     * Maximum number of threads used to run the storage operations of batch calls concurrently.
+     */
+    private static final int MAX_BATCH_THREADS = 50;
+
+    /**
+     * Default number of threads used to execute the operations of {@link org.lilyproject.repository.api.AsyncLTable}.
+     */
+    private static final int DEFAULT_ASYNC_THREADS = 20;
 
 
     public AbstractRepositoryManager(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
@@ -67,6 +96,164 @@ public abstract class AbstractRepositoryManager implements RepositoryManager {
         return recordFactory;
     }
 
+    /**
+     * Returns the executor on which the repositories can run independent storage operations of batch calls
+     * (e.g. {@link org.lilyproject.repository.api.LTable#createAll}) concurrently.
+     *
+     * <p>The number of threads is bounded: when all threads are busy, the task is executed by the submitting
+     * thread itself, so waiting on submitted tasks never deadlocks.</p>
+     */
+    protected synchronized ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            batchExecutor = new ThreadPoolExecutor(1, MAX_BATCH_THREADS, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new CustomThreadFactory("lily-batch", null, true),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return batchExecutor;
+    }
+
+    /**
+     * Returns the executor on which the operations of {@link org.lilyproject.repository.api.AsyncLTable}'s
+     * are executed. Unless one was supplied via {@link #setAsyncExecutor}, this is a fixed-size pool of
+     * {@value #DEFAULT_ASYNC_THREADS} threads, operations submitted while all threads are busy are queued.
+     */
+    protected synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = new ThreadPoolExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new CustomThreadFactory("lily-async", null, true));
+            ownAsyncExecutor = true;
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets the executor to be used for asynchronous operations, this allows to control the number of threads
+     * and the queueing behavior. The executor will not be shut down when this repository manager is closed.
+     */
+    public synchronized void setAsyncExecutor(ExecutorService executor) {
+        if (asyncExecutor != null && ownAsyncExecutor) {
+            asyncExecutor.shutdown();
+        }
+        this.asyncExecutor = executor;
+        this.ownAsyncExecutor = false;
+    }
+
+    /**
+     * Returns true if records read from storage decode their field values on first access rather than right away.
+     */
+    protected boolean isLazyFieldDecoding() {
+        return lazyFieldDecoding;
+    }
+
+    /**
+     * Enables or disables lazy decoding of field values of records read from storage, see
+     * {@link LazyRecordImpl}. This is enabled by default. The setting only applies to repositories which
+     * are not yet created, thus it should be set before the first call to one of the getRepository methods.
+     */
+    public void setLazyFieldDecoding(boolean lazyFieldDecoding) {
+        this.lazyFieldDecoding = lazyFieldDecoding;
+    }
+
+    /**
+     * Returns the configuration for reading multiple records from the tables of the given repository.
+     */
+    protected BatchReadConfig getBatchReadConfig(String repositoryName) {
+        BatchReadConfig config = batchReadConfigs.get(repositoryName);
+        return config != null ? config : BatchReadConfig.DEFAULT;
+    }
+
+    /**
+     * Sets the configuration for reading multiple records from the tables of the given repository. This
+     * applies immediately, also to already created repositories. Passing null restores the default.
+     */
+    public void setBatchReadConfig(String repositoryName, BatchReadConfig config) {
+        if (config == null) {
+            batchReadConfigs.remove(repositoryName);
+        } else {
+            batchReadConfigs.put(repositoryName, config);
+        }
+    }
+
+    /**
+     * Returns the field compression configuration of the given repository, or null if no field values should
+     * be compressed.
+     */
+    protected FieldCompressionConfig getFieldCompressionConfig(String repositoryName) {
+        return fieldCompressionConfigs.get(repositoryName);
+    }
+
+    /**
+     * Sets which field values are compressed when they are written to the given repository, by default none
+     * are. Set to null to stop compressing. See {@link FieldCompressionConfig}.
+     */
+    public void setFieldCompressionConfig(String repositoryName, FieldCompressionConfig config) {
+        if (config == null) {
+            fieldCompressionConfigs.remove(repositoryName);
+        } else {
+            fieldCompressionConfigs.put(repositoryName, config);
+        }
+    }
+
+    /**
+     * Returns the cache used for reading single records, or null if records are not cached.
+     */
+    protected RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Sets the cache used by the repositories for reading single records, null disables caching, which is the
+     * default. This applies immediately, also to already created repositories. The cache will not be shut down
+     * when this repository manager is closed.
+     */
+    public void setRecordCache(RecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    protected boolean isRecordTypeIndexEnabled() {
+        return recordTypeIndexEnabled;
+    }
+
+    /**
+     * Enables or disables maintaining a {@link RecordTypeIndex} for the repository tables, which is disabled by
+     * default. When enabled, it is used by scans which ask for it, see
+     * {@link org.lilyproject.repository.api.RecordScan#setUseRecordTypeIndex(boolean)}. The setting only applies
+     * to repositories which are not yet created, thus it should be set before the first call to one of the
+     * getRepository methods. Since records which were created while the index was disabled are missing from it,
+     * it should be enabled on all repository managers writing to the repository, from the start.
+     */
+    public void setRecordTypeIndexEnabled(boolean recordTypeIndexEnabled) {
+        this.recordTypeIndexEnabled = recordTypeIndexEnabled;
+    }
+
+    protected boolean isVariantIndexEnabled() {
+        return variantIndexEnabled;
+    }
+
+    /**
+     * Enables or disables maintaining a {@link VariantIndex} for the repository tables, which is disabled by
+     * default. When enabled, it is used to find the variants of a record. As for
+     * {@link #setRecordTypeIndexEnabled(boolean)}, this only applies to repositories which are not yet created,
+     * and should be enabled on all repository managers writing to the repository, from the start.
+     */
+    public void setVariantIndexEnabled(boolean variantIndexEnabled) {
+        this.variantIndexEnabled = variantIndexEnabled;
+    }
+
+    protected RecordEvent.Encoding getRecordEventEncoding() {
+        return recordEventEncoding;
+    }
+
+    /**
+     * Sets the encoding of the record events which the repositories store as payload of their mutations, which
+     * is json by default. The binary encoding is smaller and cheaper to parse, but Lily versions before it was
+     * introduced can't read it, so it should only be enabled once all Lily servers and all other consumers of
+     * the events have been upgraded. This applies immediately, also to already created repositories.
+     */
+    public void setRecordEventEncoding(RecordEvent.Encoding recordEventEncoding) {
+        this.recordEventEncoding = recordEventEncoding;
+    }
+
     /**
      * Create a new Repository object for the repository cache.
      */
@@ -106,6 +293,14 @@ public abstract class AbstractRepositoryManager implements RepositoryManager {
             }
         }
         repositoryCache.clear();
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+            batchExecutor = null;
+        }
+        if (asyncExecutor != null && ownAsyncExecutor) {
+            asyncExecutor.shutdownNow();
+            asyncExecutor = null;
+        }
         Closer.close(typeManager);
     }
 
@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl;
 
 import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -66,9 +67,7 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
     private final CacheRefresher cacheRefresher = new CacheRefresher();
 
-    private FieldTypes fieldTypesSnapshot;
     private FieldTypesCache fieldTypesCache = new FieldTypesCache();
-    private volatile boolean updatedFieldTypes = false;
 
     private RecordTypesCache recordTypes = new RecordTypesCache();
 
@@ -77,6 +76,17 @@ public abstract class AbstractSchemaCache implements SchemaCache {
     private ParentWatcher parentWatcher = new ParentWatcher();
     private Integer parentVersion = null;
 
+    /**
+     * File to which the content of the cache is persisted after each refresh, and from which it is loaded
+     * when starting. Null if the cache is not persisted.
+     */
+    private final File snapshotFile;
+    /**
+     * Taken while refreshing and persisting the cache, so that a persisted snapshot never contains the version of
+     * a bucket of which the types are still being read.
+     */
+    private final Object refreshLock = new Object();
+
     protected static final String CACHE_INVALIDATION_PATH = "/lily/typemanager/cache/invalidate";
     protected static final String CACHE_REFRESHENABLED_PATH = "/lily/typemanager/cache/enabled";
     private static final String LILY_NODES_PATH = "/lily/repositoryNodes";
@@ -90,7 +100,16 @@ public abstract class AbstractSchemaCache implements SchemaCache {
             Sets.newHashSet(CACHE_INVALIDATION_PATH, CACHE_REFRESHENABLED_PATH, LILY_NODES_PATH);
 
     public AbstractSchemaCache(ZooKeeperItf zooKeeper) {
+        this(zooKeeper, null);
+    }
+
+    /**
+     * @param snapshotFile file in which the cache is persisted, so that after a restart only the buckets which
+     *                     changed meanwhile need to be read from the type table. Can be null.
+     */
+    public AbstractSchemaCache(ZooKeeperItf zooKeeper, File snapshotFile) {
         this.zooKeeper = zooKeeper;
+        this.snapshotFile = snapshotFile;
     }
 
     /**
@@ -180,6 +199,7 @@ public abstract class AbstractSchemaCache implements SchemaCache {
         connectionWatcher = new ConnectionWatcher();
         zooKeeper.addDefaultWatcher(connectionWatcher);
         readRefreshingEnabledState();
+        loadSnapshot();
         refreshAll();
     }
 
@@ -208,21 +228,12 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
     @Override
     public FieldTypes getFieldTypesSnapshot() throws InterruptedException {
-        if (!updatedFieldTypes) {
-            return fieldTypesSnapshot;
-        }
-        synchronized (this) {
-            if (updatedFieldTypes) {
-                fieldTypesSnapshot = fieldTypesCache.getSnapshot();
-                updatedFieldTypes = false;
-            }
-            return fieldTypesSnapshot;
-        }
+        // The field types cache publishes immutable snapshots, so this never needs to block
+        return fieldTypesCache.getSnapshot();
     }
 
     public void updateFieldType(FieldType fieldType) throws TypeException, InterruptedException {
         fieldTypesCache.update(fieldType);
-        updatedFieldTypes = true;
     }
 
     public void updateRecordType(RecordType recordType) throws TypeException, InterruptedException {
@@ -276,6 +287,13 @@ public abstract class AbstractSchemaCache implements SchemaCache {
      * invalidation zookeeper-node.
      */
     private void refreshAll() throws InterruptedException, RepositoryException {
+        synchronized (refreshLock) {
+            refreshAllBuckets();
+            persistSnapshot();
+        }
+    }
+
+    private void refreshAllBuckets() throws InterruptedException, RepositoryException {
 
         watchPathsForExistence();
 
@@ -345,7 +363,6 @@ public abstract class AbstractSchemaCache implements SchemaCache {
             // Read all types in one go
             Pair<List<FieldType>, List<RecordType>> types = getTypeManager().getTypesWithoutCache();
             fieldTypesCache.refreshFieldTypes(types.getV1());
-            updatedFieldTypes = true;
             recordTypes.refreshRecordTypes(types.getV2());
         } else {
             // Only the changed buckets need to be refreshed.
@@ -387,7 +404,6 @@ public abstract class AbstractSchemaCache implements SchemaCache {
                 bucketVersions.put(entry.getKey(), entry.getValue());
                 TypeBucket typeBucket = getTypeManager().getTypeBucketWithoutCache(entry.getKey());
                 fieldTypesCache.refreshFieldTypeBucket(typeBucket);
-                updatedFieldTypes = true;
                 recordTypes.refreshRecordTypeBucket(typeBucket);
             }
         }
@@ -398,6 +414,18 @@ public abstract class AbstractSchemaCache implements SchemaCache {
      * cacheWatcher again on the cache invalidation zookeeper-node.
      */
     private void refresh(Set<CacheWatcher> watchers) throws InterruptedException, RepositoryException {
+        synchronized (refreshLock) {
+            if (refreshBuckets(watchers)) {
+                persistSnapshot();
+            }
+        }
+    }
+
+    /**
+     * @return true if any bucket was refreshed
+     */
+    private boolean refreshBuckets(Set<CacheWatcher> watchers) throws InterruptedException, RepositoryException {
+        boolean refreshed = false;
         // Only update one bucket at a time
         // Meanwhile updates on the other buckets could happen.
         // Since the watchers for those other buckets are not set back again
@@ -441,8 +469,72 @@ public abstract class AbstractSchemaCache implements SchemaCache {
             TypeBucket typeBucket = getTypeManager().getTypeBucketWithoutCache(bucketId);
             fieldTypesCache.refreshFieldTypeBucket(typeBucket);
             recordTypes.refreshRecordTypeBucket(typeBucket);
+            refreshed = true;
+        }
+        return refreshed;
+    }
+
+    /**
+     * Fills the cache with the persisted snapshot, if any. The bucket versions of the snapshot are taken over,
+     * so that the subsequent {@link #refreshAll()} only reads the buckets which changed since the snapshot was
+     * written.
+     */
+    private void loadSnapshot() throws InterruptedException {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        try {
+            SchemaCacheSnapshot snapshot = SchemaCacheSnapshot.read(snapshotFile, getTypeManager());
+            if (snapshot == null) {
+                return;
+            }
+
+            Stat stat = zooKeeper.exists(CACHE_INVALIDATION_PATH, false);
+            if (stat == null || stat.getCzxid() != snapshot.getInvalidationNodeCzxid()) {
+                log.info("Ignoring schema cache snapshot " + snapshotFile + ", it belongs to another ZooKeeper state");
+                return;
+            }
+
+            fieldTypesCache.refreshFieldTypes(snapshot.getFieldTypes());
+            recordTypes.refreshRecordTypes(snapshot.getRecordTypes());
+            bucketVersions.putAll(snapshot.getBucketVersions());
+            parentVersion = snapshot.getInvalidationNodeVersion();
+            log.info("Loaded " + snapshot.getFieldTypes().size() + " field types and "
+                    + snapshot.getRecordTypes().size() + " record types from schema cache snapshot " + snapshotFile);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // The snapshot is only an optimization, the cache will be filled from the type table instead
+            log.warn("Failed to load schema cache snapshot " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Writes the current content of the cache to the snapshot file, if any.
+     */
+    private void persistSnapshot() throws InterruptedException {
+        if (snapshotFile == null || parentVersion == null) {
+            return;
+        }
+
+        try {
+            Stat stat = zooKeeper.exists(CACHE_INVALIDATION_PATH, false);
+            if (stat == null) {
+                return;
+            }
+            Map<String, Integer> versions = new HashMap<String, Integer>(bucketVersions);
+            List<FieldType> fieldTypes =
+                    new ArrayList<FieldType>(fieldTypesCache.getSnapshot().getCachedFieldTypes());
+            List<RecordType> recordTypeList = new ArrayList<RecordType>(recordTypes.getRecordTypes());
+            SchemaCacheSnapshot snapshot =
+                    new SchemaCacheSnapshot(stat.getCzxid(), parentVersion, versions, fieldTypes, recordTypeList);
+            snapshot.write(snapshotFile);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("Failed to persist schema cache snapshot to " + snapshotFile, e);
         }
-        updatedFieldTypes = true;
     }
 
     private void watchPathsForExistence() throws InterruptedException {
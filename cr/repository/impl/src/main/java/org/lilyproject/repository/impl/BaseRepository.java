@@ -19,13 +19,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
@@ -36,17 +44,22 @@ import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.AsyncLTable;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
+import org.lilyproject.repository.api.InvalidRecordException;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.MutationResult;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordException;
@@ -57,20 +70,27 @@ import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ResponseStatus;
 import org.lilyproject.repository.api.TableManager;
 import org.lilyproject.repository.api.ReturnFields;
 import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeException;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.api.filter.RecordFilter;
+import org.lilyproject.repository.api.filter.RecordTypeFilter;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
+import org.lilyproject.repository.impl.valuetype.LongValueType;
+import org.lilyproject.repository.spi.ExecutorAsyncTable;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.Pair;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.hbase.LocalHTable;
+import org.lilyproject.util.repo.RecordEvent;
 
 public abstract class BaseRepository implements Repository {
     protected final AbstractRepositoryManager repositoryManager;
@@ -83,6 +103,26 @@ public abstract class BaseRepository implements Repository {
     protected final RepoTableKey repoTableKey;
     protected final TableManager tableManager;
     protected RepositoryMetrics metrics;
+    /**
+     * Optional, see {@link #setRecordTypeIndex(RecordTypeIndex)}.
+     */
+    protected volatile RecordTypeIndex recordTypeIndex;
+
+    /**
+     * Maximum number of attempts of the conditional update done by the default {@link #increment}.
+     */
+    protected static final int MAX_INCREMENT_ATTEMPTS = 10;
+
+    /**
+     * Number of versions read at once by the scanners of {@link #getVersionScanner}.
+     */
+    protected static final int VERSION_SCANNER_PAGE_SIZE = 100;
+
+    /**
+     * Number of records buffered per region by parallel scanners, and per batch by prefetching scanners, if the
+     * scan does not specify its caching.
+     */
+    protected static final int DEFAULT_SCAN_QUEUE_SIZE = 100;
 
     /**
      * Not all rows in the HBase record table are real records, this filter excludes non-valid
@@ -114,12 +154,22 @@ public abstract class BaseRepository implements Repository {
         this.blobManager = blobManager;
         this.idGenerator = repositoryManager.getIdGenerator();
         this.recordTable = recordTable;
-        this.recdec = new RecordDecoder(typeManager, idGenerator, new RecordFactoryImpl());
+        this.recdec = new RecordDecoder(typeManager, idGenerator, new RecordFactoryImpl(),
+                repositoryManager.isLazyFieldDecoding());
         this.metrics = metrics;
         this.tableManager = tableManager;
         this.recordFactory = recordFactory;
     }
 
+    /**
+     * Sets the index of the records by record type, which scans can use to find the records of a record type.
+     * Normally called by the repository manager, see
+     * {@link AbstractRepositoryManager#setRecordTypeIndexEnabled(boolean)}.
+     */
+    public void setRecordTypeIndex(RecordTypeIndex recordTypeIndex) {
+        this.recordTypeIndex = recordTypeIndex;
+    }
+
     @Override
     public TableManager getTableManager() {
         return tableManager;
@@ -218,15 +268,130 @@ public abstract class BaseRepository implements Repository {
 
     @Override
     public RecordScanner getScanner(RecordScan scan) throws RepositoryException, InterruptedException {
-        return new HBaseRecordScannerImpl(createHBaseResultScanner(scan), recdec);
+        Scan hbaseScan = createHBaseScan(scan);
+        List<SchemaId> indexedRecordTypeIds = getIndexedRecordTypeIds(scan);
+        if (indexedRecordTypeIds != null) {
+            return new RecordTypeIndexRecordScannerImpl(recordTable, hbaseScan, recordTypeIndex, indexedRecordTypeIds,
+                    getScanQueueSize(scan), recdec);
+        }
+        List<Scan> regionScans = splitPerRegion(hbaseScan, scan.getParallelism());
+        if (regionScans != null) {
+            return new ParallelRecordScannerImpl(recordTable, regionScans, scan.getParallelism(), scan.isOrdered(),
+                    getScanQueueSize(scan), recdec);
+        } else if (scan.getPrefetchDepth() > 0) {
+            return new PrefetchingRecordScannerImpl(createHBaseResultScanner(hbaseScan), getScanQueueSize(scan),
+                    scan.getPrefetchDepth(), recdec);
+        }
+        return new HBaseRecordScannerImpl(createHBaseResultScanner(hbaseScan), recdec);
     }
 
     @Override
     public IdRecordScanner getScannerWithIds(RecordScan scan) throws RepositoryException, InterruptedException {
-        return new HBaseIdRecordScannerImpl(createHBaseResultScanner(scan), recdec);
+        Scan hbaseScan = createHBaseScan(scan);
+        List<SchemaId> indexedRecordTypeIds = getIndexedRecordTypeIds(scan);
+        if (indexedRecordTypeIds != null) {
+            return new RecordTypeIndexIdRecordScannerImpl(recordTable, hbaseScan, recordTypeIndex, indexedRecordTypeIds,
+                    getScanQueueSize(scan), recdec);
+        }
+        List<Scan> regionScans = splitPerRegion(hbaseScan, scan.getParallelism());
+        if (regionScans != null) {
+            return new ParallelIdRecordScannerImpl(recordTable, regionScans, scan.getParallelism(), scan.isOrdered(),
+                    getScanQueueSize(scan), recdec);
+        } else if (scan.getPrefetchDepth() > 0) {
+            return new PrefetchingIdRecordScannerImpl(createHBaseResultScanner(hbaseScan), getScanQueueSize(scan),
+                    scan.getPrefetchDepth(), recdec);
+        }
+        return new HBaseIdRecordScannerImpl(createHBaseResultScanner(hbaseScan), recdec);
+    }
+
+    /**
+     * Returns the ids of the record types of which the records should be read through the record type index,
+     * or null if the scan should not use the index: if it doesn't ask for it, if this repository has no index,
+     * if the scan has a start or stop record id, or if its filter is not a {@link RecordTypeFilter}.
+     */
+    private List<SchemaId> getIndexedRecordTypeIds(RecordScan scan) throws RepositoryException, InterruptedException {
+        if (!scan.getUseRecordTypeIndex() || recordTypeIndex == null
+                || scan.getStartRecordId() != null || scan.getRawStartRecordId() != null
+                || scan.getStopRecordId() != null || scan.getRawStopRecordId() != null
+                || !(scan.getRecordFilter() instanceof RecordTypeFilter)) {
+            return null;
+        }
+
+        RecordTypeFilter filter = (RecordTypeFilter)scan.getRecordFilter();
+        // the filter itself, which is applied to the records read through the index, validates its settings
+        SchemaId recordTypeId = typeManager.getRecordTypeByName(filter.getRecordType(), null).getId();
+        List<SchemaId> recordTypeIds = new ArrayList<SchemaId>();
+        recordTypeIds.add(recordTypeId);
+        if (filter.getOperator() == RecordTypeFilter.Operator.INSTANCE_OF) {
+            recordTypeIds.addAll(typeManager.findSubtypes(recordTypeId));
+        }
+        return recordTypeIds;
+    }
+
+    private int getScanQueueSize(RecordScan scan) {
+        return scan.getCaching() > 0 ? scan.getCaching() : DEFAULT_SCAN_QUEUE_SIZE;
     }
 
-    private ResultScanner createHBaseResultScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+    /**
+     * Splits the given scan in one scan per region overlapping with its range, so that these can be run in
+     * parallel. Returns null if the scan should not be run in parallel: if no parallelism is asked for, if the
+     * region boundaries are not known, or if the range lies within one region.
+     */
+    private List<Scan> splitPerRegion(Scan hbaseScan, int parallelism) throws RepositoryException {
+        if (parallelism <= 1 || !(recordTable instanceof LocalHTable)) {
+            return null;
+        }
+
+        List<byte[]> startKeys;
+        try {
+            startKeys = ((LocalHTable)recordTable).getRegionStartKeys();
+        } catch (IOException e) {
+            throw new RecordException("Error determining the regions of the record table", e);
+        }
+
+        byte[] scanStart = hbaseScan.getStartRow();
+        byte[] scanStop = hbaseScan.getStopRow();
+        List<Scan> scans = new ArrayList<Scan>();
+        for (int i = 0; i < startKeys.size(); i++) {
+            byte[] start = startKeys.get(i);
+            byte[] stop = i + 1 < startKeys.size() ? startKeys.get(i + 1) : HConstants.EMPTY_END_ROW;
+
+            // intersect the region range with the scan range
+            if (Bytes.compareTo(start, scanStart) < 0) {
+                start = scanStart;
+            }
+            if (scanStop.length > 0 && (stop.length == 0 || Bytes.compareTo(scanStop, stop) < 0)) {
+                stop = scanStop;
+            }
+            if (stop.length > 0 && Bytes.compareTo(start, stop) >= 0) {
+                continue;
+            }
+
+            Scan regionScan;
+            try {
+                regionScan = new Scan(hbaseScan);
+            } catch (IOException e) {
+                throw new RecordException("Error creating scanner", e);
+            }
+            regionScan.setStartRow(start);
+            regionScan.setStopRow(stop);
+            scans.add(regionScan);
+        }
+
+        return scans.size() > 1 ? scans : null;
+    }
+
+    private ResultScanner createHBaseResultScanner(Scan hbaseScan) throws RepositoryException {
+        ResultScanner hbaseScanner;
+        try {
+            hbaseScanner = recordTable.getScanner(hbaseScan);
+        } catch (IOException e) {
+            throw new RecordException("Error creating scanner", e);
+        }
+        return hbaseScanner;
+    }
+
+    private Scan createHBaseScan(RecordScan scan) throws RepositoryException, InterruptedException {
         Scan hbaseScan = new Scan();
 
         hbaseScan.setMaxVersions(1);
@@ -281,13 +446,7 @@ public abstract class BaseRepository implements Repository {
             hbaseScan.addFamily(RecordCf.DATA.bytes);
         }
 
-        ResultScanner hbaseScanner;
-        try {
-            hbaseScanner = recordTable.getScanner(hbaseScan);
-        } catch (IOException e) {
-            throw new RecordException("Error creating scanner", e);
-        }
-        return hbaseScanner;
+        return hbaseScan;
     }
 
     private static final List<HBaseRecordFilterFactory> FILTER_FACTORIES;
@@ -316,6 +475,99 @@ public abstract class BaseRepository implements Repository {
         }
     };
 
+    /* BATCH MUTATIONS */
+
+    /**
+     * Default implementation which creates the records one by one, subclasses can override this with an
+     * implementation that combines the round-trips.
+     */
+    @Override
+    public List<MutationResult> createAll(List<Record> records) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        List<MutationResult> results = new ArrayList<MutationResult>(records.size());
+        for (Record record : records) {
+            try {
+                results.add(new MutationResult(create(record)));
+            } catch (RepositoryException e) {
+                results.add(new MutationResult(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Default implementation which updates the records one by one, subclasses can override this with an
+     * implementation that combines the round-trips.
+     */
+    @Override
+    public List<MutationResult> updateAll(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        List<MutationResult> results = new ArrayList<MutationResult>(records.size());
+        for (Record record : records) {
+            try {
+                results.add(new MutationResult(update(record, false, useLatestRecordType)));
+            } catch (RepositoryException e) {
+                results.add(new MutationResult(e));
+            }
+        }
+        return results;
+    }
+
+    /* COUNTERS */
+
+    /**
+     * Default implementation which increments the field with a conditional update on its current value,
+     * retrying when the field was changed concurrently. Subclasses can override this with an implementation
+     * which applies the increment atomically.
+     */
+    @Override
+    public long increment(RecordId recordId, QName fieldName, long delta)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(recordId, "recordId");
+        ArgumentValidator.notNull(fieldName, "fieldName");
+
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        FieldType fieldType = getCounterFieldType(recordId, fieldName, fieldTypes);
+
+        for (int attempts = 0; attempts < MAX_INCREMENT_ATTEMPTS; attempts++) {
+            // not via the record cache, which might not have seen the latest increments yet
+            Record record = read(recordId, null, Collections.singletonList(fieldType), fieldTypes);
+            Long currentValue = record.hasField(fieldName) ? record.<Long>getField(fieldName) : null;
+            long newValue = (currentValue == null ? 0L : currentValue) + delta;
+
+            Record newRecord = newRecord(recordId);
+            newRecord.setField(fieldName, newValue);
+            try {
+                // a null value in the condition requires the field to be missing
+                Record result = update(newRecord, false, true,
+                        Collections.singletonList(new MutationCondition(fieldName, currentValue)));
+                if (result.getResponseStatus() != ResponseStatus.CONFLICT) {
+                    return newValue;
+                }
+            } catch (ConcurrentRecordUpdateException e) {
+                // some other field of the record was updated concurrently, try again
+            }
+        }
+
+        throw new ConcurrentRecordUpdateException(recordId);
+    }
+
+    /**
+     * Returns the field type of a field which is to be incremented, checking that it is usable as a counter.
+     */
+    protected FieldType getCounterFieldType(RecordId recordId, QName fieldName, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        FieldType fieldType = fieldTypes.getFieldType(fieldName);
+        if (fieldType.getScope() != Scope.NON_VERSIONED
+                || !LongValueType.NAME.equals(fieldType.getValueType().getName())) {
+            throw new InvalidRecordException("Only non-versioned fields of type " + LongValueType.NAME
+                    + " can be incremented, field '" + fieldName + "' is a " + fieldType.getScope()
+                    + " field of type " + fieldType.getValueType().getName(), recordId);
+        }
+        return fieldType;
+    }
+
     /* READING */
     @Override
     public Record read(RecordId recordId, List<QName> fieldNames) throws RepositoryException, InterruptedException {
@@ -354,7 +606,7 @@ public abstract class BaseRepository implements Repository {
         FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
         List<FieldType> fields = getFieldTypesFromNames(fieldTypes, fieldNames);
 
-        return read(recordId, version, fields, fieldTypes);
+        return readWithOcc(recordId, version, fields, fieldTypes, true).getV1();
     }
 
     @Override
@@ -366,6 +618,11 @@ public abstract class BaseRepository implements Repository {
         return readWithIds(recordId, version, fields, fieldTypes);
     }
 
+    /**
+     * Does not use the {@link RecordCache}: this read is used by the indexer and the other processing of record
+     * events, which must see the record as it was changed by the event. The events are not ordered against the
+     * invalidation of the cache, so a cached row could be older than the event.
+     */
     private IdRecord readWithIds(RecordId recordId, Long requestedVersion, List<FieldType> fields,
                                  FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
         long before = System.currentTimeMillis();
@@ -379,8 +636,9 @@ public abstract class BaseRepository implements Repository {
                 // Latest version can still be null if there are only non-versioned fields in the record
                 requestedVersion = latestVersion;
             } else {
-                if (latestVersion == null || latestVersion < requestedVersion) {
-                    // The requested version is higher than the highest existing version
+                if (latestVersion == null || latestVersion < requestedVersion
+                        || requestedVersion < recdec.getOldestVersion(result)) {
+                    // The requested version is higher than the highest existing version, or has been pruned
                     throw new VersionNotFoundException(recordId, requestedVersion);
                 }
             }
@@ -428,19 +686,30 @@ public abstract class BaseRepository implements Repository {
      */
     protected Pair<Record, byte[]> readWithOcc(RecordId recordId, Long requestedVersion, List<FieldType> fields,
             FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        return readWithOcc(recordId, requestedVersion, fields, fieldTypes, false);
+    }
+
+    /**
+     * @param useCache true if the row can be taken from the {@link RecordCache}, this should only be done for
+     *                 reads on behalf of the user, the reads done as part of updates need the stored record
+     */
+    private Pair<Record, byte[]> readWithOcc(RecordId recordId, Long requestedVersion, List<FieldType> fields,
+            FieldTypes fieldTypes, boolean useCache) throws RepositoryException, InterruptedException {
         long before = System.currentTimeMillis();
         try {
             ArgumentValidator.notNull(recordId, "recordId");
 
-            Result result = getRow(recordId, requestedVersion, 1, fields);
+            Result result = useCache ? getCachedRow(recordId, requestedVersion, fields)
+                    : getRow(recordId, requestedVersion, 1, fields);
 
             Long latestVersion = recdec.getLatestVersion(result);
             if (requestedVersion == null) {
                 // Latest version can still be null if there are only non-versioned fields in the record
                 requestedVersion = latestVersion;
             } else {
-                if (latestVersion == null || latestVersion < requestedVersion) {
-                    // The requested version is higher than the highest existing version
+                if (latestVersion == null || latestVersion < requestedVersion
+                        || requestedVersion < recdec.getOldestVersion(result)) {
+                    // The requested version is higher than the highest existing version, or has been pruned
                     throw new VersionNotFoundException(recordId, requestedVersion);
                 }
             }
@@ -464,6 +733,11 @@ public abstract class BaseRepository implements Repository {
                 return records;
             }
 
+            BatchReadConfig config = repositoryManager.getBatchReadConfig(getRepositoryName());
+            if (config.getParallelism() > 1 && recordIds.size() > config.getMaxBatchSize()) {
+                return readInParallel(recordIds, fields, fieldTypes, config);
+            }
+
             Map<RecordId, Result> results = getRows(recordIds, fields);
 
             for (RecordId recordId : recordIds) {
@@ -481,6 +755,131 @@ public abstract class BaseRepository implements Repository {
         }
     }
 
+    /**
+     * Reads the records in batches which are executed concurrently, see {@link BatchReadConfig}. Each batch
+     * is decoded by the thread which read it. The order of the records is preserved, missing and deleted
+     * records are skipped.
+     */
+    private List<Record> readInParallel(final List<RecordId> recordIds, List<FieldType> fields,
+            final FieldTypes fieldTypes, BatchReadConfig config) throws RepositoryException, InterruptedException {
+        final Record[] records = new Record[recordIds.size()];
+        final List<Get> gets;
+        final Queue<List<Integer>> batches;
+        try {
+            gets = createGets(recordIds, fields);
+            batches = new ConcurrentLinkedQueue<List<Integer>>(groupInBatches(gets, config.getMaxBatchSize()));
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while retrieving records '" + recordIds
+                    + "' from HBase table", e);
+        }
+
+        // Each worker reads batches until there are none left, this limits the concurrency to the parallelism
+        int workerCount = Math.min(config.getParallelism(), batches.size());
+        List<Future<Void>> workers = new ArrayList<Future<Void>>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(repositoryManager.getBatchExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    List<Integer> batch;
+                    while ((batch = batches.poll()) != null) {
+                        readBatch(recordIds, gets, batch, fieldTypes, records);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        boolean success = false;
+        try {
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+            success = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException)cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException)cause;
+            }
+            throw new RecordException("Exception occurred while retrieving records '" + recordIds
+                    + "' from HBase table", cause);
+        } finally {
+            if (!success) {
+                batches.clear();
+                for (Future<Void> worker : workers) {
+                    worker.cancel(true);
+                }
+            }
+        }
+
+        List<Record> result = new ArrayList<Record>(records.length);
+        for (Record record : records) {
+            if (record != null) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    private void readBatch(List<RecordId> recordIds, List<Get> gets, List<Integer> batch, FieldTypes fieldTypes,
+            Record[] records) throws RepositoryException, InterruptedException {
+        List<Get> batchGets = new ArrayList<Get>(batch.size());
+        for (Integer index : batch) {
+            batchGets.add(gets.get(index));
+        }
+
+        Result[] results;
+        try {
+            results = recordTable.get(batchGets);
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while retrieving records from HBase table", e);
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            Result result = results[i];
+            if (isExistingRecord(result)) {
+                int index = batch.get(i);
+                records[index] = recdec.decodeRecord(recordIds.get(index), recdec.getLatestVersion(result), null,
+                        result, fieldTypes);
+            }
+        }
+    }
+
+    /**
+     * Groups the gets (by their index) per region server, in batches of at most the given size. If the
+     * region locations can not be determined, the gets are simply split in batches in their original order.
+     */
+    private List<List<Integer>> groupInBatches(List<Get> gets, int maxBatchSize) throws IOException {
+        List<String> servers = null;
+        if (recordTable instanceof LocalHTable) {
+            List<byte[]> rows = new ArrayList<byte[]>(gets.size());
+            for (Get get : gets) {
+                rows.add(get.getRow());
+            }
+            servers = ((LocalHTable)recordTable).getRegionServers(rows);
+        }
+
+        Map<String, List<Integer>> indexesByServer = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < gets.size(); i++) {
+            String server = servers != null ? servers.get(i) : "";
+            List<Integer> indexes = indexesByServer.get(server);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                indexesByServer.put(server, indexes);
+            }
+            indexes.add(i);
+        }
+
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        for (List<Integer> indexes : indexesByServer.values()) {
+            for (int start = 0; start < indexes.size(); start += maxBatchSize) {
+                batches.add(indexes.subList(start, Math.min(start + maxBatchSize, indexes.size())));
+            }
+        }
+        return batches;
+    }
+
     // Retrieves the row from the table and check if it exists and has not been flagged as deleted
     protected Result getRow(RecordId recordId, Long version, int numberOfVersions, List<FieldType> fields)
             throws RecordException {
@@ -511,6 +910,66 @@ public abstract class BaseRepository implements Repository {
         return result;
     }
 
+    /**
+     * Same as {@link #getRow} for a single version, but uses the {@link RecordCache} if there is one.
+     */
+    private Result getCachedRow(RecordId recordId, Long version, List<FieldType> fields) throws RecordException {
+        RecordCache cache = repositoryManager.getRecordCache();
+        if (cache == null) {
+            return getRow(recordId, version, 1, fields);
+        }
+
+        Result result = cache.get(repoTableKey, recordId, version, fields);
+        if (result != null && cache.isValidateOcc() && !isCurrentOcc(recordId, result)) {
+            cache.invalidate(repoTableKey, recordId);
+            result = null;
+        }
+
+        if (result == null) {
+            long stamp = cache.getStamp(repoTableKey, recordId);
+            result = getRow(recordId, version, 1, fields);
+            cache.put(repoTableKey, recordId, version, fields, result, stamp);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the record from the {@link RecordCache}, should be called after the record has been changed.
+     */
+    protected void invalidateCachedRecord(RecordId recordId) {
+        RecordCache cache = repositoryManager.getRecordCache();
+        if (cache != null) {
+            cache.invalidate(repoTableKey, recordId);
+        }
+    }
+
+    /**
+     * Returns the record event as stored in the payload column, in the encoding configured on the repository
+     * manager.
+     */
+    protected byte[] encodeRecordEvent(RecordEvent recordEvent) {
+        return recordEvent.toBytes(repositoryManager.getRecordEventEncoding());
+    }
+
+    /**
+     * Checks that the stored record still exists and has the same OCC version as the given row.
+     */
+    private boolean isCurrentOcc(RecordId recordId, Result cachedResult) throws RecordException {
+        Get get = new Get(recordId.toBytes());
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+        Result result;
+        try {
+            result = recordTable.get(get);
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while retrieving record '" + recordId
+                    + "' from HBase table", e);
+        }
+        return isExistingRecord(result) && Arrays.equals(
+                recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.OCC.bytes),
+                recdec.getLatest(cachedResult, RecordCf.DATA.bytes, RecordColumn.OCC.bytes));
+    }
+
     private void addFieldsToGet(Get get, List<FieldType> fields) {
         if (fields != null && (!fields.isEmpty())) {
             for (FieldType field : fields) {
@@ -529,25 +988,12 @@ public abstract class BaseRepository implements Repository {
         Map<RecordId, Result> results = new HashMap<RecordId, Result>();
 
         try {
-            List<Get> gets = new ArrayList<Get>();
-            for (RecordId recordId : recordIds) {
-                Get get = new Get(recordId.toBytes());
-                // Add the columns for the fields to get
-                addFieldsToGet(get, fields);
-                get.setMaxVersions(1); // Only retrieve the most recent version of each field
-                gets.add(get);
-            }
+            List<Get> gets = createGets(recordIds, fields);
 
             // Retrieve the data from the repository
             int i = 0;
             for (Result result : recordTable.get(gets)) {
-                if (result == null || result.isEmpty()) {
-                    i++; // Skip this recordId (instead of throwing a RecordNotFoundException)
-                    continue;
-                }
-                // Check if the record was deleted
-                byte[] deleted = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                if ((deleted == null) || (Bytes.toBoolean(deleted))) {
+                if (!isExistingRecord(result)) {
                     i++; // Skip this recordId (instead of throwing a RecordNotFoundException)
                     continue;
                 }
@@ -560,6 +1006,29 @@ public abstract class BaseRepository implements Repository {
         return results;
     }
 
+    private List<Get> createGets(List<RecordId> recordIds, List<FieldType> fields) throws IOException {
+        List<Get> gets = new ArrayList<Get>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            Get get = new Get(recordId.toBytes());
+            // Add the columns for the fields to get
+            addFieldsToGet(get, fields);
+            get.setMaxVersions(1); // Only retrieve the most recent version of each field
+            gets.add(get);
+        }
+        return gets;
+    }
+
+    /**
+     * Checks that the result of a get of multiple rows contains a record which has not been flagged as deleted.
+     */
+    protected boolean isExistingRecord(Result result) {
+        if (result == null || result.isEmpty()) {
+            return false;
+        }
+        byte[] deleted = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+        return deleted != null && !Bytes.toBoolean(deleted);
+    }
+
     @Override
     public List<Record> readVersions(RecordId recordId, Long fromVersion, Long toVersion, List<QName> fieldNames)
             throws RepositoryException, InterruptedException {
@@ -586,6 +1055,10 @@ public abstract class BaseRepository implements Repository {
         if (fromVersion < 1L) {
             fromVersion = 1L; // Put the fromVersion to a sensible value
         }
+        long oldestVersion = recdec.getOldestVersion(result);
+        if (fromVersion < oldestVersion) {
+            fromVersion = oldestVersion; // The older versions have been pruned
+        }
         Long latestVersion = recdec.getLatestVersion(result);
         if (latestVersion < toVersion) {
             toVersion = latestVersion; // Limit the toVersion to the highest possible version
@@ -597,6 +1070,23 @@ public abstract class BaseRepository implements Repository {
         return recdec.decodeRecords(recordId, versionsToRead, result, fieldTypes);
     }
 
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(recordId, "recordId");
+        ArgumentValidator.notNull(fromVersion, "fromVersion");
+        ArgumentValidator.notNull(toVersion, "toVersion");
+        if (fromVersion > toVersion) {
+            throw new IllegalArgumentException("fromVersion '" + fromVersion +
+                    "' must be smaller or equal to toVersion '" + toVersion + "'");
+        }
+
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        List<FieldType> fields = getFieldTypesFromNames(fieldTypes, fieldNames);
+        return new HBaseVersionScannerImpl(this, recordId, fromVersion, toVersion, fields, fieldTypes,
+                VERSION_SCANNER_PAGE_SIZE);
+    }
+
     @Override
     public List<Record> readVersions(RecordId recordId, List<Long> versions, List<QName> fieldNames)
             throws RepositoryException, InterruptedException {
@@ -625,12 +1115,17 @@ public abstract class BaseRepository implements Repository {
         Result result = getRow(recordId, highestRequestedVersion, numberOfVersionsToRetrieve, fields);
         Long latestVersion = recdec.getLatestVersion(result);
 
-        // Drop the versions that are higher than the latestVersion
+        long oldestVersion = recdec.getOldestVersion(result);
+
+        // Drop the versions that are higher than the latestVersion, or which have been pruned
         List<Long> validVersions = new ArrayList<Long>();
         for (Long version : versions) {
             if (version > latestVersion) {
                 break;
             }
+            if (version < oldestVersion) {
+                continue;
+            }
             validVersions.add(version);
         }
         return recdec.decodeRecords(recordId, validVersions, result, fieldTypes);
@@ -646,6 +1141,11 @@ public abstract class BaseRepository implements Repository {
         return recordFactory.newRecord(recordId);
     }
 
+    @Override
+    public AsyncLTable getAsyncTable() {
+        return new ExecutorAsyncTable(this, repositoryManager.getAsyncExecutor());
+    }
+
     @Override
     public String getTableName() {
         return repoTableKey.getTableName();
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+/**
+ * Configures how reads of multiple records ({@link org.lilyproject.repository.api.LTable#read(java.util.List,
+ * org.lilyproject.repository.api.QName...)}) are executed.
+ *
+ * <p>The records are read in batches of at most {@link #getMaxBatchSize()} records, each batch only containing
+ * records served by the same region server. Up to {@link #getParallelism()} batches are read and decoded
+ * concurrently. Reads of at most maxBatchSize records, or with a parallelism of 1, are done in one request
+ * by the calling thread.</p>
+ *
+ * <p>The configuration is set per repository via {@link AbstractRepositoryManager#setBatchReadConfig}.</p>
+ */
+public class BatchReadConfig {
+    public static final BatchReadConfig DEFAULT = new BatchReadConfig(10, 500);
+
+    private final int parallelism;
+    private final int maxBatchSize;
+
+    public BatchReadConfig(int parallelism, int maxBatchSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism should be at least 1, got: " + parallelism);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize should be at least 1, got: " + maxBatchSize);
+        }
+        this.parallelism = parallelism;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * The maximum number of batches read concurrently.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The maximum number of records read in one request.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.QName;
+
+/**
+ * Configures which field values are compressed when they are stored, which is useful for large text fields
+ * (such as HTML or JSON documents stored as strings).
+ *
+ * <p>The values of the configured field types are compressed when their encoded size is at least
+ * {@link #getMinSize()} bytes, and if the compressed value is smaller. Whether a value is compressed is
+ * recorded in its {@link FieldFlags}, so reading never depends on this configuration: values are decompressed
+ * when they are decoded, which with lazy field decoding is only when the field is accessed. Changing the
+ * configuration only affects values written afterwards.</p>
+ *
+ * <p>Fields of which the deepest value type is BLOB are never compressed, even when configured: the checks
+ * whether a blob is still referenced by a record (see {@link BlobIncubatorMonitor}) look for the blob key in
+ * the raw stored value.</p>
+ *
+ * <p>The configuration is set per repository via {@link AbstractRepositoryManager#setFieldCompressionConfig}.</p>
+ */
+public class FieldCompressionConfig {
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private final Set<QName> fieldTypes;
+    private final int minSize;
+
+    /**
+     * @param fieldTypes names of the field types of which values should be compressed
+     * @param minSize minimum encoded size (in bytes) of a value before it is compressed
+     */
+    public FieldCompressionConfig(Set<QName> fieldTypes, int minSize) {
+        if (fieldTypes == null) {
+            throw new IllegalArgumentException("fieldTypes should not be null");
+        }
+        if (minSize < 0) {
+            throw new IllegalArgumentException("minSize should not be negative, got: " + minSize);
+        }
+        this.fieldTypes = Collections.unmodifiableSet(new HashSet<QName>(fieldTypes));
+        this.minSize = minSize;
+    }
+
+    public FieldCompressionConfig(Set<QName> fieldTypes) {
+        this(fieldTypes, DEFAULT_MIN_SIZE);
+    }
+
+    public Set<QName> getFieldTypes() {
+        return fieldTypes;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Returns true if a value of the given field type with the given encoded size should be compressed.
+     */
+    public boolean shouldCompress(FieldType fieldType, int size) {
+        return size >= minSize && fieldTypes.contains(fieldType.getName())
+                && !"BLOB".equals(fieldType.getValueType().getDeepestValueType().getBaseName());
+    }
+}
@@ -25,7 +25,8 @@ package org.lilyproject.repository.impl;
  *     <li>bit 1: exists flag: does the field exist or not? 0=exists, 1=deleted</li>
  *     <li>bit 2-3-4: field meta version: is 000 if there is no field metadata appended to the field,
  *     otherwise it contains the version number of the encoding style of the metadata.</li>
- *     <li>bit 5-6-7-8: available for future uses</li>
+ *     <li>bit 5: compressed flag: is the value compressed or not? See {@link FieldValueCompression}.</li>
+ *     <li>bit 6-7-8: available for future uses</li>
  * </ul>
  */
 public class FieldFlags {
@@ -47,6 +48,11 @@ public class FieldFlags {
      */
     public static final byte METADATA_V1 = 2; // 00 00 00 10
 
+    /**
+     * Flag to indicate a compressed value, default is an uncompressed value.
+     */
+    public static final byte COMPRESSED = 16; // 00 01 00 00
+
     private static final byte[] DELETE_MARKER = new byte[] { DELETED };
 
     private FieldFlags() {
@@ -65,6 +71,10 @@ public class FieldFlags {
         return (flags & DELETED) == 0;
     }
 
+    public static final boolean isCompressed(byte flags) {
+        return (flags & COMPRESSED) != 0;
+    }
+
     public static final int getFieldMetadataVersion(byte flags) {
         return (flags & 0x0E /* 00 00 11 10 */) >> 1;
     }
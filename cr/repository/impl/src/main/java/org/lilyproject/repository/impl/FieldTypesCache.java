@@ -19,278 +19,129 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeNotFoundException;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeBucket;
 
-public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
-    // A lock on the monitor needs to be taken when changes are to be made on
-    // the nameCache, on the count variable, on the nameCacheOutOfDate boolean
-    // or if a bucket monitor needs to be added.
-    private final Object monitor = new Object();
-    // A lock on a bucket monitor needs to be taken when changes are to be made
-    // on a bucket.
-    private final Map<String, Object> bucketMonitors = new HashMap<String, Object>();
-    // The nameCacheOutOfData should be set to true when an update happens on
-    // a bucket. This means that if the nameCache is requested, it should be
-    // refreshed first. Once it is refreshed it can be put back to false.
-    private volatile boolean nameCacheOutOfDate = false;
-    // The count indicates how many buckets are being updated. As long as the
-    // count is higher than 0, the nameCache can not be updated since this could
-    // lead to an inconsistent state (two types could get the same name).
-    private volatile int count = 0;
-
-    private ConcurrentHashMap<String, Set<SchemaId>> localUpdateBuckets = new ConcurrentHashMap<String, Set<SchemaId>>();
-
-    private Log log = LogFactory.getLog(getClass());
-
-    public FieldTypesCache() {
-        super();
-        for (String bucketId : buckets.keySet()) {
-            bucketMonitors.put(bucketId, new Object());
-        }
-    }
-
-    /**
-     * When accessing the nameCache, this method should always be used instead
-     * of using the variable immediately
-     */
-    protected Map<QName, FieldType> getNameCache() throws InterruptedException {
-        // First check if the name cache is out of date
-        if (nameCacheOutOfDate) {
-            synchronized (monitor) {
-                // Wait until no buckets are being updated
-                while (count > 0) {
-                    monitor.wait();
-                }
-                if (nameCacheOutOfDate) {
-                // Re-initialize the nameCache
-                    Map<QName, FieldType> newNameCache = new HashMap<QName, FieldType>();
-                    for (Map<SchemaId, FieldType> bucket : buckets.values()) {
-                        for (FieldType fieldType : bucket.values()) {
-                            newNameCache.put(fieldType.getName(), fieldType);
-                        }
-                    }
-                    nameCache = newNameCache;
-                    nameCacheOutOfDate = false;
-                }
-            }
-        }
-        return nameCache;
-    }
-
-    /**
-     * Increment the number of buckets being updated.
-     */
-    private void incCount() {
-        synchronized (monitor) {
-            count++;
-            monitor.notify();
-        }
-    }
+/**
+ * The cache of field types, which publishes its content as immutable {@link FieldTypesImpl} snapshots.
+ *
+ * <p>Each change to the cache builds a new snapshot from the current one, and publishes it by replacing a
+ * volatile reference. Readers only read this reference, so they never block and always see a consistent set of
+ * field types, also while buckets are being refreshed. Changes are serialized, since they are rare compared to
+ * the reads.</p>
+ */
+public class FieldTypesCache implements FieldTypes {
+    private volatile FieldTypesImpl snapshot = new FieldTypesImpl();
 
-    /**
-     * Decrement the number of buckets being updated and mark the nameCache out
-     * of date.
-     */
-    private void decCount() {
-        synchronized (monitor) {
-            count--;
-            nameCacheOutOfDate = true;
-            monitor.notify();
-        }
-    }
+    // A lock on the writeLock needs to be taken when changing the snapshot or the localUpdates
+    private final Object writeLock = new Object();
 
-    /**
-     * Return the monitor of a bucket and create it if it does not exist yet.
-     *
-     * @param bucketId
-     * @return
-     */
-    private Object getBucketMonitor(String bucketId) {
-        Object bucketMonitor = bucketMonitors.get(bucketId);
-        if (bucketMonitor == null) {
-            // If the bucket does not exist yet we need to create it
-            // Take the lock on the monitor to avoid that another call would
-            // created it at the same time
-            synchronized (monitor) {
-                // Make sure it hasn't been created meanwhile (= between
-                // checking for null and taking the lock on the monitor)
-                bucketMonitor = bucketMonitors.get(bucketId);
-                if (bucketMonitor == null) {
-                    bucketMonitor = new Object();
-                    bucketMonitors.put(bucketId, bucketMonitor);
-                }
-            }
-        }
-        return bucketMonitor;
-    }
+    // The ids of the field types which have been updated locally, see update()
+    private final Set<SchemaId> localUpdates = new HashSet<SchemaId>();
 
     /**
-     * Take a snapshot of the cache and return it. This snapshot cannot be
-     * updated.
-     *
-     * @return the FieldTypes snapshot
-     * @throws InterruptedException
+     * Returns the current snapshot of the cache, which is never updated.
      */
-    public FieldTypes getSnapshot() throws InterruptedException {
-        synchronized (monitor) {
-            while (count > 0) {
-                monitor.wait();
-            }
-            FieldTypesImpl newFieldTypes = new FieldTypesImpl();
-            for (Entry<String, Map<SchemaId, FieldType>> bucketEntry : buckets.entrySet()) {
-                Map<SchemaId, FieldType> fieldTypeIdBucket = new HashMap<SchemaId, FieldType>();
-                fieldTypeIdBucket.putAll(bucketEntry.getValue());
-                newFieldTypes.buckets.put(bucketEntry.getKey(), fieldTypeIdBucket);
-                for (FieldType fieldType: bucketEntry.getValue().values()) {
-                    newFieldTypes.nameCache.put(fieldType.getName(), fieldType);
-                }
-            }
-            return newFieldTypes;
-        }
+    public FieldTypesImpl getSnapshot() {
+        return snapshot;
     }
 
     /**
      * Refreshes the whole cache to contain the given list of field types.
-     *
-     * @param fieldTypes
-     * @throws InterruptedException
      */
-    public void refreshFieldTypes(List<FieldType> fieldTypes) throws InterruptedException {
-        // Since we will update all buckets, we take the lock on the monitor for
-        // the whole operation
-        synchronized (monitor) {
-            while (count > 0) {
-                monitor.wait();
-            }
-            nameCacheOutOfDate = true;
-            // One would expect that existing buckets need to be cleared first.
-            // But since field types cannot be deleted we will just overwrite
-            // them.
-            for (FieldType fieldType : fieldTypes) {
-                String bucketId = AbstractSchemaCache.encodeHex(fieldType.getId().getBytes());
-                // Only update if it was not updated locally
-                // If it was updated locally either this is the refresh of that
-                // update,
-                // or the refresh for this update will follow.
-                if (!removeFromLocalUpdateBucket(fieldType.getId(), bucketId)) {
-                    Map<SchemaId, FieldType> bucket = buckets.get(bucketId);
-                    if (bucket == null) {
-                        bucket = new ConcurrentHashMap<SchemaId, FieldType>(8, .75f, 1);
-                        buckets.put(bucketId, bucket);
-                    }
-                    bucket.put(fieldType.getId(), fieldType);
-                }
-            }
-        }
+    public void refreshFieldTypes(List<FieldType> fieldTypes) {
+        refresh(fieldTypes);
     }
 
     /**
      * Refresh one bucket with the field types contained in the TypeBucket
-     *
-     * @param typeBucket
      */
     public void refreshFieldTypeBucket(TypeBucket typeBucket) {
-        String bucketId = typeBucket.getBucketId();
+        refresh(typeBucket.getFieldTypes());
+    }
 
-        // First increment the number of buckets that are being updated
-        incCount();
-        // Get a lock on the bucket to be updated
-        synchronized (getBucketMonitor(bucketId)) {
-            List<FieldType> fieldTypes = typeBucket.getFieldTypes();
-            Map<SchemaId, FieldType> bucket = buckets.get(bucketId);
-            // One would expect that an existing bucket need to be cleared
-            // first.
-            // But since field types cannot be deleted we will just overwrite
-            // them.
-            if (bucket == null) {
-                bucket = new ConcurrentHashMap<SchemaId, FieldType>(Math.min(fieldTypes.size(), 8), .75f, 1);
-                buckets.put(bucketId, bucket);
-            }
-            // Fill the bucket with the new field types
+    private void refresh(List<FieldType> fieldTypes) {
+        synchronized (writeLock) {
+            // One would expect that existing field types need to be cleared first.
+            // But since field types cannot be deleted we will just overwrite them.
+            Map<SchemaId, FieldType> newFieldTypes = copyFieldTypes();
             for (FieldType fieldType : fieldTypes) {
-                if (!removeFromLocalUpdateBucket(fieldType.getId(), bucketId)) {
-                    bucket.put(fieldType.getId(), fieldType);
+                // Only update if it was not updated locally
+                // If it was updated locally either this is the refresh of that update,
+                // or the refresh for this update will follow.
+                if (!localUpdates.remove(fieldType.getId())) {
+                    newFieldTypes.put(fieldType.getId(), fieldType);
                 }
             }
+            snapshot = new FieldTypesImpl(newFieldTypes.values());
         }
-        // Decrement the number of buckets that are being updated again.
-        decCount();
     }
 
     /**
      * Update the cache to contain the new fieldType
-     *
-     * @param fieldType
      */
     public void update(FieldType fieldType) {
         // Clone the FieldType to avoid changes to it while it is in the cache
         FieldType ftToCache = fieldType.clone();
-        SchemaId id = ftToCache.getId();
-        String bucketId = AbstractSchemaCache.encodeHex(id.getBytes());
-        // First increment the number of buckets that are being updated
-        incCount();
-        // Get a lock on the bucket to be updated
-        synchronized (getBucketMonitor(bucketId)) {
-            Map<SchemaId, FieldType> bucket = buckets.get(bucketId);
-            // If the bucket does not exist yet, create it
-            if (bucket == null) {
-                bucket = new ConcurrentHashMap<SchemaId, FieldType>(8, .75f, 1);
-                buckets.put(bucketId, bucket);
-            }
-            bucket.put(id, ftToCache);
-            // Mark that this fieldType is updated locally
-            // and that the next refresh can be ignored
-            // since this refresh can contain an old fieldType
-            addToLocalUpdateBucket(id, bucketId);
+        synchronized (writeLock) {
+            Map<SchemaId, FieldType> newFieldTypes = copyFieldTypes();
+            newFieldTypes.put(ftToCache.getId(), ftToCache);
+            // Mark that this fieldType is updated locally and that the next refresh can be ignored
+            // since this refresh can contain an old fieldType. This avoids that a locally updated
+            // field type will be overwritten by old data by a cache refresh.
+            localUpdates.add(ftToCache.getId());
+            snapshot = new FieldTypesImpl(newFieldTypes.values());
         }
-        // Decrement the number of buckets that are being updated again.
-        decCount();
     }
 
-    // Add the id of a field type that has been updated locally
-    // in a bucket. This field type will be skipped in a next
-    // cache refresh sequence.
-    // This avoids that a locally updated field type will be
-    // overwritten by old data by a cache refresh.
-    private void addToLocalUpdateBucket(SchemaId id, String bucketId) {
-        Set<SchemaId> localUpdateBucket = localUpdateBuckets.get(bucketId);
-        if (localUpdateBucket == null) {
-            localUpdateBucket = new HashSet<SchemaId>();
-            localUpdateBuckets.put(bucketId, localUpdateBucket);
+    private Map<SchemaId, FieldType> copyFieldTypes() {
+        Map<SchemaId, FieldType> fieldTypes = new HashMap<SchemaId, FieldType>();
+        for (FieldType fieldType : snapshot.getCachedFieldTypes()) {
+            fieldTypes.put(fieldType.getId(), fieldType);
         }
-        localUpdateBucket.add(id);
+        return fieldTypes;
     }
 
-    // Check if the field type is present in the local update bucket.
-    // If so, return true and remove it, in which case the refresh
-    // should skip it to avoid replacing the field type with old data.
-    private boolean removeFromLocalUpdateBucket(SchemaId id, String bucketId) {
-        Set<SchemaId> localUpdateBucket = localUpdateBuckets.get(bucketId);
-        if (localUpdateBucket == null) {
-            return false;
+    public void clear() {
+        synchronized (writeLock) {
+            snapshot = new FieldTypesImpl();
+            localUpdates.clear();
         }
-        return localUpdateBucket.remove(id);
     }
 
-    public void clear() {
-        nameCache.clear();
+    @Override
+    public FieldType getFieldType(SchemaId id) throws FieldTypeNotFoundException {
+        return snapshot.getFieldType(id);
+    }
 
-        for (Map bucket : buckets.values()) {
-            bucket.clear();
-        }
+    @Override
+    public FieldType getFieldType(byte[] idBytes, int offset, int length) throws FieldTypeNotFoundException {
+        return snapshot.getFieldType(idBytes, offset, length);
+    }
 
-        for (Set<SchemaId> bucket : localUpdateBuckets.values()) {
-            bucket.clear();
-        }
+    @Override
+    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException {
+        return snapshot.getFieldType(name);
+    }
+
+    @Override
+    public List<FieldType> getFieldTypes() {
+        return snapshot.getFieldTypes();
+    }
+
+    @Override
+    public FieldType getFieldTypeByNameReturnNull(QName name) {
+        return snapshot.getFieldTypeByNameReturnNull(name);
+    }
+
+    @Override
+    public boolean fieldTypeExists(QName name) {
+        return snapshot.fieldTypeExists(name);
     }
 }
@@ -16,41 +16,67 @@
 package org.lilyproject.repository.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeNotFoundException;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.id.SchemaIdTable;
 import org.lilyproject.util.ArgumentValidator;
 
+/**
+ * An immutable set of field types, indexed by name, by id and by the bytes of their id.
+ *
+ * <p>Since it is never modified, it can be used concurrently without any locking. The {@link FieldTypesCache}
+ * publishes a new instance each time the field types change.</p>
+ */
 public class FieldTypesImpl implements FieldTypes {
-    private Log log = LogFactory.getLog(getClass());
-
-    // Always use getNameCache() instead of this variable directly, to make sure
-    // this is the up-to-date nameCache (in case of FieldTypesCache).
-    protected Map<QName, FieldType> nameCache;
-    protected Map<String, Map<SchemaId, FieldType>> buckets;
+    private final Map<QName, FieldType> nameCache;
+    private final Map<SchemaId, FieldType> idCache;
+    /**
+     * The field types by the bytes of their id, which allows to look up a field type without creating
+     * a {@link SchemaId} for it.
+     */
+    private final SchemaIdTable<FieldType> idBytesIndex;
 
     public FieldTypesImpl() {
-        nameCache = new HashMap<QName, FieldType>();
-        buckets = new ConcurrentHashMap<String, Map<SchemaId, FieldType>>();
+        this(Collections.<FieldType>emptyList());
+    }
+
+    /**
+     * @param fieldTypes the field types, which should not be modified afterwards
+     */
+    public FieldTypesImpl(Collection<FieldType> fieldTypes) {
+        Map<SchemaId, FieldType> idCache = new HashMap<SchemaId, FieldType>(fieldTypes.size() * 2);
+        Map<QName, FieldType> nameCache = new HashMap<QName, FieldType>(fieldTypes.size() * 2);
+        for (FieldType fieldType : fieldTypes) {
+            idCache.put(fieldType.getId(), fieldType);
+            nameCache.put(fieldType.getName(), fieldType);
+        }
+        this.idCache = Collections.unmodifiableMap(idCache);
+        this.nameCache = Collections.unmodifiableMap(nameCache);
+        this.idBytesIndex = new SchemaIdTable<FieldType>(idCache);
     }
 
-    protected Map<QName, FieldType> getNameCache() throws InterruptedException {
-        return nameCache;
+    /**
+     * Returns the cached field types, which must not be modified.
+     */
+    Collection<FieldType> getCachedFieldTypes() {
+        return idCache.values();
     }
 
     @Override
-    public List<FieldType> getFieldTypes() throws InterruptedException {
-        List<FieldType> fieldTypes = new ArrayList<FieldType>();
-        for (FieldType fieldType : getNameCache().values()) {
+    public List<FieldType> getFieldTypes() {
+        List<FieldType> fieldTypes = new ArrayList<FieldType>(nameCache.size());
+        for (FieldType fieldType : nameCache.values()) {
             fieldTypes.add(fieldType.clone());
         }
         return fieldTypes;
@@ -59,36 +85,46 @@ public class FieldTypesImpl implements FieldTypes {
     @Override
     public FieldType getFieldType(SchemaId id) throws FieldTypeNotFoundException {
         ArgumentValidator.notNull(id, "id");
-        String bucket = AbstractSchemaCache.encodeHex(id.getBytes());
-
-        Map<SchemaId, FieldType> fieldTypeIdCacheBucket = buckets.get(bucket);
-        if (fieldTypeIdCacheBucket == null) {
-            throw new FieldTypeNotFoundException(id);
-        }
-        FieldType fieldType = fieldTypeIdCacheBucket.get(id);
+        FieldType fieldType = idCache.get(id);
         if (fieldType == null) {
             throw new FieldTypeNotFoundException(id);
         }
         return fieldType.clone();
     }
 
+    /**
+     * Contrary to the other getFieldType methods, this returns the cached instance rather than a clone,
+     * thus the returned field type must not be modified.
+     */
+    @Override
+    public FieldType getFieldType(byte[] idBytes, int offset, int length) throws FieldTypeNotFoundException {
+        FieldType fieldType = idBytesIndex.get(idBytes, offset, length);
+        if (fieldType == null) {
+            throw new FieldTypeNotFoundException(
+                    new SchemaIdImpl(Arrays.copyOfRange(idBytes, offset, offset + length)));
+        }
+        return fieldType;
+    }
+
     @Override
-    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException, InterruptedException {
+    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = nameCache.get(name);
         if (fieldType == null) {
             throw new FieldTypeNotFoundException(name);
         }
         return fieldType.clone();
     }
 
-    public FieldType getFieldTypeByNameReturnNull(QName name) throws InterruptedException {
+    @Override
+    public FieldType getFieldTypeByNameReturnNull(QName name) {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = nameCache.get(name);
         return fieldType != null ? fieldType.clone() : null;
     }
 
-    public boolean fieldTypeExists(QName name) throws InterruptedException {
-        return getNameCache().containsKey(name);
+    @Override
+    public boolean fieldTypeExists(QName name) {
+        return nameCache.containsKey(name);
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+
+/**
+ * Compression of encoded field values, see {@link FieldCompressionConfig}.
+ *
+ * <p>A compressed field value consists of the length of the uncompressed value (as vint), followed by the
+ * deflated value. Stored field values of which the value is compressed have the {@link FieldFlags#COMPRESSED}
+ * flag set, the field flags and metadata themselves are not compressed.</p>
+ */
+public class FieldValueCompression {
+    private FieldValueCompression() {
+    }
+
+    /**
+     * Compresses the given encoded value. Returns null if the compressed value would not be smaller.
+     */
+    public static byte[] compress(byte[] value, int offset, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(value, offset, length);
+            deflater.finish();
+
+            DataOutputImpl output = new DataOutputImpl(length);
+            output.writeVInt(length);
+            if (output.getSize() >= length) {
+                return null;
+            }
+            // a deflated value which doesn't fit in this buffer is not worth it
+            byte[] buffer = new byte[length - output.getSize()];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < buffer.length) {
+                compressedLength += deflater.deflate(buffer, compressedLength, buffer.length - compressedLength);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+
+            output.writeBytes(Arrays.copyOf(buffer, compressedLength));
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses a value produced by {@link #compress}. Any bytes following the compressed value (such as
+     * the field metadata) are ignored.
+     */
+    public static byte[] decompress(byte[] buffer, int offset, int length) {
+        DataInputImpl input = new DataInputImpl(buffer, offset, length);
+        byte[] value = new byte[input.readVInt()];
+        int headerLength = input.getPosition() - offset;
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer, offset + headerLength, length - headerLength);
+            int valueLength = 0;
+            while (valueLength < value.length) {
+                int inflated = inflater.inflate(value, valueLength, value.length - valueLength);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new RuntimeException("Compressed field value is truncated");
+                }
+                valueLength += inflated;
+            }
+            return value;
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Error decompressing field value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
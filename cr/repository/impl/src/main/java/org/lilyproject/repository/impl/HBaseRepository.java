@@ -16,6 +16,8 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -28,9 +30,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
@@ -42,13 +48,12 @@ import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.filter.Filter;
-import org.apache.hadoop.hbase.filter.FilterList;
-import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
@@ -64,6 +69,7 @@ import org.lilyproject.repository.api.InvalidRecordException;
 import org.lilyproject.repository.api.Metadata;
 import org.lilyproject.repository.api.MetadataBuilder;
 import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.MutationResult;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordBuilder;
@@ -82,9 +88,14 @@ import org.lilyproject.repository.api.TypeException;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
+import org.lilyproject.repository.impl.hbase.CellCondition;
 import org.lilyproject.repository.impl.hbase.ContainsValueComparator;
+import org.lilyproject.repository.impl.hbase.RecordMutationEndpoint;
+import org.lilyproject.repository.impl.hbase.RecordMutationProtocol;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.id.UserRecordId;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ObjectUtils;
@@ -94,6 +105,7 @@ import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.Type;
+import org.lilyproject.util.repo.SystemFields;
 
 import static org.lilyproject.repository.impl.RecordDecoder.RECORD_TYPE_ID_QUALIFIERS;
 import static org.lilyproject.repository.impl.RecordDecoder.RECORD_TYPE_VERSION_QUALIFIERS;
@@ -109,6 +121,16 @@ public class HBaseRepository extends BaseRepository {
 
     private static final Object METADATA_ONLY_UPDATE = new Object();
 
+    /**
+     * Whether the record table has the {@link RecordMutationEndpoint}, null if not yet checked.
+     */
+    private volatile Boolean mutationEndpointAvailable;
+
+    /**
+     * Optional, see {@link #setVariantIndex(VariantIndex)}.
+     */
+    private volatile VariantIndex variantIndex;
+
     public HBaseRepository(RepoTableKey ttk, AbstractRepositoryManager repositoryManager, HTableInterface hbaseTable,
             BlobManager blobManager, TableManager tableManager, RecordFactory recordFactory)
             throws IOException, InterruptedException {
@@ -128,6 +150,14 @@ public class HBaseRepository extends BaseRepository {
                 Collections.<RecordUpdateHook>emptyList() : recordUpdateHooks;
     }
 
+    /**
+     * Sets the index of the records by master record, which is used to find the variants of a record. Normally
+     * called by the repository manager, see {@link AbstractRepositoryManager#setVariantIndexEnabled(boolean)}.
+     */
+    public void setVariantIndex(VariantIndex variantIndex) {
+        this.variantIndex = variantIndex;
+    }
+
     @Override
     public IdGenerator getIdGenerator() {
         return idGenerator;
@@ -149,41 +179,67 @@ public class HBaseRepository extends BaseRepository {
             throw new RecordException("Record ID is mandatory when using create-or-update.");
         }
 
-        byte[] rowId = record.getId().toBytes();
-        Get get = new Get(rowId);
-        get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+        RecordId recordId = record.getId();
+        long before = System.currentTimeMillis();
+        Action action = Action.UPDATE;
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
 
-        int attempts;
+            // Read the complete row once: it tells whether to create or update, and in the latter case it is
+            // the stored record against which the changes are calculated.
+            Get get = new Get(recordId.toBytes());
+            get.addFamily(RecordCf.DATA.bytes);
+            get.setMaxVersions(1);
 
-        for (attempts = 0; attempts < 3; attempts++) {
-            Result result;
-            try {
-                result = recordTable.get(get);
-            } catch (IOException e) {
-                throw new RecordException("Error reading record row for record id " + record.getId(), e);
-            }
+            int attempts;
 
-            byte[] deleted = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-            if ((deleted == null) || (Bytes.toBoolean(deleted))) {
-                // do the create
-                try {
-                    return create(record);
-                } catch (RecordExistsException e) {
-                    // someone created the record since we checked, we will try again
+            for (attempts = 0; attempts < 3; attempts++) {
+                Result result = recordTable.get(get);
+
+                PreparedMutation mutation;
+                ResponseStatus responseStatus;
+                if (isExistingRecord(result)) {
+                    action = Action.UPDATE;
+                    Record storedRecord = recdec.decodeRecord(recordId, recdec.getLatestVersion(result), null,
+                            result, fieldTypes);
+                    byte[] occBytes = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+                    mutation = prepareUpdate(record, storedRecord, occBytes, useLatestRecordType, null, fieldTypes);
+                    if (mutation.put == null) {
+                        // Nothing to update
+                        return mutation.record;
+                    }
+                    if (useMutationEndpoint()) {
+                        mutation.cellConditions = getCellConditions(result, record, null, fieldTypes);
+                    }
+                    responseStatus = ResponseStatus.UPDATED;
+                } else {
+                    action = Action.CREATE;
+                    checkCreatePreconditions(record);
+                    mutation = prepareCreate(record, recordId, result, fieldTypes);
+                    responseStatus = ResponseStatus.CREATED;
                 }
-            } else {
-                // do the update
-                try {
-                    record = update(record, false, useLatestRecordType);
-                    return record;
-                } catch (RecordNotFoundException e) {
-                    // some deleted the record since we checked, we will try again
+
+                if (applyMutation(mutation)) {
+                    return completeMutation(mutation, responseStatus);
                 }
+                // someone created, updated or deleted the record since we read it, we will try again
             }
-        }
 
-        throw new RecordException("Create-or-update failed after " + attempts +
-                " attempts, toggling between create and update mode.");
+            if (action == Action.UPDATE) {
+                // the last attempt was an update, report it the same way as update() does
+                throw new ConcurrentRecordUpdateException(recordId);
+            }
+            throw new RecordException("Create-or-update failed after " + attempts +
+                    " attempts, the record was concurrently modified each time.");
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while creating or updating record '" + recordId
+                    + "' on HBase table", e);
+        } catch (BlobException e) {
+            throw new RecordException("Exception occurred while creating or updating record '" + recordId + "'",
+                    e);
+        } finally {
+            metrics.report(action, System.currentTimeMillis() - before);
+        }
     }
 
     @Override
@@ -198,103 +254,425 @@ public class HBaseRepository extends BaseRepository {
                 recordId = idGenerator.newRecordId();
             }
 
-            byte[] rowId = recordId.toBytes();
-
             try {
                 FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
 
-                long version = 1L;
-                byte[] oldOccBytes = null;
-                long newOcc = 1L;
-                // If the record existed it would have been deleted.
-                // The version numbering continues from where it has been deleted.
-                Get get = new Get(rowId);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
-                Result result = recordTable.get(get);
-                if (!result.isEmpty()) {
-                    // If the record existed it should have been deleted
-                    byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                    if (recordDeleted != null && !Bytes.toBoolean(recordDeleted)) {
-                        throw new RecordExistsException(recordId);
-                    }
+                Result result = recordTable.get(newCreateGet(recordId));
+                PreparedMutation mutation = prepareCreate(record, recordId, result, fieldTypes);
 
-                    oldOccBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
-                    newOcc = Bytes.toLong(nextOcc(oldOccBytes));
-
-                    byte[] oldVersion = result.getValue(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
-                    if (oldVersion != null) {
-                        version = Bytes.toLong(oldVersion) + 1;
-                        // Make sure any old data gets cleared and old blobs are deleted
-                        // This is to cover the failure scenario where a record was deleted, but a failure
-                        // occurred before executing the clearData
-                        // If this was already done, this is a no-op
-                        // Note: since the removal of the row locking, this part could run concurrent with other
-                        // threads trying to re-create a record or with a delete still being in progress. This
-                        // should be no problem since the clearData will only remove the versions at the old
-                        // timestamps, and leave the non-versioned fields untouched.
-                        clearData(recordId, null, Bytes.toLong(oldVersion));
-                    }
+                boolean success = checkAndPut(recordId, mutation.put, mutation.oldOccBytes);
+                if (!success) {
+                    throw new RecordExistsException(recordId);
                 }
 
-                RecordEvent recordEvent = new RecordEvent();
-                recordEvent.setType(Type.CREATE);
-                recordEvent.setTableName(getTableName());
-                if (record.hasAttributes()) {
-                    recordEvent.getAttributes().putAll(record.getAttributes());
-                }
+                return completeMutation(mutation, ResponseStatus.CREATED);
+
+            } catch (IOException e) {
+                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
+                        e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
+                        e);
+            } catch (BlobException e) {
+                throw new RecordException("Exception occurred while creating record '" + recordId + "'",
+                        e);
+            }
+        } finally {
+            metrics.report(Action.CREATE, System.currentTimeMillis() - before);
+        }
+    }
 
-                Record newRecord = record.cloneRecord();
-                newRecord.setId(recordId);
+    @Override
+    public List<MutationResult> createAll(List<Record> records) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
 
-                for (RecordUpdateHook hook : updateHooks) {
-                    hook.beforeCreate(newRecord, this, fieldTypes, recordEvent);
+        long before = System.currentTimeMillis();
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            MutationResult[] results = new MutationResult[records.size()];
+
+            // Check the records and assign the record IDs
+            RecordId[] recordIds = new RecordId[records.size()];
+            List<Integer> indexes = new ArrayList<Integer>(records.size());
+            List<Get> gets = new ArrayList<Get>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                try {
+                    checkCreatePreconditions(record);
+                } catch (InvalidRecordException e) {
+                    results[i] = new MutationResult(e);
+                    continue;
                 }
+                recordIds[i] = record.getId() != null ? record.getId() : idGenerator.newRecordId();
+                indexes.add(i);
+                gets.add(newCreateGet(recordIds[i]));
+            }
 
-                Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
-                Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+            // Read the existing state of all the rows in one multi-get
+            Result[] rows;
+            try {
+                rows = recordTable.get(gets);
+            } catch (IOException e) {
+                throw new RecordException("Exception occurred while checking existence of records in HBase table",
+                        e);
+            }
 
-                Put put = buildPut(newRecord, version, fieldTypes, recordEvent, referencedBlobs, unReferencedBlobs, newOcc);
+            // Build all the puts
+            List<PreparedMutation> mutations = new ArrayList<PreparedMutation>(indexes.size());
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                try {
+                    mutations.add(prepareCreate(records.get(i), recordIds[i], rows[j], fieldTypes));
+                } catch (RepositoryException e) {
+                    results[i] = new MutationResult(e);
+                    mutations.add(null);
+                } catch (IOException e) {
+                    results[i] = new MutationResult(new RecordException("Exception occurred while creating record '"
+                            + recordIds[i] + "' in HBase table", e));
+                    mutations.add(null);
+                }
+            }
 
-                // Make sure the record type changed flag stays false for a newly
-                // created record
-                recordEvent.setRecordTypeChanged(false);
-                Long newVersion = newRecord.getVersion();
-                if (newVersion != null) {
-                    recordEvent.setVersionCreated(newVersion);
+            // Perform the conditional writes, and finish off the successful ones
+            RecordException[] errors = new RecordException[mutations.size()];
+            Boolean[] written = checkAndPutAll(mutations, errors);
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                if (errors[j] != null) {
+                    results[i] = new MutationResult(errors[j]);
+                } else if (written[j] == null) {
+                    continue;
+                } else if (written[j]) {
+                    results[i] = new MutationResult(completeMutation(mutations.get(j), ResponseStatus.CREATED));
+                } else {
+                    results[i] = new MutationResult(new RecordExistsException(recordIds[i]));
                 }
+            }
 
-                // Reserve blobs so no other records can use them
-                reserveBlobs(null, referencedBlobs);
+            return Arrays.asList(results);
+        } finally {
+            metrics.report(Action.CREATE_ALL, System.currentTimeMillis() - before);
+        }
+    }
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
-                boolean success = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                        oldOccBytes, put);
-                if (!success) {
-                    throw new RecordExistsException(recordId);
+    /**
+     * The Get to read the state needed to create the record: if the record existed it would have been deleted,
+     * and the version numbering continues from where it has been deleted.
+     */
+    private Get newCreateGet(RecordId recordId) {
+        Get get = new Get(recordId.toBytes());
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+        return get;
+    }
+
+    /**
+     * Prepares the conditional Put for creating a record, based on the row state read with
+     * {@link #newCreateGet(RecordId)}.
+     */
+    private PreparedMutation prepareCreate(Record record, RecordId recordId, Result result, FieldTypes fieldTypes)
+            throws IOException, InterruptedException, RepositoryException {
+        long version = 1L;
+        byte[] oldOccBytes = null;
+        long newOcc = 1L;
+        if (!result.isEmpty()) {
+            // If the record existed it should have been deleted
+            byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+            if (recordDeleted != null && !Bytes.toBoolean(recordDeleted)) {
+                throw new RecordExistsException(recordId);
+            }
+
+            oldOccBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            newOcc = Bytes.toLong(nextOcc(oldOccBytes));
+
+            byte[] oldVersion = result.getValue(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+            if (oldVersion != null) {
+                version = Bytes.toLong(oldVersion) + 1;
+                // Make sure any old data gets cleared and old blobs are deleted
+                // This is to cover the failure scenario where a record was deleted, but a failure
+                // occurred before executing the clearData
+                // If this was already done, this is a no-op
+                // Note: since the removal of the row locking, this part could run concurrent with other
+                // threads trying to re-create a record or with a delete still being in progress. This
+                // should be no problem since the clearData will only remove the versions at the old
+                // timestamps, and leave the non-versioned fields untouched.
+                clearData(recordId, null, Bytes.toLong(oldVersion));
+            }
+        }
+
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(Type.CREATE);
+        recordEvent.setTableName(getTableName());
+        if (record.hasAttributes()) {
+            recordEvent.getAttributes().putAll(record.getAttributes());
+        }
+
+        Record newRecord = record.cloneRecord();
+        newRecord.setId(recordId);
+
+        for (RecordUpdateHook hook : updateHooks) {
+            hook.beforeCreate(newRecord, this, fieldTypes, recordEvent);
+        }
+
+        Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
+        Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+
+        Put put = buildPut(newRecord, version, fieldTypes, recordEvent, referencedBlobs, unReferencedBlobs, newOcc);
+
+        // Make sure the record type changed flag stays false for a newly
+        // created record
+        recordEvent.setRecordTypeChanged(false);
+        Long newVersion = newRecord.getVersion();
+        if (newVersion != null) {
+            recordEvent.setVersionCreated(newVersion);
+        }
+
+        // Reserve blobs so no other records can use them
+        reserveBlobs(null, referencedBlobs);
+
+        put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, encodeRecordEvent(recordEvent));
+
+        return new PreparedMutation(newRecord, put, oldOccBytes, referencedBlobs, unReferencedBlobs);
+    }
+
+    /**
+     * Finishes a mutation after its Put has been successfully applied.
+     */
+    private Record completeMutation(PreparedMutation mutation, ResponseStatus responseStatus) {
+        // Remove the used blobs from the blobIncubator and delete unreferenced blobs from the blobstore
+        blobManager.handleBlobReferences(mutation.record.getId(), mutation.referencedBlobs,
+                mutation.unReferencedBlobs);
+
+        if (mutation.replacedRecordTypeId != null) {
+            removeFromRecordTypeIndex(mutation.record.getId(), mutation.replacedRecordTypeId);
+        }
+
+        mutation.record.setResponseStatus(responseStatus);
+        removeUnidirectionalState(mutation.record);
+        return mutation.record;
+    }
+
+    /**
+     * Performs the OCC-conditional Puts of the given mutations concurrently, so that the round-trips overlap
+     * rather than being done one after the other. (HBase does not offer a batched checkAndPut.)
+     *
+     * <p>A failing put does not affect the others: its exception is stored in the errors array, so that
+     * the puts which did succeed can still be completed.</p>
+     *
+     * @param mutations list of mutations, can contain null entries which are skipped
+     * @param errors receives, per mutation, the exception which occurred while writing it
+     * @return for each mutation whether the put was applied, null for skipped or failed mutations
+     */
+    private Boolean[] checkAndPutAll(List<PreparedMutation> mutations, RecordException[] errors)
+            throws InterruptedException {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(mutations.size());
+        for (final PreparedMutation mutation : mutations) {
+            if (mutation == null) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(repositoryManager.getBatchExecutor().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return applyMutation(mutation);
                 }
+            }));
+        }
 
-                // Remove the used blobs from the blobIncubator
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
+        Boolean[] written = new Boolean[mutations.size()];
+        for (int i = 0; i < futures.size(); i++) {
+            if (futures.get(i) == null) {
+                continue;
+            }
+            try {
+                written[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                errors[i] = new RecordException("Exception occurred while writing record '"
+                        + mutations.get(i).record.getId() + "' to HBase table", e.getCause());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Applies the Put of a prepared mutation, via the {@link RecordMutationEndpoint} if the mutation has cell
+     * conditions, otherwise if the OCC version of the record is unchanged.
+     */
+    private boolean applyMutation(PreparedMutation mutation) throws IOException {
+        RecordId recordId = mutation.record.getId();
+        if (mutation.cellConditions == null) {
+            return checkAndPut(recordId, mutation.put, mutation.oldOccBytes);
+        }
+
+        addToRecordTypeIndex(recordId, mutation.put);
+        try {
+            return recordTable.coprocessorProxy(RecordMutationProtocol.class, mutation.put.getRow())
+                    .checkAndPut(mutation.cellConditions, mutation.put);
+        } finally {
+            invalidateCachedRecord(recordId);
+        }
+    }
+
+    /**
+     * Applies the Put of a record if its OCC version is still the given one. The record is removed from the
+     * record cache afterwards, also when the Put failed, in which case the cached record is likely outdated.
+     */
+    private boolean checkAndPut(RecordId recordId, Put put, byte[] oldOccBytes) throws IOException {
+        addToRecordTypeIndex(recordId, put);
+        addToVariantIndex(recordId, put);
+        try {
+            return recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes, oldOccBytes,
+                    put);
+        } finally {
+            invalidateCachedRecord(recordId);
+        }
+    }
+
+    /**
+     * Adds the record to the variant index, if there is one, when the given Put creates the record (creating
+     * puts are the only ones which set the deleted flag to false). This is done before the Put is applied, for
+     * the same reason as in {@link #addToRecordTypeIndex}.
+     */
+    private void addToVariantIndex(RecordId recordId, Put put) throws IOException {
+        VariantIndex index = variantIndex;
+        if (index != null) {
+            for (KeyValue kv : put.get(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes)) {
+                if (!Bytes.toBoolean(kv.getValue())) {
+                    index.addEntry(recordId);
+                    return;
+                }
+            }
+        }
+    }
 
-                newRecord.setResponseStatus(ResponseStatus.CREATED);
-                removeUnidirectionalState(newRecord);
-                return newRecord;
+    /**
+     * Adds the record to the record type index, if there is one, when the given Put sets its record type. This
+     * is done before the Put is applied, so that the index never misses a record, even if the Put is applied
+     * but this process dies before it could update the index. See {@link RecordTypeIndex}.
+     */
+    private void addToRecordTypeIndex(RecordId recordId, Put put) throws IOException {
+        RecordTypeIndex index = recordTypeIndex;
+        if (index != null) {
+            for (KeyValue kv : put.get(RecordCf.DATA.bytes, RecordColumn.NON_VERSIONED_RT_ID.bytes)) {
+                index.addEntry(new SchemaIdImpl(kv.getValue()), recordId);
+            }
+        }
+    }
 
+    /**
+     * Removes a deleted record from the variant index, if there is one. Failures are only logged, since the index
+     * is allowed to contain records which no longer exist.
+     */
+    private void removeFromVariantIndex(RecordId recordId) {
+        VariantIndex index = variantIndex;
+        if (index != null) {
+            try {
+                index.removeEntry(recordId);
             } catch (IOException e) {
-                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
+                log.warn("Failed to remove deleted record " + recordId + " from the variant index", e);
+            }
+        }
+    }
+
+    /**
+     * Removes a deleted record from the record type index, if there is one. Failures are only logged, since the
+     * index is allowed to contain records which no longer exist.
+     */
+    private void removeFromRecordTypeIndex(Record deletedRecord) {
+        if (recordTypeIndex != null && deletedRecord.getRecordTypeName() != null) {
+            try {
+                SchemaId recordTypeId = typeManager.getRecordTypeByName(deletedRecord.getRecordTypeName(),
+                        deletedRecord.getRecordTypeVersion()).getId();
+                removeFromRecordTypeIndex(deletedRecord.getId(), recordTypeId);
+            } catch (RepositoryException e) {
+                log.warn("Failed to remove deleted record " + deletedRecord.getId() + " from the record type index",
                         e);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
-                        e);
-            } catch (BlobException e) {
-                throw new RecordException("Exception occurred while creating record '" + recordId + "'",
-                        e);
             }
-        } finally {
-            metrics.report(Action.CREATE, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Removes the entry of a record from the record type index, if there is one, after the record has been
+     * deleted or its record type has been changed. Failures are only logged, since the index is allowed to
+     * contain records which are no longer of the record type.
+     *
+     * <p>The record might have been re-created, or have got its old record type back, concurrently with the
+     * removal, in which case the index entry added for it might have been removed as well. Therefore the record
+     * is read again after the removal, and the entry is added back if the record again has the record type.</p>
+     */
+    private void removeFromRecordTypeIndex(RecordId recordId, SchemaId recordTypeId) {
+        RecordTypeIndex index = recordTypeIndex;
+        if (index != null) {
+            try {
+                index.removeEntry(recordTypeId, recordId);
+
+                Get get = new Get(recordId.toBytes());
+                get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                get.addColumn(RecordCf.DATA.bytes, RecordColumn.NON_VERSIONED_RT_ID.bytes);
+                Result result = recordTable.get(get);
+                byte[] deleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                byte[] currentRecordTypeId = result.getValue(RecordCf.DATA.bytes,
+                        RecordColumn.NON_VERSIONED_RT_ID.bytes);
+                if (deleted != null && !Bytes.toBoolean(deleted)
+                        && Arrays.equals(recordTypeId.getBytes(), currentRecordTypeId)) {
+                    index.addEntry(recordTypeId, recordId);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to remove record " + recordId + " from the record type index", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the record type which the given Put of an update replaces, or null if the Put does not
+     * change the record type (changing only the version of the record type keeps the same id).
+     */
+    private SchemaId getReplacedRecordTypeId(Record originalRecord, Put put)
+            throws RepositoryException, InterruptedException {
+        if (recordTypeIndex == null || originalRecord.getRecordTypeName() == null) {
+            return null;
+        }
+        for (KeyValue kv : put.get(RecordCf.DATA.bytes, RecordColumn.NON_VERSIONED_RT_ID.bytes)) {
+            SchemaId originalRecordTypeId = typeManager.getRecordTypeByName(originalRecord.getRecordTypeName(),
+                    originalRecord.getRecordTypeVersion()).getId();
+            if (!Arrays.equals(originalRecordTypeId.getBytes(), kv.getValue())) {
+                return originalRecordTypeId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A record mutation which has been fully calculated, but of which the Put is not yet applied.
+     */
+    private static class PreparedMutation {
+        private final Record record;
+        private final Put put;
+        private final byte[] oldOccBytes;
+        private final Set<BlobReference> referencedBlobs;
+        private final Set<BlobReference> unReferencedBlobs;
+        /**
+         * If set, the put is applied via the {@link RecordMutationEndpoint} when these cells are unchanged,
+         * rather than when the OCC version is unchanged.
+         */
+        private CellCondition[] cellConditions;
+        /**
+         * The id of the record type of the record before an update which changes it, of which the entry is
+         * removed from the record type index once the update is applied.
+         */
+        private SchemaId replacedRecordTypeId;
+
+        PreparedMutation(Record record, Put put, byte[] oldOccBytes, Set<BlobReference> referencedBlobs,
+                Set<BlobReference> unReferencedBlobs) {
+            this.record = record;
+            this.put = put;
+            this.oldOccBytes = oldOccBytes;
+            this.referencedBlobs = referencedBlobs;
+            this.unReferencedBlobs = unReferencedBlobs;
         }
     }
 
@@ -405,73 +783,350 @@ public class HBaseRepository extends BaseRepository {
         RecordId recordId = record.getId();
 
         try {
+            if (useMutationEndpoint()) {
+                return updateRecordInRegion(record, useLatestRecordType, conditions, fieldTypes);
+            }
+
             Pair<Record, byte[]> recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
-            Record originalRecord = new UnmodifiableRecord(recordAndOcc.getV1());
 
-            byte[] oldOccBytes = recordAndOcc.getV2();
+            PreparedMutation mutation = prepareUpdate(record, recordAndOcc.getV1(), recordAndOcc.getV2(),
+                    useLatestRecordType, conditions, fieldTypes);
+            if (mutation.put == null) {
+                // Conflicting conditions or nothing to update
+                return mutation.record;
+            }
+
+            boolean occSuccess = checkAndPut(recordId, mutation.put, mutation.oldOccBytes);
+            if (!occSuccess) {
+                throw new ConcurrentRecordUpdateException(recordId);
+            }
+
+            return completeMutation(mutation, ResponseStatus.UPDATED);
+
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while updating record '" + recordId + "' on HBase table",
+                    e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordException("Exception occurred while updating record '" + recordId + "' on HBase table",
+                    e);
+        } catch (BlobException e) {
+            throw new RecordException("Exception occurred while putting updated record '" + recordId
+                    + "' on HBase table", e);
+        }
+    }
+
+    /**
+     * Variant of {@link #updateRecord} for record tables which have the {@link RecordMutationEndpoint}.
+     *
+     * <p>Rather than requiring the OCC version of the record to be unchanged, the put is applied if the cells on
+     * which the update was calculated are unchanged, which is checked atomically inside the region. Concurrent
+     * updates of other fields of the record thus don't cause a conflict. If the cells did change, the update is
+     * calculated again on the new state of the record, including the evaluation of the mutation conditions.</p>
+     */
+    private Record updateRecordInRegion(Record record, boolean useLatestRecordType,
+            List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws IOException, InterruptedException, RepositoryException {
+        RecordId recordId = record.getId();
+
+        for (int attempts = 0; attempts < 3; attempts++) {
+            Result row = getRow(recordId, null, 1, null);
+            Record storedRecord = recdec.decodeRecord(recordId, recdec.getLatestVersion(row), null, row, fieldTypes);
+            byte[] occBytes = recdec.getLatest(row, RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+
+            PreparedMutation mutation = prepareUpdate(record, storedRecord, occBytes, useLatestRecordType,
+                    conditions, fieldTypes);
+            if (mutation.put == null) {
+                // Conflicting conditions or nothing to update
+                return mutation.record;
+            }
+
+            mutation.cellConditions = getCellConditions(row, record, conditions, fieldTypes);
+            if (applyMutation(mutation)) {
+                return completeMutation(mutation, ResponseStatus.UPDATED);
+            }
+        }
+
+        throw new ConcurrentRecordUpdateException(recordId);
+    }
+
+    /**
+     * Returns the conditions which make sure the columns on which an update is calculated are unchanged: the
+     * system columns (except for the OCC), the updated and deleted fields, the fields on which there
+     * are mutation conditions, and the fields on which the record update hooks depend.
+     */
+    private CellCondition[] getCellConditions(Result row, Record record, List<MutationCondition> conditions,
+            FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        Set<QName> fieldNames = new HashSet<QName>(record.getFields().keySet());
+        fieldNames.addAll(record.getFieldsToDelete());
+        if (conditions != null) {
+            for (MutationCondition condition : conditions) {
+                fieldNames.add(condition.getField());
+            }
+        }
+        for (RecordUpdateHook hook : updateHooks) {
+            fieldNames.addAll(((FieldDependentRecordUpdateHook)hook).getFieldDependencies());
+        }
+
+        List<CellCondition> cellConditions = new ArrayList<CellCondition>();
+        for (byte[] column : RecordDecoder.SYSTEM_FIELDS) {
+            if (!Bytes.equals(column, RecordColumn.OCC.bytes)) {
+                cellConditions.add(new CellCondition(column, recdec.getLatest(row, RecordCf.DATA.bytes, column)));
+            }
+        }
+
+        SystemFields systemFields = SystemFields.getInstance(typeManager, idGenerator);
+        for (QName fieldName : fieldNames) {
+            if (systemFields.isSystemField(fieldName)) {
+                // derived from the system columns
+                continue;
+            }
+            FieldTypeImpl fieldType;
+            try {
+                fieldType = (FieldTypeImpl)fieldTypes.getFieldType(fieldName);
+            } catch (FieldTypeNotFoundException e) {
+                // only possible for fields in mutation conditions, these never have a value
+                continue;
+            }
+            byte[] qualifier = fieldType.getQualifier();
+            cellConditions.add(new CellCondition(qualifier, recdec.getLatest(row, RecordCf.DATA.bytes, qualifier)));
+        }
+        return cellConditions.toArray(new CellCondition[cellConditions.size()]);
+    }
+
+    /**
+     * Returns true if updates can be applied via the {@link RecordMutationEndpoint}. This is not done when there
+     * are record update hooks which do not declare the fields they depend on, since these can base their
+     * changes on any field of the record.
+     */
+    private boolean useMutationEndpoint() {
+        for (RecordUpdateHook hook : updateHooks) {
+            if (!(hook instanceof FieldDependentRecordUpdateHook)
+                    || ((FieldDependentRecordUpdateHook)hook).getFieldDependencies() == null) {
+                return false;
+            }
+        }
+        return hasMutationEndpoint();
+    }
+
+    private boolean hasMutationEndpoint() {
+        if (mutationEndpointAvailable == null) {
+            try {
+                mutationEndpointAvailable = recordTable.getTableDescriptor()
+                        .hasCoprocessor(RecordMutationEndpoint.class.getName());
+            } catch (IOException e) {
+                log.warn("Could not check if the record table has the mutation endpoint, will check again later", e);
+                return false;
+            }
+        }
+        return mutationEndpointAvailable;
+    }
+
+    /**
+     * Increments the counter field via the {@link RecordMutationEndpoint} if the record table has it, otherwise
+     * falls back to the conditional updates of the default implementation.
+     *
+     * <p>The record update hooks are called with the record as it is expected to be after the increment, based
+     * on a read of the record. The increment itself doesn't depend on this read, the hooks might thus see a
+     * slightly outdated value of the counter when there are concurrent increments.</p>
+     */
+    @Override
+    public long increment(RecordId recordId, QName fieldName, long delta)
+            throws RepositoryException, InterruptedException {
+        if (!hasMutationEndpoint()) {
+            return super.increment(recordId, fieldName, delta);
+        }
+
+        ArgumentValidator.notNull(recordId, "recordId");
+        ArgumentValidator.notNull(fieldName, "fieldName");
+
+        long before = System.currentTimeMillis();
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            FieldType fieldType = getCounterFieldType(recordId, fieldName, fieldTypes);
 
             RecordEvent recordEvent = new RecordEvent();
             recordEvent.setType(Type.UPDATE);
             recordEvent.setTableName(getTableName());
-            if (record.hasAttributes()) {
-                recordEvent.getAttributes().putAll(record.getAttributes());
+            recordEvent.addUpdatedField(fieldType.getId());
+
+            if (!updateHooks.isEmpty()) {
+                Record originalRecord = new UnmodifiableRecord(read(recordId, null, null, fieldTypes));
+                Long currentValue = originalRecord.hasField(fieldName) ?
+                        originalRecord.<Long>getField(fieldName) : 0L;
+                Record record = newRecord(recordId);
+                record.setField(fieldName, currentValue + delta);
+                for (RecordUpdateHook hook : updateHooks) {
+                    hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+                }
             }
 
-            for (RecordUpdateHook hook : updateHooks) {
-                hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+            byte[] rowId = recordId.toBytes();
+            Long newValue;
+            try {
+                newValue = recordTable.coprocessorProxy(RecordMutationProtocol.class, rowId)
+                        .increment(rowId, fieldType.getId().getBytes(), delta, encodeRecordEvent(recordEvent));
+            } finally {
+                invalidateCachedRecord(recordId);
             }
+            if (newValue == null) {
+                throw new RecordNotFoundException(recordId, this, this);
+            }
+            return newValue;
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while incrementing field '" + fieldName + "' of record '"
+                    + recordId + "' on HBase table", e);
+        } finally {
+            metrics.report(Action.INCREMENT, System.currentTimeMillis() - before);
+        }
+    }
 
-            Record newRecord = record.cloneRecord();
-
-            Put put = new Put(newRecord.getId().toBytes());
-            Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
-            Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
-            long newVersion = originalRecord.getVersion() == null ? 1 : originalRecord.getVersion() + 1;
+    @Override
+    public List<MutationResult> updateAll(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
 
-            // Check the mutation conditions.
-            // It is important that we do this before checking if the record needs updating at all: otherwise,
-            // another client might already have performed the update we intended to do, which is problematic
-            // in cases like incrementing a counter (the counter should be updated twice, not once).
-            Record conditionsResponse = MutationConditionVerifier.checkConditions(originalRecord, conditions, this,
-                    record);
-            if (conditionsResponse != null) {
-                return conditionsResponse;
+        long before = System.currentTimeMillis();
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            MutationResult[] results = new MutationResult[records.size()];
+
+            // The current state of the records is looked up by record id, and the puts of two updates of the
+            // same record would be checked against the same OCC value, so a record can only occur once
+            List<RecordId> recordIds = new ArrayList<RecordId>(records.size());
+            Set<RecordId> uniqueRecordIds = new HashSet<RecordId>();
+            for (int i = 0; i < records.size(); i++) {
+                RecordId recordId = records.get(i).getId();
+                if (recordId == null) {
+                    results[i] = new MutationResult(new InvalidRecordException(
+                            "The recordId cannot be null for a record to be updated.", (RecordId) null));
+                } else if (!uniqueRecordIds.add(recordId)) {
+                    results[i] = new MutationResult(new InvalidRecordException(
+                            "The record occurs more than once in the batch to be updated.", recordId));
+                } else {
+                    recordIds.add(recordId);
+                }
             }
 
-            if (calculateRecordChanges(newRecord, originalRecord, newVersion, put, recordEvent, referencedBlobs,
-                    unReferencedBlobs, useLatestRecordType, fieldTypes)) {
-
-                // Reserve blobs so no other records can use them
-                reserveBlobs(record.getId(), referencedBlobs);
+            // Read the current state of all the records in one multi-get
+            Map<RecordId, Result> rows = getRows(recordIds, null);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
-                put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
-                boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                        oldOccBytes, put);
-                if (!occSuccess) {
-                    throw new ConcurrentRecordUpdateException(recordId);
+            // Build all the puts
+            boolean useMutationEndpoint = useMutationEndpoint();
+            List<PreparedMutation> mutations = new ArrayList<PreparedMutation>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                mutations.add(null);
+                if (results[i] != null) {
+                    continue;
+                }
+                Record record = records.get(i);
+                RecordId recordId = record.getId();
+                Result row = rows.get(recordId);
+                if (row == null) {
+                    results[i] = new MutationResult(new RecordNotFoundException(recordId, this, this));
+                    continue;
+                }
+                try {
+                    Record originalRecord = recdec.decodeRecord(recordId, recdec.getLatestVersion(row), null, row,
+                            fieldTypes);
+                    byte[] occBytes = row.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+                    PreparedMutation mutation = prepareUpdate(record, originalRecord, occBytes, useLatestRecordType,
+                            null, fieldTypes);
+                    if (mutation.put == null) {
+                        results[i] = new MutationResult(mutation.record);
+                    } else {
+                        if (useMutationEndpoint) {
+                            mutation.cellConditions = getCellConditions(row, record, null, fieldTypes);
+                        }
+                        mutations.set(i, mutation);
+                    }
+                } catch (RepositoryException e) {
+                    results[i] = new MutationResult(e);
+                } catch (IOException e) {
+                    results[i] = new MutationResult(new RecordException("Exception occurred while updating record '"
+                            + recordId + "' on HBase table", e));
                 }
+            }
 
-                // Remove the used blobs from the blobIncubator and delete unreferenced blobs from the blobstore
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
-                newRecord.setResponseStatus(ResponseStatus.UPDATED);
-            } else {
-                newRecord.setResponseStatus(ResponseStatus.UP_TO_DATE);
+            // Perform the conditional writes, and finish off the successful ones
+            RecordException[] errors = new RecordException[mutations.size()];
+            Boolean[] written = checkAndPutAll(mutations, errors);
+            for (int i = 0; i < records.size(); i++) {
+                if (errors[i] != null) {
+                    results[i] = new MutationResult(errors[i]);
+                } else if (written[i] == null) {
+                    continue;
+                } else if (written[i]) {
+                    results[i] = new MutationResult(completeMutation(mutations.get(i), ResponseStatus.UPDATED));
+                } else {
+                    results[i] = new MutationResult(new ConcurrentRecordUpdateException(records.get(i).getId()));
+                }
             }
 
-            removeUnidirectionalState(newRecord);
-            return newRecord;
+            return Arrays.asList(results);
+        } finally {
+            metrics.report(Action.UPDATE_ALL, System.currentTimeMillis() - before);
+        }
+    }
 
-        } catch (IOException e) {
-            throw new RecordException("Exception occurred while updating record '" + recordId + "' on HBase table",
-                    e);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RecordException("Exception occurred while updating record '" + recordId + "' on HBase table",
-                    e);
-        } catch (BlobException e) {
-            throw new RecordException("Exception occurred while putting updated record '" + recordId
-                    + "' on HBase table", e);
+    /**
+     * Prepares the conditional Put for updating a record (not its versioned-mutable fields).
+     *
+     * <p>If the conditions are not satisfied or the record is already up to date, the returned mutation
+     * has no Put, and its record is the response to be returned to the client.</p>
+     *
+     * @param storedRecord the current state of the record
+     * @param oldOccBytes the current OCC value of the record
+     */
+    private PreparedMutation prepareUpdate(Record record, Record storedRecord, byte[] oldOccBytes,
+            boolean useLatestRecordType, List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws IOException, InterruptedException, RepositoryException {
+        Record originalRecord = new UnmodifiableRecord(storedRecord);
+
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(Type.UPDATE);
+        recordEvent.setTableName(getTableName());
+        if (record.hasAttributes()) {
+            recordEvent.getAttributes().putAll(record.getAttributes());
+        }
+
+        for (RecordUpdateHook hook : updateHooks) {
+            hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+        }
+
+        Record newRecord = record.cloneRecord();
+
+        Put put = new Put(newRecord.getId().toBytes());
+        Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
+        Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+        long newVersion = originalRecord.getVersion() == null ? 1 : originalRecord.getVersion() + 1;
+
+        // Check the mutation conditions.
+        // It is important that we do this before checking if the record needs updating at all: otherwise,
+        // another client might already have performed the update we intended to do, which is problematic
+        // in cases like incrementing a counter (the counter should be updated twice, not once).
+        Record conditionsResponse = MutationConditionVerifier.checkConditions(originalRecord, conditions, this,
+                record);
+        if (conditionsResponse != null) {
+            return new PreparedMutation(conditionsResponse, null, oldOccBytes, referencedBlobs, unReferencedBlobs);
+        }
+
+        if (calculateRecordChanges(newRecord, originalRecord, newVersion, put, recordEvent, referencedBlobs,
+                unReferencedBlobs, useLatestRecordType, fieldTypes)) {
+
+            // Reserve blobs so no other records can use them
+            reserveBlobs(record.getId(), referencedBlobs);
+
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, encodeRecordEvent(recordEvent));
+            put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
+            PreparedMutation mutation = new PreparedMutation(newRecord, put, oldOccBytes, referencedBlobs,
+                    unReferencedBlobs);
+            mutation.replacedRecordTypeId = getReplacedRecordTypeId(originalRecord, put);
+            return mutation;
+        } else {
+            newRecord.setResponseStatus(ResponseStatus.UP_TO_DATE);
+            removeUnidirectionalState(newRecord);
+            return new PreparedMutation(newRecord, null, oldOccBytes, referencedBlobs, unReferencedBlobs);
         }
     }
 
@@ -983,10 +1638,9 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, encodeRecordEvent(recordEvent));
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
-                boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                        oldOccBytes, put);
+                boolean occSuccess = checkAndPut(recordId, put, oldOccBytes);
                 if (!occSuccess) {
                     throw new ConcurrentRecordUpdateException(recordId);
                 }
@@ -1110,10 +1764,9 @@ public class HBaseRepository extends BaseRepository {
 
             }
 
-            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, encodeRecordEvent(recordEvent));
             put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOcc));
-            boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                    oldOcc, put);
+            boolean occSuccess = checkAndPut(recordId, put, oldOcc);
             if (!occSuccess) {
                 throw new ConcurrentRecordUpdateException(recordId);
             }
@@ -1121,6 +1774,9 @@ public class HBaseRepository extends BaseRepository {
             // Clear the old data and delete any referenced blobs
             clearData(recordId, originalRecord, originalRecord.getVersion());
 
+            removeFromRecordTypeIndex(originalRecord);
+            removeFromVariantIndex(recordId);
+
         } catch (IOException e) {
             throw new RecordException("Exception occurred while deleting record '" + recordId + "' on HBase table",
                     e);
@@ -1175,6 +1831,7 @@ public class HBaseRepository extends BaseRepository {
             boolean dataToDelete = false;
             Delete delete = new Delete(recordId.toBytes());
             Set<BlobReference> blobsToDelete = new HashSet<BlobReference>();
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
 
             NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> map = result.getMap();
             Set<Entry<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>>> familiesSet = map.entrySet();
@@ -1184,9 +1841,8 @@ public class HBaseRepository extends BaseRepository {
                     for (Entry<byte[], NavigableMap<Long, byte[]>> column : columnsSet.entrySet()) {
                         try {
                             byte[] columnQualifier = column.getKey();
-                            SchemaId schemaId =
-                                    new SchemaIdImpl(Bytes.tail(columnQualifier, columnQualifier.length - 1));
-                            FieldType fieldType = typeManager.getFieldTypeById(schemaId);
+                            FieldType fieldType =
+                                    fieldTypes.getFieldType(columnQualifier, 1, columnQualifier.length - 1);
                             ValueType valueType = fieldType.getValueType();
                             NavigableMap<Long, byte[]> cells = column.getValue();
                             Set<Entry<Long, byte[]>> cellsSet = cells.entrySet();
@@ -1203,7 +1859,8 @@ public class HBaseRepository extends BaseRepository {
                                     } else {
                                         byte[] value = cell.getValue();
                                         if (!isDeleteMarker(value)) {
-                                            blobValue = valueType.read(EncodingUtil.stripPrefix(value));
+                                            blobValue = RecordDecoder.decodeField(fieldType, value, 0,
+                                                    value.length).value;
                                         }
                                     }
                                     try {
@@ -1330,32 +1987,74 @@ public class HBaseRepository extends BaseRepository {
 
     @Override
     public Set<RecordId> getVariants(RecordId recordId) throws RepositoryException {
-        byte[] masterRecordIdBytes = recordId.getMaster().toBytes();
-        FilterList filterList = new FilterList(FilterList.Operator.MUST_PASS_ALL);
-        filterList.addFilter(new PrefixFilter(masterRecordIdBytes));
-        filterList.addFilter(REAL_RECORDS_FILTER);
-
-        Scan scan = new Scan(masterRecordIdBytes, filterList);
-        scan.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-
+        RecordId masterRecordId = recordId.getMaster();
         Set<RecordId> recordIds = new HashSet<RecordId>();
 
         try {
-            ResultScanner scanner = recordTable.getScanner(scan);
-            Result result;
-            while ((result = scanner.next()) != null) {
-                RecordId id = idGenerator.fromBytes(result.getRow());
-                recordIds.add(id);
-            }
-            Closer.close(
-                    scanner); // Not closed in finally block: avoid HBase contact when there could be connection problems.
+            VariantIndex index = variantIndex;
+            if (index != null) {
+                // Look up the candidates in the index, and check which of them exist with one multi-get
+                List<Get> gets = new ArrayList<Get>();
+                for (byte[] candidate : index.getVariants(masterRecordId)) {
+                    Get get = new Get(candidate);
+                    get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                    gets.add(get);
+                }
+                if (!gets.isEmpty()) {
+                    for (Result result : recordTable.get(gets)) {
+                        byte[] deleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                        if (deleted != null && !Bytes.toBoolean(deleted)) {
+                            recordIds.add(idGenerator.fromBytes(result.getRow()));
+                        }
+                    }
+                }
+            } else {
+                byte[] masterRecordIdBytes = masterRecordId.toBytes();
+                Scan scan = new Scan(masterRecordIdBytes, getVariantsStopRow(masterRecordId, masterRecordIdBytes));
+                scan.setFilter(REAL_RECORDS_FILTER);
+                scan.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+
+                ResultScanner scanner = recordTable.getScanner(scan);
+                Result result;
+                while ((result = scanner.next()) != null) {
+                    RecordId id = idGenerator.fromBytes(result.getRow());
+                    recordIds.add(id);
+                }
+                Closer.close(
+                        scanner); // Not closed in finally block: avoid HBase contact when there could be connection problems.
+            }
         } catch (IOException e) {
-            throw new RepositoryException("Error getting list of variants of record " + recordId.getMaster(), e);
+            throw new RepositoryException("Error getting list of variants of record " + masterRecordId, e);
         }
 
         return recordIds;
     }
 
+    /**
+     * Returns the first row key after the rows of the given master record and its variants, to use as stop row
+     * when scanning for the variants.
+     *
+     * <p>The ids of variant records start with the id of their master record. For USER ids, this is followed by
+     * a zero byte, which USER ids themselves cannot contain, so that rows of other USER ids which start with the
+     * same characters sort after the stop row. Other master ids have a fixed length, so the stop row is simply
+     * the first row key which doesn't start with the master id.</p>
+     */
+    static byte[] getVariantsStopRow(RecordId masterRecordId, byte[] masterRecordIdBytes) {
+        if (masterRecordId instanceof UserRecordId) {
+            return Bytes.add(masterRecordIdBytes, new byte[] {1});
+        }
+
+        byte[] stopRow = Arrays.copyOf(masterRecordIdBytes, masterRecordIdBytes.length);
+        for (int i = stopRow.length - 1; i >= 0; i--) {
+            if (stopRow[i] != (byte)0xFF) {
+                stopRow[i]++;
+                return Arrays.copyOf(stopRow, i + 1);
+            }
+        }
+        // all bytes are 0xFF: scan until the end of the table
+        return HConstants.EMPTY_END_ROW;
+    }
+
     @Override
     public RecordBuilder recordBuilder() throws RecordException {
         return new RecordBuilderImpl(this, getIdGenerator());
@@ -1390,24 +2089,54 @@ public class HBaseRepository extends BaseRepository {
         }
 
         public FieldValueWriter addFieldValue(FieldType fieldType, Object value, Metadata metadata, long version) throws RepositoryException, InterruptedException {
-            byte[] encodedFieldValue = encodeFieldValue(parentRecord, fieldType, value, metadata);
-            put.add(RecordCf.DATA.bytes, ((FieldTypeImpl)fieldType).getQualifier(), version, encodedFieldValue);
+            byte[] qualifier = ((FieldTypeImpl)fieldType).getQualifier();
+            if (isDeleteMarker(value)) {
+                put.add(RecordCf.DATA.bytes, qualifier, version, FieldFlags.getDeleteMarker());
+                return this;
+            }
+
+            // The value is encoded in a pooled buffer, from which it is copied straight into the KeyValue,
+            // rather than first being copied into a byte[] of its own
+            DataOutputImpl dataOutput = DataOutputPool.acquire();
+            try {
+                encodeFieldValue(parentRecord, fieldType, value, metadata, dataOutput);
+                ByteBuffer encodedFieldValue = dataOutput.toByteBuffer();
+                byte[] row = put.getRow();
+                byte[] family = RecordCf.DATA.bytes;
+                put.add(new KeyValue(row, 0, row.length, family, 0, family.length, qualifier, 0, qualifier.length,
+                        version, KeyValue.Type.Put, encodedFieldValue.array(), encodedFieldValue.arrayOffset(),
+                        encodedFieldValue.remaining()));
+            } catch (IOException e) {
+                throw new RepositoryException("Error adding field value to put", e);
+            } finally {
+                DataOutputPool.release(dataOutput);
+            }
             return this;
         }
 
-        private byte[] encodeFieldValue(Record parentRecord, FieldType fieldType, Object fieldValue, Metadata metadata)
-                throws RepositoryException, InterruptedException {
-            if (isDeleteMarker(fieldValue)) {
-                return FieldFlags.getDeleteMarker();
-            }
+        private void encodeFieldValue(Record parentRecord, FieldType fieldType, Object fieldValue, Metadata metadata,
+                DataOutputImpl dataOutput) throws RepositoryException, InterruptedException {
             ValueType valueType = fieldType.getValueType();
 
-            DataOutput dataOutput = new DataOutputImpl();
             boolean hasMetadata = metadata != null && !metadata.getMap().isEmpty();
+            byte flags = hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT;
 
-            dataOutput.writeByte(hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT);
+            dataOutput.writeByte(flags);
             valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
 
+            FieldCompressionConfig compressionConfig = repositoryManager.getFieldCompressionConfig(getRepositoryName());
+            int valueSize = dataOutput.getSize() - FieldFlags.SIZE_OF_FIELD_FLAGS;
+            if (compressionConfig != null && compressionConfig.shouldCompress(fieldType, valueSize)) {
+                ByteBuffer encodedValue = dataOutput.toByteBuffer();
+                byte[] compressedValue = FieldValueCompression.compress(encodedValue.array(),
+                        encodedValue.arrayOffset() + FieldFlags.SIZE_OF_FIELD_FLAGS, valueSize);
+                if (compressedValue != null) {
+                    dataOutput.reset();
+                    dataOutput.writeByte((byte)(flags | FieldFlags.COMPRESSED));
+                    dataOutput.writeBytes(compressedValue);
+                }
+            }
+
             if (hasMetadata) {
                 if (fieldType.getScope() == Scope.VERSIONED_MUTABLE) {
                     throw new RuntimeException("Field metadata is currently not supported for versioned-mutable fields.");
@@ -1417,8 +2146,6 @@ public class HBaseRepository extends BaseRepository {
                 }
                 writeMetadataWithLengthSuffix(metadata, dataOutput);
             }
-
-            return dataOutput.toByteArray();
         }
 
     }
@@ -19,6 +19,8 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.HTableInterface;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.hbaseindex.IndexNotFoundException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.RecordFactory;
@@ -36,6 +38,7 @@ public class HBaseRepositoryManager extends AbstractRepositoryManager {
     private HBaseTableFactory hbaseTableFactory;
     private BlobManager blobManager;
     private Configuration hbaseConf;
+    private IndexManager indexManager;
 
     public HBaseRepositoryManager(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
             HBaseTableFactory hbaseTableFactory, BlobManager blobManager, Configuration hbaseConf,
@@ -51,12 +54,31 @@ public class HBaseRepositoryManager extends AbstractRepositoryManager {
         TableManager tableManager = new TableManagerImpl(key.getRepositoryName(), hbaseConf, hbaseTableFactory);
         try {
             HTableInterface htable = LilyHBaseSchema.getRecordTable(hbaseTableFactory, key.getRepositoryName(), key.getTableName(), true);
-            return new HBaseRepository(key, this, htable, blobManager, tableManager, getRecordFactory());
+            HBaseRepository repository =
+                    new HBaseRepository(key, this, htable, blobManager, tableManager, getRecordFactory());
+            if (isRecordTypeIndexEnabled()) {
+                repository.setRecordTypeIndex(
+                        new RecordTypeIndex(getIndexManager(), key.getRepositoryName(), key.getTableName()));
+            }
+            if (isVariantIndexEnabled()) {
+                repository.setVariantIndex(
+                        new VariantIndex(getIndexManager(), key.getRepositoryName(), key.getTableName()));
+            }
+            return repository;
         } catch (org.apache.hadoop.hbase.TableNotFoundException e) {
             throw new TableNotFoundException(key.getRepositoryName(), key.getTableName());
+        } catch (IndexNotFoundException e) {
+            throw new RepositoryException(e);
         } catch (IOException e) {
             throw new RepositoryException(e);
         }
     }
 
+    private synchronized IndexManager getIndexManager() throws IOException {
+        if (indexManager == null) {
+            indexManager = new IndexManager(hbaseConf, hbaseTableFactory);
+        }
+        return indexManager;
+    }
+
 }
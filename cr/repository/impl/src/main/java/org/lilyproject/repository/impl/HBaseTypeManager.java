@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl;
 
 import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -83,8 +84,19 @@ public class HBaseTypeManager extends AbstractTypeManager implements TypeManager
 
     public HBaseTypeManager(IdGenerator idGenerator, Configuration configuration, ZooKeeperItf zooKeeper, HBaseTableFactory hbaseTableFactory)
             throws IOException, InterruptedException, KeeperException, RepositoryException {
+        this(idGenerator, configuration, zooKeeper, hbaseTableFactory, null);
+    }
+
+    /**
+     * @param schemaCacheSnapshotFile file in which the schema cache is persisted to speed up restarts, see
+     *                                {@link AbstractSchemaCache#AbstractSchemaCache(ZooKeeperItf, File)}.
+     *                                Can be null.
+     */
+    public HBaseTypeManager(IdGenerator idGenerator, Configuration configuration, ZooKeeperItf zooKeeper, HBaseTableFactory hbaseTableFactory,
+            File schemaCacheSnapshotFile)
+            throws IOException, InterruptedException, KeeperException, RepositoryException {
         super(zooKeeper);
-        schemaCache = new LocalSchemaCache(zooKeeper, this);
+        schemaCache = new LocalSchemaCache(zooKeeper, this, schemaCacheSnapshotFile);
         log = LogFactory.getLog(getClass());
         this.idGenerator = idGenerator;
 
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * Scanner over a range of versions of a record, see {@link BaseRepository#getVersionScanner}.
+ *
+ * <p>The versions are read in pages of at most pageSize versions, each page with its own Get, so that only one
+ * page of versions is held in memory at a time. The field values which are still current at the start of a page
+ * are not decoded again, see {@link RecordDecoder.DecodedFields}.</p>
+ */
+public class HBaseVersionScannerImpl extends AbstractRecordScanner<Record> implements RecordScanner {
+    private final BaseRepository repository;
+    private final RecordId recordId;
+    private final List<FieldType> fields;
+    private final FieldTypes fieldTypes;
+    private final int pageSize;
+    private final RecordDecoder.DecodedFields decodedFields = new RecordDecoder.DecodedFields();
+    private long nextVersion;
+    private long toVersion;
+    private Iterator<Record> page = Collections.<Record>emptyList().iterator();
+
+    /**
+     * Reads the first page of versions right away, so that a non-existing record is reported by the constructor.
+     */
+    HBaseVersionScannerImpl(BaseRepository repository, RecordId recordId, long fromVersion, long toVersion,
+            List<FieldType> fields, FieldTypes fieldTypes, int pageSize)
+            throws RepositoryException, InterruptedException {
+        this.repository = repository;
+        this.recordId = recordId;
+        this.fields = fields;
+        this.fieldTypes = fieldTypes;
+        this.pageSize = pageSize;
+        this.nextVersion = Math.max(fromVersion, 1L);
+        this.toVersion = toVersion;
+
+        Result result = readPage();
+        // Limit the toVersion to the highest existing version
+        Long latestVersion = repository.recdec.getLatestVersion(result);
+        this.toVersion = latestVersion == null ? 0L : Math.min(toVersion, latestVersion);
+        // Skip the versions which have been pruned
+        long oldestVersion = repository.recdec.getOldestVersion(result);
+        if (nextVersion < oldestVersion) {
+            nextVersion = oldestVersion;
+            if (nextVersion <= this.toVersion) {
+                result = readPage();
+            }
+        }
+        decodePage(result);
+    }
+
+    private long getPageEnd() {
+        return Math.min(nextVersion + pageSize - 1, toVersion);
+    }
+
+    private Result readPage() throws RepositoryException {
+        long pageEnd = getPageEnd();
+        return repository.getRow(recordId, pageEnd, (int)(pageEnd - nextVersion + 1), fields);
+    }
+
+    private void decodePage(Result result) throws RepositoryException, InterruptedException {
+        long pageEnd = getPageEnd();
+        List<Long> versions = new ArrayList<Long>();
+        for (long version = nextVersion; version <= pageEnd; version++) {
+            versions.add(version);
+        }
+        page = repository.recdec.decodeRecords(recordId, versions, result, fieldTypes, decodedFields).iterator();
+        nextVersion = pageEnd + 1;
+    }
+
+    @Override
+    public Record next() throws RepositoryException, InterruptedException {
+        if (!page.hasNext()) {
+            if (nextVersion > toVersion) {
+                return null;
+            }
+            decodePage(readPage());
+        }
+        return page.hasNext() ? page.next() : null;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release, the pages are read with Gets
+        page = Collections.<Record>emptyList().iterator();
+        nextVersion = toVersion + 1;
+    }
+}
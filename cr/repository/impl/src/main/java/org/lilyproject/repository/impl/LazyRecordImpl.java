@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lilyproject.repository.api.FieldDecodingException;
+import org.lilyproject.repository.api.FieldNotFoundException;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.Metadata;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * A record as read from storage of which the field values are only decoded when they are first accessed.
+ *
+ * <p>The {@link RecordDecoder} adds the still encoded field values (the stored cell values, including the
+ * field flags and the metadata) together with their field type. Since records are often read with many more
+ * fields than the ones that are actually used, this avoids the cost of decoding the other ones.</p>
+ *
+ * <p>Accessing a single field (or its metadata) decodes only that field, operations which need the
+ * complete set of fields (such as {@link #getFields()}, {@link #cloneRecord()} or {@link #equals}) decode
+ * all remaining fields first.</p>
+ *
+ * <p>As a consequence, a field value which cannot be decoded is not reported by the read, but by the first
+ * method which decodes it, as a {@link FieldDecodingException}. This is an unchecked exception, which can be
+ * converted to the {@link RecordException} the read used to throw.</p>
+ */
+public class LazyRecordImpl extends RecordImpl {
+    private Map<QName, EncodedField> encodedFields;
+
+    public LazyRecordImpl(RecordId id) {
+        super(id);
+    }
+
+    /**
+     * Adds a field of which the value will only be decoded when needed.
+     *
+     * @param buffer array holding the stored value of a non-deleted field, which starts with the field flags
+     */
+    void addEncodedField(FieldType fieldType, byte[] buffer, int offset, int length) {
+        if (encodedFields == null) {
+            encodedFields = new HashMap<QName, EncodedField>();
+        }
+        encodedFields.put(fieldType.getName(), new EncodedField(fieldType, buffer, offset, length));
+    }
+
+    private synchronized void decode(QName name) {
+        if (encodedFields == null) {
+            return;
+        }
+        EncodedField encodedField = encodedFields.remove(name);
+        if (encodedField != null) {
+            decode(encodedField);
+        }
+    }
+
+    private synchronized void decodeAll() {
+        if (encodedFields == null) {
+            return;
+        }
+        for (EncodedField encodedField : encodedFields.values()) {
+            decode(encodedField);
+        }
+        encodedFields = null;
+    }
+
+    private void decode(EncodedField encodedField) {
+        RecordDecoder.ExtractedField field;
+        try {
+            field = RecordDecoder.decodeField(encodedField.type, encodedField.buffer, encodedField.offset,
+                    encodedField.length);
+        } catch (RepositoryException e) {
+            throw new FieldDecodingException(getId(), encodedField.type.getName(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FieldDecodingException(getId(), encodedField.type.getName(), e);
+        }
+        // not via setField, which would also remove the field from the fields to delete
+        super.getFields().put(field.type.getName(), field.value);
+        if (field.metadata != null) {
+            super.setMetadata(field.type.getName(), field.metadata);
+        }
+    }
+
+    @Override
+    public void setField(QName name, Object value) {
+        decode(name);
+        super.setField(name, value);
+    }
+
+    @Override
+    public <T> T getField(QName name) throws FieldNotFoundException {
+        decode(name);
+        return super.<T>getField(name);
+    }
+
+    @Override
+    public boolean hasField(QName fieldName) {
+        return (encodedFields != null && encodedFields.containsKey(fieldName)) || super.hasField(fieldName);
+    }
+
+    @Override
+    public Map<QName, Object> getFields() {
+        decodeAll();
+        return super.getFields();
+    }
+
+    @Override
+    public void delete(QName fieldName, boolean addToFieldsToDelete) {
+        if (encodedFields != null) {
+            encodedFields.remove(fieldName);
+        }
+        super.delete(fieldName, addToFieldsToDelete);
+    }
+
+    @Override
+    public Record cloneRecord(IdentityRecordStack parentRecords) throws RecordException {
+        decodeAll();
+        return super.cloneRecord(parentRecords);
+    }
+
+    @Override
+    public Metadata getMetadata(QName fieldName) {
+        decode(fieldName);
+        return super.getMetadata(fieldName);
+    }
+
+    @Override
+    public void setMetadata(QName fieldName, Metadata metadata) {
+        // decode first, otherwise the stored metadata would later on overwrite this one
+        decode(fieldName);
+        super.setMetadata(fieldName, metadata);
+    }
+
+    @Override
+    public Map<QName, Metadata> getMetadataMap() {
+        decodeAll();
+        return super.getMetadataMap();
+    }
+
+    @Override
+    public int hashCode() {
+        decodeAll();
+        return super.hashCode();
+    }
+
+    @Override
+    public boolean softEquals(Object obj) {
+        decodeAll();
+        return super.softEquals(obj);
+    }
+
+    @Override
+    public String toString() {
+        decodeAll();
+        return super.toString();
+    }
+
+    private static final class EncodedField {
+        final FieldType type;
+        final byte[] buffer;
+        final int offset;
+        final int length;
+
+        EncodedField(FieldType type, byte[] buffer, int offset, int length) {
+            this.type = type;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.io.File;
+
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -33,7 +35,11 @@ public class LocalSchemaCache extends AbstractSchemaCache implements SchemaCache
     private final TypeManager typeManager;
 
     public LocalSchemaCache(ZooKeeperItf zooKeeper, TypeManager typeManager) {
-        super(zooKeeper);
+        this(zooKeeper, typeManager, null);
+    }
+
+    public LocalSchemaCache(ZooKeeperItf zooKeeper, TypeManager typeManager, File snapshotFile) {
+        super(zooKeeper, snapshotFile);
         this.typeManager = typeManager;
     }
 
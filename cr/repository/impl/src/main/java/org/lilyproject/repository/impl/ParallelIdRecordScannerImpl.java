@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.IdRecordScanner;
+import org.lilyproject.repository.api.RepositoryException;
+
+public class ParallelIdRecordScannerImpl extends AbstractParallelRecordScanner<IdRecord> implements IdRecordScanner {
+
+    private final RecordDecoder recordDecoder;
+
+    public ParallelIdRecordScannerImpl(HTableInterface table, List<Scan> scans, int parallelism, boolean ordered, int queueSize,
+            RecordDecoder recordDecoder) {
+        super(table, scans, parallelism, ordered, queueSize);
+        this.recordDecoder = recordDecoder;
+    }
+
+    @Override
+    IdRecord decode(Result result) throws RepositoryException, InterruptedException {
+        return this.recordDecoder.decodeRecordWithIds(result);
+    }
+
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import javax.management.ObjectName;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+
+/**
+ * Read-through cache of records, used by the repositories of an {@link AbstractRepositoryManager} for the reads
+ * of a single record, see {@link AbstractRepositoryManager#setRecordCache}. Reads with ids
+ * ({@link org.lilyproject.repository.api.LTable#readWithIds}), which the indexer uses, don't use the cache.
+ *
+ * <p>The cache holds the rows as they were read from HBase, keyed by the table, the record id, the requested
+ * version and the requested set of fields. The rows are decoded again upon each read, which is cheap since the
+ * field values are decoded lazily. The size of the cache is bounded by the total size of the cached rows, the
+ * least recently used records are evicted first.</p>
+ *
+ * <p>The records updated through the repositories using this cache are invalidated right away. Changes made
+ * through other Lily servers are only noticed once they are {@link #invalidate(String, String, RecordId)
+ * invalidated} by a listener on the SEP events of the record table. To avoid serving stale records in the
+ * mean time, the cache can be configured to validate each hit by reading the OCC (optimistic concurrency
+ * control) version of the record, which is still much cheaper than reading the complete record.</p>
+ *
+ * <p>The hit, miss and eviction counts are available over JMX, next to the {@link RepositoryMetrics}.</p>
+ */
+public class RecordCache {
+    /**
+     * Maximum number of different (version, fields) combinations which are cached for one record, since these
+     * all have to be copied when a new one is added.
+     */
+    private static final int MAX_READS_PER_RECORD = 16;
+
+    /**
+     * Estimate of the size taken by a cached read on top of the size of its key values.
+     */
+    private static final int READ_OVERHEAD = 64;
+
+    private static final int STRIPES = 1024;
+
+    private final Cache<RecordKey, CachedReads> cache;
+    private final ConcurrentMap<RecordKey, CachedReads> cacheMap;
+    private final boolean validateOcc;
+    private final String name;
+    /**
+     * Counts the invalidations of the records, per stripe of records. A row which is being read while the record
+     * is invalidated is not put in the cache, since it might have been read before the update.
+     */
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final RecordCacheStats mbean;
+
+    /**
+     * @param name name of the cache, used to register its MBean
+     * @param maximumSize the maximum total size, in bytes, of the cached rows
+     * @param validateOcc true if each hit should be validated by reading the OCC version of the record
+     */
+    public RecordCache(String name, long maximumSize, boolean validateOcc) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize should not be negative, got: " + maximumSize);
+        }
+        this.name = name;
+        this.validateOcc = validateOcc;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumSize)
+                .weigher(new Weigher<RecordKey, CachedReads>() {
+                    @Override
+                    public int weigh(RecordKey key, CachedReads value) {
+                        return value.weight;
+                    }
+                })
+                .recordStats() // for the eviction count
+                .build();
+        this.cacheMap = cache.asMap();
+        this.mbean = new RecordCacheStats();
+    }
+
+    public void shutdown() {
+        mbean.shutdown();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns true if hits should be validated against the OCC version of the stored record.
+     */
+    public boolean isValidateOcc() {
+        return validateOcc;
+    }
+
+    /**
+     * Returns the cached row for the given read, or null if it is not cached.
+     *
+     * @param version the requested version, null for the latest version
+     * @param fields the requested fields, null for all fields
+     */
+    public Result get(RepoTableKey table, RecordId recordId, Long version, List<FieldType> fields) {
+        CachedReads reads = cache.getIfPresent(new RecordKey(table, recordId));
+        Result result = reads == null ? null : reads.results.get(new ReadKey(version, fields));
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stamp to pass to {@link #put}, should be called before reading the row from HBase.
+     */
+    public long getStamp(RepoTableKey table, RecordId recordId) {
+        return invalidations.get(stripe(new RecordKey(table, recordId)));
+    }
+
+    /**
+     * Caches the row read from HBase, unless the record was invalidated since the given stamp was taken.
+     */
+    public void put(RepoTableKey table, RecordId recordId, Long version, List<FieldType> fields, Result result,
+            long stamp) {
+        RecordKey recordKey = new RecordKey(table, recordId);
+        int stripe = stripe(recordKey);
+        ReadKey readKey = new ReadKey(version, fields);
+        // makes sure the key values are deserialized before the result is shared with other threads
+        KeyValue[] raw = result.raw();
+        int weight = READ_OVERHEAD;
+        for (KeyValue kv : raw) {
+            weight += kv.getLength();
+        }
+
+        while (invalidations.get(stripe) == stamp) {
+            CachedReads current = cacheMap.get(recordKey);
+            if (current == null) {
+                if (cacheMap.putIfAbsent(recordKey, new CachedReads(readKey, result, weight)) == null) {
+                    break;
+                }
+            } else if (cacheMap.replace(recordKey, current, current.with(readKey, result, weight))) {
+                break;
+            }
+        }
+
+        // an invalidation which came in while storing the row might have missed it
+        if (invalidations.get(stripe) != stamp) {
+            cache.invalidate(recordKey);
+        }
+    }
+
+    /**
+     * Removes all cached reads of the given record.
+     */
+    public void invalidate(RepoTableKey table, RecordId recordId) {
+        RecordKey recordKey = new RecordKey(table, recordId);
+        invalidations.incrementAndGet(stripe(recordKey));
+        cache.invalidate(recordKey);
+    }
+
+    /**
+     * Removes all cached reads of the given record, this is intended to be called for the events of the SEP.
+     */
+    public void invalidate(String repositoryName, String tableName, RecordId recordId) {
+        invalidate(new RepoTableKey(repositoryName, tableName), recordId);
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            invalidations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    private static int stripe(RecordKey key) {
+        return (key.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static final class RecordKey {
+        private final RepoTableKey table;
+        private final RecordId recordId;
+
+        RecordKey(RepoTableKey table, RecordId recordId) {
+            this.table = table;
+            this.recordId = recordId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RecordKey)) {
+                return false;
+            }
+            RecordKey other = (RecordKey)obj;
+            return recordId.equals(other.recordId) && table.equals(other.table);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + recordId.hashCode();
+        }
+    }
+
+    private static final class ReadKey {
+        private final Long version;
+        private final Set<SchemaId> fieldIds;
+
+        ReadKey(Long version, List<FieldType> fields) {
+            this.version = version;
+            if (fields == null || fields.isEmpty()) {
+                // same as in BaseRepository.addFieldsToGet: no fields means all fields
+                this.fieldIds = null;
+            } else {
+                this.fieldIds = new HashSet<SchemaId>(fields.size());
+                for (FieldType field : fields) {
+                    fieldIds.add(field.getId());
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ReadKey)) {
+                return false;
+            }
+            ReadKey other = (ReadKey)obj;
+            return Objects.equal(version, other.version) && Objects.equal(fieldIds, other.fieldIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(version, fieldIds);
+        }
+    }
+
+    /**
+     * The cached reads of one record. Instances are immutable, adding a read creates a new instance.
+     */
+    private static final class CachedReads {
+        private final Map<ReadKey, Result> results;
+        private final Map<ReadKey, Integer> weights;
+        private final int weight;
+
+        CachedReads(ReadKey readKey, Result result, int weight) {
+            this(Collections.singletonMap(readKey, result), Collections.singletonMap(readKey, weight), weight);
+        }
+
+        private CachedReads(Map<ReadKey, Result> results, Map<ReadKey, Integer> weights, int weight) {
+            this.results = results;
+            this.weights = weights;
+            this.weight = weight;
+        }
+
+        CachedReads with(ReadKey readKey, Result result, int resultWeight) {
+            if (results.size() >= MAX_READS_PER_RECORD) {
+                return new CachedReads(readKey, result, resultWeight);
+            }
+            Map<ReadKey, Result> newResults = new HashMap<ReadKey, Result>(results);
+            Map<ReadKey, Integer> newWeights = new HashMap<ReadKey, Integer>(weights);
+            newResults.put(readKey, result);
+            Integer oldWeight = newWeights.put(readKey, resultWeight);
+            int newWeight = weight + resultWeight - (oldWeight == null ? 0 : oldWeight);
+            return new CachedReads(newResults, newWeights, newWeight);
+        }
+    }
+
+    public interface RecordCacheStatsMXBean {
+        long getHitCount();
+
+        long getMissCount();
+
+        double getHitRate();
+
+        long getEvictionCount();
+
+        long getCachedRecordCount();
+
+        void invalidateAll();
+    }
+
+    public class RecordCacheStats implements RecordCacheStatsMXBean {
+        private final ObjectName mbeanName;
+
+        public RecordCacheStats() {
+            mbeanName = MBeanUtil.registerMBean("Repository", name, this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null) {
+                MBeanUtil.unregisterMBean(mbeanName);
+            }
+        }
+
+        @Override
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        @Override
+        public long getMissCount() {
+            return misses.get();
+        }
+
+        @Override
+        public double getHitRate() {
+            long hitCount = hits.get();
+            long requestCount = hitCount + misses.get();
+            return requestCount == 0 ? 1.0 : (double)hitCount / requestCount;
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return cache.stats().evictionCount();
+        }
+
+        @Override
+        public long getCachedRecordCount() {
+            return cache.size();
+        }
+
+        @Override
+        public void invalidateAll() {
+            RecordCache.this.invalidateAll();
+        }
+    }
+}
@@ -19,11 +19,14 @@ import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
@@ -83,16 +86,30 @@ public class RecordDecoder {
         SYSTEM_FIELDS.add(RecordColumn.VERSIONED_RT_VERSION.bytes);
         SYSTEM_FIELDS.add(RecordColumn.VERSIONED_MUTABLE_RT_ID.bytes);
         SYSTEM_FIELDS.add(RecordColumn.VERSIONED_MUTABLE_RT_VERSION.bytes);
+        SYSTEM_FIELDS.add(RecordColumn.OLDEST_VERSION.bytes);
     }
 
     private TypeManager typeManager;
     private IdGenerator idGenerator;
     private RecordFactory recordFactory;
+    private boolean lazyFieldDecoding;
 
     public RecordDecoder(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory) {
+        this(typeManager, idGenerator, recordFactory, false);
+    }
+
+    /**
+     * @param lazyFieldDecoding if true, the records returned by the decodeRecord methods only decode the value
+     *                          (and metadata) of a field when it is first accessed, see {@link LazyRecordImpl}.
+     *                          Otherwise all fields are decoded right away, using records created by the
+     *                          supplied record factory.
+     */
+    public RecordDecoder(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
+            boolean lazyFieldDecoding) {
         this.typeManager = typeManager;
         this.idGenerator = idGenerator;
         this.recordFactory = recordFactory;
+        this.lazyFieldDecoding = lazyFieldDecoding;
     }
 
     /**
@@ -110,29 +127,42 @@ public class RecordDecoder {
      */
     public Record decodeRecord(RecordId recordId, Long requestedVersion, ReadContext readContext,
                                Result result, FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
-        Record record = recordFactory.newRecord(recordId);
+        LazyRecordImpl lazyRecord = lazyFieldDecoding ? new LazyRecordImpl(recordId) : null;
+        Record record = lazyRecord != null ? lazyRecord : recordFactory.newRecord(recordId);
         record.setVersion(requestedVersion);
 
         // If the version is null, this means the record has no version an thus only contains non-versioned fields (if any)
         // All non-versioned fields are stored at version 1, so we extract the fields at version 1
-        Long versionToRead = (requestedVersion == null) ? 1L : requestedVersion;
-
-        // Get a map of all fields with their values for each (cell-)version
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> mapWithVersions = result.getMap().get(RecordCf.DATA.bytes);
-        if (mapWithVersions != null) {
-            // Iterate over all columns
-            for (Map.Entry<byte[], NavigableMap<Long, byte[]>> columnWithAllVersions : mapWithVersions.entrySet()) {
-                // Check if the retrieved column is from a data field, and not a system field
-                byte[] key = columnWithAllVersions.getKey();
-                if (key[0] == LilyHBaseSchema.RecordColumn.DATA_PREFIX) {
-                    NavigableMap<Long, byte[]> allValueVersions = columnWithAllVersions.getValue();
-                    // Get the entry for the version (can be a cell with a lower version number if the field was not changed)
-                    Map.Entry<Long, byte[]> ceilingEntry = allValueVersions.ceilingEntry(versionToRead);
-                    if (ceilingEntry != null) {
-                        // Extract and decode the value of the field
-                        ExtractedField field =
-                                extractField(key, ceilingEntry.getValue(), readContext, fieldTypes);
-                        if (field != null) {
+        long versionToRead = (requestedVersion == null) ? 1L : requestedVersion;
+
+        // Walk over the cells of the result, which are sorted by column and, within a column, from the most recent
+        // to the oldest version. This avoids building the nested maps of Result.getMap() and copying the
+        // qualifiers and values.
+        KeyValue[] kvs = result.raw();
+        int i = 0;
+        while (kvs != null && i < kvs.length) {
+            KeyValue kv = kvs[i];
+            int columnEnd = endOfColumn(kvs, i);
+            byte[] buffer = kv.getBuffer();
+            int qualifierOffset = kv.getQualifierOffset();
+            int qualifierLength = kv.getQualifierLength();
+            // Check if the column is from a data field, and not a system field
+            if (qualifierLength > 0 && buffer[qualifierOffset] == RecordColumn.DATA_PREFIX
+                    && kv.matchingFamily(RecordCf.DATA.bytes)) {
+                // Get the cell for the version (can be a cell with a lower version number if the field was not changed)
+                KeyValue ceilingKv = ceilingCell(kvs, i, columnEnd, versionToRead);
+                if (ceilingKv != null) {
+                    byte[] valueBuffer = ceilingKv.getBuffer();
+                    int valueOffset = ceilingKv.getValueOffset();
+                    int valueLength = ceilingKv.getValueLength();
+                    if (!FieldFlags.isDeletedField(valueBuffer[valueOffset])) {
+                        FieldType fieldType = getFieldType(valueBuffer, ceilingKv.getQualifierOffset() + 1,
+                                ceilingKv.getQualifierLength() - 1, readContext, fieldTypes);
+                        if (lazyRecord != null) {
+                            // The value is only decoded when accessed
+                            lazyRecord.addEncodedField(fieldType, valueBuffer, valueOffset, valueLength);
+                        } else {
+                            ExtractedField field = decodeField(fieldType, valueBuffer, valueOffset, valueLength);
                             record.setField(field.type.getName(), field.value);
                             if (field.metadata != null) {
                                 record.setMetadata(field.type.getName(), field.metadata);
@@ -141,6 +171,7 @@ public class RecordDecoder {
                     }
                 }
             }
+            i = columnEnd;
         }
 
         for (Scope scope : Scope.values()) {
@@ -195,7 +226,22 @@ public class RecordDecoder {
      */
     public List<Record> decodeRecords(RecordId recordId, List<Long> requestedVersions, Result result,
                                       FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
-        Map<Long, Record> records = new HashMap<Long, Record>(requestedVersions.size());
+        return decodeRecords(recordId, requestedVersions, result, fieldTypes, null);
+    }
+
+    /**
+     * Version of {@link #decodeRecords(RecordId, List, Result, FieldTypes)} for decoding consecutive ranges of
+     * versions of the same record, each read with its own Get.
+     *
+     * @param decodedFields the field values decoded for the previous range, which are reused if they are still
+     *                      the current ones for (some of) the requested versions. Is updated with the values
+     *                      decoded for the requested versions. Can be null.
+     * @return the records in the order of the requested versions
+     */
+    public List<Record> decodeRecords(RecordId recordId, List<Long> requestedVersions, Result result,
+                                      FieldTypes fieldTypes, DecodedFields decodedFields)
+            throws InterruptedException, RepositoryException {
+        Map<Long, Record> records = new LinkedHashMap<Long, Record>(requestedVersions.size());
         Map<Long, Set<Scope>> scopes = new HashMap<Long, Set<Scope>>(requestedVersions.size());
         for (Long requestedVersion : requestedVersions) {
             Record record = recordFactory.newRecord(recordId);
@@ -221,6 +267,13 @@ public class RecordDecoder {
                     // deletion marker
                     Long lastDecodedFieldVersion = null;
                     ExtractedField lastDecodedField = null;
+                    if (decodedFields != null) {
+                        Pair<Long, ExtractedField> decodedField = decodedFields.fields.get(key);
+                        if (decodedField != null) {
+                            lastDecodedFieldVersion = decodedField.getV1();
+                            lastDecodedField = decodedField.getV2();
+                        }
+                    }
                     for (Long versionToRead : requestedVersions) {
                         Record record = records.get(versionToRead);
                         // Get the entry for the version (can be a cell with a lower version number if the field was
@@ -242,6 +295,10 @@ public class RecordDecoder {
                             }
                         }
                     }
+                    if (decodedFields != null && lastDecodedFieldVersion != null) {
+                        decodedFields.fields.put(key,
+                                new Pair<Long, ExtractedField>(lastDecodedFieldVersion, lastDecodedField));
+                    }
                 }
             }
         }
@@ -270,7 +327,19 @@ public class RecordDecoder {
         return new ArrayList<Record>(records.values());
     }
 
-    private static class ExtractedField {
+    /**
+     * The last decoded value of each field, passed along when decoding consecutive ranges of versions of the same
+     * record. Since the field values are stored sparsely, the value of a field often stays the same across ranges.
+     */
+    public static class DecodedFields {
+        /**
+         * Maps the column qualifier to the cell version and the decoded value (null for a deleted field).
+         */
+        private final Map<byte[], Pair<Long, ExtractedField>> fields =
+                new TreeMap<byte[], Pair<Long, ExtractedField>>(Bytes.BYTES_COMPARATOR);
+    }
+
+    static class ExtractedField {
         FieldType type;
         Object value;
         Metadata metadata;
@@ -289,10 +358,27 @@ public class RecordDecoder {
         if (FieldFlags.isDeletedField(flags)) {
             return null;
         }
-        FieldType fieldType = fieldTypes.getFieldType(new SchemaIdImpl(Bytes.tail(key, key.length - 1)));
+        FieldType fieldType = getFieldType(key, 1, key.length - 1, context, fieldTypes);
+        return decodeField(fieldType, prefixedValue, 0, prefixedValue.length);
+    }
+
+    private FieldType getFieldType(byte[] idBytes, int offset, int length, ReadContext context,
+                                   FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        FieldType fieldType = fieldTypes.getFieldType(idBytes, offset, length);
         if (context != null) {
             context.addFieldType(fieldType);
         }
+        return fieldType;
+    }
+
+    /**
+     * Decodes the value and metadata of a non-deleted field.
+     *
+     * @param buffer array holding the stored value, which starts with the field flags
+     */
+    static ExtractedField decodeField(FieldType fieldType, byte[] buffer, int offset, int length)
+            throws RepositoryException, InterruptedException {
+        byte flags = buffer[offset];
         ValueType valueType = fieldType.getValueType();
 
         Metadata metadata = null;
@@ -301,16 +387,23 @@ public class RecordDecoder {
         if (metadataEncodingVersion == 0) {
             // there is no metadata
         } else if (metadataEncodingVersion == 1) {
-            int metadataSize = Bytes.toInt(prefixedValue, prefixedValue.length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
+            int metadataSize = Bytes.toInt(buffer, offset + length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
             metadataSpace = metadataSize + Bytes.SIZEOF_INT;
             metadata = MetadataSerDeser.read(
-                    new DataInputImpl(prefixedValue, prefixedValue.length - metadataSpace, metadataSize));
+                    new DataInputImpl(buffer, offset + length - metadataSpace, metadataSize));
         } else {
             throw new RuntimeException("Unsupported field metadata encoding version: " + metadataEncodingVersion);
         }
 
-        Object value = valueType.read(new DataInputImpl(prefixedValue, FieldFlags.SIZE_OF_FIELD_FLAGS,
-                prefixedValue.length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace));
+        int valueOffset = offset + FieldFlags.SIZE_OF_FIELD_FLAGS;
+        int valueLength = length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace;
+        Object value;
+        if (FieldFlags.isCompressed(flags)) {
+            value = valueType.read(new DataInputImpl(FieldValueCompression.decompress(buffer, valueOffset,
+                    valueLength)));
+        } else {
+            value = valueType.read(new DataInputImpl(buffer, valueOffset, valueLength));
+        }
 
         return new ExtractedField(fieldType, value, metadata);
     }
@@ -319,38 +412,110 @@ public class RecordDecoder {
      * Extracts the latest record type for a specific scope from the Result.
      */
     private Pair<SchemaId, Long> extractLatestRecordType(Scope scope, Result result) {
-        byte[] idBytes = getLatest(result, RecordCf.DATA.bytes, RECORD_TYPE_ID_QUALIFIERS.get(scope));
-        byte[] versionBytes = getLatest(result, RecordCf.DATA.bytes, RECORD_TYPE_VERSION_QUALIFIERS.get(scope));
-        if ((idBytes == null || idBytes.length == 0) || (versionBytes == null || versionBytes.length == 0)) {
+        KeyValue idKv = getCell(result, RecordCf.DATA.bytes, RECORD_TYPE_ID_QUALIFIERS.get(scope), Long.MAX_VALUE);
+        KeyValue versionKv =
+                getCell(result, RecordCf.DATA.bytes, RECORD_TYPE_VERSION_QUALIFIERS.get(scope), Long.MAX_VALUE);
+        if ((idKv == null || idKv.getValueLength() == 0) || (versionKv == null || versionKv.getValueLength() == 0)) {
             return null; // No record type was found
         }
-        return new Pair<SchemaId, Long>(new SchemaIdImpl(idBytes), Bytes.toLong(versionBytes));
+        return new Pair<SchemaId, Long>(new SchemaIdImpl(idKv.getValue()), toLong(versionKv));
     }
 
     /**
-     * Gets the latest value for a family/qualifier from a Result object, using its
-     * getMap(). Most of the time this will be more efficient than using
-     * Result.getValue() since the map will need to built anyway when reading the
-     * record.
+     * Gets the latest value for a family/qualifier from a Result object. This looks up the cell in the
+     * (sorted) Result.raw() array, and thus avoids that the Result needs to build its getMap().
      */
     public byte[] getLatest(Result result, byte[] family, byte[] qualifier) {
-        NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> map = result.getMap();
-        if (map == null) {
+        KeyValue kv = getCell(result, family, qualifier, Long.MAX_VALUE);
+        return kv == null ? null : kv.getValue();
+    }
+
+    /**
+     * Returns the most recent cell of the column with a timestamp (= version) not higher than the given
+     * version, or null if there is no such cell.
+     */
+    private static KeyValue getCell(Result result, byte[] family, byte[] qualifier, long version) {
+        KeyValue[] kvs = result.raw();
+        if (kvs == null) {
             return null;
         }
-
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> qualifiers = map.get(family);
-        if (qualifiers == null) {
+        int index = indexOfColumn(kvs, family, qualifier);
+        if (index == -1) {
             return null;
         }
+        return ceilingCell(kvs, index, endOfColumn(kvs, index), version);
+    }
 
-        NavigableMap<Long, byte[]> timestamps = qualifiers.get(qualifier);
-        if (timestamps == null) {
-            return null;
+    /**
+     * Returns the index of the first (= most recent) cell of the column, or -1 if the column is not present.
+     * The KeyValues of a Result are sorted on family and qualifier (they all belong to the same row).
+     */
+    private static int indexOfColumn(KeyValue[] kvs, byte[] family, byte[] qualifier) {
+        int low = 0;
+        int high = kvs.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareColumn(kvs[mid], family, qualifier);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                while (mid > 0 && compareColumn(kvs[mid - 1], family, qualifier) == 0) {
+                    mid--;
+                }
+                return mid;
+            }
         }
+        return -1;
+    }
 
-        Map.Entry<Long, byte[]> entry = timestamps.lastEntry();
-        return entry == null ? null : entry.getValue();
+    private static int compareColumn(KeyValue kv, byte[] family, byte[] qualifier) {
+        byte[] buffer = kv.getBuffer();
+        int cmp = Bytes.compareTo(buffer, kv.getFamilyOffset(), kv.getFamilyLength(), family, 0, family.length);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Bytes.compareTo(buffer, kv.getQualifierOffset(), kv.getQualifierLength(),
+                qualifier, 0, qualifier.length);
+    }
+
+    /**
+     * Returns the index of the first cell following the cells of the same column as the cell at the given index.
+     */
+    private static int endOfColumn(KeyValue[] kvs, int index) {
+        KeyValue kv = kvs[index];
+        byte[] buffer = kv.getBuffer();
+        int qualifierOffset = kv.getQualifierOffset();
+        int qualifierLength = kv.getQualifierLength();
+        int end = index + 1;
+        while (end < kvs.length) {
+            KeyValue other = kvs[end];
+            if (!other.matchingFamily(kv) || !Bytes.equals(buffer, qualifierOffset, qualifierLength,
+                    other.getBuffer(), other.getQualifierOffset(), other.getQualifierLength())) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Within the cells of one column, which are sorted from the most recent to the oldest version, finds the
+     * cell for the given version: this is the most recent cell of which the version is not higher than the
+     * given version (the cell can have a lower version number if the field was not changed).
+     */
+    private static KeyValue ceilingCell(KeyValue[] kvs, int start, int end, long version) {
+        for (int i = start; i < end; i++) {
+            if (kvs[i].getTimestamp() <= version) {
+                return kvs[i];
+            }
+        }
+        return null;
+    }
+
+    private static long toLong(KeyValue kv) {
+        return Bytes.toLong(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
     }
 
     /**
@@ -383,41 +548,31 @@ public class RecordDecoder {
      * Extracts the record type for a specific version and a specific scope
      */
     public Pair<SchemaId, Long> extractVersionRecordType(Scope scope, Result result, Long version) {
-        NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> allVersionsMap = result.getMap();
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> allColumnsAllVersionsMap = allVersionsMap
-                .get(RecordCf.DATA.bytes);
-
-        byte[] recordTypeIdColumnName = RECORD_TYPE_ID_QUALIFIERS.get(scope);
-        byte[] recordTypeVersionColumnName = RECORD_TYPE_VERSION_QUALIFIERS.get(scope);
-        // Get recordTypeId
-        Map.Entry<Long, byte[]> idCeilingEntry = null;
-        NavigableMap<Long, byte[]> recordTypeIdMap = allColumnsAllVersionsMap.get(recordTypeIdColumnName);
-        if (recordTypeIdMap != null) {
-            idCeilingEntry = recordTypeIdMap.ceilingEntry(version);
-        }
-        SchemaId recordTypeId;
-        if (idCeilingEntry == null) {
+        KeyValue idKv = getCell(result, RecordCf.DATA.bytes, RECORD_TYPE_ID_QUALIFIERS.get(scope), version);
+        if (idKv == null) {
             return null; // No record type was found
         }
-        recordTypeId = new SchemaIdImpl(idCeilingEntry.getValue());
-
-        // Get recordTypeVersion
-        Long recordTypeVersion;
-        Map.Entry<Long, byte[]> versionCeilingEntry = null;
-        NavigableMap<Long, byte[]> recordTypeVersionMap = allColumnsAllVersionsMap.get(recordTypeVersionColumnName);
-        if (recordTypeVersionMap != null) {
-            versionCeilingEntry = recordTypeVersionMap.ceilingEntry(version);
-        }
-        if (versionCeilingEntry == null) {
+        SchemaId recordTypeId = new SchemaIdImpl(idKv.getValue());
+
+        KeyValue versionKv = getCell(result, RecordCf.DATA.bytes, RECORD_TYPE_VERSION_QUALIFIERS.get(scope), version);
+        if (versionKv == null) {
             return null; // No record type was found, we should never get here: if there is an id there should also be a version
         }
-        recordTypeVersion = Bytes.toLong(versionCeilingEntry.getValue());
-        return new Pair<SchemaId, Long>(recordTypeId, recordTypeVersion);
+        return new Pair<SchemaId, Long>(recordTypeId, toLong(versionKv));
     }
 
     public Long getLatestVersion(Result result) {
-        byte[] latestVersionBytes = getLatest(result, RecordCf.DATA.bytes, LilyHBaseSchema.RecordColumn.VERSION.bytes);
-        return latestVersionBytes != null ? Bytes.toLong(latestVersionBytes) : null;
+        KeyValue kv = getCell(result, RecordCf.DATA.bytes, RecordColumn.VERSION.bytes, Long.MAX_VALUE);
+        return kv != null ? toLong(kv) : null;
+    }
+
+    /**
+     * Returns the oldest version of the record which is still available, the older versions have been removed
+     * by a {@link VersionPruner}.
+     */
+    public long getOldestVersion(Result result) {
+        KeyValue kv = getCell(result, RecordCf.DATA.bytes, RecordColumn.OLDEST_VERSION.bytes, Long.MAX_VALUE);
+        return kv != null ? toLong(kv) : 1L;
     }
 
     public static void addSystemColumnsToGet(Get get) {
@@ -372,16 +372,17 @@ public class RecordImpl implements Record, Cloneable {
         if (obj instanceof IdRecordImpl) {
             return softEquals(((IdRecordImpl)obj).getRecord());
         }
-        if (getClass() != obj.getClass()) {
+        if (!(obj instanceof RecordImpl)) {
             return false;
         }
         RecordImpl other = (RecordImpl) obj;
 
+        // via getFields() since the fields of a LazyRecordImpl might not all be decoded yet
         if (fields == null) {
-            if (other.fields != null) {
+            if (other.getFields() != null) {
                 return false;
             }
-        } else if (!fields.equals(other.fields)) {
+        } else if (!fields.equals(other.getFields())) {
             return false;
         }
 
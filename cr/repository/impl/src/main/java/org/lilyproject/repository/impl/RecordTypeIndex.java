@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+
+import org.lilyproject.hbaseindex.Index;
+import org.lilyproject.hbaseindex.IndexDefinition;
+import org.lilyproject.hbaseindex.IndexEntry;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.hbaseindex.IndexNotFoundException;
+import org.lilyproject.hbaseindex.Query;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
+
+/**
+ * Index of the records of a repository table by their (non-versioned) record type, which allows to list the
+ * records of a record type without scanning the whole table.
+ *
+ * <p>The index is maintained by the {@link HBaseRepository}: an entry is added before a record with a new
+ * record type is written, and removed after a record is deleted or changed to another record type. Since
+ * the removal can fail, or not happen at all if the process dies, the index is a superset of the actual records
+ * of each record type, and users of the index should check the record type of the records they find through
+ * it.</p>
+ */
+public class RecordTypeIndex {
+    private final Index index;
+
+    private static final int SCHEMA_ID_BYTE_LENGTH = 16; // see SchemaIdImpl
+
+    public RecordTypeIndex(IndexManager indexManager, String repositoryName, String tableName)
+            throws IOException, InterruptedException, IndexNotFoundException {
+        IndexDefinition indexDef = new IndexDefinition(getIndexName(repositoryName, tableName));
+        indexDef.addByteField("recordtype", SCHEMA_ID_BYTE_LENGTH);
+        this.index = indexManager.getIndex(repositoryName, indexDef);
+    }
+
+    public static String getIndexName(String repositoryName, String tableName) {
+        return RepoAndTableUtil.getHBaseTableName(repositoryName, tableName) + "-recordtypes";
+    }
+
+    public void addEntry(SchemaId recordTypeId, RecordId recordId) throws IOException {
+        index.addEntry(createEntry(recordTypeId, recordId));
+    }
+
+    public void removeEntry(SchemaId recordTypeId, RecordId recordId) throws IOException {
+        index.removeEntry(createEntry(recordTypeId, recordId));
+    }
+
+    private IndexEntry createEntry(SchemaId recordTypeId, RecordId recordId) {
+        IndexEntry entry = new IndexEntry(index.getDefinition());
+        entry.addField("recordtype", recordTypeId.getBytes());
+        entry.setIdentifier(recordId.toBytes());
+        return entry;
+    }
+
+    /**
+     * Returns the ids, as bytes, of the records which are (or have been) of the given record type, in the order
+     * of their ids.
+     */
+    public QueryResult getRecords(SchemaId recordTypeId) throws IOException {
+        Query query = new Query();
+        query.addEqualsCondition("recordtype", recordTypeId.getBytes());
+        return index.performQuery(query);
+    }
+}
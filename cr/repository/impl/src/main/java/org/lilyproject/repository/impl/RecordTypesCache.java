@@ -23,170 +23,34 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeBucket;
 
+/**
+ * The cache of record types, which publishes its content as immutable snapshots.
+ *
+ * <p>Each change to the cache builds a new snapshot from the current one, and publishes it by replacing a
+ * volatile reference, as is done by the {@link FieldTypesCache}. Readers never block.</p>
+ */
 public class RecordTypesCache {
-    private Log log = LogFactory.getLog(getClass());
+    private volatile Snapshot snapshot = new Snapshot(Collections.<SchemaId, RecordType>emptyMap());
 
-    // A lock on the monitor needs to be taken when changes are to be made on
-    // the nameCache, on the count variable, on the nameCacheOutOfDate boolean
-    // or if a bucket monitor needs to be added.
-    private final Object monitor = new Object();
-    // A lock on a bucket monitor needs to be taken when changes are to be made
-    // on a bucket.
-    private final Map<String, Object> bucketMonitors = new HashMap<String, Object>();
-    // The nameCacheOutOfData should be set to true when an update happens on
-    // a bucket. This means that if the nameCache is requested, it should be
-    // refreshed first. Once it is refreshed it can be put back to false.
-    private volatile boolean nameCacheOutOfDate = false;
-    private volatile boolean childRecordTypesOutOfDate = false;
-    // The count indicates how many buckets are being updated. As long as the
-    // count is higher than 0, the nameCache can not be updated since this could
-    // lead to an inconsistent state (two types could get the same name).
-    private volatile int count = 0;
+    // A lock on the writeLock needs to be taken when changing the snapshot or the localUpdates
+    private final Object writeLock = new Object();
 
-    private Map<QName, RecordType> nameCache;
+    // The record types which have been updated locally, see update()
+    private final Map<SchemaId, RecordType> localUpdates = new HashMap<SchemaId, RecordType>();
 
     /**
-     * Normally a record type points to the record types from which it extends, i.e. to their parent type.
-     * This map allows to traverse the reverse relation: from parent to child.
+     * Return all record types in the cache.
      */
-    private Map<SchemaId, Set<SchemaId>> childRecordTypes;
-
-    private Map<String, Map<SchemaId, RecordType>> buckets;
-
-    private ConcurrentHashMap<String, Map<SchemaId, RecordType>> localUpdateBuckets = new ConcurrentHashMap<String, Map<SchemaId, RecordType>>();
-
-    public RecordTypesCache() {
-        nameCache = new HashMap<QName, RecordType>();
-        buckets = new ConcurrentHashMap<String, Map<SchemaId, RecordType>>();
-    }
-
-    private Map<QName, RecordType> getNameCache() throws InterruptedException {
-        // First check if the name cache is out of date
-        if (nameCacheOutOfDate) {
-            synchronized (monitor) {
-                // Wait until no buckets are being updated
-                while (count > 0) {
-                    monitor.wait();
-                }
-                if (nameCacheOutOfDate) {
-                    // Re-initialize the nameCache
-                    Map<QName, RecordType> newNameCache = new HashMap<QName, RecordType>();
-                    for (Map<SchemaId, RecordType> bucket : buckets.values()) {
-                        for (RecordType recordType : bucket.values()) {
-                            newNameCache.put(recordType.getName(), recordType);
-                        }
-                    }
-                    nameCache = newNameCache;
-                    nameCacheOutOfDate = false;
-                }
-            }
-        }
-        return nameCache;
-    }
-
-    private Map<SchemaId, Set<SchemaId>> getChildRecordTypes() throws InterruptedException {
-        // First check if the childRecordTypes is out of date
-        if (childRecordTypesOutOfDate) {
-            synchronized (monitor) {
-                // Wait until no buckets are being updated
-                while (count > 0) {
-                    monitor.wait();
-                }
-                if (childRecordTypesOutOfDate) {
-                    // Re-initialize the childRecordTypes
-                    Map<SchemaId, Set<SchemaId>> newChildRecordTypes = new HashMap<SchemaId, Set<SchemaId>>() {
-                        @Override
-                        public Set<SchemaId> get(Object key) {
-                            Set<SchemaId> set = super.get(key);
-                            if (set == null) {
-                                set = new HashSet<SchemaId>();
-                                super.put((SchemaId)key, set);
-                            }
-                            return set;
-                        }
-                    };
-                    for (Map<SchemaId, RecordType> bucket : buckets.values()) {
-                        for (RecordType recordType : bucket.values()) {
-                            for (SchemaId parent : recordType.getSupertypes().keySet()) {
-                                newChildRecordTypes.get(parent).add(recordType.getId());
-                            }
-                        }
-                    }
-                    childRecordTypes = newChildRecordTypes;
-                    childRecordTypesOutOfDate = false;
-                }
-            }
-        }
-        return childRecordTypes;
-    }
-
-    /**
-     * Increment the number of buckets being updated
-     */
-    private void incCount() {
-        synchronized (monitor) {
-            count++;
-            monitor.notify();
-        }
-    }
-
-    /**
-     * Decrement the number of buckets being updated and mark the nameCache out
-     * of date.
-     */
-    private void decCount() {
-        synchronized (monitor) {
-            count--;
-            nameCacheOutOfDate = true;
-            childRecordTypesOutOfDate = true;
-            monitor.notify();
-        }
-    }
-
-    /**
-     * Return the monitor of a bucket and create it if it does not exist yet.
-     *
-     * @param bucketId
-     * @return
-     */
-    private Object getBucketMonitor(String bucketId) {
-        Object bucketMonitor = bucketMonitors.get(bucketId);
-        if (bucketMonitor == null) {
-            // If the bucket does not exist yet we need to create it
-            // Take the lock on the monitor to avoid that another call would
-            // created it at the same time
-            synchronized (monitor) {
-                // Make sure it hasn't been created meanwhile (= between
-                // checking for null and taking the lock on the monitor)
-                bucketMonitor = bucketMonitors.get(bucketId);
-                if (bucketMonitor == null) {
-                    bucketMonitor = new Object();
-                    bucketMonitors.put(bucketId, bucketMonitor);
-                }
-            }
-        }
-        return bucketMonitor;
-    }
-
-    /**
-     * Return all record types in the cache. To avoid inconsistencies between
-     * buckets, we get the nameCache first.
-     *
-     * @return
-     * @throws InterruptedException
-     */
-    public Collection<RecordType> getRecordTypes() throws InterruptedException {
-        List<RecordType> recordTypes = new ArrayList<RecordType>();
-        for (RecordType recordType : getNameCache().values()) {
+    public Collection<RecordType> getRecordTypes() {
+        Collection<RecordType> cachedRecordTypes = snapshot.nameCache.values();
+        List<RecordType> recordTypes = new ArrayList<RecordType>(cachedRecordTypes.size());
+        for (RecordType recordType : cachedRecordTypes) {
             recordTypes.add(recordType.clone());
         }
         return recordTypes;
@@ -194,157 +58,76 @@ public class RecordTypesCache {
 
     /**
      * Return the record type based on its name
-     *
-     * @param name
-     * @return
-     * @throws InterruptedException
      */
-    public RecordType getRecordType(QName name) throws InterruptedException {
-        return getNameCache().get(name);
+    public RecordType getRecordType(QName name) {
+        return snapshot.nameCache.get(name);
     }
 
-    public Set<SchemaId> findDirectSubTypes(SchemaId recordTypeId) throws InterruptedException {
-        Set<SchemaId> childTypes = getChildRecordTypes().get(recordTypeId);
+    public Set<SchemaId> findDirectSubTypes(SchemaId recordTypeId) {
+        Set<SchemaId> childTypes = snapshot.childRecordTypes.get(recordTypeId);
         return childTypes != null ? childTypes : Collections.<SchemaId>emptySet();
     }
 
     /**
      * Get the record type based on its id
-     *
-     * @param id
-     * @return
      */
     public RecordType getRecordType(SchemaId id) {
-        String bucketId = AbstractSchemaCache.encodeHex(id.getBytes());
-        Map<SchemaId, RecordType> bucket = buckets.get(bucketId);
-        if (bucket == null) {
-            return null;
-        }
-        return bucket.get(id);
+        return snapshot.idCache.get(id);
     }
 
     /**
      * Refreshes the whole cache to contain the given list of record types.
-     *
-     * @param recordTypes
-     * @throws InterruptedException
      */
-    public void refreshRecordTypes(List<RecordType> recordTypes) throws InterruptedException {
-        // Since we will update all buckets, we take the lock on the monitor for
-        // the whole operation
-        synchronized (monitor) {
-            while (count > 0) {
-                monitor.wait();
-            }
-            nameCacheOutOfDate = true;
-            childRecordTypesOutOfDate = true;
-            // One would expect that existing buckets need to be cleared first.
-            // But since record types cannot be deleted we will just overwrite
-            // them.
-            for (RecordType recordType : recordTypes) {
-                String bucketId = AbstractSchemaCache.encodeHex(recordType.getId().getBytes());
-                // Only update if it was not updated locally
-                // If it was updated locally either this is the refresh of that
-                // update,
-                // or the refresh for this update will follow.
-                if (!removeFromLocalUpdateBucket(recordType, bucketId)) {
-                    Map<SchemaId, RecordType> bucket = buckets.get(bucketId);
-                    if (bucket == null) {
-                        bucket = new ConcurrentHashMap<SchemaId, RecordType>();
-                        buckets.put(bucketId, bucket);
-                    }
-                    bucket.put(recordType.getId(), recordType);
-                }
-            }
-        }
+    public void refreshRecordTypes(List<RecordType> recordTypes) {
+        refresh(recordTypes);
     }
 
     /**
      * Refresh one bucket with the record types contained in the TypeBucket
-     *
-     * @param typeBucket
      */
     public void refreshRecordTypeBucket(TypeBucket typeBucket) {
-        String bucketId = typeBucket.getBucketId();
+        refresh(typeBucket.getRecordTypes());
+    }
 
-        // First increment the number of buckets that are being updated
-        incCount();
-        // Get a lock on the bucket to be updated
-        synchronized (getBucketMonitor(bucketId)) {
-            List<RecordType> recordTypes = typeBucket.getRecordTypes();
-            Map<SchemaId, RecordType> bucket = buckets.get(bucketId);
-            // One would expect that an existing bucket need to be cleared
-            // first.
-            // But since record types cannot be deleted we will just overwrite
-            // them.
-            if (bucket == null) {
-                bucket = new ConcurrentHashMap<SchemaId, RecordType>(Math.min(recordTypes.size(), 8), .75f, 1);
-                buckets.put(bucketId, bucket);
-            }
-            // Fill the bucket with the new record types
+    private void refresh(List<RecordType> recordTypes) {
+        synchronized (writeLock) {
+            // One would expect that existing record types need to be cleared first.
+            // But since record types cannot be deleted we will just overwrite them.
+            Map<SchemaId, RecordType> newRecordTypes = new HashMap<SchemaId, RecordType>(snapshot.idCache);
             for (RecordType recordType : recordTypes) {
-                if (!removeFromLocalUpdateBucket(recordType, bucketId)) {
-                    bucket.put(recordType.getId(), recordType);
+                // Only update if it was not updated locally
+                // If it was updated locally either this is the refresh of that update,
+                // or the refresh for this update will follow.
+                if (!removeFromLocalUpdates(recordType)) {
+                    newRecordTypes.put(recordType.getId(), recordType);
                 }
             }
+            snapshot = new Snapshot(newRecordTypes);
         }
-        // Decrement the number of buckets that are being updated again.
-        decCount();
     }
 
     /**
      * Update the cache to contain the new recordType
-     *
-     * @param recordType
      */
     public void update(RecordType recordType) {
         // Clone the RecordType to avoid changes to it while it is in the cache
         RecordType rtToCache = recordType.clone();
-        SchemaId id = rtToCache.getId();
-        String bucketId = AbstractSchemaCache.encodeHex(id.getBytes());
-        // First increment the number of buckets that are being updated
-        incCount();
-        // Get a lock on the bucket to be updated
-        synchronized (getBucketMonitor(bucketId)) {
-            Map<SchemaId, RecordType> bucket = buckets.get(bucketId);
-            // If the bucket does not exist yet, create it
-            if (bucket == null) {
-                bucket = new ConcurrentHashMap<SchemaId, RecordType>(8, .75f, 1);
-                buckets.put(bucketId, bucket);
-            }
-            bucket.put(id, rtToCache);
-            // Mark that this recordType is updated locally
-            // and that the next refresh can be ignored
-            // since this refresh can contain an old recordType
-            addToLocalUpdateBucket(recordType, bucketId);
-        }
-        // Decrement the number of buckets that are being updated again.
-        decCount();
-    }
-
-    // Add the id of a record type that has been updated locally
-    // in a bucket. This record type will be skipped in a next
-    // cache refresh sequence.
-    // This avoids that a locally updated record type will be
-    // overwritten by old data by a cache refresh.
-    private void addToLocalUpdateBucket(RecordType recordType, String bucketId) {
-        Map<SchemaId, RecordType> localUpdateBucket = localUpdateBuckets.get(bucketId);
-        if (localUpdateBucket == null) {
-            localUpdateBucket = new HashMap<SchemaId, RecordType>();
-            localUpdateBuckets.put(bucketId, localUpdateBucket);
+        synchronized (writeLock) {
+            Map<SchemaId, RecordType> newRecordTypes = new HashMap<SchemaId, RecordType>(snapshot.idCache);
+            newRecordTypes.put(rtToCache.getId(), rtToCache);
+            // Mark that this recordType is updated locally and that the next refresh can be ignored
+            // since this refresh can contain an old recordType. This avoids that a locally updated
+            // record type will be overwritten by old data by a cache refresh.
+            localUpdates.put(rtToCache.getId(), rtToCache);
+            snapshot = new Snapshot(newRecordTypes);
         }
-        localUpdateBucket.put(recordType.getId(), recordType);
     }
 
-    // Check if the record type is present in the local update bucket.
-    // If so, return true and remove it, in which case the refresh
-    // should skip it to avoid replacing the record type with old data.
-    private boolean removeFromLocalUpdateBucket(RecordType recordType, String bucketId) {
-        Map<SchemaId, RecordType> localUpdateBucket = localUpdateBuckets.get(bucketId);
-        if (localUpdateBucket == null) {
-            return false;
-        }
-        RecordType localRt = localUpdateBucket.remove(recordType.getId());
+    // Check if the record type has been updated locally.
+    // If so, remove it, and return true if the refresh should skip it to avoid
+    // replacing the record type with old data.
+    private boolean removeFromLocalUpdates(RecordType recordType) {
+        RecordType localRt = localUpdates.remove(recordType.getId());
         if (localRt == null) {
             return false;
         }
@@ -352,15 +135,46 @@ public class RecordTypesCache {
     }
 
     public void clear() {
-        nameCache.clear();
-
-        for (Map bucket : buckets.values()) {
-            bucket.clear();
+        synchronized (writeLock) {
+            snapshot = new Snapshot(Collections.<SchemaId, RecordType>emptyMap());
+            localUpdates.clear();
         }
+    }
 
-        for (Map<SchemaId, RecordType> bucket : localUpdateBuckets.values()) {
-            bucket.clear();
+    /**
+     * An immutable set of record types, indexed by id and by name, which also keeps the reverse of the
+     * supertype relation.
+     */
+    private static final class Snapshot {
+        private final Map<SchemaId, RecordType> idCache;
+        private final Map<QName, RecordType> nameCache;
+        /**
+         * Normally a record type points to the record types from which it extends, i.e. to their parent type.
+         * This map allows to traverse the reverse relation: from parent to child.
+         */
+        private final Map<SchemaId, Set<SchemaId>> childRecordTypes;
+
+        Snapshot(Map<SchemaId, RecordType> recordTypes) {
+            Map<QName, RecordType> nameCache = new HashMap<QName, RecordType>(recordTypes.size() * 2);
+            Map<SchemaId, Set<SchemaId>> childRecordTypes = new HashMap<SchemaId, Set<SchemaId>>();
+            for (RecordType recordType : recordTypes.values()) {
+                nameCache.put(recordType.getName(), recordType);
+                for (SchemaId parent : recordType.getSupertypes().keySet()) {
+                    Set<SchemaId> children = childRecordTypes.get(parent);
+                    if (children == null) {
+                        children = new HashSet<SchemaId>();
+                        childRecordTypes.put(parent, children);
+                    }
+                    children.add(recordType.getId());
+                }
+            }
+            for (Map.Entry<SchemaId, Set<SchemaId>> entry : childRecordTypes.entrySet()) {
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            }
+
+            this.idCache = Collections.unmodifiableMap(new HashMap<SchemaId, RecordType>(recordTypes));
+            this.nameCache = Collections.unmodifiableMap(nameCache);
+            this.childRecordTypes = Collections.unmodifiableMap(childRecordTypes);
         }
     }
-
 }
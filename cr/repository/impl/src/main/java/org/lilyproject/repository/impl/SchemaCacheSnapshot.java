@@ -0,0 +1,250 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeEntry;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * The content of the schema cache as persisted to local disk, which allows the {@link AbstractSchemaCache}
+ * to start without reading all types from the type table.
+ *
+ * <p>Next to the types, the snapshot contains the versions of the cache invalidation buckets in ZooKeeper at the
+ * time the types were read. The types of a bucket are always read after its version, so they are at least as
+ * recent as that version, and after loading a snapshot only the buckets whose version changed need to be
+ * read again.</p>
+ *
+ * <p>The snapshot also contains the creation transaction id of the cache invalidation node, so that a snapshot is
+ * not used with a ZooKeeper in which that node has been recreated, since the bucket versions then start over.</p>
+ */
+public class SchemaCacheSnapshot {
+    private static final int FORMAT_VERSION = 1;
+
+    private final long invalidationNodeCzxid;
+    private final int invalidationNodeVersion;
+    private final Map<String, Integer> bucketVersions;
+    private final List<FieldType> fieldTypes;
+    private final List<RecordType> recordTypes;
+
+    public SchemaCacheSnapshot(long invalidationNodeCzxid, int invalidationNodeVersion,
+            Map<String, Integer> bucketVersions, List<FieldType> fieldTypes, List<RecordType> recordTypes) {
+        this.invalidationNodeCzxid = invalidationNodeCzxid;
+        this.invalidationNodeVersion = invalidationNodeVersion;
+        this.bucketVersions = bucketVersions;
+        this.fieldTypes = fieldTypes;
+        this.recordTypes = recordTypes;
+    }
+
+    public long getInvalidationNodeCzxid() {
+        return invalidationNodeCzxid;
+    }
+
+    public int getInvalidationNodeVersion() {
+        return invalidationNodeVersion;
+    }
+
+    public Map<String, Integer> getBucketVersions() {
+        return bucketVersions;
+    }
+
+    public List<FieldType> getFieldTypes() {
+        return fieldTypes;
+    }
+
+    public List<RecordType> getRecordTypes() {
+        return recordTypes;
+    }
+
+    /**
+     * Writes the snapshot to the given file. The snapshot is first written to a temporary file which then replaces
+     * the given file, so that a crash while writing does not leave a partial snapshot behind.
+     */
+    public void write(File file) throws IOException {
+        DataOutput output = new DataOutputImpl();
+        output.writeInt(FORMAT_VERSION);
+        output.writeLong(invalidationNodeCzxid);
+        output.writeInt(invalidationNodeVersion);
+
+        output.writeVInt(bucketVersions.size());
+        for (Entry<String, Integer> entry : bucketVersions.entrySet()) {
+            output.writeUTF(entry.getKey());
+            output.writeInt(entry.getValue());
+        }
+
+        output.writeVInt(fieldTypes.size());
+        for (FieldType fieldType : fieldTypes) {
+            writeSchemaId(fieldType.getId(), output);
+            writeQName(fieldType.getName(), output);
+            output.writeUTF(fieldType.getValueType().getName());
+            output.writeUTF(fieldType.getScope().name());
+        }
+
+        output.writeVInt(recordTypes.size());
+        for (RecordType recordType : recordTypes) {
+            writeSchemaId(recordType.getId(), output);
+            writeQName(recordType.getName(), output);
+            writeNullableLong(recordType.getVersion(), output);
+            Collection<FieldTypeEntry> fieldTypeEntries = recordType.getFieldTypeEntries();
+            output.writeVInt(fieldTypeEntries.size());
+            for (FieldTypeEntry entry : fieldTypeEntries) {
+                writeSchemaId(entry.getFieldTypeId(), output);
+                output.writeBoolean(entry.isMandatory());
+            }
+            Map<SchemaId, Long> supertypes = recordType.getSupertypes();
+            output.writeVInt(supertypes.size());
+            for (Entry<SchemaId, Long> entry : supertypes.entrySet()) {
+                writeSchemaId(entry.getKey(), output);
+                writeNullableLong(entry.getValue(), output);
+            }
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream os = new FileOutputStream(tmpFile);
+        try {
+            os.write(output.toByteArray());
+            os.getFD().sync();
+        } finally {
+            Closer.close(os);
+        }
+        if (!tmpFile.renameTo(file)) {
+            // Not all platforms allow to rename onto an existing file
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Failed to move " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot from the given file.
+     *
+     * @param typeManager used to instantiate the types and to look up their value types
+     * @return null if the file does not exist or was written in another format
+     */
+    public static SchemaCacheSnapshot read(File file, TypeManager typeManager)
+            throws IOException, RepositoryException, InterruptedException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        byte[] bytes = new byte[(int)file.length()];
+        DataInputStream is = new DataInputStream(new FileInputStream(file));
+        try {
+            is.readFully(bytes);
+        } finally {
+            Closer.close(is);
+        }
+
+        DataInput input = new DataInputImpl(bytes);
+        if (input.getSize() < 4 || input.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        long invalidationNodeCzxid = input.readLong();
+        int invalidationNodeVersion = input.readInt();
+
+        int bucketCount = input.readVInt();
+        Map<String, Integer> bucketVersions = new HashMap<String, Integer>(bucketCount * 2);
+        for (int i = 0; i < bucketCount; i++) {
+            bucketVersions.put(input.readUTF(), input.readInt());
+        }
+
+        int fieldTypeCount = input.readVInt();
+        List<FieldType> fieldTypes = new ArrayList<FieldType>(fieldTypeCount);
+        for (int i = 0; i < fieldTypeCount; i++) {
+            SchemaId id = readSchemaId(input);
+            QName name = readQName(input);
+            String valueType = input.readUTF();
+            Scope scope = Scope.valueOf(input.readUTF());
+            fieldTypes.add(typeManager.newFieldType(id, typeManager.getValueType(valueType), name, scope));
+        }
+
+        int recordTypeCount = input.readVInt();
+        List<RecordType> recordTypes = new ArrayList<RecordType>(recordTypeCount);
+        for (int i = 0; i < recordTypeCount; i++) {
+            RecordType recordType = typeManager.newRecordType(readSchemaId(input), readQName(input));
+            recordType.setVersion(readNullableLong(input));
+            int fieldTypeEntryCount = input.readVInt();
+            for (int j = 0; j < fieldTypeEntryCount; j++) {
+                recordType.addFieldTypeEntry(readSchemaId(input), input.readBoolean());
+            }
+            int supertypeCount = input.readVInt();
+            for (int j = 0; j < supertypeCount; j++) {
+                recordType.addSupertype(readSchemaId(input), readNullableLong(input));
+            }
+            recordTypes.add(recordType);
+        }
+
+        return new SchemaCacheSnapshot(invalidationNodeCzxid, invalidationNodeVersion, bucketVersions, fieldTypes,
+                recordTypes);
+    }
+
+    private static void writeSchemaId(SchemaId id, DataOutput output) {
+        byte[] bytes = id.getBytes();
+        output.writeVInt(bytes.length);
+        output.writeBytes(bytes);
+    }
+
+    private static SchemaId readSchemaId(DataInput input) {
+        return new SchemaIdImpl(input.readBytes(input.readVInt()));
+    }
+
+    private static void writeQName(QName name, DataOutput output) {
+        output.writeUTF(name.getNamespace());
+        output.writeUTF(name.getName());
+    }
+
+    private static QName readQName(DataInput input) {
+        return new QName(input.readUTF(), input.readUTF());
+    }
+
+    private static void writeNullableLong(Long value, DataOutput output) {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeLong(value);
+        }
+    }
+
+    private static Long readNullableLong(DataInput input) {
+        return input.readBoolean() ? input.readLong() : null;
+    }
+}
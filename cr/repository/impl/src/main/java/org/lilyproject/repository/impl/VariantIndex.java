@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lilyproject.hbaseindex.Index;
+import org.lilyproject.hbaseindex.IndexDefinition;
+import org.lilyproject.hbaseindex.IndexEntry;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.hbaseindex.IndexNotFoundException;
+import org.lilyproject.hbaseindex.Query;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
+
+/**
+ * Index of the records of a repository table by their master record id, which allows to list the variants of
+ * a master record with one short index lookup, see {@link HBaseRepository#getVariants(RecordId)}.
+ *
+ * <p>The index is maintained by the {@link HBaseRepository}: an entry is added before a record is created,
+ * and removed after it is deleted. Records which are created otherwise, for example with puts built by
+ * {@link HBaseRepository#buildPut}, are not indexed. The index is a superset of the existing records, users
+ * of the index should check that the records they find through it exist.</p>
+ */
+public class VariantIndex {
+    private final Index index;
+
+    public VariantIndex(IndexManager indexManager, String repositoryName, String tableName)
+            throws IOException, InterruptedException, IndexNotFoundException {
+        IndexDefinition indexDef = new IndexDefinition(getIndexName(repositoryName, tableName));
+        indexDef.addVariableLengthByteField("master");
+        this.index = indexManager.getIndex(repositoryName, indexDef);
+    }
+
+    public static String getIndexName(String repositoryName, String tableName) {
+        return RepoAndTableUtil.getHBaseTableName(repositoryName, tableName) + "-variants";
+    }
+
+    public void addEntry(RecordId recordId) throws IOException {
+        index.addEntry(createEntry(recordId));
+    }
+
+    public void removeEntry(RecordId recordId) throws IOException {
+        index.removeEntry(createEntry(recordId));
+    }
+
+    private IndexEntry createEntry(RecordId recordId) {
+        IndexEntry entry = new IndexEntry(index.getDefinition());
+        entry.addField("master", recordId.getMaster().toBytes());
+        entry.setIdentifier(recordId.toBytes());
+        return entry;
+    }
+
+    /**
+     * Returns the ids, as bytes, of the master record and the variant records with the given master record id,
+     * which exist or have existed, in the order of their ids.
+     */
+    public List<byte[]> getVariants(RecordId masterRecordId) throws IOException {
+        Query query = new Query();
+        query.addEqualsCondition("master", masterRecordId.toBytes());
+        List<byte[]> recordIds = new ArrayList<byte[]>();
+        QueryResult result = index.performQuery(query);
+        try {
+            byte[] recordId;
+            while ((recordId = result.next()) != null) {
+                recordIds.add(recordId);
+            }
+        } finally {
+            result.close();
+        }
+        return recordIds;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeNotFoundException;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordTypeNotFoundException;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.util.ArgumentValidator;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.repo.RecordEvent;
+import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+
+/**
+ * Removes the versions of records which are no longer retained according to a {@link VersionRetentionPolicy}.
+ *
+ * <p>When the versions before version N are pruned, the versioned cells which are still current at version N
+ * (i.e. the field was not changed in version N) are copied to version N, after which all cells older than
+ * version N are deleted, and the blobs which were only referenced by the deleted cells are deleted through the
+ * {@link org.lilyproject.repository.api.BlobManager}, as is done when a record is deleted. The oldest remaining
+ * version is stored in the {@link RecordColumn#OLDEST_VERSION} column, reading an older version gives a
+ * {@link org.lilyproject.repository.api.VersionNotFoundException}.</p>
+ *
+ * <p>Pruning does not change the latest state of the record, but the record caches of the Lily servers might
+ * still hold the pruned versions. Therefore pruning increments the occ of the record, and produces an update
+ * record event without changes, which makes the caches invalidate the record. The event excludes all index
+ * subscriptions, so the indexers skip it. Pruning is only applied if the record was not updated concurrently.
+ * Note that version tags which point to pruned versions become invalid.</p>
+ *
+ * <p>Pruning a table is typically done as a MapReduce job, see the VersionPruningMapper in lily-mapreduce.</p>
+ */
+public class VersionPruner {
+    private static final byte[][] VERSIONED_SYSTEM_COLUMNS = {
+            RecordColumn.VERSIONED_RT_ID.bytes,
+            RecordColumn.VERSIONED_RT_VERSION.bytes,
+            RecordColumn.VERSIONED_MUTABLE_RT_ID.bytes,
+            RecordColumn.VERSIONED_MUTABLE_RT_VERSION.bytes
+    };
+
+    private final BaseRepository repository;
+    private final VersionRetentionPolicy policy;
+
+    public VersionPruner(BaseRepository repository, VersionRetentionPolicy policy) {
+        ArgumentValidator.notNull(repository, "repository");
+        ArgumentValidator.notNull(policy, "policy");
+        this.repository = repository;
+        this.policy = policy;
+    }
+
+    public VersionRetentionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Removes the versions of the record which should not be retained.
+     *
+     * @return the number of versions which were removed, 0 if the record does not exist, is deleted, has no
+     *         versions to remove or was updated concurrently
+     */
+    public int prune(RecordId recordId) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(recordId, "recordId");
+
+        byte[] rowId = recordId.toBytes();
+        try {
+            Get get = new Get(rowId);
+            get.addFamily(RecordCf.DATA.bytes);
+            get.setMaxVersions();
+            Result result = repository.recordTable.get(get);
+            if (result == null || result.isEmpty()) {
+                return 0;
+            }
+
+            RecordDecoder recdec = repository.recdec;
+            byte[] deleted = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+            if (deleted == null || Bytes.toBoolean(deleted)) {
+                return 0;
+            }
+
+            Long latestVersion = recdec.getLatestVersion(result);
+            int maxVersions = policy.getMaxVersions(getRecordTypeName(result));
+            if (latestVersion == null || maxVersions == VersionRetentionPolicy.KEEP_ALL) {
+                return 0;
+            }
+
+            long oldestVersion = recdec.getOldestVersion(result);
+            // The retention policy might have been changed to keep more versions, but pruned versions are gone.
+            // A previous prune might have failed between writing the oldest version and deleting the older cells,
+            // so those are deleted in any case.
+            long newOldestVersion = Math.max(latestVersion - maxVersions + 1, oldestVersion);
+            if (newOldestVersion <= 1) {
+                return 0;
+            }
+
+            Put put = new Put(rowId);
+            Delete delete = new Delete(rowId);
+            Set<BlobReference> prunedBlobs = new HashSet<BlobReference>();
+            Set<BlobReference> retainedBlobs = new HashSet<BlobReference>();
+
+            FieldTypes fieldTypes = repository.typeManager.getFieldTypesSnapshot();
+            NavigableMap<byte[], NavigableMap<Long, byte[]>> columns = result.getMap().get(RecordCf.DATA.bytes);
+            for (Map.Entry<byte[], NavigableMap<Long, byte[]>> column : columns.entrySet()) {
+                byte[] qualifier = column.getKey();
+                if (qualifier[0] == RecordColumn.DATA_PREFIX) {
+                    FieldType fieldType;
+                    try {
+                        fieldType = fieldTypes.getFieldType(qualifier, 1, qualifier.length - 1);
+                    } catch (FieldTypeNotFoundException e) {
+                        // Leave the cells of unknown fields alone
+                        continue;
+                    }
+                    if (fieldType.getScope() != Scope.NON_VERSIONED) {
+                        pruneColumn(qualifier, fieldType, column.getValue(), newOldestVersion, put, delete,
+                                prunedBlobs, retainedBlobs);
+                    }
+                } else if (isVersionedSystemColumn(qualifier)) {
+                    pruneColumn(qualifier, null, column.getValue(), newOldestVersion, put, delete, prunedBlobs,
+                            retainedBlobs);
+                }
+            }
+
+            if (newOldestVersion > oldestVersion) {
+                put.add(RecordCf.DATA.bytes, RecordColumn.OLDEST_VERSION.bytes, 1L, Bytes.toBytes(newOldestVersion));
+            }
+
+            if (put.isEmpty() && delete.isEmpty()) {
+                return 0;
+            }
+
+            byte[] occ = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, HBaseRepository.nextOcc(occ));
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L,
+                    repository.encodeRecordEvent(newPruneEvent()));
+            if (!repository.recordTable.checkAndPut(rowId, RecordCf.DATA.bytes, RecordColumn.OCC.bytes, occ, put)) {
+                // The record was updated concurrently, it can be pruned another time
+                return 0;
+            }
+
+            // The versions are only removed after the cells which remain current have been copied, and the
+            // oldest version has been updated, so that readers never see incomplete versions
+            if (!delete.isEmpty()) {
+                repository.recordTable.delete(delete);
+            }
+            repository.invalidateCachedRecord(recordId);
+
+            prunedBlobs.removeAll(retainedBlobs);
+            if (!prunedBlobs.isEmpty()) {
+                repository.blobManager.handleBlobReferences(recordId, null, prunedBlobs);
+            }
+
+            return (int)(newOldestVersion - oldestVersion);
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while pruning versions of record '" + recordId
+                    + "' on HBase table", e);
+        }
+    }
+
+    /**
+     * Creates the record event for a pruned record, which only serves to invalidate the cached record.
+     */
+    private RecordEvent newPruneEvent() {
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(RecordEvent.Type.UPDATE);
+        recordEvent.setTableName(repository.getTableName());
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionExclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
+        recordEvent.setIndexRecordFilterData(filterData);
+        return recordEvent;
+    }
+
+    /**
+     * Moves the cell which is current at newOldestVersion to newOldestVersion, and deletes all older cells.
+     *
+     * @param fieldType the field type if the column is a field, null for a system column
+     */
+    private void pruneColumn(byte[] qualifier, FieldType fieldType, NavigableMap<Long, byte[]> cells,
+            long newOldestVersion, Put put, Delete delete, Set<BlobReference> prunedBlobs,
+            Set<BlobReference> retainedBlobs) throws RepositoryException, InterruptedException {
+        boolean blobField = fieldType != null
+                && fieldType.getValueType().getDeepestValueType() instanceof BlobValueType;
+
+        Long currentVersion = null;
+        for (Long version : cells.keySet()) {
+            if (version <= newOldestVersion && (currentVersion == null || version > currentVersion)) {
+                currentVersion = version;
+            }
+        }
+
+        if (currentVersion != null && currentVersion < newOldestVersion) {
+            byte[] value = cells.get(currentVersion);
+            // A deleted field does not need to be copied, it will simply not exist anymore
+            if (fieldType == null || !FieldFlags.isDeletedField(value[0])) {
+                put.add(RecordCf.DATA.bytes, qualifier, newOldestVersion, value);
+            }
+        }
+
+        for (Map.Entry<Long, byte[]> cell : cells.entrySet()) {
+            boolean pruned = cell.getKey() < newOldestVersion;
+            if (pruned) {
+                delete.deleteColumn(RecordCf.DATA.bytes, qualifier, cell.getKey());
+            }
+            if (blobField) {
+                // The cell which is copied is also retained
+                boolean retained = !pruned || cell.getKey().equals(currentVersion);
+                collectBlobs(fieldType, cell.getValue(), retained ? retainedBlobs : prunedBlobs);
+            }
+        }
+    }
+
+    private void collectBlobs(FieldType fieldType, byte[] value, Set<BlobReference> blobs)
+            throws RepositoryException, InterruptedException {
+        if (FieldFlags.isDeletedField(value[0])) {
+            return;
+        }
+        ValueType valueType = fieldType.getValueType();
+        Object fieldValue = RecordDecoder.decodeField(fieldType, value, 0, value.length).value;
+        for (Object blob : valueType.getValues(fieldValue)) {
+            blobs.add(new BlobReference((Blob)blob, null, fieldType));
+        }
+    }
+
+    private static boolean isVersionedSystemColumn(byte[] qualifier) {
+        for (byte[] column : VERSIONED_SYSTEM_COLUMNS) {
+            if (Bytes.equals(column, qualifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private QName getRecordTypeName(Result result) throws RepositoryException, InterruptedException {
+        byte[] recordTypeId = repository.recdec.getLatest(result, RecordCf.DATA.bytes,
+                RecordColumn.NON_VERSIONED_RT_ID.bytes);
+        if (recordTypeId == null) {
+            return null;
+        }
+        try {
+            return repository.typeManager.getRecordTypeById(new SchemaIdImpl(recordTypeId), null).getName();
+        } catch (RecordTypeNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lilyproject.repository.api.QName;
+
+/**
+ * Configures how many versions of records should be kept, the older versions are removed by a
+ * {@link VersionPruner}.
+ *
+ * <p>The number of versions to keep can be configured per (non-versioned) record type, records of other record
+ * types keep the default number of versions. A number of versions of {@link #KEEP_ALL} means that all versions
+ * are kept. To have a different policy per table, prune each table with its own policy.</p>
+ *
+ * <p>Retention is based on the number of versions only: Lily does not store when a version was created (the
+ * HBase timestamps of the versioned fields are the version numbers), so there is no way to keep the versions
+ * newer than some point in time.</p>
+ */
+public class VersionRetentionPolicy {
+    public static final int KEEP_ALL = 0;
+
+    private final int maxVersions;
+    private final Map<QName, Integer> recordTypeMaxVersions;
+
+    /**
+     * @param maxVersions the number of versions to keep of records of record types which are not in
+     *                    recordTypeMaxVersions, or {@link #KEEP_ALL}
+     * @param recordTypeMaxVersions the number of versions to keep per record type, can be null
+     */
+    public VersionRetentionPolicy(int maxVersions, Map<QName, Integer> recordTypeMaxVersions) {
+        checkMaxVersions(maxVersions);
+        Map<QName, Integer> map = new HashMap<QName, Integer>();
+        if (recordTypeMaxVersions != null) {
+            for (Map.Entry<QName, Integer> entry : recordTypeMaxVersions.entrySet()) {
+                checkMaxVersions(entry.getValue());
+                map.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.maxVersions = maxVersions;
+        this.recordTypeMaxVersions = Collections.unmodifiableMap(map);
+    }
+
+    public VersionRetentionPolicy(int maxVersions) {
+        this(maxVersions, null);
+    }
+
+    private static void checkMaxVersions(Integer maxVersions) {
+        if (maxVersions == null || maxVersions < 0) {
+            throw new IllegalArgumentException("Number of versions to keep should not be negative, got: "
+                    + maxVersions);
+        }
+    }
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+    public Map<QName, Integer> getRecordTypeMaxVersions() {
+        return recordTypeMaxVersions;
+    }
+
+    /**
+     * Returns the number of versions to keep of records of the given record type, or {@link #KEEP_ALL}.
+     *
+     * @param recordType the non-versioned record type of the record, can be null
+     */
+    public int getMaxVersions(QName recordType) {
+        Integer result = recordType != null ? recordTypeMaxVersions.get(recordType) : null;
+        return result != null ? result : maxVersions;
+    }
+}
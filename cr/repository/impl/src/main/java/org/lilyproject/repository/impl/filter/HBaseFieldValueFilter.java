@@ -15,7 +15,9 @@
  */
 package org.lilyproject.repository.impl.filter;
 
+import org.apache.hadoop.hbase.filter.BinaryComparator;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.repository.api.CompareOp;
@@ -23,10 +25,12 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdentityRecordStack;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.filter.FieldValueFilter;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.impl.FieldTypeImpl;
 import org.lilyproject.repository.impl.hbase.LilyFieldSingleColumnValueFilter;
+import org.lilyproject.repository.impl.hbase.ValueTypeComparator;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 
@@ -50,17 +54,27 @@ public class HBaseFieldValueFilter implements HBaseRecordFilterFactory {
         }
 
         CompareOp compareOp = filter.getCompareOp() != null ? filter.getCompareOp() : CompareOp.EQUAL;
-        if (compareOp != CompareOp.EQUAL && compareOp != CompareOp.NOT_EQUAL) {
-            throw new IllegalArgumentException("FieldValueFilter does not support this compare operator: " + compareOp);
-        }
 
         FieldType fieldType = repository.getTypeManager().getFieldTypeByName(filter.getField());
+        ValueType valueType = fieldType.getValueType();
         DataOutput dataOutput = new DataOutputImpl();
-        fieldType.getValueType().write(filter.getFieldValue(), dataOutput, new IdentityRecordStack());
+        valueType.write(filter.getFieldValue(), dataOutput, new IdentityRecordStack());
         byte[] fieldValue = dataOutput.toByteArray();
 
+        WritableByteArrayComparable comparator;
+        if (compareOp == CompareOp.EQUAL || compareOp == CompareOp.NOT_EQUAL) {
+            // (in)equality can be checked on the encoded bytes
+            comparator = new BinaryComparator(fieldValue);
+        } else if (ValueTypeComparator.supports(valueType)) {
+            // ordering needs to be checked on the decoded values
+            comparator = new ValueTypeComparator(valueType.getName(), fieldValue);
+        } else {
+            throw new IllegalArgumentException("FieldValueFilter does not support compare operator " + compareOp
+                    + " for fields of value type " + valueType.getName());
+        }
+
         LilyFieldSingleColumnValueFilter hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
-                ((FieldTypeImpl)fieldType).getQualifier(), HBaseRecordFilterUtil.translateCompareOp(compareOp), fieldValue);
+                ((FieldTypeImpl)fieldType).getQualifier(), HBaseRecordFilterUtil.translateCompareOp(compareOp), comparator);
         hbaseFilter.setFilterIfMissing(filter.getFilterIfMissing());
 
         return hbaseFilter;
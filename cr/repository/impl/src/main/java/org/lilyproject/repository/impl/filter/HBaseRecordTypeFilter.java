@@ -15,6 +15,9 @@
  */
 package org.lilyproject.repository.impl.filter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.hadoop.hbase.filter.CompareFilter;
@@ -28,6 +31,7 @@ import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.api.filter.RecordTypeFilter;
+import org.lilyproject.repository.impl.hbase.LilyRecordTypeSetFilter;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 
 import static org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
@@ -79,12 +83,10 @@ public class HBaseRecordTypeFilter implements HBaseRecordFilterFactory {
                 break;
             case INSTANCE_OF:
                 Set<SchemaId> subtypes = repository.getTypeManager().findSubtypes(recordType.getId());
-                FilterList list = new FilterList(FilterList.Operator.MUST_PASS_ONE);
-                list.addFilter(createRecordTypeFilter(recordType.getId()));
-                for (SchemaId subType : subtypes) {
-                    list.addFilter(createRecordTypeFilter(subType));
-                }
-                result = list;
+                List<SchemaId> recordTypeIds = new ArrayList<SchemaId>(subtypes.size() + 1);
+                recordTypeIds.add(recordType.getId());
+                recordTypeIds.addAll(subtypes);
+                result = new LilyRecordTypeSetFilter(recordTypeIds);
                 break;
             default:
                 throw new RuntimeException("Unexpected operator: " + filter.getOperator());
@@ -94,7 +96,6 @@ public class HBaseRecordTypeFilter implements HBaseRecordFilterFactory {
     }
 
     private Filter createRecordTypeFilter(SchemaId schemaId) {
-        return new SingleColumnValueFilter(RecordCf.DATA.bytes, RecordColumn.NON_VERSIONED_RT_ID.bytes,
-                                   CompareFilter.CompareOp.EQUAL, schemaId.getBytes());
+        return new LilyRecordTypeSetFilter(Collections.singletonList(schemaId));
     }
 }
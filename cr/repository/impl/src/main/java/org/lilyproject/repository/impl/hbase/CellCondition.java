@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Condition on a column of the record row, checked by the {@link RecordMutationEndpoint}: the latest cell of the
+ * column should have the given value, or the column should be absent if the value is null.
+ */
+public class CellCondition implements Writable {
+    private byte[] qualifier;
+    private byte[] value;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public CellCondition() {
+    }
+
+    public CellCondition(byte[] qualifier, byte[] value) {
+        this.qualifier = qualifier;
+        this.value = value;
+    }
+
+    public byte[] getQualifier() {
+        return qualifier;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public boolean isSatisfied(byte[] currentValue) {
+        return value == null ? currentValue == null : currentValue != null && Bytes.equals(value, currentValue);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Bytes.writeByteArray(out, qualifier);
+        out.writeBoolean(value != null);
+        if (value != null) {
+            Bytes.writeByteArray(out, value);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        qualifier = Bytes.readByteArray(in);
+        value = in.readBoolean() ? Bytes.readByteArray(in) : null;
+    }
+}
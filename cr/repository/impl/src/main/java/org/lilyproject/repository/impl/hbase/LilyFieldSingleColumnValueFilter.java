@@ -54,6 +54,7 @@ import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
 import org.apache.hadoop.hbase.io.HbaseObjectWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.repository.impl.FieldValueCompression;
 
 /**
  * This filter is used to filter cells based on value. It takes a {@link CompareFilter.CompareOp}
@@ -219,7 +220,13 @@ public class LilyFieldSingleColumnValueFilter extends FilterBase {
       }
 
 
-      int compareResult = this.comparator.compareTo(data, lilyFieldValueOffset, lilyFieldValueLength);
+      int compareResult;
+      if (FieldFlags.isCompressed(data[offset])) {
+          byte[] value = FieldValueCompression.decompress(data, lilyFieldValueOffset, lilyFieldValueLength);
+          compareResult = this.comparator.compareTo(value, 0, value.length);
+      } else {
+          compareResult = this.comparator.compareTo(data, lilyFieldValueOffset, lilyFieldValueLength);
+      }
       // End Lily change
 
       switch (this.compareOp) {
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.util.ArgumentValidator;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * HBase filter which only passes records of which the (non-versioned) record type is one of a set of
+ * record types.
+ *
+ * <p>This does the same as a list of {@link org.apache.hadoop.hbase.filter.SingleColumnValueFilter}s
+ * on the record type column combined with MUST_PASS_ONE, but checks the record type with a single
+ * hash lookup rather than evaluating one filter per record type, which matters when filtering on a
+ * record type with many subtypes.</p>
+ *
+ * <p>Records without record type are filtered out.</p>
+ */
+public class LilyRecordTypeSetFilter extends FilterBase {
+    private Set<Key> recordTypeIds;
+    /**
+     * Reused to look up the record type of each row, without allocating a key per row.
+     */
+    private final Key lookupKey = new Key();
+    private boolean foundColumn = false;
+    private boolean matchedColumn = false;
+
+    /**
+     * @param recordTypeIds the ids of the record types of which records should pass the filter
+     */
+    public LilyRecordTypeSetFilter(Collection<SchemaId> recordTypeIds) {
+        ArgumentValidator.notNull(recordTypeIds, "recordTypeIds");
+
+        this.recordTypeIds = new HashSet<Key>(recordTypeIds.size() * 2);
+        for (SchemaId recordTypeId : recordTypeIds) {
+            byte[] bytes = recordTypeId.getBytes();
+            this.recordTypeIds.add(new Key(bytes, 0, bytes.length));
+        }
+    }
+
+    public LilyRecordTypeSetFilter() {
+        // for hbase readFields
+    }
+
+    @Override
+    public void reset() {
+        foundColumn = false;
+        matchedColumn = false;
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue keyValue) {
+        if (matchedColumn) {
+            return ReturnCode.INCLUDE;
+        } else if (foundColumn) {
+            return ReturnCode.NEXT_ROW;
+        }
+
+        if (!keyValue.matchingColumn(RecordCf.DATA.bytes, RecordColumn.NON_VERSIONED_RT_ID.bytes)) {
+            return ReturnCode.INCLUDE;
+        }
+
+        foundColumn = true;
+        lookupKey.set(keyValue.getBuffer(), keyValue.getValueOffset(), keyValue.getValueLength());
+        if (!recordTypeIds.contains(lookupKey)) {
+            return ReturnCode.NEXT_ROW;
+        }
+
+        matchedColumn = true;
+        return ReturnCode.INCLUDE;
+    }
+
+    @Override
+    public boolean filterRow() {
+        // note: return value true means the row is NOT a result of the scanner
+        return !matchedColumn;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, recordTypeIds.size());
+        for (Key key : recordTypeIds) {
+            WritableUtils.writeVInt(out, key.length);
+            out.write(key.bytes, key.offset, key.length);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int size = WritableUtils.readVInt(in);
+        recordTypeIds = new HashSet<Key>(size * 2);
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[WritableUtils.readVInt(in)];
+            in.readFully(bytes);
+            recordTypeIds.add(new Key(bytes, 0, bytes.length));
+        }
+    }
+
+    /**
+     * A range of a byte array, usable as hash key.
+     */
+    private static final class Key {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+        private int hash;
+
+        Key() {
+        }
+
+        Key(byte[] bytes, int offset, int length) {
+            set(bytes, offset, length);
+        }
+
+        void set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.hash = Bytes.hashCode(bytes, offset, length);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return Bytes.equals(bytes, offset, length, other.bytes, other.offset, other.length);
+        }
+    }
+}
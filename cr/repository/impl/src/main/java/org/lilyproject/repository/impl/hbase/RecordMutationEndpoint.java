@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.repo.RecordEvent;
+import org.lilyproject.util.repo.RecordEvent.FieldChange;
+import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+
+/**
+ * Region endpoint which applies record mutations conditionally on the current state of the record, inside the
+ * region holding the record.
+ *
+ * <p>The plain OCC check (HTable.checkAndPut on the OCC column) fails whenever the record has been changed since it
+ * was read, even if the change is unrelated to the mutation. This endpoint allows to check only the columns on
+ * which the mutation was calculated, while still maintaining the OCC column for the other writers. It also
+ * allows to increment counter fields without reading them first.</p>
+ *
+ * <p>The repository uses this endpoint for the record tables which have it in their table descriptor, e.g. by
+ * adding it with the HBase shell:</p>
+ *
+ * <pre>
+ * alter 'record', METHOD => 'table_att', 'coprocessor' => '|org.lilyproject.repository.impl.hbase.RecordMutationEndpoint|1001|'
+ * </pre>
+ *
+ * <p>The Lily repository jars need to be on the classpath of the region servers for this.</p>
+ */
+public class RecordMutationEndpoint extends BaseEndpointCoprocessor implements RecordMutationProtocol {
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+
+    @Override
+    public boolean checkAndPut(CellCondition[] conditions, Put put) throws IOException {
+        HRegion region = ((RegionCoprocessorEnvironment)getEnvironment()).getRegion();
+        byte[] row = put.getRow();
+
+        Integer lockId = region.obtainRowLock(row);
+        try {
+            Get get = new Get(row);
+            get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            for (CellCondition condition : conditions) {
+                get.addColumn(RecordCf.DATA.bytes, condition.getQualifier());
+            }
+            Result result = region.get(get, lockId);
+
+            for (CellCondition condition : conditions) {
+                if (!condition.isSatisfied(result.getValue(RecordCf.DATA.bytes, condition.getQualifier()))) {
+                    return false;
+                }
+            }
+
+            byte[] occ = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            setOcc(put, occ == null ? 1L : Bytes.toLong(occ) + 1);
+
+            region.put(put, lockId);
+            return true;
+        } finally {
+            region.releaseRowLock(lockId);
+        }
+    }
+
+    @Override
+    public Long increment(byte[] row, byte[] fieldId, long delta, byte[] recordEvent) throws IOException {
+        HRegion region = ((RegionCoprocessorEnvironment)getEnvironment()).getRegion();
+        byte[] qualifier = Bytes.add(new byte[]{RecordColumn.DATA_PREFIX}, fieldId);
+
+        Integer lockId = region.obtainRowLock(row);
+        try {
+            Get get = new Get(row);
+            get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+            get.addColumn(RecordCf.DATA.bytes, qualifier);
+            Result result = region.get(get, lockId);
+
+            byte[] deleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+            if (deleted == null || Bytes.toBoolean(deleted)) {
+                return null;
+            }
+
+            // The stored value is the field flags, the long value and optionally the field metadata
+            byte[] oldCell = result.getValue(RecordCf.DATA.bytes, qualifier);
+            boolean exists = oldCell != null && FieldFlags.exists(oldCell[0]);
+            long oldValue = exists ? Bytes.toLong(oldCell, FieldFlags.SIZE_OF_FIELD_FLAGS) : 0L;
+            long newValue = oldValue + delta;
+
+            byte[] newCell;
+            if (exists) {
+                newCell = Arrays.copyOf(oldCell, oldCell.length);
+            } else {
+                newCell = new byte[FieldFlags.SIZE_OF_FIELD_FLAGS + Bytes.SIZEOF_LONG];
+                newCell[0] = FieldFlags.DEFAULT;
+            }
+            Bytes.putLong(newCell, FieldFlags.SIZE_OF_FIELD_FLAGS, newValue);
+
+            Put put = new Put(row);
+            put.add(RecordCf.DATA.bytes, qualifier, 1L, newCell);
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                    updateFieldChange(recordEvent, fieldId, exists ? Bytes.toBytes(oldValue) : null, newValue));
+            byte[] occ = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            setOcc(put, occ == null ? 1L : Bytes.toLong(occ) + 1);
+
+            region.put(put, lockId);
+            return newValue;
+        } finally {
+            region.releaseRowLock(lockId);
+        }
+    }
+
+    /**
+     * Puts the actual old and new value of the field in the index record filter data of the record event, in
+     * case it has been calculated by the client on a value which was read before the increment.
+     */
+    private byte[] updateFieldChange(byte[] recordEventBytes, byte[] fieldId, byte[] oldValue, long newValue)
+            throws IOException {
+        RecordEvent recordEvent = new RecordEvent(recordEventBytes, idGenerator);
+        IndexRecordFilterData filterData = recordEvent.getIndexRecordFilterData();
+        if (filterData == null || filterData.getFieldChanges() == null) {
+            return recordEventBytes;
+        }
+
+        SchemaId schemaId = idGenerator.getSchemaId(fieldId);
+        boolean changed = false;
+        Iterator<FieldChange> it = filterData.getFieldChanges().iterator();
+        while (it.hasNext()) {
+            if (it.next().getId().equals(schemaId)) {
+                it.remove();
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return recordEventBytes;
+        }
+        filterData.addChangedField(schemaId, oldValue, Bytes.toBytes(newValue));
+        // keep the encoding chosen by the repository, see AbstractRepositoryManager.setRecordEventEncoding
+        return recordEvent.toBytes(recordEvent.getEncoding());
+    }
+
+    private void setOcc(Put put, long occ) {
+        List<KeyValue> kvs = put.getFamilyMap().get(RecordCf.DATA.bytes);
+        if (kvs != null) {
+            Iterator<KeyValue> it = kvs.iterator();
+            while (it.hasNext()) {
+                if (it.next().matchingQualifier(RecordColumn.OCC.bytes)) {
+                    it.remove();
+                }
+            }
+        }
+        put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, Bytes.toBytes(occ));
+    }
+}
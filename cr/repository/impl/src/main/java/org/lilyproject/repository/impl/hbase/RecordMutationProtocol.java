@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+
+/**
+ * Protocol of the {@link RecordMutationEndpoint}.
+ */
+public interface RecordMutationProtocol extends CoprocessorProtocol {
+    /**
+     * Applies the put to the record row if all the conditions are satisfied. The check and the put are done
+     * atomically. The OCC (optimistic concurrency control) version of the record is incremented as part of the
+     * put, replacing any OCC value in the put.
+     *
+     * @return true if the put was applied
+     */
+    boolean checkAndPut(CellCondition[] conditions, Put put) throws IOException;
+
+    /**
+     * Adds a delta to the LONG value of a non-versioned field of a record, and increments the OCC version of
+     * the record. A missing or deleted field is treated as having the value 0.
+     *
+     * <p>The record event is stored as the payload of the update. If its index record filter data contains a
+     * change of the field, its old and new values are replaced with the actual ones.</p>
+     *
+     * @param fieldId the id of the field type
+     * @param recordEvent the JSON encoded record event of the update
+     * @return the new value of the field, or null if the record does not exist
+     */
+    Long increment(byte[] row, byte[] fieldId, long delta, byte[] recordEvent) throws IOException;
+}
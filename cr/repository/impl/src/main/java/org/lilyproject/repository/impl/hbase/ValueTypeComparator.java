@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.valuetype.DateTimeValueType;
+import org.lilyproject.repository.impl.valuetype.DateValueType;
+import org.lilyproject.repository.impl.valuetype.DecimalValueType;
+import org.lilyproject.repository.impl.valuetype.DoubleValueType;
+import org.lilyproject.repository.impl.valuetype.IntegerValueType;
+import org.lilyproject.repository.impl.valuetype.LongValueType;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+
+/**
+ * Compares Lily field values in the order of their value type, rather than in the order of their bytes.
+ *
+ * <p>The Lily encodings of field values are not order-preserving (e.g. negative numbers sort after positive
+ * ones, decimals are stored as strings), so to do range comparisons, this comparator decodes the field value
+ * using its value type and compares it with the decoded value it was constructed with. Only the value types
+ * listed in {@link #supports(ValueType)} are supported: these have no parameters and can be decoded without
+ * a TypeManager, which is not available inside the region servers.</p>
+ *
+ * <p>The value passed to {@link #compareTo(byte[], int, int)} should be the field value without field flags
+ * or metadata, as done by {@link LilyFieldSingleColumnValueFilter}.</p>
+ */
+public class ValueTypeComparator extends WritableByteArrayComparable {
+    private static final Map<String, ValueType> VALUE_TYPES = new HashMap<String, ValueType>();
+    static {
+        VALUE_TYPES.put(StringValueType.NAME, new StringValueType());
+        VALUE_TYPES.put(IntegerValueType.NAME, new IntegerValueType());
+        VALUE_TYPES.put(LongValueType.NAME, new LongValueType());
+        VALUE_TYPES.put(DoubleValueType.NAME, new DoubleValueType());
+        VALUE_TYPES.put(DecimalValueType.NAME, new DecimalValueType());
+        VALUE_TYPES.put(DateValueType.NAME, new DateValueType());
+        VALUE_TYPES.put(DateTimeValueType.NAME, new DateTimeValueType());
+    }
+
+    private String valueTypeName;
+    private byte[] value;
+    private ValueType valueType;
+    private Object decodedValue;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public ValueTypeComparator() {
+        super();
+    }
+
+    /**
+     * @param valueTypeName name of a value type for which {@link #supports(ValueType)} is true
+     * @param value the encoded value to compare with
+     */
+    public ValueTypeComparator(String valueTypeName, byte[] value) {
+        this.valueTypeName = valueTypeName;
+        this.value = value;
+        init();
+    }
+
+    /**
+     * Returns true if field values of the given value type can be compared by this comparator.
+     */
+    public static boolean supports(ValueType valueType) {
+        // Compare the full name, so that e.g. LIST<LONG> is not supported
+        return VALUE_TYPES.containsKey(valueType.getName());
+    }
+
+    private void init() {
+        valueType = VALUE_TYPES.get(valueTypeName);
+        if (valueType == null) {
+            throw new IllegalArgumentException("Unsupported value type for ordered comparison: " + valueTypeName);
+        }
+        decodedValue = decode(value, 0, value.length);
+    }
+
+    private Object decode(byte[] bytes, int offset, int length) {
+        try {
+            return valueType.read(new DataInputImpl(bytes, offset, length));
+        } catch (RepositoryException e) {
+            throw new RuntimeException("Error decoding " + valueTypeName + " value", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while decoding " + valueTypeName + " value", e);
+        }
+    }
+
+    @Override
+    public byte[] getValue() {
+        return value;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        valueTypeName = Bytes.toString(Bytes.readByteArray(in));
+        value = Bytes.readByteArray(in);
+        init();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Bytes.writeByteArray(out, Bytes.toBytes(valueTypeName));
+        Bytes.writeByteArray(out, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compareTo(byte[] theirValue, int offset, int length) {
+        Object theirDecodedValue = decode(theirValue, offset, length);
+        return valueType.getComparator().compare(decodedValue, theirDecodedValue);
+    }
+}
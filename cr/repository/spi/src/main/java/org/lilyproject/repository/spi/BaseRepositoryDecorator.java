@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.util.List;
 import java.util.Set;
 
+import org.lilyproject.repository.api.AsyncLTable;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.IdGenerator;
@@ -28,6 +29,7 @@ import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
 import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.MutationResult;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordBuilder;
@@ -120,6 +122,23 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.createOrUpdate(record, useLatestRecordType);
     }
 
+    @Override
+    public List<MutationResult> createAll(List<Record> records) throws RepositoryException, InterruptedException {
+        return delegate.createAll(records);
+    }
+
+    @Override
+    public List<MutationResult> updateAll(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        return delegate.updateAll(records, useLatestRecordType);
+    }
+
+    @Override
+    public long increment(RecordId recordId, QName fieldName, long delta)
+            throws RepositoryException, InterruptedException {
+        return delegate.increment(recordId, fieldName, delta);
+    }
+
     @Override
     public Record read(RecordId recordId, List<QName> fieldNames) throws RepositoryException, InterruptedException {
         return delegate.read(recordId, fieldNames);
@@ -166,6 +185,12 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.readVersions(recordId, fromVersion, toVersion, fieldNames);
     }
 
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        return delegate.getVersionScanner(recordId, fromVersion, toVersion, fieldNames);
+    }
+
     @Override
     public List<Record> readVersions(RecordId recordId, List<Long> versions, List<QName> fieldNames)
             throws RepositoryException, InterruptedException {
@@ -290,6 +315,16 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.recordBuilder();
     }
 
+    @Override
+    public AsyncLTable getAsyncTable() {
+        AsyncLTable async = delegate.getAsyncTable();
+        if (async instanceof ExecutorAsyncTable) {
+            // Run the asynchronous operations through this decorator, so that its decorations also apply to them
+            return ((ExecutorAsyncTable)async).forTable(this);
+        }
+        return async;
+    }
+
     @Override
     public String getTableName() {
         return delegate.getTableName();
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.spi;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.lilyproject.repository.api.AsyncLTable;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * {@link AsyncLTable} implementation which runs the blocking {@link LTable} operations on an
+ * {@link ExecutorService}.
+ *
+ * <p>The size of the executor's thread pool bounds the number of operations which are executed
+ * concurrently, further operations are queued.</p>
+ */
+public class ExecutorAsyncTable implements AsyncLTable {
+    private final LTable table;
+    private final ExecutorService executor;
+
+    public ExecutorAsyncTable(LTable table, ExecutorService executor) {
+        this.table = table;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns an async table which runs its operations on the given table, using the same executor as this one.
+     * This is intended for decorators, so that their decorations also apply to asynchronous calls.
+     */
+    public ExecutorAsyncTable forTable(LTable table) {
+        return new ExecutorAsyncTable(table, executor);
+    }
+
+    @Override
+    public LTable getTable() {
+        return table;
+    }
+
+    @Override
+    public Future<Record> create(final Record record) {
+        return executor.submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.create(record);
+            }
+        });
+    }
+
+    @Override
+    public Future<Record> update(final Record record) {
+        return executor.submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.update(record);
+            }
+        });
+    }
+
+    @Override
+    public Future<Record> update(final Record record, final boolean updateVersion, final boolean useLatestRecordType,
+            final List<MutationCondition> conditions) {
+        return executor.submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.update(record, updateVersion, useLatestRecordType, conditions);
+            }
+        });
+    }
+
+    @Override
+    public Future<Record> createOrUpdate(final Record record) {
+        return executor.submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.createOrUpdate(record);
+            }
+        });
+    }
+
+    @Override
+    public Future<Record> read(final RecordId recordId, final QName... fieldNames) {
+        return executor.submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.read(recordId, fieldNames);
+            }
+        });
+    }
+
+    @Override
+    public Future<Record> read(final RecordId recordId, final Long version, final QName... fieldNames) {
+        return executor.submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.read(recordId, version, fieldNames);
+            }
+        });
+    }
+
+    @Override
+    public Future<List<Record>> read(final List<RecordId> recordIds, final QName... fieldNames) {
+        return executor.submit(new Callable<List<Record>>() {
+            @Override
+            public List<Record> call() throws Exception {
+                return table.read(recordIds, fieldNames);
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> delete(final RecordId recordId) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                table.delete(recordId);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Record> delete(final RecordId recordId, final List<MutationCondition> conditions) {
+        return executor.submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.delete(recordId, conditions);
+            }
+        });
+    }
+}
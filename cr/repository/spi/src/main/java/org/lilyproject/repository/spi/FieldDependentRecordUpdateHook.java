@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.spi;
+
+import java.util.Set;
+
+import org.lilyproject.repository.api.QName;
+
+/**
+ * A {@link RecordUpdateHook} which declares on which fields of the original record its
+ * {@link #beforeUpdate} depends.
+ *
+ * <p>Updates are normally only applied if the record did not change at all since it was read, so that hooks can
+ * base their work on any field of the original record. On record tables which have the mutation endpoint, the
+ * repository can instead apply an update if only the fields it depends on are unchanged, which avoids conflicts
+ * between concurrent updates of different fields. This is only done if all the hooks declare their
+ * dependencies.</p>
+ */
+public interface FieldDependentRecordUpdateHook extends RecordUpdateHook {
+    /**
+     * Returns the fields of the original record on which {@link #beforeUpdate} depends. Changes to the system
+     * fields, such as the record type, are always detected and don't need to be included. Returns null if
+     * the dependencies are not known, in which case any change to the record is considered a conflict.
+     */
+    Set<QName> getFieldDependencies();
+}
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
@@ -51,11 +52,14 @@ import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
 import org.lilyproject.repository.impl.BlobIncubatorMonitor;
 import org.lilyproject.repository.impl.BlobStoreAccessRegistry;
+import org.lilyproject.repository.impl.FieldCompressionConfig;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -926,6 +930,54 @@ public abstract class AbstractBlobStoreTest {
         assertTrue(result == null || result.isEmpty());
     }
 
+    @Test
+    public void testBlobIncubatorMonitorCompressionConfigured() throws Exception {
+        QName fieldName = new QName(namespace, "testBlobIncubatorMonitorCompressionConfigured");
+        FieldType fieldType = typeManager.newFieldType(typeManager.getValueType("LIST<BLOB>"), fieldName,
+                Scope.NON_VERSIONED);
+        fieldType = typeManager.createFieldType(fieldType);
+        RecordType recordType = typeManager.newRecordType(new QName(namespace,
+                "testBlobIncubatorMonitorCompressionConfiguredRT"));
+        recordType.addFieldTypeEntry(typeManager.newFieldTypeEntry(fieldType.getId(), true));
+        recordType = typeManager.createRecordType(recordType);
+
+        byte[] bytes = new byte[3000];
+        random.nextBytes(bytes);
+        Blob blob = writeBlob(bytes, "aMediaType", "testBlobIncubatorMonitorCompressionConfigured");
+
+        // Blob fields are never compressed, even when configured, since the checks whether a blob is still
+        // referenced look for the blob key in the stored value
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        repositoryManager.setFieldCompressionConfig(RepoAndTableUtil.DEFAULT_REPOSITORY,
+                new FieldCompressionConfig(Collections.singleton(fieldName), 0));
+        Record record;
+        try {
+            record = repository.newRecord();
+            record.setRecordType(recordType.getName());
+            record.setField(fieldName, Collections.singletonList(blob));
+            record = repository.create(record);
+        } finally {
+            repositoryManager.setFieldCompressionConfig(RepoAndTableUtil.DEFAULT_REPOSITORY, null);
+        }
+
+        // Faking a failure after the reservation, so that the monitor checks whether the blob is used
+        HTableInterface blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(repoSetup.getHbaseTableFactory(), true);
+        Put put = new Put(blob.getValue());
+        put.add(LilyHBaseSchema.BlobIncubatorCf.REF.bytes, LilyHBaseSchema.BlobIncubatorColumn.RECORD.bytes, record.getId().toBytes());
+        put.add(LilyHBaseSchema.BlobIncubatorCf.REF.bytes, LilyHBaseSchema.BlobIncubatorColumn.FIELD.bytes, fieldType.getId().getBytes());
+        blobIncubatorTable.put(put);
+
+        // Give time for the blob to expire
+        Thread.sleep(60);
+
+        BlobIncubatorMonitor monitor = new BlobIncubatorMonitor(repoSetup.getZk(), repoSetup.getHbaseTableFactory(),
+                                            repoSetup.getTableManager(), blobManager, typeManager, 50, 0, 0);
+        monitor.runMonitorOnce();
+
+        assertBlobDelete(false, blob);
+        assertTrue(Arrays.equals(bytes, readBlob(record.getId(), null, fieldName, 0)));
+    }
+
     private void assertBlobDelete(boolean expectDelete, Blob blob) throws BlobNotFoundException, BlobException {
         if (expectDelete) {
             try {
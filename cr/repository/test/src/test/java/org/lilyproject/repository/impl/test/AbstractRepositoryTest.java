@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl.test;
 
 import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -25,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -37,6 +39,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.bytes.api.ByteArray;
+import org.lilyproject.repository.api.AsyncLTable;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
@@ -50,6 +53,7 @@ import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.Metadata;
 import org.lilyproject.repository.api.MetadataBuilder;
 import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.MutationResult;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordBuilder;
@@ -97,7 +101,7 @@ public abstract class AbstractRepositoryTest {
     protected static FieldType fieldType1;
 
     private static FieldType fieldType1B;
-    private static FieldType fieldType2;
+    protected static FieldType fieldType2;
     private static FieldType fieldType3;
     private static FieldType fieldType4;
     private static FieldType fieldType5;
@@ -587,6 +591,50 @@ public abstract class AbstractRepositoryTest {
         assertTrue(list.contains(repository.read(record.getId(), 3L)));
     }
 
+    @Test
+    public void testVersionScanner() throws Exception {
+        // More versions than fit in one page of the scanner, with a field which doesn't change between pages
+        Record record = createDefaultRecord();
+        for (int i = 1; i < 120; i++) {
+            Record updateRecord = repository.newRecord(record.getId());
+            updateRecord.setField(fieldType2.getName(), 123 + i);
+            repository.update(updateRecord);
+        }
+
+        RecordScanner scanner = repository.getVersionScanner(record.getId(), 0L, 500L);
+        try {
+            long expectedVersion = 1;
+            for (Record version : scanner) {
+                assertEquals(Long.valueOf(expectedVersion), version.getVersion());
+                assertEquals(123 + (int)expectedVersion - 1, version.getField(fieldType2.getName()));
+                assertEquals(true, version.getField(fieldType3.getName()));
+                assertEquals(recordType1.getName(), version.getRecordTypeName());
+                expectedVersion++;
+            }
+            assertEquals(121, expectedVersion);
+        } finally {
+            scanner.close();
+        }
+
+        scanner = repository.getVersionScanner(record.getId(), 99L, 102L, fieldType2.getName());
+        try {
+            assertEquals(repository.read(record.getId(), 99L, fieldType2.getName()), scanner.next());
+            assertEquals(repository.read(record.getId(), 100L, fieldType2.getName()), scanner.next());
+            assertEquals(repository.read(record.getId(), 101L, fieldType2.getName()), scanner.next());
+            assertEquals(repository.read(record.getId(), 102L, fieldType2.getName()), scanner.next());
+            assertNull(scanner.next());
+        } finally {
+            scanner.close();
+        }
+
+        try {
+            repository.getVersionScanner(idGenerator.newRecordId(), 1L, 2L);
+            fail("expected exception");
+        } catch (RecordNotFoundException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testReadSpecificVersions() throws Exception {
         Record record = createDefaultRecord();
@@ -1638,6 +1686,118 @@ public abstract class AbstractRepositoryTest {
         assertEquals(ResponseStatus.UP_TO_DATE, resultRecord.getResponseStatus());
     }
 
+    @Test
+    public void testCreateAllAndUpdateAll() throws Exception {
+        RecordId existingId = repository.recordBuilder()
+                .recordType(recordType1.getName())
+                .field(fieldType1.getName(), "existing")
+                .create().getId();
+
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 3; i++) {
+            Record record = repository.newRecord();
+            record.setRecordType(recordType1.getName());
+            record.setField(fieldType1.getName(), "value" + i);
+            records.add(record);
+        }
+        Record existing = repository.newRecord(existingId);
+        existing.setRecordType(recordType1.getName());
+        existing.setField(fieldType1.getName(), "again");
+        records.add(existing);
+
+        List<MutationResult> results = repository.createAll(records);
+        assertEquals(4, results.size());
+        List<Record> created = new ArrayList<Record>();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals(ResponseStatus.CREATED, results.get(i).getRecord().getResponseStatus());
+            assertEquals("value" + i, repository.read(results.get(i).getRecord().getId())
+                    .getField(fieldType1.getName()));
+            created.add(results.get(i).getRecord());
+        }
+        assertFalse(results.get(3).isSuccess());
+        assertTrue(results.get(3).getException() instanceof RecordExistsException);
+
+        List<Record> updates = new ArrayList<Record>();
+        Record update = repository.newRecord(created.get(0).getId());
+        update.setField(fieldType1.getName(), "updated");
+        updates.add(update);
+        Record unchanged = repository.newRecord(created.get(1).getId());
+        unchanged.setField(fieldType1.getName(), "value1");
+        updates.add(unchanged);
+        Record missing = repository.newRecord(idGenerator.newRecordId());
+        missing.setField(fieldType1.getName(), "value");
+        updates.add(missing);
+
+        results = repository.updateAll(updates, true);
+        assertEquals(3, results.size());
+        assertEquals(ResponseStatus.UPDATED, results.get(0).get().getResponseStatus());
+        assertEquals("updated", repository.read(created.get(0).getId()).getField(fieldType1.getName()));
+        assertEquals(ResponseStatus.UP_TO_DATE, results.get(1).get().getResponseStatus());
+        assertTrue(results.get(2).getException() instanceof RecordNotFoundException);
+    }
+
+    @Test
+    public void testAsyncTable() throws Exception {
+        AsyncLTable asyncTable = repository.getAsyncTable();
+
+        List<Future<Record>> creates = new ArrayList<Future<Record>>();
+        for (int i = 0; i < 5; i++) {
+            Record record = repository.newRecord();
+            record.setRecordType(recordType1.getName());
+            record.setField(fieldType1.getName(), "async" + i);
+            creates.add(asyncTable.create(record));
+        }
+
+        List<Future<Record>> reads = new ArrayList<Future<Record>>();
+        for (Future<Record> create : creates) {
+            assertEquals(ResponseStatus.CREATED, create.get().getResponseStatus());
+            reads.add(asyncTable.read(create.get().getId()));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("async" + i, reads.get(i).get().getField(fieldType1.getName()));
+        }
+
+        try {
+            asyncTable.read(idGenerator.newRecordId()).get();
+            fail("expected exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RecordNotFoundException);
+        }
+    }
+
+    @Test
+    public void testIncrement() throws Exception {
+        QName counterName = new QName(namespace, "counter");
+        typeManager.createFieldType(typeManager.getValueType("LONG"), counterName, Scope.NON_VERSIONED);
+
+        Record record = repository.recordBuilder()
+                .recordType(recordType1.getName())
+                .field(fieldType1.getName(), "value1")
+                .create();
+
+        // A missing field counts as 0
+        assertEquals(5L, repository.increment(record.getId(), counterName, 5L));
+        assertEquals(3L, repository.increment(record.getId(), counterName, -2L));
+        assertEquals(Long.valueOf(3), repository.read(record.getId()).getField(counterName));
+
+        // Only non-versioned LONG fields can be incremented
+        try {
+            repository.increment(record.getId(), fieldType1.getName(), 1L);
+            fail("expected exception");
+        } catch (InvalidRecordException e) {
+            // expected
+        }
+
+        try {
+            repository.increment(idGenerator.newRecordId(), counterName, 1L);
+            fail("expected exception");
+        } catch (RecordNotFoundException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testUpdateMutableFieldsRecordType() throws Exception {
         Record record = repository.newRecord();
@@ -2355,6 +2515,46 @@ public abstract class AbstractRepositoryTest {
         assertTrue("Found at least 26 records", i >= 26);
     }
 
+    @Test
+    public void testPrefetchingScanner() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            repository.recordBuilder()
+                    .id(String.format("prefetch%02d", i))
+                    .recordType(recordType1.getName())
+                    .field(fieldType1.getName(), "value" + i)
+                    .create();
+        }
+
+        RecordScan scan = new RecordScan();
+        scan.setStartRecordId(idGenerator.newRecordId("prefetch"));
+        scan.setStopRecordId(idGenerator.newRecordId("prefetch99"));
+        scan.setCaching(7);
+        scan.setPrefetchDepth(2);
+
+        RecordScanner scanner = repository.getScanner(scan);
+        int i = 0;
+        for (Record record : scanner) {
+            assertEquals(idGenerator.newRecordId(String.format("prefetch%02d", i)), record.getId());
+            assertEquals("value" + i, record.getField(fieldType1.getName()));
+            i++;
+        }
+        scanner.close();
+        assertEquals(50, i);
+        assertNull(scanner.next());
+
+        // Closing the scanner before all records are read
+        scanner = repository.getScanner(scan);
+        assertNotNull(scanner.next());
+        scanner.close();
+        assertNull(scanner.next());
+
+        IdRecordScanner idScanner = repository.getScannerWithIds(scan);
+        IdRecord idRecord = idScanner.next();
+        assertNotNull(idRecord);
+        assertFalse(idRecord.getFieldIdToNameMapping().isEmpty());
+        idScanner.close();
+    }
+
     @Test
     public void testScannerWithIdRecords() throws Exception {
         RecordId id = idGenerator.newRecordId();
@@ -2724,6 +2924,62 @@ public abstract class AbstractRepositoryTest {
         assertEquals(3, countResults(repository.getScanner(scan)));
     }
 
+    @Test
+    public void testFieldValueFilterRangeComparisons() throws Exception {
+        FieldType longField =
+                typeManager.createFieldType("LONG", new QName("FieldValueFilterRange", "long"), Scope.NON_VERSIONED);
+        FieldType decimalField = typeManager.createFieldType("DECIMAL", new QName("FieldValueFilterRange", "decimal"),
+                Scope.NON_VERSIONED);
+        FieldType listField = typeManager.createFieldType("LIST<LONG>", new QName("FieldValueFilterRange", "list"),
+                Scope.NON_VERSIONED);
+        RecordType rt = typeManager.recordTypeBuilder()
+                .defaultNamespace("FieldValueFilterRange")
+                .name("rt1")
+                .fieldEntry().use(longField).add()
+                .fieldEntry().use(decimalField).add()
+                .create();
+
+        // negative numbers and decimals of different lengths, of which the encodings don't sort in value order
+        long[] values = {-100L, -5L, 0L, 3L, 250L};
+        for (long value : values) {
+            repository.recordBuilder()
+                    .recordType(rt.getName())
+                    .field(longField.getName(), value)
+                    .field(decimalField.getName(), new BigDecimal(value).movePointLeft(1))
+                    .create();
+        }
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.LESS, 0L));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.LESS_OR_EQUAL, 0L));
+        assertEquals(3, countResults(repository.getScanner(scan)));
+
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.GREATER, -5L));
+        assertEquals(3, countResults(repository.getScanner(scan)));
+
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.GREATER_OR_EQUAL, 250L));
+        assertEquals(1, countResults(repository.getScanner(scan)));
+
+        // between
+        RecordFilterList between = new RecordFilterList();
+        between.addFilter(new FieldValueFilter(decimalField.getName(), CompareOp.GREATER_OR_EQUAL,
+                new BigDecimal("-0.5")));
+        between.addFilter(new FieldValueFilter(decimalField.getName(), CompareOp.LESS, new BigDecimal("25")));
+        scan.setRecordFilter(between);
+        assertEquals(3, countResults(repository.getScanner(scan)));
+
+        scan.setRecordFilter(new FieldValueFilter(listField.getName(), CompareOp.GREATER,
+                Collections.singletonList(1L)));
+        try {
+            repository.getScanner(scan);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testFilterList() throws Exception {
         FieldType f1 = typeManager.createFieldType("STRING", new QName("FilterList", "field1"), Scope.NON_VERSIONED);
@@ -3251,6 +3507,37 @@ public abstract class AbstractRepositoryTest {
         assertEquals("value2", readMetadata.get("field2"));
     }
 
+    @Test
+    public void testReadFieldsOnDemand() throws Exception {
+        // Records read from the repository decode their fields on first access, this should be transparent
+        Record record = repository.newRecord();
+        record.setRecordType(recordType1.getName());
+        record.setField(fieldType1.getName(), "value1");
+        record.setField(fieldType2.getName(), 123);
+        record.setField(fieldType3.getName(), true);
+        record.setMetadata(fieldType1.getName(), new MetadataBuilder().value("field1", "value1").build());
+        record = repository.create(record);
+
+        Record readRecord = repository.read(record.getId());
+        assertTrue(readRecord.hasField(fieldType2.getName()));
+        assertEquals("value1", readRecord.getMetadata(fieldType1.getName()).get("field1"));
+        assertEquals(Integer.valueOf(123), readRecord.getField(fieldType2.getName()));
+        assertEquals(record, readRecord);
+
+        // Deleting a field which was not accessed yet
+        readRecord = repository.read(record.getId());
+        readRecord.delete(fieldType3.getName(), true);
+        assertFalse(readRecord.hasField(fieldType3.getName()));
+        assertEquals(2, readRecord.getFields().size());
+        assertEquals(1, readRecord.getFieldsToDelete().size());
+
+        // Accessing a field should not affect the fields to delete
+        readRecord = repository.read(record.getId());
+        readRecord.addFieldsToDelete(Lists.newArrayList(fieldType1.getName()));
+        assertEquals("value1", readRecord.getField(fieldType1.getName()));
+        assertEquals(1, readRecord.getFieldsToDelete().size());
+    }
+
     @Test
     public void testMetadataAllTypes() throws Exception {
         // This test verifies that the change detection logic works correctly for all data types
@@ -16,16 +16,80 @@
 package org.lilyproject.repository.impl.test;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.hbaseindex.QueryResult;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.InvalidRecordException;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.MetadataBuilder;
+import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.MutationResult;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ResponseStatus;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TableCreateDescriptor;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.VersionNotFoundException;
+import org.lilyproject.repository.api.filter.FieldValueFilter;
+import org.lilyproject.repository.api.filter.RecordTypeFilter;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repository.impl.BaseRepository;
+import org.lilyproject.repository.impl.BatchReadConfig;
+import org.lilyproject.repository.impl.FieldCompressionConfig;
+import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.repository.impl.FieldTypeImpl;
+import org.lilyproject.repository.impl.HBaseRepository;
 import org.lilyproject.repository.impl.HBaseTypeManager;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.repository.impl.RecordTypeIndex;
+import org.lilyproject.repository.impl.VersionPruner;
+import org.lilyproject.repository.impl.VersionRetentionPolicy;
+import org.lilyproject.repository.impl.hbase.RecordMutationEndpoint;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
+import org.lilyproject.repository.spi.RecordUpdateHook;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.RecordEvent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class HBaseRepositoryTest extends AbstractRepositoryTest {
 
@@ -54,4 +118,661 @@ public class HBaseRepositoryTest extends AbstractRepositoryTest {
         assertEquals(fieldType1, newTypeManager.getFieldTypeByName(fieldType1.getName()));
         Closer.close(newTypeManager);
     }
+
+    @Test
+    public void testParallelMultiRead() throws Exception {
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        repositoryManager.setBatchReadConfig(RepoAndTableUtil.DEFAULT_REPOSITORY, new BatchReadConfig(3, 4));
+        try {
+            List<RecordId> recordIds = new ArrayList<RecordId>();
+            for (int i = 0; i < 20; i++) {
+                Record record = repository.recordBuilder()
+                        .recordType(recordType1.getName())
+                        .field(fieldType1.getName(), "value" + i)
+                        .create();
+                recordIds.add(record.getId());
+                // Missing records are skipped
+                recordIds.add(idGenerator.newRecordId());
+            }
+            // Deleted records are skipped
+            repository.delete(recordIds.get(0));
+
+            List<Record> records = repository.read(recordIds);
+            assertEquals(19, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(recordIds.get((i + 1) * 2), records.get(i).getId());
+                assertEquals("value" + (i + 1), records.get(i).getField(fieldType1.getName()));
+            }
+        } finally {
+            repositoryManager.setBatchReadConfig(RepoAndTableUtil.DEFAULT_REPOSITORY, null);
+        }
+    }
+
+    @Test
+    public void testRecordCache() throws Exception {
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        RecordCache recordCache = new RecordCache("RecordCacheTest", 1024 * 1024, true);
+        repositoryManager.setRecordCache(recordCache);
+        try {
+            Record record = repository.recordBuilder()
+                    .recordType(recordType1.getName())
+                    .field(fieldType1.getName(), "value1")
+                    .create();
+
+            assertEquals("value1", repository.read(record.getId()).getField(fieldType1.getName()));
+            assertEquals(0, recordCache.getHitCount());
+            assertEquals(1, recordCache.getMissCount());
+            assertEquals("value1", repository.read(record.getId()).getField(fieldType1.getName()));
+            assertEquals(1, recordCache.getHitCount());
+
+            // Reading a subset of the fields is cached separately
+            assertEquals("value1", repository.read(record.getId(), fieldType1.getName()).getField(fieldType1.getName()));
+            assertEquals(2, recordCache.getMissCount());
+
+            // Updating the record invalidates it
+            record.setField(fieldType1.getName(), "value2");
+            repository.update(record);
+            assertEquals("value2", repository.read(record.getId()).getField(fieldType1.getName()));
+            assertEquals("value2", repository.read(record.getId(), fieldType1.getName()).getField(fieldType1.getName()));
+            assertEquals(1, recordCache.getHitCount());
+            assertEquals(4, recordCache.getMissCount());
+
+            repository.delete(record.getId());
+            try {
+                repository.read(record.getId());
+                fail("Expected RecordNotFoundException");
+            } catch (RecordNotFoundException e) {
+                // expected
+            }
+        } finally {
+            repositoryManager.setRecordCache(null);
+            recordCache.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecordCacheBypassedByReadWithIds() throws Exception {
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        RecordCache recordCache = new RecordCache("RecordCacheReadWithIdsTest", 1024 * 1024, false);
+        repositoryManager.setRecordCache(recordCache);
+        try {
+            Record record = repository.recordBuilder()
+                    .recordType(recordType1.getName())
+                    .field(fieldType1.getName(), "value1")
+                    .create();
+            assertEquals("value1", repository.read(record.getId()).getField(fieldType1.getName()));
+
+            // Change the record behind the back of the cache, as happens for changes made through another Lily
+            // server of which the SEP event was not processed yet
+            repositoryManager.setRecordCache(null);
+            record.setField(fieldType1.getName(), "value2");
+            repository.update(record);
+            repositoryManager.setRecordCache(recordCache);
+
+            // The cache still holds the old row, which the reads on behalf of users may return
+            assertEquals("value1", repository.read(record.getId()).getField(fieldType1.getName()));
+
+            // readWithIds, as used by the indexer, always reads the stored record
+            long hits = recordCache.getHitCount();
+            long misses = recordCache.getMissCount();
+            assertEquals("value2", repository.readWithIds(record.getId(), null, null)
+                    .getField(fieldType1.getName()));
+            assertEquals(hits, recordCache.getHitCount());
+            assertEquals(misses, recordCache.getMissCount());
+        } finally {
+            repositoryManager.setRecordCache(null);
+            recordCache.shutdown();
+        }
+    }
+
+    @Test
+    public void testUpdateViaMutationEndpoint() throws Exception {
+        LTable table = createTableWithMutationEndpoint("mutationendpoint");
+        Record record = table.recordBuilder()
+                .recordType(recordType1.getName())
+                .field(fieldType1.getName(), "value1")
+                .field(fieldType2.getName(), 1)
+                .create();
+
+        // Condition which is satisfied
+        Record update = table.newRecord(record.getId());
+        update.setField(fieldType2.getName(), 2);
+        update = table.update(update, Collections.singletonList(new MutationCondition(fieldType1.getName(), "value1")));
+        assertEquals(ResponseStatus.UPDATED, update.getResponseStatus());
+
+        // Condition which is not satisfied
+        update = table.newRecord(record.getId());
+        update.setField(fieldType1.getName(), "value2");
+        update = table.update(update, Collections.singletonList(new MutationCondition(fieldType2.getName(), 1)));
+        assertEquals(ResponseStatus.CONFLICT, update.getResponseStatus());
+
+        Record readRecord = table.read(record.getId());
+        assertEquals("value1", readRecord.getField(fieldType1.getName()));
+        assertEquals(2, readRecord.getField(fieldType2.getName()));
+        assertEquals(Long.valueOf(2), readRecord.getVersion());
+
+        // The OCC version is still maintained, as the operations which do not use the endpoint rely on it
+        table.delete(record.getId());
+        try {
+            table.read(record.getId());
+            fail("Expected RecordNotFoundException");
+        } catch (RecordNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUpdateViaMutationEndpointWithUpdateHook() throws Exception {
+        LTable table = createTableWithMutationEndpoint("mutationendpointhook");
+        QName otherField = new QName("/test/repository", "endpointHookField");
+        typeManager.createFieldType(typeManager.getValueType("STRING"), otherField, Scope.NON_VERSIONED);
+        Record record = table.recordBuilder()
+                .recordType(recordType1.getName())
+                .field(fieldType1.getName(), "value1")
+                .field(otherField, "valueB1")
+                .create();
+
+        // The hook depends on field1: a concurrent update of another field does not conflict with the update
+        ConcurrentUpdateHook hook = new ConcurrentUpdateHook(table, fieldType1.getName(), otherField, "valueB2");
+        ((HBaseRepository)table).setRecordUpdateHooks(Collections.<RecordUpdateHook>singletonList(hook));
+        try {
+            Record update = table.newRecord(record.getId());
+            update.setField(fieldType1.getName(), "value2");
+            update = table.update(update);
+            assertEquals(ResponseStatus.UPDATED, update.getResponseStatus());
+            // called for the update and for the concurrent update, the update was not retried
+            assertEquals(Arrays.<Object>asList("value1", "value1"), hook.seenValues);
+
+            Record readRecord = table.read(record.getId());
+            assertEquals("value2", readRecord.getField(fieldType1.getName()));
+            assertEquals("valueB2", readRecord.getField(otherField));
+
+            // The hook depends on field1: a concurrent update of field1 makes that the update is calculated again
+            hook = new ConcurrentUpdateHook(table, fieldType1.getName(), fieldType1.getName(), "value3");
+            ((HBaseRepository)table).setRecordUpdateHooks(Collections.<RecordUpdateHook>singletonList(hook));
+            update = table.newRecord(record.getId());
+            update.setField(otherField, "valueB3");
+            update = table.update(update);
+            assertEquals(ResponseStatus.UPDATED, update.getResponseStatus());
+            assertEquals(Arrays.<Object>asList("value2", "value2", "value3"), hook.seenValues);
+
+            readRecord = table.read(record.getId());
+            assertEquals("value3", readRecord.getField(fieldType1.getName()));
+            assertEquals("valueB3", readRecord.getField(otherField));
+        } finally {
+            ((HBaseRepository)table).setRecordUpdateHooks(null);
+        }
+    }
+
+    /**
+     * Update hook which depends on one field, and which the first time it is called updates a field of the record
+     * as if it was done concurrently.
+     */
+    private static class ConcurrentUpdateHook implements FieldDependentRecordUpdateHook {
+        private final LTable table;
+        private final QName dependency;
+        private final QName concurrentField;
+        private final Object concurrentValue;
+        private final List<Object> seenValues = new ArrayList<Object>();
+        private boolean concurrentUpdateDone;
+
+        ConcurrentUpdateHook(LTable table, QName dependency, QName concurrentField, Object concurrentValue) {
+            this.table = table;
+            this.dependency = dependency;
+            this.concurrentField = concurrentField;
+            this.concurrentValue = concurrentValue;
+        }
+
+        @Override
+        public Set<QName> getFieldDependencies() {
+            return Collections.singleton(dependency);
+        }
+
+        @Override
+        public void beforeUpdate(Record record, Record originalRecord, Repository repository, FieldTypes fieldTypes,
+                RecordEvent recordEvent) throws RepositoryException, InterruptedException {
+            seenValues.add(originalRecord.getField(dependency));
+            if (!concurrentUpdateDone) {
+                concurrentUpdateDone = true;
+                Record concurrentUpdate = table.newRecord(record.getId());
+                concurrentUpdate.setField(concurrentField, concurrentValue);
+                table.update(concurrentUpdate);
+            }
+        }
+
+        @Override
+        public void beforeCreate(Record newRecord, Repository repository, FieldTypes fieldTypes,
+                RecordEvent recordEvent) {
+        }
+
+        @Override
+        public void beforeDelete(Record originalRecord, Repository repository, FieldTypes fieldTypes,
+                RecordEvent recordEvent) {
+        }
+    }
+
+    @Test
+    public void testIncrementViaMutationEndpoint() throws Exception {
+        final LTable table = createTableWithMutationEndpoint("incrementendpoint");
+        final QName counterName = new QName("/test/repository", "endpointCounter");
+        typeManager.createFieldType(typeManager.getValueType("LONG"), counterName, Scope.NON_VERSIONED);
+
+        Record record = table.recordBuilder()
+                .recordType(recordType1.getName())
+                .field(fieldType1.getName(), "value1")
+                .create();
+
+        assertEquals(5L, table.increment(record.getId(), counterName, 5L));
+        assertEquals(3L, table.increment(record.getId(), counterName, -2L));
+
+        // Concurrent increments don't conflict with each other
+        final RecordId recordId = record.getId();
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            for (int i = 0; i < 50; i++) {
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return table.increment(recordId, counterName, 1L);
+                    }
+                }));
+            }
+            for (Future<Long> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Record readRecord = table.read(record.getId());
+        assertEquals(Long.valueOf(53), readRecord.getField(counterName));
+        assertEquals("value1", readRecord.getField(fieldType1.getName()));
+        // non-versioned fields only, so no versions are created
+        assertNull(readRecord.getVersion());
+
+        table.delete(record.getId());
+        try {
+            table.increment(record.getId(), counterName, 1L);
+            fail("Expected RecordNotFoundException");
+        } catch (RecordNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        byte[][] splitKeys = new byte[][] {Bytes.toBytes("c"), Bytes.toBytes("f"), Bytes.toBytes("i")};
+        repoSetup.getTableManager().createTable(new TableCreateDescriptor("parallelscan", splitKeys));
+        LTable table = repoSetup.getRepositoryManager().getDefaultRepository().getTable("parallelscan");
+
+        for (char c = 'a'; c <= 'k'; c++) {
+            for (int i = 0; i < 10; i++) {
+                table.recordBuilder()
+                        .id(String.valueOf(c) + i)
+                        .recordType(recordType1.getName())
+                        .field(fieldType1.getName(), "value" + i)
+                        .create();
+            }
+        }
+
+        RecordScan scan = new RecordScan();
+        List<RecordId> expected = scanIds(table, scan);
+        assertEquals(110, expected.size());
+
+        scan.setParallelism(3);
+        assertEquals(expected, scanIds(table, scan));
+
+        // small queues, so that the scans of the later regions are suspended and resumed
+        scan.setCaching(2);
+        assertEquals(expected, scanIds(table, scan));
+        scan.setCaching(-1);
+
+        scan.setOrdered(false);
+        List<RecordId> unordered = scanIds(table, scan);
+        assertEquals(expected.size(), unordered.size());
+        assertEquals(new HashSet<RecordId>(expected), new HashSet<RecordId>(unordered));
+
+        // range crossing region boundaries
+        scan = new RecordScan();
+        scan.setStartRecordId(idGenerator.newRecordId("b5"));
+        scan.setStopRecordId(idGenerator.newRecordId("g5"));
+        expected = scanIds(table, scan);
+        assertEquals(50, expected.size());
+        scan.setParallelism(10);
+        assertEquals(expected, scanIds(table, scan));
+    }
+
+    @Test
+    public void testRecordTypeIndexScan() throws Exception {
+        RecordType rtA = typeManager.recordTypeBuilder()
+                .name("RecordTypeIndex", "rtA")
+                .fieldEntry().use(fieldType1).add()
+                .create();
+
+        RecordType rtB = typeManager.recordTypeBuilder()
+                .name("RecordTypeIndex", "rtB")
+                .fieldEntry().use(fieldType1).add()
+                .supertype().use(rtA).add()
+                .create();
+
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        repoSetup.getTableManager().createTable("rtindex");
+        LTable table;
+        repositoryManager.setRecordTypeIndexEnabled(true);
+        try {
+            table = repositoryManager.getDefaultRepository().getTable("rtindex");
+        } finally {
+            repositoryManager.setRecordTypeIndexEnabled(false);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            table.recordBuilder().id("a" + i).recordType(rtA.getName()).field(fieldType1.getName(), "value").create();
+            table.recordBuilder().id("b" + i).recordType(rtB.getName()).field(fieldType1.getName(), "value").create();
+        }
+
+        // change the record type of a record, and delete a record
+        table.recordBuilder().id("a0").recordType(rtB.getName()).field(fieldType1.getName(), "changed").update();
+        table.delete(idGenerator.newRecordId("b1"));
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new RecordTypeFilter(rtA.getName()));
+        assertEquals(4, checkRecordTypeIndexScan(table, scan).size());
+
+        scan.setRecordFilter(new RecordTypeFilter(rtB.getName()));
+        assertEquals(5, checkRecordTypeIndexScan(table, scan).size());
+
+        scan.setRecordFilter(new RecordTypeFilter(rtA.getName(), RecordTypeFilter.Operator.INSTANCE_OF));
+        assertEquals(9, checkRecordTypeIndexScan(table, scan).size());
+
+        // the entries of the old record type and of the deleted record have been removed
+        RecordTypeIndex index = new RecordTypeIndex(new IndexManager(repoSetup.getHadoopConf()),
+                RepoAndTableUtil.DEFAULT_REPOSITORY, "rtindex");
+        assertEquals(4, countIndexEntries(index, rtA.getId()));
+        assertEquals(5, countIndexEntries(index, rtB.getId()));
+
+        // re-create the deleted record, and change back the record type
+        table.recordBuilder().id("b1").recordType(rtB.getName()).field(fieldType1.getName(), "value").create();
+        table.recordBuilder().id("a0").recordType(rtA.getName()).field(fieldType1.getName(), "value").update();
+        assertEquals(5, countIndexEntries(index, rtA.getId()));
+        assertEquals(5, countIndexEntries(index, rtB.getId()));
+    }
+
+    private int countIndexEntries(RecordTypeIndex index, SchemaId recordTypeId) throws Exception {
+        QueryResult result = index.getRecords(recordTypeId);
+        try {
+            int count = 0;
+            while (result.next() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            Closer.close(result);
+        }
+    }
+
+    @Test
+    public void testGetVariants() throws Exception {
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        repoSetup.getTableManager().createTable("variantindex");
+        LTable indexedTable;
+        repositoryManager.setVariantIndexEnabled(true);
+        try {
+            indexedTable = repositoryManager.getDefaultRepository().getTable("variantindex");
+        } finally {
+            repositoryManager.setVariantIndexEnabled(false);
+        }
+
+        for (LTable table : new LTable[] {repository, indexedTable}) {
+            RecordId master = idGenerator.newRecordId("variants1");
+            RecordId variant1 = idGenerator.newRecordId(master, Collections.singletonMap("lang", "en"));
+            RecordId variant2 = idGenerator.newRecordId(master, Collections.singletonMap("lang", "fr"));
+            // other master records of which the id starts with the same characters
+            RecordId other = idGenerator.newRecordId("variants10");
+            RecordId otherVariant = idGenerator.newRecordId(other, Collections.singletonMap("lang", "en"));
+
+            for (RecordId id : new RecordId[] {master, variant1, variant2, other, otherVariant}) {
+                table.recordBuilder().id(id).recordType(recordType1.getName())
+                        .field(fieldType1.getName(), "value").create();
+            }
+
+            assertEquals(new HashSet<RecordId>(Arrays.asList(master, variant1, variant2)),
+                    table.getVariants(variant1));
+
+            table.delete(variant2);
+            assertEquals(new HashSet<RecordId>(Arrays.asList(master, variant1)), table.getVariants(master));
+
+            assertEquals(new HashSet<RecordId>(Arrays.asList(other, otherVariant)), table.getVariants(other));
+        }
+    }
+
+    @Test
+    public void testUpdateAllDuplicateRecord() throws Exception {
+        RecordId recordId = repository.recordBuilder()
+                .recordType(recordType1.getName())
+                .field(fieldType1.getName(), "original")
+                .create().getId();
+
+        Record update1 = repository.newRecord(recordId);
+        update1.setField(fieldType1.getName(), "update1");
+        Record update2 = repository.newRecord(recordId);
+        update2.setField(fieldType1.getName(), "update2");
+
+        List<MutationResult> results = repository.updateAll(Arrays.asList(update1, update2), true);
+        assertEquals(2, results.size());
+        assertEquals(ResponseStatus.UPDATED, results.get(0).get().getResponseStatus());
+        assertTrue(results.get(1).getException() instanceof InvalidRecordException);
+        assertEquals("update1", repository.read(recordId).getField(fieldType1.getName()));
+    }
+
+    @Test
+    public void testFieldCompression() throws Exception {
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        repoSetup.getTableManager().createTable("compression");
+        LTable table = repositoryManager.getDefaultRepository().getTable("compression");
+
+        StringBuilder largeValue = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            largeValue.append("<p>Some repetitive text</p>");
+        }
+
+        repositoryManager.setFieldCompressionConfig(RepoAndTableUtil.DEFAULT_REPOSITORY,
+                new FieldCompressionConfig(Collections.singleton(fieldType1.getName()), 100));
+        try {
+            table.recordBuilder().id("large").recordType(recordType1.getName())
+                    .field(fieldType1.getName(), largeValue.toString())
+                    .metadata(fieldType1.getName(), new MetadataBuilder().value("format", "html").build())
+                    .create();
+            table.recordBuilder().id("small").recordType(recordType1.getName())
+                    .field(fieldType1.getName(), "small value")
+                    .create();
+        } finally {
+            repositoryManager.setFieldCompressionConfig(RepoAndTableUtil.DEFAULT_REPOSITORY, null);
+        }
+
+        // check the stored values
+        HTable htable = new HTable(repoSetup.getHadoopConf(),
+                RepoAndTableUtil.getHBaseTableName(RepoAndTableUtil.DEFAULT_REPOSITORY, "compression"));
+        try {
+            byte[] qualifier = ((FieldTypeImpl)fieldType1).getQualifier();
+            byte[] largeCell = htable.get(new Get(idGenerator.newRecordId("large").toBytes()))
+                    .getValue(RecordCf.DATA.bytes, qualifier);
+            assertTrue(FieldFlags.isCompressed(largeCell[0]));
+            assertTrue(largeCell.length < largeValue.length());
+            byte[] smallCell = htable.get(new Get(idGenerator.newRecordId("small").toBytes()))
+                    .getValue(RecordCf.DATA.bytes, qualifier);
+            assertFalse(FieldFlags.isCompressed(smallCell[0]));
+        } finally {
+            Closer.close(htable);
+        }
+
+        Record record = table.read(idGenerator.newRecordId("large"));
+        assertEquals(largeValue.toString(), record.getField(fieldType1.getName()));
+        assertEquals("html", record.getMetadata(fieldType1.getName()).get("format"));
+        assertEquals("small value", table.read(idGenerator.newRecordId("small")).getField(fieldType1.getName()));
+
+        // field value filters compare the decompressed value
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(fieldType1.getName(), largeValue.toString()));
+        assertEquals(Collections.singletonList(idGenerator.newRecordId("large")), scanIds(table, scan));
+    }
+
+    @Test
+    public void testVersionPruning() throws Exception {
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        repoSetup.getTableManager().createTable("pruning");
+        LTable table = repositoryManager.getDefaultRepository().getTable("pruning");
+
+        QName titleName = new QName("/test/repository", "pruningTitle");
+        QName countName = new QName("/test/repository", "pruningCount");
+        FieldType titleType = typeManager.createFieldType(typeManager.getValueType("STRING"), titleName,
+                Scope.VERSIONED);
+        FieldType countType = typeManager.createFieldType(typeManager.getValueType("INTEGER"), countName,
+                Scope.VERSIONED);
+        QName recordTypeName = new QName("/test/repository", "PruningRT");
+        typeManager.recordTypeBuilder().name(recordTypeName)
+                .field(fieldType1.getId(), false)
+                .field(titleType.getId(), false)
+                .field(countType.getId(), false)
+                .create();
+
+        RecordId recordId = idGenerator.newRecordId("pruned");
+        table.recordBuilder().id(recordId).recordType(recordTypeName)
+                .field(fieldType1.getName(), "value1")
+                .field(titleName, "title1")
+                .field(countName, 1)
+                .create();
+        table.recordBuilder().id(recordId).field(countName, 2).update();
+        table.recordBuilder().id(recordId).field(titleName, "title3").update();
+        table.recordBuilder().id(recordId).field(countName, 4).update();
+
+        Map<QName, Integer> recordTypeMaxVersions = new HashMap<QName, Integer>();
+        recordTypeMaxVersions.put(recordTypeName, 2);
+        VersionPruner pruner = new VersionPruner((BaseRepository)table,
+                new VersionRetentionPolicy(VersionRetentionPolicy.KEEP_ALL, recordTypeMaxVersions));
+        assertEquals(2, pruner.prune(recordId));
+
+        // The pruning produced a record event which makes the Lily servers invalidate their cached record, but
+        // which the indexes skip
+        HTable htable = new HTable(repoSetup.getHadoopConf(),
+                RepoAndTableUtil.getHBaseTableName(RepoAndTableUtil.DEFAULT_REPOSITORY, "pruning"));
+        try {
+            byte[] payload = htable.get(new Get(recordId.toBytes()))
+                    .getValue(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes);
+            RecordEvent recordEvent = new RecordEvent(payload, idGenerator);
+            assertEquals(RecordEvent.Type.UPDATE, recordEvent.getType());
+            assertTrue(recordEvent.getUpdatedFields().isEmpty());
+            assertFalse(recordEvent.getIndexRecordFilterData().appliesToSubscription("anyIndex"));
+        } finally {
+            Closer.close(htable);
+        }
+
+        // nothing left to prune
+        assertEquals(0, pruner.prune(recordId));
+
+        for (long version = 1; version <= 2; version++) {
+            try {
+                table.read(recordId, version);
+                fail("Expected a VersionNotFoundException for version " + version);
+            } catch (VersionNotFoundException e) {
+                // expected
+            }
+        }
+
+        // version 3 did not change the count, its value is kept
+        Record record = table.read(recordId, 3L);
+        assertEquals("value1", record.getField(fieldType1.getName()));
+        assertEquals("title3", record.getField(titleName));
+        assertEquals(2, record.getField(countName));
+        assertEquals(recordTypeName, record.getRecordTypeName(Scope.VERSIONED));
+
+        record = table.read(recordId);
+        assertEquals(Long.valueOf(4), record.getVersion());
+        assertEquals("title3", record.getField(titleName));
+        assertEquals(4, record.getField(countName));
+
+        List<Record> versions = table.readVersions(recordId, 1L, 4L);
+        assertEquals(2, versions.size());
+        assertEquals(Long.valueOf(3), versions.get(0).getVersion());
+        assertEquals(2, versions.get(0).getField(countName));
+
+        versions = table.readVersions(recordId, Arrays.asList(2L, 3L));
+        assertEquals(1, versions.size());
+        assertEquals(Long.valueOf(3), versions.get(0).getVersion());
+
+        List<Long> scannedVersions = new ArrayList<Long>();
+        RecordScanner scanner = table.getVersionScanner(recordId, 1L, 4L);
+        try {
+            Record version;
+            while ((version = scanner.next()) != null) {
+                scannedVersions.add(version.getVersion());
+            }
+        } finally {
+            scanner.close();
+        }
+        assertEquals(Arrays.asList(3L, 4L), scannedVersions);
+
+        // new versions can still be created
+        table.recordBuilder().id(recordId).field(countName, 5).update();
+        assertEquals(1, pruner.prune(recordId));
+        assertEquals(4, table.read(recordId, 4L).getField(countName));
+
+        // records of other record types keep all versions
+        RecordId otherRecordId = idGenerator.newRecordId("notpruned");
+        table.recordBuilder().id(otherRecordId).recordType(recordType1.getName())
+                .field(fieldType2.getName(), 1)
+                .create();
+        table.recordBuilder().id(otherRecordId).field(fieldType2.getName(), 2).update();
+        table.recordBuilder().id(otherRecordId).field(fieldType2.getName(), 3).update();
+        assertEquals(0, pruner.prune(otherRecordId));
+        assertEquals(1, table.read(otherRecordId, 1L).getField(fieldType2.getName()));
+    }
+
+    /**
+     * Checks that the given scan returns the same records with and without the record type index.
+     */
+    private List<RecordId> checkRecordTypeIndexScan(LTable table, RecordScan scan) throws Exception {
+        scan.setUseRecordTypeIndex(false);
+        List<RecordId> expected = scanIds(table, scan);
+
+        scan.setUseRecordTypeIndex(true);
+        List<RecordId> actual = scanIds(table, scan);
+
+        // records come in id order per record type, and should not be returned twice
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new HashSet<RecordId>(expected), new HashSet<RecordId>(actual));
+        return actual;
+    }
+
+    private List<RecordId> scanIds(LTable table, RecordScan scan) throws Exception {
+        List<RecordId> ids = new ArrayList<RecordId>();
+        RecordScanner scanner = table.getScanner(scan);
+        try {
+            Record record;
+            while ((record = scanner.next()) != null) {
+                ids.add(record.getId());
+            }
+        } finally {
+            scanner.close();
+        }
+        return ids;
+    }
+
+    private LTable createTableWithMutationEndpoint(String tableName) throws Exception {
+        repoSetup.getTableManager().createTable(tableName);
+        byte[] hbaseTableName = Bytes.toBytes(
+                RepoAndTableUtil.getHBaseTableName(RepoAndTableUtil.DEFAULT_REPOSITORY, tableName));
+        HBaseAdmin admin = new HBaseAdmin(repoSetup.getHadoopConf());
+        try {
+            HTableDescriptor descriptor = admin.getTableDescriptor(hbaseTableName);
+            descriptor.addCoprocessor(RecordMutationEndpoint.class.getName());
+            admin.disableTable(hbaseTableName);
+            admin.modifyTable(hbaseTableName, descriptor);
+            admin.enableTable(hbaseTableName);
+        } finally {
+            Closer.close(admin);
+        }
+
+        return repoSetup.getRepositoryManager().getDefaultRepository().getTable(tableName);
+    }
 }
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +44,9 @@ import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.AbstractSchemaCache;
+import org.lilyproject.repository.impl.HBaseTypeManager;
+import org.lilyproject.repository.impl.SchemaCacheSnapshot;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
 
@@ -276,6 +280,45 @@ public class SchemaCacheTest {
         Assert.assertNull(typeManager.getRecordTypeByName(rtName, null).getFieldTypeEntry(fieldType.getId()));
     }
 
+    @Test
+    public void testSnapshot() throws Exception {
+        String namespace = "testSnapshot";
+        File snapshotFile = File.createTempFile("schemacache", ".bin");
+        snapshotFile.delete();
+        try {
+            TypeManager typeManager = repoSetup.getTypeManager();
+            TypeManager typeManager2 = newTypeManager(snapshotFile);
+
+            RecordType recordType1 = typeManager.recordTypeBuilder().defaultNamespace(namespace).name("recordType1")
+                    .fieldEntry().defineField().name("type1").create().add().create();
+            Assert.assertEquals(recordType1, waitForRecordType(5000, new QName(namespace, "recordType1"), typeManager2));
+            typeManager2.close();
+
+            // The snapshot is written after the refresh which made the record type visible
+            SchemaCacheSnapshot snapshot = SchemaCacheSnapshot.read(snapshotFile, typeManager);
+            Assert.assertNotNull(snapshot);
+            Assert.assertTrue(snapshot.getRecordTypes().contains(recordType1));
+
+            // Changes made while the type manager is down are read when it starts again
+            RecordType recordType2 = typeManager.recordTypeBuilder().defaultNamespace(namespace).name("recordType2")
+                    .fieldEntry().defineField().name("type2").create().add().create();
+
+            TypeManager typeManager3 = newTypeManager(snapshotFile);
+            typeManagersToClose.add(typeManager3);
+            Assert.assertEquals(recordType1, typeManager3.getRecordTypeByName(new QName(namespace, "recordType1"), null));
+            Assert.assertEquals(recordType2, typeManager3.getRecordTypeByName(new QName(namespace, "recordType2"), null));
+            Assert.assertEquals(typeManager.getFieldTypeByName(new QName(namespace, "type2")),
+                    typeManager3.getFieldTypeByName(new QName(namespace, "type2")));
+        } finally {
+            snapshotFile.delete();
+        }
+    }
+
+    private TypeManager newTypeManager(File snapshotFile) throws Exception {
+        return new HBaseTypeManager(new IdGeneratorImpl(), repoSetup.getHadoopConf(), repoSetup.getZk(),
+                repoSetup.getHbaseTableFactory(), snapshotFile);
+    }
+
     private RecordType waitForRecordType(long timeout, QName name, TypeManager typeManager2)
             throws RepositoryException, InterruptedException {
         long before = System.currentTimeMillis();
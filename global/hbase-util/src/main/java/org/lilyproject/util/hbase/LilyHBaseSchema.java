@@ -155,6 +155,8 @@ public class LilyHBaseSchema {
         VERSIONED_RT_VERSION("v-rtv"),
         VERSIONED_MUTABLE_RT_ID("vm-rt"),
         VERSIONED_MUTABLE_RT_VERSION("vm-rtv"),
+        /** the oldest version which has not been pruned, absent if no versions have been pruned */
+        OLDEST_VERSION("oldest-version"),
         /** payload for the event dispatcher */
         PAYLOAD("pl");
 
@@ -17,7 +17,9 @@ package org.lilyproject.util.hbase;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -34,10 +36,13 @@ import java.util.concurrent.TimeoutException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Append;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
@@ -205,6 +210,40 @@ public class LocalHTable implements HTableInterface {
         }
     }
 
+    /**
+     * Returns for each of the given rows the region server (as host:port) currently serving it. This uses the
+     * region locations cached by the HBase connection, so usually doesn't need to contact any server.
+     */
+    public List<String> getRegionServers(final List<byte[]> rows) throws IOException {
+        return HConnectionManager.execute(new HConnectionManager.HConnectable<List<String>>(conf) {
+            @Override
+            public List<String> connect(HConnection connection) throws IOException {
+                List<String> servers = new ArrayList<String>(rows.size());
+                for (byte[] row : rows) {
+                    servers.add(connection.getRegionLocation(tableName, row, false).getHostnamePort());
+                }
+                return servers;
+            }
+        });
+    }
+
+    /**
+     * Returns the start keys of the regions of the table, sorted. The first region has an empty start key.
+     */
+    public List<byte[]> getRegionStartKeys() throws IOException {
+        return HConnectionManager.execute(new HConnectionManager.HConnectable<List<byte[]>>(conf) {
+            @Override
+            public List<byte[]> connect(HConnection connection) throws IOException {
+                List<byte[]> startKeys = new ArrayList<byte[]>();
+                for (HRegionLocation location : connection.locateRegions(tableName)) {
+                    startKeys.add(location.getRegionInfo().getStartKey());
+                }
+                Collections.sort(startKeys, Bytes.BYTES_COMPARATOR);
+                return startKeys;
+            }
+        });
+    }
+
     @Override
     public byte[] getTableName() {
         return runNoExc(new TableRunnable<byte[]>() {
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.benchmark;
+
+/**
+ * The string encoding and decoding of {@link org.lilyproject.bytes.impl.DataOutputImpl} and
+ * {@link org.lilyproject.bytes.impl.DataInputImpl} as they were before the ASCII fast path was added, kept as a
+ * baseline for {@link Utf8CodecBenchmark}. Like those classes, this code is based on Lucene's UnicodeUtil.
+ */
+final class LegacyUtf8Codec {
+    private static final long UNI_MAX_BMP = 0x0000FFFF;
+    private static final long HALF_SHIFT = 10;
+    private static final long HALF_MASK = 0x3FFL;
+    private static final int UNI_SUR_HIGH_START = 0xD800;
+    private static final int UNI_SUR_LOW_START = 0xDC00;
+    private static final int SURROGATE_OFFSET =
+            Character.MIN_SUPPLEMENTARY_CODE_POINT - (UNI_SUR_HIGH_START << HALF_SHIFT) - UNI_SUR_LOW_START;
+
+    private LegacyUtf8Codec() {
+    }
+
+    /**
+     * Encodes the string without length in the buffer, which should be large enough.
+     *
+     * @return the position after the encoded string
+     */
+    static int write(String string, byte[] buffer, int pos) {
+        int strlen = string.length();
+        int utflen = 0;
+
+        // First calculate the utflen (which the original code used for the length prefix and to size the buffer)
+        int i = 0;
+        while (i < strlen) {
+            final int code = string.charAt(i++);
+            if (code < 0x80) {
+                utflen++;
+            } else if (code < 0x800) {
+                utflen += 2;
+            } else if (code < 0xD800 || code > 0xDFFF) {
+                utflen += 3;
+            } else {
+                if (code < 0xDC00 && i < strlen) {
+                    int utf32 = string.charAt(i);
+                    if (utf32 >= 0xDC00 && utf32 <= 0xDFFF) {
+                        utflen += 4;
+                        i++;
+                        continue;
+                    }
+                }
+                utflen += 3;
+            }
+        }
+        if (pos + utflen > buffer.length) {
+            throw new IllegalArgumentException("Buffer too small");
+        }
+
+        int ch;
+        for (i = 0; i < strlen; i++) {
+            ch = string.charAt(i);
+            if (!(ch < 0x80)) {
+                break;
+            }
+            buffer[pos++] = (byte)ch;
+        }
+
+        while (i < strlen) {
+            ch = (int)string.charAt(i++);
+
+            if (ch < 0x80) {
+                buffer[pos++] = (byte)ch;
+            } else if (ch < 0x800) {
+                buffer[pos++] = (byte)(0xC0 | (ch >> 6));
+                buffer[pos++] = (byte)(0x80 | (ch & 0x3F));
+            } else if (ch < 0xD800 || ch > 0xDFFF) {
+                buffer[pos++] = (byte)(0xE0 | (ch >> 12));
+                buffer[pos++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
+                buffer[pos++] = (byte)(0x80 | (ch & 0x3F));
+            } else {
+                if (ch < 0xDC00 && i < strlen) {
+                    int utf32 = string.charAt(i);
+                    if (utf32 >= 0xDC00 && utf32 <= 0xDFFF) {
+                        utf32 = (ch << 10) + utf32 + SURROGATE_OFFSET;
+                        i++;
+                        buffer[pos++] = (byte)(0xF0 | (utf32 >> 18));
+                        buffer[pos++] = (byte)(0x80 | ((utf32 >> 12) & 0x3F));
+                        buffer[pos++] = (byte)(0x80 | ((utf32 >> 6) & 0x3F));
+                        buffer[pos++] = (byte)(0x80 | (utf32 & 0x3F));
+                        continue;
+                    }
+                }
+                buffer[pos++] = (byte)0xEF;
+                buffer[pos++] = (byte)0xBF;
+                buffer[pos++] = (byte)0xBD;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes <code>utflen</code> bytes starting at <code>pos</code>.
+     *
+     * @param chararr buffer for the decoded characters, at least <code>utflen</code> long
+     */
+    static String read(byte[] source, int pos, int utflen, char[] chararr) {
+        int count = pos;
+        int endPos = pos + utflen;
+        int chararrCount = 0;
+        int b;
+        int ch;
+
+        while (count < endPos) {
+            b = source[count] & 0xff;
+            if (!(b < 0xc0)) {
+                break;
+            }
+            count++;
+            chararrCount = putChar(chararr, chararrCount, b);
+        }
+
+        while (count < endPos) {
+            b = source[count++] & 0xff;
+            if (b < 0xc0) {
+                ch = b;
+            } else if (b < 0xe0) {
+                ch = ((b & 0x1f) << 6) + (source[count++] & 0x3f);
+            } else if (b < 0xf0) {
+                ch = ((b & 0xf) << 12) + ((source[count++] & 0x3f) << 6) + (source[count++] & 0x3f);
+            } else {
+                ch = ((b & 0x7) << 18) + ((source[count++] & 0x3f) << 12) + ((source[count++] & 0x3f) << 6) +
+                        (source[count++] & 0x3f);
+            }
+            chararrCount = putChar(chararr, chararrCount, ch);
+        }
+        return new String(chararr, 0, chararrCount);
+    }
+
+    private static int putChar(char[] chararr, int chararrCount, int ch) {
+        if (ch <= UNI_MAX_BMP) {
+            chararr[chararrCount++] = (char)ch;
+        } else {
+            chararr[chararrCount++] = (char)((ch >> HALF_SHIFT) + 0xD7C0 /* UNI_SUR_HIGH_START - 64 */);
+            chararr[chararrCount++] = (char)((ch & HALF_MASK) + UNI_SUR_LOW_START);
+        }
+        return chararrCount;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the string encoding and decoding of {@link DataOutputImpl} and {@link DataInputImpl} with the
+ * {@link LegacyUtf8Codec}, for several string lengths and character mixes.
+ *
+ * <p>Run with <code>java -jar target/benchmarks.jar Utf8CodecBenchmark</code>.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Utf8CodecBenchmark {
+    /**
+     * The number of characters of the string.
+     */
+    @Param({"8", "32", "256", "4096"})
+    public int length;
+
+    /**
+     * ascii: only ASCII characters, as in most QNames and record ids.
+     * ascii_accent: ASCII with a single accented character at the end.
+     * latin: mostly ASCII with some accented characters.
+     * cyrillic: only 2-byte characters.
+     * cjk: only 3-byte characters.
+     */
+    @Param({"ascii", "ascii_accent", "latin", "cyrillic", "cjk"})
+    public String mix;
+
+    private String string;
+    private byte[] encoded;
+    private int utflen;
+    private byte[] legacyBuffer;
+    private char[] legacyChars;
+    private DataOutputImpl output;
+    private DataInputImpl input;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(length * 31 + mix.hashCode());
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(nextChar(random, i));
+        }
+        string = builder.toString();
+
+        DataOutputImpl encoder = new DataOutputImpl();
+        encoder.writeUTF(string, false);
+        encoded = encoder.toByteArray();
+        utflen = encoded.length;
+
+        legacyBuffer = new byte[utflen];
+        legacyChars = new char[utflen * 2];
+        output = new DataOutputImpl(utflen + 5);
+        input = new DataInputImpl(encoded);
+    }
+
+    private char nextChar(Random random, int index) {
+        if ("ascii".equals(mix)) {
+            return (char)('a' + random.nextInt(26));
+        } else if ("ascii_accent".equals(mix)) {
+            return index == length - 1 ? 'é' : (char)('a' + random.nextInt(26));
+        } else if ("latin".equals(mix)) {
+            return random.nextInt(10) == 0 ? (char)(0xe0 + random.nextInt(32)) : (char)('a' + random.nextInt(26));
+        } else if ("cyrillic".equals(mix)) {
+            return (char)(0x430 + random.nextInt(32));
+        } else if ("cjk".equals(mix)) {
+            return (char)(0x4e00 + random.nextInt(0x5000));
+        }
+        throw new IllegalArgumentException("Unknown character mix: " + mix);
+    }
+
+    @Benchmark
+    public int writeCurrent() {
+        output.reset();
+        output.writeUTF(string, false);
+        return output.getSize();
+    }
+
+    @Benchmark
+    public int writeLegacy() {
+        return LegacyUtf8Codec.write(string, legacyBuffer, 0);
+    }
+
+    @Benchmark
+    public String readCurrent() {
+        input.setPosition(0);
+        return input.readUTF(utflen);
+    }
+
+    @Benchmark
+    public String readLegacy() {
+        return LegacyUtf8Codec.read(encoded, 0, utflen, legacyChars);
+    }
+}
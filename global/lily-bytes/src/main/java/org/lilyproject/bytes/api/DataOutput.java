@@ -15,6 +15,8 @@
  */
 package org.lilyproject.bytes.api;
 
+import java.nio.ByteBuffer;
+
 /**
  * The <code>DataOutput</code> converts primitive types to bytes
  * and writes them to an underlying byte array.
@@ -33,10 +35,18 @@ package org.lilyproject.bytes.api;
 public interface DataOutput {
 
     /**
-     * Returns the underlying byte[]
+     * Returns a copy of the bytes written to the <code>DataOutput</code>
      */
     byte[] toByteArray();
 
+    /**
+     * Returns the bytes written to the <code>DataOutput</code> without copying them.
+     *
+     * <p>The returned buffer shares its content with the <code>DataOutput</code>: it is positioned at the first
+     * written byte, its limit is the number of written bytes, and it is only valid until the next write.
+     */
+    ByteBuffer toByteBuffer();
+
     /**
      * Writes a byte to the <code>DataOutput</code>
      */
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.lilyproject.bytes.api.DataInput;
+
+/**
+ * Implementation of {@link DataInput} which reads from a {@link ByteBuffer}, either on the heap or direct, without
+ * copying its content.
+ *
+ * <p>The data should have been written by {@link DataOutputImpl} or {@link ByteBufferDataOutput}. As for
+ * {@link DataInputImpl}, positions are indexes in the underlying buffer. The position, limit and mark of the given
+ * buffer are not changed.</p>
+ *
+ * <p>For a heap buffer, {@link #create(ByteBuffer)} returns a {@link DataInputImpl} on the backing array, which
+ * is faster than going through the buffer.</p>
+ */
+public class ByteBufferDataInput implements DataInput {
+    private static final long UNI_MAX_BMP = 0x0000FFFF;
+    private static final long HALF_SHIFT = 10;
+    private static final long HALF_MASK = 0x3FFL;
+
+    private final ByteBuffer source;
+    private final int startPosition;
+    private int pos;
+    private int size;
+
+    // Reused for each string read, resized when needed
+    private char[] chararr = new char[80];
+
+    /**
+     * Reads the bytes between the position and the limit of the given buffer.
+     */
+    public ByteBufferDataInput(ByteBuffer source) {
+        // The encodings are big-endian, whatever the byte order of the given buffer
+        this.source = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.startPosition = source.position();
+        this.pos = startPosition;
+        this.size = source.remaining();
+    }
+
+    /**
+     * Returns a {@link DataInput} which reads the bytes between the position and the limit of the given buffer,
+     * without copying them.
+     */
+    public static DataInput create(ByteBuffer source) {
+        if (source.hasArray()) {
+            return new DataInputImpl(source.array(), source.arrayOffset() + source.position(), source.remaining());
+        }
+        return new ByteBufferDataInput(source);
+    }
+
+    /**
+     * Returns the next <code>length</code> bytes as a buffer which shares its content with the source buffer,
+     * rather than copying them as done by {@link #readBytes(int)}.
+     */
+    public ByteBuffer readByteBuffer(int length) {
+        ByteBuffer result = source.duplicate();
+        result.limit(pos + length);
+        result.position(pos);
+        pos += length;
+        return result.slice();
+    }
+
+    @Override
+    public byte[] readBytes(int length) {
+        byte[] result = new byte[length];
+        readByteBuffer(length).get(result);
+        return result;
+    }
+
+    @Override
+    public byte readByte() {
+        return source.get(pos++);
+    }
+
+    @Override
+    public int readInt() {
+        int result = source.getInt(pos);
+        pos += 4;
+        return result;
+    }
+
+    @Override
+    public long readLong() {
+        long result = source.getLong(pos);
+        pos += 8;
+        return result;
+    }
+
+    @Override
+    public String readUTF() {
+        return readUTF(readInt());
+    }
+
+    @Override
+    public String readVUTF() {
+        return readUTF(readVInt());
+    }
+
+    /**
+     * Decodes (unmodified) UTF-8, in the same way as {@link DataInputImpl#readUTF(int)}.
+     */
+    @Override
+    public String readUTF(int utflen) {
+        if (utflen == -1) {
+            return null;
+        }
+        if (utflen == 0) {
+            return "";
+        }
+        if (chararr.length < utflen) {
+            chararr = new char[utflen * 2];
+        }
+
+        int count = pos;
+        int endPos = pos + utflen;
+        int chararrCount = 0;
+        while (count < endPos) {
+            int b = source.get(count++) & 0xff;
+            int ch;
+            if (b < 0xc0) {
+                ch = b;
+            } else if (b < 0xe0) {
+                ch = ((b & 0x1f) << 6) + (source.get(count++) & 0x3f);
+            } else if (b < 0xf0) {
+                ch = ((b & 0xf) << 12) + ((source.get(count++) & 0x3f) << 6) + (source.get(count++) & 0x3f);
+            } else {
+                ch = ((b & 0x7) << 18) + ((source.get(count++) & 0x3f) << 12) + ((source.get(count++) & 0x3f) << 6)
+                        + (source.get(count++) & 0x3f);
+            }
+
+            if (ch <= UNI_MAX_BMP) {
+                chararr[chararrCount++] = (char)ch;
+            } else {
+                chararr[chararrCount++] = (char)((ch >> HALF_SHIFT) + 0xD7C0 /* UNI_SUR_HIGH_START - 64 */);
+                chararr[chararrCount++] = (char)((ch & HALF_MASK) + DataInputImpl.UNI_SUR_LOW_START);
+            }
+        }
+        pos = endPos;
+        return new String(chararr, 0, chararrCount);
+    }
+
+    @Override
+    public boolean readBoolean() {
+        return source.get(pos++) != 0;
+    }
+
+    @Override
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    @Override
+    public int readShort() {
+        short result = source.getShort(pos);
+        pos += 2;
+        return result;
+    }
+
+    @Override
+    public float readFloat() {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public int readVInt() {
+        byte b = readByte();
+        int i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = readByte();
+            i |= (b & 0x7F) << shift;
+        }
+        return i;
+    }
+
+    @Override
+    public long readVLong() {
+        byte b = readByte();
+        long i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = readByte();
+            i |= (b & 0x7FL) << shift;
+        }
+        return i;
+    }
+
+    @Override
+    public int getPosition() {
+        return pos;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        this.pos = position;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public void setSize(int size) {
+        if (size < 0 || startPosition + size > source.capacity()) {
+            throw new IllegalArgumentException("Invalid size: " + size + " (maximum: "
+                    + (source.capacity() - startPosition) + ")");
+        }
+        this.size = size;
+    }
+
+    @Override
+    public int indexOf(byte value) {
+        int end = startPosition + size;
+        for (int i = pos; i < end; i++) {
+            if (source.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.impl;
+
+import java.nio.ByteBuffer;
+
+import org.lilyproject.bytes.api.DataOutput;
+
+/**
+ * Implementation of {@link DataOutput} which writes to a {@link ByteBuffer}, either on the heap or direct.
+ *
+ * <p>The encodings are the same as those of {@link DataOutputImpl}, so the written bytes can be read by both
+ * {@link DataInputImpl} and {@link ByteBufferDataInput}.</p>
+ *
+ * <p>When the buffer is full, it is replaced by a buffer of the same kind which is at least twice as large.</p>
+ */
+public class ByteBufferDataOutput implements DataOutput {
+    private ByteBuffer buffer;
+    private final boolean direct;
+
+    /**
+     * Creates a <code>ByteBufferDataOutput</code> on a heap buffer.
+     *
+     * @param sizeEstimate estimated number of bytes that will be written
+     */
+    public ByteBufferDataOutput(int sizeEstimate) {
+        this(sizeEstimate, false);
+    }
+
+    /**
+     * @param sizeEstimate estimated number of bytes that will be written
+     * @param direct true to write to a direct buffer, outside of the heap
+     */
+    public ByteBufferDataOutput(int sizeEstimate, boolean direct) {
+        this.direct = direct;
+        this.buffer = allocate(Math.max(sizeEstimate, 16));
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Checks if the buffer has enough space to put <code>len</code> bytes.
+     * If not the buffer is replaced by one of at least twice its current size.
+     */
+    private void assureSize(int len) {
+        if (buffer.remaining() < len) {
+            ByteBuffer newBuffer = allocate(Math.max(buffer.capacity() << 1, buffer.position() + len));
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        byte[] result = new byte[buffer.position()];
+        ByteBuffer written = toByteBuffer();
+        written.get(result);
+        return result;
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer written = buffer.duplicate();
+        written.flip();
+        return written.slice();
+    }
+
+    /**
+     * Discards the written bytes, so that the <code>ByteBufferDataOutput</code> can be reused. The underlying
+     * buffer is kept.
+     */
+    public void reset() {
+        buffer.clear();
+    }
+
+    @Override
+    public void writeByte(byte b) {
+        assureSize(1);
+        buffer.put(b);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes) {
+        assureSize(bytes.length);
+        buffer.put(bytes);
+    }
+
+    @Override
+    public void writeUTF(String string) {
+        writeUTF(string, true, false);
+    }
+
+    @Override
+    public void writeVUTF(String string) {
+        writeUTF(string, true, true);
+    }
+
+    @Override
+    public void writeUTF(String string, boolean includeLength) {
+        writeUTF(string, includeLength, false);
+    }
+
+    /**
+     * Encodes a string to (unmodified) UTF-8 bytes, in the same way as {@link DataOutputImpl}.
+     */
+    private void writeUTF(String string, boolean includeLength, boolean useVInt) {
+        if (string == null) {
+            writeInt(-1);
+            return;
+        }
+
+        int strlen = string.length();
+        // A char takes at most 3 bytes, a surrogate pair (2 chars) takes 4 bytes
+        assureSize(5 + strlen * 3);
+        int lengthPos = buffer.position();
+        if (includeLength) {
+            // Reserve the space for the length, which is only known once the string is encoded
+            buffer.position(lengthPos + (useVInt ? 5 : 4));
+        }
+        int start = buffer.position();
+
+        int i = 0;
+        while (i < strlen) {
+            int ch = string.charAt(i++);
+            if (ch < 0x80) {
+                buffer.put((byte)ch);
+            } else if (ch < 0x800) {
+                buffer.put((byte)(0xC0 | (ch >> 6)));
+                buffer.put((byte)(0x80 | (ch & 0x3F)));
+            } else if (ch < 0xD800 || ch > 0xDFFF) {
+                buffer.put((byte)(0xE0 | (ch >> 12)));
+                buffer.put((byte)(0x80 | ((ch >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (ch & 0x3F)));
+            } else {
+                // surrogate pair
+                // confirm valid high surrogate
+                if (ch < 0xDC00 && i < strlen) {
+                    int utf32 = string.charAt(i);
+                    // confirm valid low surrogate and write pair
+                    if (utf32 >= 0xDC00 && utf32 <= 0xDFFF) {
+                        utf32 = Character.toCodePoint((char)ch, (char)utf32);
+                        i++;
+                        buffer.put((byte)(0xF0 | (utf32 >> 18)));
+                        buffer.put((byte)(0x80 | ((utf32 >> 12) & 0x3F)));
+                        buffer.put((byte)(0x80 | ((utf32 >> 6) & 0x3F)));
+                        buffer.put((byte)(0x80 | (utf32 & 0x3F)));
+                        continue;
+                    }
+                }
+                // replace unpaired surrogate or out-of-order low surrogate
+                // with substitution character
+                buffer.put((byte)0xEF);
+                buffer.put((byte)0xBF);
+                buffer.put((byte)0xBD);
+            }
+        }
+
+        if (includeLength) {
+            int end = buffer.position();
+            int utflen = end - start;
+            buffer.position(lengthPos);
+            if (useVInt) {
+                writeVInt(utflen);
+            } else {
+                buffer.putInt(utflen);
+            }
+            if (buffer.position() != start) {
+                // The vint took less space than reserved, move the string bytes
+                ByteBuffer encoded = buffer.duplicate();
+                encoded.position(start);
+                encoded.limit(end);
+                buffer.put(encoded);
+            } else {
+                buffer.position(end);
+            }
+        }
+    }
+
+    @Override
+    public void writeInt(int value) {
+        assureSize(4);
+        buffer.putInt(value);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        assureSize(8);
+        buffer.putLong(value);
+    }
+
+    @Override
+    public void writeBoolean(boolean value) {
+        writeByte(value ? (byte)1 : (byte)0);
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        writeLong(Double.doubleToLongBits(value));
+    }
+
+    @Override
+    public void writeShort(int value) {
+        assureSize(2);
+        buffer.putShort((short)value);
+    }
+
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeVInt(int i) {
+        assureSize(5);
+        while ((i & ~0x7F) != 0) {
+            buffer.put((byte)((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        buffer.put((byte)i);
+    }
+
+    @Override
+    public void writeVLong(long i) {
+        assureSize(10);
+        while ((i & ~0x7F) != 0) {
+            buffer.put((byte)((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        buffer.put((byte)i);
+    }
+
+    @Override
+    public int getSize() {
+        return buffer.position();
+    }
+}
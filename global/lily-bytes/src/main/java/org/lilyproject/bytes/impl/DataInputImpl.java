@@ -131,63 +131,72 @@ public class DataInputImpl implements DataInput {
         if (utflen == 0) {
             return new String();
         }
-        int count = pos;
-        int endPos = pos + utflen;
+        // Work on local copies of the fields, which the JIT can keep in registers
+        final byte[] src = source;
+        final int startPos = pos;
+        final int endPos = startPos + utflen;
+        pos = endPos;
+
+        // Most strings are ASCII: find the leading run of bytes which each encode one character
+        int count = startPos;
+        while (count < endPos && src[count] >= 0) {
+            count++;
+        }
+        if (count == endPos) {
+            return asciiString(src, startPos, utflen);
+        }
+
         // Resize the chararr if it is not large enough.
         if (chararr.length < utflen) {
             chararr = new char[utflen * 2];
         }
+        final char[] chars = chararr;
 
         int chararr_count = 0; // Position within the char array
+        for (int i = startPos; i < count; i++) {
+            chars[chararr_count++] = (char)src[i];
+        }
+
         int b; // byte read
         int ch; // character read
 
-        // Start with a loop expecting each character to be encoded by one byte
-        // This will be most likely the case for most strings.
-        while (count < endPos) {
-            b = source[count] & 0xff;
-            if (!(b < 0xc0)) {
-                break; // Once a character is encountered which is encoded with multiple bytes, jump to the next loop
-            }
-            count++;
-            assert b < 0x80;
-            ch = b;
-            chararr_count = putChar(chararr_count, ch);
-        }
-
         // Decode characters which can be encoded by multiple bytes
         while (count < endPos) {
-            b = source[count++] & 0xff;
+            b = src[count++] & 0xff;
             if (b < 0xc0) {
                 assert b < 0x80;
-                ch = b;
+                chars[chararr_count++] = (char)b;
+                continue;
             } else if (b < 0xe0) {
-                ch = ((b & 0x1f) << 6) + (source[count++] & 0x3f);
+                ch = ((b & 0x1f) << 6) + (src[count++] & 0x3f);
             } else if (b < 0xf0) {
-                ch = ((b & 0xf) << 12) + ((source[count++] & 0x3f) << 6) + (source[count++] & 0x3f);
+                ch = ((b & 0xf) << 12) + ((src[count++] & 0x3f) << 6) + (src[count++] & 0x3f);
             } else {
                 assert b < 0xf8;
-                ch = ((b & 0x7) << 18) + ((source[count++] & 0x3f) << 12) + ((source[count++] & 0x3f) << 6) +
-                        (source[count++] & 0x3f);
+                ch = ((b & 0x7) << 18) + ((src[count++] & 0x3f) << 12) + ((src[count++] & 0x3f) << 6) +
+                        (src[count++] & 0x3f);
             }
 
-            chararr_count = putChar(chararr_count, ch);
+            if (ch <= UNI_MAX_BMP) {
+                // target is a character <= 0xFFFF
+                chars[chararr_count++] = (char)ch;
+            } else {
+                // target is a character in range 0xFFFF - 0x10FFFF
+                chars[chararr_count++] = (char)((ch >> HALF_SHIFT) + 0xD7C0 /* UNI_SUR_HIGH_START - 64 */);
+                chars[chararr_count++] = (char)((ch & HALF_MASK) + UNI_SUR_LOW_START);
+            }
         }
-        pos += utflen;
         // The number of chars produced may be less than utflen
-        return new String(chararr, 0, chararr_count);
+        return new String(chars, 0, chararr_count);
     }
 
-    private int putChar(int chararr_count, int ch) {
-        if (ch <= UNI_MAX_BMP) {
-            // target is a character <= 0xFFFF
-            chararr[chararr_count++] = (char) ch;
-        } else {
-            // target is a character in range 0xFFFF - 0x10FFFF
-            chararr[chararr_count++] = (char) ((ch >> HALF_SHIFT) + 0xD7C0 /* UNI_SUR_HIGH_START - 64 */);
-            chararr[chararr_count++] = (char) ((ch & HALF_MASK) + UNI_SUR_LOW_START);
-        }
-        return chararr_count;
+    /**
+     * Creates a string from bytes which are all ASCII, without decoding them one by one.
+     */
+    @SuppressWarnings("deprecation")
+    private static String asciiString(byte[] bytes, int offset, int length) {
+        // With a zero high byte, this constructor turns each byte into the char with the same value
+        return new String(bytes, 0, offset, length);
     }
 
     @Override
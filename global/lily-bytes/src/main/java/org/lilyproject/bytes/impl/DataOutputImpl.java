@@ -15,6 +15,7 @@
  */
 package org.lilyproject.bytes.impl;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.lilyproject.bytes.api.DataOutput;
@@ -75,6 +76,26 @@ public class DataOutputImpl implements DataOutput {
         return Arrays.copyOfRange(buffer, 0, pos);
     }
 
+    @Override
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, pos).slice();
+    }
+
+    /**
+     * Discards the written bytes, so that the <code>DataOutputImpl</code> can be reused. The underlying byte[]
+     * is kept.
+     */
+    public void reset() {
+        pos = 0;
+    }
+
+    /**
+     * Returns the size of the underlying byte[]
+     */
+    int getCapacity() {
+        return buffer.length;
+    }
+
     /**
      * Checks if the buffer has enough space to put <code>len</code> bytes.
      * If not the buffer is resized to at least twice its current size.
@@ -133,11 +154,54 @@ public class DataOutputImpl implements DataOutput {
         }
 
         int strlen = string.length();
-        int utflen = 0;
 
-        // First calculate the utflen
-        int i = 0;
-        while(i < strlen) {
+        // Most strings are ASCII: find the leading run of characters which are encoded as one byte
+        int asciiLength = 0;
+        while (asciiLength < strlen && string.charAt(asciiLength) < 0x80) {
+            asciiLength++;
+        }
+
+        int utflen = asciiLength;
+        if (asciiLength < strlen) {
+            utflen += utf8Length(string, asciiLength, strlen);
+        }
+
+        assureSize(5 + utflen); // Make sure the buffer has enough space to put the bytes for the length and the string
+
+        if (includeLength) {
+            // Write the length in the buffer
+            if (useVInt) {
+                writeVIntUnsafe(utflen);
+            } else {
+                writeIntUnsafe(utflen);
+            }
+        }
+
+        if (asciiLength > 0) {
+            writeAsciiUnsafe(string, asciiLength);
+        }
+        if (asciiLength < strlen) {
+            writeUTF8Unsafe(string, asciiLength, strlen);
+        }
+    }
+
+    /**
+     * Copies the first <code>length</code> characters of the string, which should all be ASCII, in one go.
+     */
+    @SuppressWarnings("deprecation")
+    private void writeAsciiUnsafe(String string, int length) {
+        // This copies the low byte of each char, which for an ASCII char is its UTF-8 encoding
+        string.getBytes(0, length, buffer, pos);
+        pos += length;
+    }
+
+    /**
+     * Calculates the number of bytes needed to encode the characters from start to end of the string.
+     */
+    private static int utf8Length(String string, int start, int end) {
+        int utflen = 0;
+        int i = start;
+        while (i < end) {
             final int code = string.charAt(i++);
             if (code < 0x80) {
                 utflen++;
@@ -148,7 +212,7 @@ public class DataOutputImpl implements DataOutput {
             } else {
                 // surrogate pair
                 // confirm valid high surrogate
-                if (code < 0xDC00 && i < strlen) {
+                if (code < 0xDC00 && i < end) {
                     int utf32 = string.charAt(i);
                     // confirm valid low surrogate and write pair
                     if (utf32 >= 0xDC00 && utf32 <= 0xDFFF) {
@@ -160,65 +224,53 @@ public class DataOutputImpl implements DataOutput {
                 utflen += 3;
             }
         }
+        return utflen;
+    }
 
-
-        assureSize(4 + utflen); // Make sure the buffer has enough space to put the bytes for the length and the string
-
-        if (includeLength) {
-            // Write the length in the buffer
-            if (useVInt) {
-                writeVIntUnsafe(utflen);
-            } else {
-                writeIntUnsafe(utflen);
-            }
-        }
-
-        int ch = 0; // Character from the string
-
-        // Optimized for loop as long as the characters can be encoded as one byte
-        for (i = 0; i < strlen; i++) {
-            ch = string.charAt(i);
-            if (!(ch < 0x80)) {
-                break; // Once we encounter a character that should be encoded with >1 byte we jump out of this optimized loop
-            }
-            buffer[pos++] = (byte) ch;
-        }
-
-        while(i < strlen) {
-            ch = (int) string.charAt(i++);
-
-            if (ch< 0x80) {
-                buffer[pos++] = (byte)ch;
+    /**
+     * Encodes the characters from start to end of the string, without checking if there is enough space for them.
+     */
+    private void writeUTF8Unsafe(String string, int start, int end) {
+        // Work on local copies of the fields, which the JIT can keep in registers
+        final byte[] buf = buffer;
+        int p = pos;
+        int i = start;
+        while (i < end) {
+            int ch = string.charAt(i++);
+
+            if (ch < 0x80) {
+                buf[p++] = (byte)ch;
             } else if (ch < 0x800) {
-                buffer[pos++] = (byte) (0xC0 | (ch >> 6));
-                buffer[pos++] = (byte)(0x80 | (ch & 0x3F));
+                buf[p++] = (byte)(0xC0 | (ch >> 6));
+                buf[p++] = (byte)(0x80 | (ch & 0x3F));
             } else if (ch < 0xD800 || ch > 0xDFFF) {
-                buffer[pos++] = (byte)(0xE0 | (ch >> 12));
-                buffer[pos++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
-                buffer[pos++] = (byte)(0x80 | (ch & 0x3F));
+                buf[p++] = (byte)(0xE0 | (ch >> 12));
+                buf[p++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
+                buf[p++] = (byte)(0x80 | (ch & 0x3F));
             } else {
                 // surrogate pair
                 // confirm valid high surrogate
-                if (ch < 0xDC00 && i < strlen) {
+                if (ch < 0xDC00 && i < end) {
                     int utf32 = string.charAt(i);
                     // confirm valid low surrogate and write pair
                     if (utf32 >= 0xDC00 && utf32 <= 0xDFFF) {
                         utf32 = (ch << 10) + utf32 + SURROGATE_OFFSET;
                         i++;
-                        buffer[pos++] = (byte)(0xF0 | (utf32 >> 18));
-                        buffer[pos++] = (byte)(0x80 | ((utf32 >> 12) & 0x3F));
-                        buffer[pos++] = (byte)(0x80 | ((utf32 >> 6) & 0x3F));
-                        buffer[pos++] = (byte)(0x80 | (utf32 & 0x3F));
+                        buf[p++] = (byte)(0xF0 | (utf32 >> 18));
+                        buf[p++] = (byte)(0x80 | ((utf32 >> 12) & 0x3F));
+                        buf[p++] = (byte)(0x80 | ((utf32 >> 6) & 0x3F));
+                        buf[p++] = (byte)(0x80 | (utf32 & 0x3F));
                         continue;
                     }
                 }
                 // replace unpaired surrogate or out-of-order low surrogate
                 // with substitution character
-                buffer[pos++] = (byte) 0xEF;
-                buffer[pos++] = (byte) 0xBF;
-                buffer[pos++] = (byte) 0xBD;
+                buf[p++] = (byte)0xEF;
+                buf[p++] = (byte)0xBF;
+                buf[p++] = (byte)0xBD;
             }
         }
+        pos = p;
     }
 
     @Override
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.impl;
+
+/**
+ * Per-thread pool of {@link DataOutputImpl}s, for code which encodes many small values, so that their
+ * underlying byte[]s don't need to be allocated and grown for each value.
+ *
+ * <p>Each {@link #acquire()} should be followed by a {@link #release(DataOutputImpl)} in a finally block, after
+ * which the DataOutput and the buffers obtained from {@link DataOutputImpl#toByteBuffer()} should not be used
+ * anymore. Acquiring again before releasing is allowed, e.g. when encoding nested values.</p>
+ */
+public final class DataOutputPool {
+    /**
+     * Number of DataOutputs kept per thread.
+     */
+    private static final int POOL_SIZE = 4;
+
+    /**
+     * DataOutputs which grew larger than this are not kept, to avoid holding on to large buffers.
+     */
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final ThreadLocal<Pool> POOLS = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+
+    private DataOutputPool() {
+    }
+
+    /**
+     * Returns an empty DataOutput.
+     */
+    public static DataOutputImpl acquire() {
+        Pool pool = POOLS.get();
+        if (pool.count == 0) {
+            return new DataOutputImpl(INITIAL_CAPACITY);
+        }
+        DataOutputImpl output = pool.outputs[--pool.count];
+        pool.outputs[pool.count] = null;
+        return output;
+    }
+
+    /**
+     * Gives back a DataOutput obtained from {@link #acquire()}.
+     */
+    public static void release(DataOutputImpl output) {
+        if (output.getCapacity() > MAX_POOLED_CAPACITY) {
+            return;
+        }
+        Pool pool = POOLS.get();
+        if (pool.count < POOL_SIZE) {
+            output.reset();
+            pool.outputs[pool.count++] = output;
+        }
+    }
+
+    private static final class Pool {
+        private final DataOutputImpl[] outputs = new DataOutputImpl[POOL_SIZE];
+        private int count;
+    }
+}
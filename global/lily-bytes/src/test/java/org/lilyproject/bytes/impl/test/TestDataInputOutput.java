@@ -15,14 +15,19 @@
  */
 package org.lilyproject.bytes.impl.test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 import junit.framework.TestCase;
 import org.junit.Assert;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.ByteBufferDataInput;
+import org.lilyproject.bytes.impl.ByteBufferDataOutput;
 import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 
 /**
  * Test the encodings used in DataInputImpl and DataOutputImpl
@@ -190,4 +195,114 @@ public class TestDataInputOutput extends TestCase {
         Assert.assertEquals(Math.abs(i), dataInput.readVInt());
         Assert.assertEquals(Math.abs(l), dataInput.readVLong());
     }
+
+    public void testAsciiAndMixedStrings() throws Exception {
+        String[] strings = {"a", "recordtype", "org.lilyproject.test", "ascii prefix é", "ü", "naïve café",
+                "ТЕСТ with ascii", "\u4e2d\u6587 and ascii", "x\ud83d\ude00y"};
+        for (String string : strings) {
+            DataOutput dataOutput = new DataOutputImpl();
+            dataOutput.writeByte((byte)7);
+            dataOutput.writeUTF(string, false);
+            byte[] data = dataOutput.toByteArray();
+            byte[] expected = string.getBytes("UTF-8");
+            Assert.assertArrayEquals(expected, Arrays.copyOfRange(data, 1, data.length));
+
+            // Read at an offset in the source
+            DataInput dataInput = new DataInputImpl(data, 1, data.length - 1);
+            Assert.assertEquals(string, dataInput.readUTF(expected.length));
+            Assert.assertEquals(data.length, dataInput.getPosition());
+        }
+    }
+
+    public void testByteBufferRandomString() {
+        for (boolean direct : new boolean[] {false, true}) {
+            for (int i = 0; i < 1000; i++) {
+                String string = randomUnicodeString(200);
+                DataOutput dataOutput = new ByteBufferDataOutput(16, direct);
+                dataOutput.writeUTF(string);
+                dataOutput.writeVUTF(string);
+                dataOutput.writeUTF(null);
+
+                // Same encoding as DataOutputImpl
+                DataOutput expected = new DataOutputImpl();
+                expected.writeUTF(string);
+                expected.writeVUTF(string);
+                expected.writeUTF(null);
+                Assert.assertArrayEquals(expected.toByteArray(), dataOutput.toByteArray());
+
+                DataInput dataInput = new ByteBufferDataInput(dataOutput.toByteBuffer());
+                Assert.assertEquals(string, dataInput.readUTF());
+                Assert.assertEquals(string, dataInput.readVUTF());
+                Assert.assertNull(dataInput.readUTF());
+            }
+        }
+    }
+
+    public void testByteBufferAllTypes() {
+        for (boolean direct : new boolean[] {false, true}) {
+            DataOutput dataOutput = new ByteBufferDataOutput(4, direct);
+            byte[] bytes = new byte[10];
+            random.nextBytes(bytes);
+            long l = random.nextLong();
+            dataOutput.writeBoolean(true);
+            dataOutput.writeBytes(bytes);
+            dataOutput.writeDouble(1.5d);
+            dataOutput.writeFloat(2.5f);
+            dataOutput.writeInt(-3);
+            dataOutput.writeLong(l);
+            dataOutput.writeShort(-4);
+            dataOutput.writeVInt(300);
+            dataOutput.writeVLong(Math.abs(l));
+
+            for (DataInput dataInput : new DataInput[] {new ByteBufferDataInput(dataOutput.toByteBuffer()),
+                    new DataInputImpl(dataOutput.toByteArray())}) {
+                Assert.assertTrue(dataInput.readBoolean());
+                Assert.assertArrayEquals(bytes, dataInput.readBytes(10));
+                Assert.assertEquals(1.5d, dataInput.readDouble(), 0);
+                Assert.assertEquals(2.5f, dataInput.readFloat(), 0);
+                Assert.assertEquals(-3, dataInput.readInt());
+                Assert.assertEquals(l, dataInput.readLong());
+                Assert.assertEquals(-4, dataInput.readShort());
+                Assert.assertEquals(300, dataInput.readVInt());
+                Assert.assertEquals(Math.abs(l), dataInput.readVLong());
+            }
+        }
+    }
+
+    public void testToByteBuffer() {
+        DataOutputImpl dataOutput = new DataOutputImpl();
+        dataOutput.writeInt(5);
+        dataOutput.writeUTF("abc");
+        ByteBuffer buffer = dataOutput.toByteBuffer();
+        Assert.assertEquals(dataOutput.getSize(), buffer.remaining());
+
+        DataInput dataInput = ByteBufferDataInput.create(buffer);
+        Assert.assertEquals(5, dataInput.readInt());
+        Assert.assertEquals("abc", dataInput.readUTF());
+
+        // A slice of a larger buffer
+        ByteBuffer slice = ByteBuffer.allocateDirect(20);
+        slice.position(3);
+        slice.put(buffer.duplicate());
+        slice.flip();
+        slice.position(3);
+        dataInput = ByteBufferDataInput.create(slice);
+        Assert.assertEquals(5, dataInput.readInt());
+        Assert.assertEquals("abc", dataInput.readUTF());
+        Assert.assertEquals(3, slice.position());
+    }
+
+    public void testDataOutputPool() {
+        DataOutputImpl dataOutput = DataOutputPool.acquire();
+        dataOutput.writeUTF("abc");
+        DataOutputImpl nested = DataOutputPool.acquire();
+        Assert.assertNotSame(dataOutput, nested);
+        DataOutputPool.release(nested);
+        DataOutputPool.release(dataOutput);
+
+        DataOutputImpl reused = DataOutputPool.acquire();
+        Assert.assertSame(dataOutput, reused);
+        Assert.assertEquals(0, reused.getSize());
+        DataOutputPool.release(reused);
+    }
 }
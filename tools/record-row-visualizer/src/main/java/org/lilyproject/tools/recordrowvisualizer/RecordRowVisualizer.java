@@ -46,6 +46,7 @@ import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.EncodingUtil;
 import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.repository.impl.FieldValueCompression;
 import org.lilyproject.repository.impl.HBaseTypeManager;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
@@ -209,6 +210,9 @@ public class RecordRowVisualizer extends BaseZkCliTool {
                     Object decodedValue;
                     if (FieldFlags.isDeletedField(value[0])) {
                         decodedValue = Fields.DELETED;
+                    } else if (FieldFlags.isCompressed(value[0])) {
+                        decodedValue = fieldType.getValueType().read(new DataInputImpl(
+                                FieldValueCompression.decompress(value, 1, value.length - 1)));
                     } else {
                         decodedValue = fieldType.getValueType().read(new DataInputImpl(EncodingUtil.stripPrefix(value)));
                     }
@@ -231,6 +235,8 @@ public class RecordRowVisualizer extends BaseZkCliTool {
                 setSystemField("Versioned-mutable Record Type Version", column.getValue(), LONG_DECODER);
             } else if (Arrays.equals(columnKey, RecordColumn.VERSION.bytes)) {
                 setSystemField("Record Version", column.getValue(), LONG_DECODER);
+            } else if (Arrays.equals(columnKey, RecordColumn.OLDEST_VERSION.bytes)) {
+                setSystemField("Oldest Record Version", column.getValue(), LONG_DECODER);
             } else {
                 recordRow.unknownColumns.add(Bytes.toString(columnKey));
             }